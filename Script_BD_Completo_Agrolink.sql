@@ -293,7 +293,7 @@ CREATE TABLE tb_vehiculos (
 
 -- =====================================================
 -- TABLA: tb_envios
--- Relación: 1:1 con Compra, N:1 con Vehiculo, N:1 con Transportista
+-- Relación: N:1 con Compra (una compra puede repartirse en varios envíos), N:1 con Vehiculo, N:1 con Transportista
 -- =====================================================
 CREATE TABLE tb_envios (
     id_envio INT AUTO_INCREMENT PRIMARY KEY,
@@ -317,6 +317,10 @@ CREATE TABLE tb_envios (
     costo_total DECIMAL(10,2) DEFAULT 0.00,
     tarifa_por_km DECIMAL(10,2) DEFAULT 2500.00,
     tarifa_por_kg DECIMAL(10,2) DEFAULT 50.00,
+    estado_calculo VARCHAR(20) DEFAULT 'COMPLETO',
+    intentos_calculo INT DEFAULT 0,
+    proximo_intento_calculo DATETIME DEFAULT NULL,
+    error_calculo VARCHAR(255) DEFAULT NULL,
     CONSTRAINT fk_envios_compra
         FOREIGN KEY (id_compra) REFERENCES tb_compras(id_compra)
         ON DELETE SET NULL ON UPDATE CASCADE,
@@ -330,7 +334,8 @@ CREATE TABLE tb_envios (
     INDEX idx_envio_vehiculo (id_vehiculo),
     INDEX idx_envio_transportista (id_transportista),
     INDEX idx_envio_estado (estado_envio),
-    INDEX idx_envio_seguimiento (numero_seguimiento)
+    INDEX idx_envio_seguimiento (numero_seguimiento),
+    INDEX idx_envio_calculo (estado_calculo, proximo_intento_calculo)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 -- =====================================================
@@ -737,6 +742,152 @@ END$$
 
 DELIMITER ;
 
+-- =====================================================
+-- TABLA: tb_cache_geocodificacion
+-- Caché persistente de geocodificación (Google Geocoding API)
+-- =====================================================
+CREATE TABLE tb_cache_geocodificacion (
+    direccion_normalizada VARCHAR(255) PRIMARY KEY,
+    latitud DOUBLE NOT NULL,
+    longitud DOUBLE NOT NULL,
+    fecha_actualizacion DATETIME NOT NULL,
+    INDEX idx_cache_geo_fecha (fecha_actualizacion)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- =====================================================
+-- TABLA: tb_posiciones_envio
+-- Histórico de posiciones GPS de los envíos en ruta (solo inserciones, en lotes)
+-- Particionada por mes: las particiones futuras las crea RastreoEnviosService y las antiguas
+-- se pueden descartar con ALTER TABLE ... DROP PARTITION. Sin claves foráneas porque MySQL
+-- no las admite en tablas particionadas.
+-- =====================================================
+CREATE TABLE tb_posiciones_envio (
+    id_posicion BIGINT AUTO_INCREMENT,
+    id_envio INT NOT NULL,
+    id_transportista INT NOT NULL,
+    latitud DOUBLE NOT NULL,
+    longitud DOUBLE NOT NULL,
+    velocidad_kmh DOUBLE DEFAULT NULL,
+    registrada_en DATETIME(3) NOT NULL,
+    PRIMARY KEY (id_posicion, registrada_en),
+    INDEX idx_posicion_envio (id_envio, registrada_en)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+PARTITION BY RANGE COLUMNS (registrada_en) (
+    PARTITION p202610 VALUES LESS THAN ('2026-11-01'),
+    PARTITION p202611 VALUES LESS THAN ('2026-12-01'),
+    PARTITION p202612 VALUES LESS THAN ('2027-01-01'),
+    PARTITION pmax VALUES LESS THAN (MAXVALUE)
+);
+
+-- =====================================================
+-- TABLAS: tb_ventas_productor_dia / tb_ventas_productor_mes
+-- Acumulados de ventas por productor (suma de los subtotales de sus productos), por día y por mes.
+-- Los mantiene VentasResumenService en la misma transacción que crea o cancela la compra;
+-- si están vacías al arrancar se reconstruyen desde tb_detalles_compra.
+-- =====================================================
+CREATE TABLE tb_ventas_productor_dia (
+    id_productor INT NOT NULL,
+    fecha DATE NOT NULL,
+    total_ventas DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+    unidades INT NOT NULL DEFAULT 0,
+    lineas INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (id_productor, fecha),
+    CONSTRAINT fk_ventas_dia_productor
+        FOREIGN KEY (id_productor) REFERENCES tb_productores(id_usuario)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    INDEX idx_ventas_dia_fecha (fecha)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE TABLE tb_ventas_productor_mes (
+    id_productor INT NOT NULL,
+    mes DATE NOT NULL,
+    total_ventas DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+    unidades INT NOT NULL DEFAULT 0,
+    lineas INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (id_productor, mes),
+    CONSTRAINT fk_ventas_mes_productor
+        FOREIGN KEY (id_productor) REFERENCES tb_productores(id_usuario)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    INDEX idx_ventas_mes_mes (mes)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- =====================================================
+-- TABLAS: tb_resenas_producto / tb_resenas_productor
+-- Reseñas de clientes (puntaje de 1 a 5 y comentario opcional); un cliente tiene como mucho
+-- una reseña por producto y una por productor, y puede cambiarla.
+-- =====================================================
+CREATE TABLE tb_resenas_producto (
+    id_resena INT AUTO_INCREMENT PRIMARY KEY,
+    id_producto INT NOT NULL,
+    id_cliente INT NOT NULL,
+    puntaje TINYINT NOT NULL,
+    comentario VARCHAR(500) DEFAULT NULL,
+    fecha_resena DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_resenas_producto_producto
+        FOREIGN KEY (id_producto) REFERENCES tb_productos(id_producto)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT fk_resenas_producto_cliente
+        FOREIGN KEY (id_cliente) REFERENCES tb_clientes(id_usuario)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT chk_resena_producto_puntaje CHECK (puntaje BETWEEN 1 AND 5),
+    UNIQUE KEY uq_resena_producto_cliente (id_producto, id_cliente),
+    INDEX idx_resena_producto_fecha (id_producto, fecha_resena),
+    INDEX idx_resena_producto_cliente (id_cliente)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE TABLE tb_resenas_productor (
+    id_resena INT AUTO_INCREMENT PRIMARY KEY,
+    id_productor INT NOT NULL,
+    id_cliente INT NOT NULL,
+    puntaje TINYINT NOT NULL,
+    comentario VARCHAR(500) DEFAULT NULL,
+    fecha_resena DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_resenas_productor_productor
+        FOREIGN KEY (id_productor) REFERENCES tb_productores(id_usuario)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT fk_resenas_productor_cliente
+        FOREIGN KEY (id_cliente) REFERENCES tb_clientes(id_usuario)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT chk_resena_productor_puntaje CHECK (puntaje BETWEEN 1 AND 5),
+    UNIQUE KEY uq_resena_productor_cliente (id_productor, id_cliente),
+    INDEX idx_resena_productor_fecha (id_productor, fecha_resena),
+    INDEX idx_resena_productor_cliente (id_cliente)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- =====================================================
+-- TABLAS: tb_calificaciones_producto / tb_calificaciones_productor
+-- Acumulados de las reseñas: cantidad, suma de puntajes, promedio simple y promedio bayesiano
+-- (puntaje = (peso * media + suma) / (peso + cantidad)). Los mantiene ResenaService en la misma
+-- transacción que guarda la reseña, sumando la diferencia; los filtros por calificación mínima y
+-- el orden por calificación usan idx_*_puntaje en lugar de promediar las reseñas.
+-- El acumulado del productor incluye las reseñas de sus productos.
+-- =====================================================
+CREATE TABLE tb_calificaciones_producto (
+    id_producto INT PRIMARY KEY,
+    cantidad INT NOT NULL DEFAULT 0,
+    suma INT NOT NULL DEFAULT 0,
+    promedio DECIMAL(4,2) DEFAULT NULL,
+    puntaje DECIMAL(6,4) NOT NULL,
+    fecha_actualizacion DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    CONSTRAINT fk_calificaciones_producto
+        FOREIGN KEY (id_producto) REFERENCES tb_productos(id_producto)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    INDEX idx_calificaciones_producto_puntaje (puntaje, id_producto)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE TABLE tb_calificaciones_productor (
+    id_productor INT PRIMARY KEY,
+    cantidad INT NOT NULL DEFAULT 0,
+    suma INT NOT NULL DEFAULT 0,
+    promedio DECIMAL(4,2) DEFAULT NULL,
+    puntaje DECIMAL(6,4) NOT NULL,
+    fecha_actualizacion DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    CONSTRAINT fk_calificaciones_productor
+        FOREIGN KEY (id_productor) REFERENCES tb_productores(id_usuario)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    INDEX idx_calificaciones_productor_puntaje (puntaje, id_productor)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
 -- =====================================================
 -- ÍNDICES ADICIONALES PARA OPTIMIZACIÓN
 -- =====================================================
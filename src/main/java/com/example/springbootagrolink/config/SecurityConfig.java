@@ -13,6 +13,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
 
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -72,8 +73,10 @@ public class SecurityConfig {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
             .authorizeHttpRequests(authorize -> authorize
+                // Despachos asíncronos (cierre de las conexiones SSE): la petición original ya se autorizó
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // Recursos públicos
-                .requestMatchers("/css/**", "/CSS/**", "/static/**", "/js/**", "/images/**", "/imag/**", "/login", "/register", "/", "/buscar", "/access-denied").permitAll()
+                .requestMatchers("/css/**", "/CSS/**", "/static/**", "/js/**", "/images/**", "/imag/**", "/login", "/register", "/", "/buscar", "/access-denied", "/api/ranking/**").permitAll()
                 // Rutas por rol
                 .requestMatchers("/admin/**").hasRole("ADMIN")
                 .requestMatchers("/transportista/**").hasRole("TRANSPORTISTA")
@@ -109,7 +112,7 @@ public class SecurityConfig {
                 .permitAll()
             )
             .csrf(csrf -> csrf
-                .ignoringRequestMatchers("/logout", "/transportista/envios/aceptar/**")
+                .ignoringRequestMatchers("/logout", "/transportista/envios/aceptar/**", "/api/distancias/lote")
             );
 
         return http.build();
@@ -2,16 +2,33 @@ package com.example.springbootagrolink.controllers;
 
 import com.example.springbootagrolink.model.*;
 import com.example.springbootagrolink.repository.*;
+import com.example.springbootagrolink.services.CostoEnvioService;
+import com.example.springbootagrolink.services.DatosReferenciaService;
+import com.example.springbootagrolink.services.ExportacionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponents;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/admin")
@@ -19,6 +36,24 @@ public class AdminController {
 
     private static final Logger log = LoggerFactory.getLogger(AdminController.class);
 
+    private static final int TAMANIO_PAGINA_MAX = 100;
+
+    // Columnas por las que se puede ordenar cada listado (parámetro orden -> propiedad)
+    private static final Map<String, String> ORDEN_USUARIOS = Map.of(
+            "nombre", "usuario.nombre",
+            "correo", "usuario.correo",
+            "ciudad", "usuario.ciudad",
+            "id", "usuario.idUsuario");
+    private static final Map<String, String> ORDEN_PEDIDOS = Map.of(
+            "fecha", "fechaHoraCompra",
+            "total", "total",
+            "id", "idCompra");
+    private static final Map<String, String> ORDEN_ENVIOS = Map.of(
+            "id", "idEnvio",
+            "estado", "estadoEnvio",
+            "distancia", "distanciaKm",
+            "costo", "costoTotal");
+
     private final ProductoRepository productoRepository;
     private final CompraRepository compraRepository;
     private final TransportistaRepository transportistaRepository;
@@ -30,6 +65,9 @@ public class AdminController {
     private final EnvioRepository envioRepository;
     private final DetalleCompraRepository detalleCompraRepository;
     private final ServicioRepository servicioRepository;
+    private final CostoEnvioService costoEnvioService;
+    private final ExportacionService exportacionService;
+    private final DatosReferenciaService datosReferenciaService;
 
     public AdminController(ProductoRepository productoRepository,
                            CompraRepository compraRepository,
@@ -41,7 +79,10 @@ public class AdminController {
                            FincaRepository fincaRepository,
                            EnvioRepository envioRepository,
                            DetalleCompraRepository detalleCompraRepository,
-                           ServicioRepository servicioRepository) {
+                           ServicioRepository servicioRepository,
+                           CostoEnvioService costoEnvioService,
+                           ExportacionService exportacionService,
+                           DatosReferenciaService datosReferenciaService) {
         this.productoRepository = productoRepository;
         this.compraRepository = compraRepository;
         this.transportistaRepository = transportistaRepository;
@@ -53,6 +94,9 @@ public class AdminController {
         this.envioRepository = envioRepository;
         this.detalleCompraRepository = detalleCompraRepository;
         this.servicioRepository = servicioRepository;
+        this.costoEnvioService = costoEnvioService;
+        this.exportacionService = exportacionService;
+        this.datosReferenciaService = datosReferenciaService;
     }
 
     /**
@@ -66,29 +110,48 @@ public class AdminController {
     }
 
     /**
-     * Vista de gestión de usuarios con tabs para cada rol
+     * Vista de gestión de usuarios con tabs para cada rol.
+     * Solo se carga la página de la pestaña activa; los contadores salen de un COUNT agrupado por rol.
      */
     @GetMapping("/usuarios")
-    public String gestionUsuarios(Model model) {
+    public String gestionUsuarios(@RequestParam(defaultValue = "clientes") String rol,
+                                  @RequestParam(required = false) String q,
+                                  @RequestParam(defaultValue = "0") int pagina,
+                                  @RequestParam(defaultValue = "20") int tamanio,
+                                  @RequestParam(defaultValue = "nombre") String orden,
+                                  @RequestParam(defaultValue = "asc") String dir,
+                                  Model model) {
         log.info("=== Accediendo a /admin/usuarios ===");
         try {
-            List<Usuario> todosUsuarios = usuarioRepository.findAll();
-            List<Cliente> clientes = clienteRepository.findAll();
-            List<Productor> productores = productorRepository.findAll();
-            List<Transportista> transportistas = transportistaRepository.findAll();
-            List<Asesor> asesores = asesorRepository.findAll();
-
-            model.addAttribute("todosUsuarios", todosUsuarios);
-            model.addAttribute("clientes", clientes);
-            model.addAttribute("productores", productores);
-            model.addAttribute("transportistas", transportistas);
-            model.addAttribute("asesores", asesores);
-
-            model.addAttribute("totalUsuarios", todosUsuarios.size());
-            model.addAttribute("totalClientes", clientes.size());
-            model.addAttribute("totalProductores", productores.size());
-            model.addAttribute("totalTransportistas", transportistas.size());
-            model.addAttribute("totalAsesores", asesores.size());
+            Map<Rol, Long> porRol = new EnumMap<>(Rol.class);
+            for (Object[] fila : usuarioRepository.contarPorRol()) {
+                if (fila[0] != null) {
+                    porRol.put((Rol) fila[0], (Long) fila[1]);
+                }
+            }
+            model.addAttribute("totalUsuarios", porRol.values().stream().mapToLong(Long::longValue).sum());
+            model.addAttribute("totalClientes", porRol.getOrDefault(Rol.ROLE_CLIENTE, 0L));
+            model.addAttribute("totalProductores", porRol.getOrDefault(Rol.ROLE_PRODUCTOR, 0L));
+            model.addAttribute("totalTransportistas", porRol.getOrDefault(Rol.ROLE_TRANSPORTISTA, 0L));
+            model.addAttribute("totalAsesores", porRol.getOrDefault(Rol.ROLE_SERVICIO, 0L));
+
+            Pageable pageable = paginacion(pagina, tamanio, orden, dir, ORDEN_USUARIOS, "nombre", "usuario.idUsuario");
+            Page<?> paginaUsuarios = switch (rol) {
+                case "productores" -> productorRepository.findAll(FiltrosAdmin.<Productor>perfilPorTexto(q), pageable);
+                case "transportistas" -> transportistaRepository.findAll(FiltrosAdmin.<Transportista>perfilPorTexto(q), pageable);
+                case "asesores" -> asesorRepository.findAll(FiltrosAdmin.<Asesor>perfilPorTexto(q), pageable);
+                default -> {
+                    rol = "clientes";
+                    yield clienteRepository.findAll(FiltrosAdmin.<Cliente>perfilPorTexto(q), pageable);
+                }
+            };
+
+            for (String pestania : List.of("clientes", "productores", "transportistas", "asesores")) {
+                model.addAttribute(pestania, pestania.equals(rol) ? paginaUsuarios.getContent() : List.of());
+            }
+            model.addAttribute("rolActivo", rol);
+            model.addAttribute("paginaUsuarios", paginaUsuarios);
+            agregarFiltros(model, q, orden, dir, tamanio);
 
             log.info("✅ Vista admin/usuarios cargada exitosamente");
             return "admin/usuarios";
@@ -167,6 +230,7 @@ public class AdminController {
 
             // 3. Guardar los cambios en la base de datos
             usuarioRepository.save(usuario);
+            datosReferenciaService.invalidarTodo();
             log.info("✅ Usuario actualizado exitosamente: {}", usuario.getNombreUsuario());
 
             // 4. Redirigir de vuelta a la lista de usuarios con mensaje de éxito
@@ -195,6 +259,7 @@ public class AdminController {
 
                 // Eliminar el usuario de la base de datos
                 usuarioRepository.deleteById(idUsuario);
+                datosReferenciaService.invalidarTodo();
 
                 log.info(" Usuario {} eliminado correctamente", nombreUsuario);
                 redirectAttributes.addFlashAttribute("success", "Usuario " + nombreUsuario + " eliminado correctamente");
@@ -336,33 +401,46 @@ public class AdminController {
     }
 
     /**
-     * Vista de pedidos
+     * Vista de pedidos, paginada y filtrada en la base de datos
      */
     @GetMapping("/pedidos")
-    public String gestionPedidos(Model model) {
+    public String gestionPedidos(@RequestParam(required = false) String q,
+                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+                                 @RequestParam(required = false) String metodoPago,
+                                 @RequestParam(defaultValue = "0") int pagina,
+                                 @RequestParam(defaultValue = "20") int tamanio,
+                                 @RequestParam(defaultValue = "fecha") String orden,
+                                 @RequestParam(defaultValue = "desc") String dir,
+                                 Model model) {
         try {
-            List<Compra> compras = compraRepository.findAll();
-
-            List<Compra> comprasOrdenadas = compras.stream()
-                .sorted((c1, c2) -> c2.getIdCompra().compareTo(c1.getIdCompra()))
-                .toList();
-
-            BigDecimal totalVentas = compras.stream()
-                .map(Compra::getTotal)
-                .filter(Objects::nonNull)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            // Obtener detalles de compra para cada pedido
-            Map<Integer, List<DetalleCompra>> detallesPorCompra = new HashMap<>();
-            for (Compra compra : comprasOrdenadas) {
-                List<DetalleCompra> detalles = detalleCompraRepository.findByCompra_IdCompra(compra.getIdCompra());
-                detallesPorCompra.put(compra.getIdCompra(), detalles);
-            }
-
-            model.addAttribute("compras", comprasOrdenadas);
+            Specification<Compra> filtro = FiltrosAdmin.compraPorTexto(q)
+                    .and(FiltrosAdmin.compraEntre(desde, hasta))
+                    .and(FiltrosAdmin.compraPorMetodoPago(metodoPago));
+            Page<Compra> paginaPedidos = compraRepository.findAll(filtro,
+                    paginacion(pagina, tamanio, orden, dir, ORDEN_PEDIDOS, "fecha", "idCompra"));
+
+            // Detalles de los pedidos de la página en una sola consulta
+            List<Integer> ids = paginaPedidos.getContent().stream().map(Compra::getIdCompra).toList();
+            Map<Integer, List<DetalleCompra>> detallesPorCompra = ids.isEmpty()
+                    ? new HashMap<>()
+                    : detalleCompraRepository.findByCompra_IdCompraIn(ids).stream()
+                        .collect(Collectors.groupingBy(d -> d.getCompra().getIdCompra()));
+
+            Object[] historico = resumenVentas(null);
+            Object[] delMes = resumenVentas(LocalDate.now().withDayOfMonth(1).atStartOfDay());
+
+            model.addAttribute("compras", paginaPedidos.getContent());
             model.addAttribute("detallesPorCompra", detallesPorCompra);
-            model.addAttribute("totalPedidos", compras.size());
-            model.addAttribute("totalVentas", totalVentas);
+            model.addAttribute("paginaPedidos", paginaPedidos);
+            model.addAttribute("totalPedidos", historico[0]);
+            model.addAttribute("totalVentas", historico[1]);
+            model.addAttribute("pedidosMes", delMes[0]);
+            model.addAttribute("ventasMes", delMes[1]);
+            model.addAttribute("desde", desde);
+            model.addAttribute("hasta", hasta);
+            model.addAttribute("metodoPago", metodoPago);
+            agregarFiltros(model, q, orden, dir, tamanio);
 
             return "admin/pedidos";
 
@@ -374,19 +452,46 @@ public class AdminController {
     }
 
     /**
-     * Vista de envíos
+     * Vista de envíos, paginada y filtrada en la base de datos
      */
     @GetMapping("/envios")
-    public String gestionEnvios(Model model) {
+    public String gestionEnvios(@RequestParam(required = false) String q,
+                                @RequestParam(required = false) String estado,
+                                @RequestParam(defaultValue = "0") int pagina,
+                                @RequestParam(defaultValue = "20") int tamanio,
+                                @RequestParam(defaultValue = "id") String orden,
+                                @RequestParam(defaultValue = "desc") String dir,
+                                Model model) {
         try {
-            List<Envio> envios = envioRepository.findAll();
-
-            List<Envio> enviosOrdenados = envios.stream()
-                .sorted((e1, e2) -> e2.getIdEnvio().compareTo(e1.getIdEnvio()))
-                .toList();
+            Envio.EstadoEnvio estadoFiltro = null;
+            if (estado != null && !estado.isBlank()) {
+                try {
+                    estadoFiltro = Envio.EstadoEnvio.valueOf(estado);
+                } catch (IllegalArgumentException e) {
+                    log.warn("⚠ Estado de envío desconocido en el filtro: {}", estado);
+                }
+            }
+            Specification<Envio> filtro = FiltrosAdmin.envioPorTexto(q)
+                    .and(FiltrosAdmin.envioPorEstado(estadoFiltro));
+            Page<Envio> paginaEnvios = envioRepository.findAll(filtro,
+                    paginacion(pagina, tamanio, orden, dir, ORDEN_ENVIOS, "id", "idEnvio"));
+
+            Map<Envio.EstadoEnvio, Long> porEstado = new EnumMap<>(Envio.EstadoEnvio.class);
+            for (Object[] fila : envioRepository.contarPorEstado()) {
+                if (fila[0] != null) {
+                    porEstado.put((Envio.EstadoEnvio) fila[0], (Long) fila[1]);
+                }
+            }
 
-            model.addAttribute("envios", enviosOrdenados);
-            model.addAttribute("totalEnvios", envios.size());
+            model.addAttribute("envios", paginaEnvios.getContent());
+            model.addAttribute("paginaEnvios", paginaEnvios);
+            model.addAttribute("totalEnvios", porEstado.values().stream().mapToLong(Long::longValue).sum());
+            model.addAttribute("enviosEntregados", porEstado.getOrDefault(Envio.EstadoEnvio.Finalizado, 0L));
+            model.addAttribute("enviosEnTransito", porEstado.getOrDefault(Envio.EstadoEnvio.En_Transito, 0L));
+            model.addAttribute("enviosPendientes", porEstado.getOrDefault(Envio.EstadoEnvio.Buscando_Transporte, 0L));
+            model.addAttribute("estado", estadoFiltro != null ? estadoFiltro.name() : null);
+            model.addAttribute("estadosEnvio", Envio.EstadoEnvio.values());
+            agregarFiltros(model, q, orden, dir, tamanio);
 
             return "admin/envios";
 
@@ -464,6 +569,7 @@ public class AdminController {
 
             if (servicioOpt.isPresent()) {
                 servicioRepository.deleteById(idServicio);
+                datosReferenciaService.invalidarServicios();
                 redirectAttributes.addFlashAttribute("success", "Servicio #" + idServicio + " eliminado correctamente");
             } else {
                 redirectAttributes.addFlashAttribute("error", "No se encontró el servicio #" + idServicio);
@@ -494,6 +600,7 @@ public class AdminController {
             }
 
             servicioRepository.save(servicio);
+            datosReferenciaService.invalidarServicios();
             redirectAttributes.addFlashAttribute("success", "Estado del servicio actualizado correctamente");
 
         } catch (Exception e) {
@@ -536,5 +643,104 @@ public class AdminController {
             return ResponseEntity.status(500).body(new ArrayList<>());
         }
     }
-}
 
+    /**
+     * API: Métricas de las cachés de geocodificación y distancias
+     */
+    @GetMapping("/api/cache-envios")
+    @ResponseBody
+    public ResponseEntity<List<Map<String, Object>>> estadisticasCacheEnvios() {
+        return ResponseEntity.ok(costoEnvioService.estadisticasCache());
+    }
+
+    /**
+     * API: Métricas de los datos de referencia memorizados (categorías, servicios, productores, navbar)
+     */
+    @GetMapping("/api/cache-referencia")
+    @ResponseBody
+    public ResponseEntity<List<Map<String, Object>>> estadisticasCacheReferencia() {
+        return ResponseEntity.ok(datosReferenciaService.estadisticas());
+    }
+
+    /**
+     * API: Vaciar las cachés en memoria de geocodificación y distancias
+     */
+    @PostMapping("/api/cache-envios/limpiar")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> limpiarCacheEnvios() {
+        costoEnvioService.limpiarCache();
+        Map<String, Object> respuesta = new HashMap<>();
+        respuesta.put("success", true);
+        return ResponseEntity.ok(respuesta);
+    }
+
+    /**
+     * Exportación de compras, envíos o productos en CSV o NDJSON (gzip opcional).
+     * Las filas se escriben según se leen de la base de datos, sin cargarlas en memoria.
+     * Ruta: /admin/exportar/{compras|envios|productos}?formato=csv&desde=&hasta=&estado=&comprimir=
+     */
+    @GetMapping("/exportar/{tipo}")
+    @ResponseBody
+    public ResponseEntity<?> exportar(@PathVariable String tipo,
+                                      @RequestParam(defaultValue = "csv") String formato,
+                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+                                      @RequestParam(required = false) String estado,
+                                      @RequestParam(defaultValue = "false") boolean comprimir) {
+        ExportacionService.Tipo tipoExportacion;
+        ExportacionService.Formato formatoExportacion;
+        ExportacionService.Filtros filtros = new ExportacionService.Filtros(desde, hasta, estado);
+        try {
+            tipoExportacion = exportacionService.tipo(tipo);
+            formatoExportacion = exportacionService.formato(formato);
+            exportacionService.validar(tipoExportacion, filtros);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        }
+
+        String extension = formatoExportacion == ExportacionService.Formato.CSV ? "csv" : "ndjson";
+        String archivo = tipoExportacion.name().toLowerCase() + "_" + LocalDate.now() + "." + extension + (comprimir ? ".gz" : "");
+        MediaType tipoContenido = comprimir
+                ? MediaType.parseMediaType("application/gzip")
+                : formatoExportacion == ExportacionService.Formato.CSV
+                    ? MediaType.parseMediaType("text/csv; charset=UTF-8")
+                    : MediaType.parseMediaType("application/x-ndjson; charset=UTF-8");
+
+        StreamingResponseBody cuerpo = salida ->
+                exportacionService.exportar(tipoExportacion, formatoExportacion, filtros, comprimir, salida);
+        return ResponseEntity.ok()
+                .contentType(tipoContenido)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archivo + "\"")
+                .body(cuerpo);
+    }
+
+    // Página pedida con el tamaño acotado; el orden solo admite las columnas del listado y
+    // se desempata por id para que las páginas no repitan ni salten filas
+    private static Pageable paginacion(int pagina, int tamanio, String orden, String dir,
+                                       Map<String, String> columnas, String ordenPorDefecto, String id) {
+        Sort.Direction direccion = "asc".equalsIgnoreCase(dir) ? Sort.Direction.ASC : Sort.Direction.DESC;
+        String propiedad = columnas.getOrDefault(orden, columnas.get(ordenPorDefecto));
+        Sort sort = Sort.by(direccion, propiedad);
+        if (!propiedad.equals(id)) {
+            sort = sort.and(Sort.by(direccion, id));
+        }
+        return PageRequest.of(Math.max(pagina, 0), Math.min(Math.max(tamanio, 1), TAMANIO_PAGINA_MAX), sort);
+    }
+
+    // Filtros actuales y la URL de la petición sin el número de página, para los enlaces del paginador
+    private static void agregarFiltros(Model model, String q, String orden, String dir, int tamanio) {
+        UriComponents actual = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("pagina").build();
+        String query = actual.getQuery();
+        model.addAttribute("urlPagina", actual.getPath() + "?" + (query != null && !query.isEmpty() ? query + "&" : "") + "pagina=");
+        model.addAttribute("q", q);
+        model.addAttribute("orden", orden);
+        model.addAttribute("dir", dir);
+        model.addAttribute("tamanio", tamanio);
+    }
+
+    // [cantidad de compras, suma de totales] desde la fecha indicada
+    private Object[] resumenVentas(LocalDateTime desde) {
+        List<Object[]> filas = compraRepository.resumenVentas(desde);
+        return filas.isEmpty() ? new Object[]{0L, BigDecimal.ZERO} : filas.get(0);
+    }
+}
@@ -1,18 +1,23 @@
 package com.example.springbootagrolink.controllers;
 
 import com.example.springbootagrolink.model.Cliente;
+import com.example.springbootagrolink.model.PaginaCatalogo;
 import com.example.springbootagrolink.model.Producto;
+import com.example.springbootagrolink.model.ProductoCarrito;
 import com.example.springbootagrolink.model.CategoriaProducto;
 import com.example.springbootagrolink.model.Servicio;
 import com.example.springbootagrolink.model.Usuario;
 import com.example.springbootagrolink.services.ClienteService;
+import com.example.springbootagrolink.services.CotizadorCarritoService;
 import com.example.springbootagrolink.services.ProductoService;
+import com.example.springbootagrolink.services.ReservaStockService;
 import com.example.springbootagrolink.services.CategoriaProductoService;
-import com.example.springbootagrolink.services.ServicioService;
+import com.example.springbootagrolink.services.DatosReferenciaService;
+import com.example.springbootagrolink.services.EstadisticasInicioService;
+import com.example.springbootagrolink.services.ProductosRelacionadosService;
+import com.example.springbootagrolink.services.ResenaService;
+import com.example.springbootagrolink.services.BuscadorProductosService;
 import com.example.springbootagrolink.repository.UsuarioRepository;
-import com.example.springbootagrolink.repository.ProductoRepository;
-import com.example.springbootagrolink.repository.EnvioRepository;
-import com.example.springbootagrolink.repository.CalificacionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -22,6 +27,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import jakarta.servlet.http.HttpSession;
+import java.math.BigDecimal;
 import java.util.*;
 
 @Controller
@@ -34,20 +40,33 @@ public class ClienteController {
     @Autowired
     private CategoriaProductoService categoriaProductoService;
     @Autowired
-    private ServicioService servicioService;
+    private DatosReferenciaService datosReferenciaService;
     @Autowired
-    private UsuarioRepository usuarioRepository;
+    private EstadisticasInicioService estadisticasInicioService;
+    @Autowired
+    private ProductosRelacionadosService productosRelacionadosService;
     @Autowired
-    private ProductoRepository productoRepository;
+    private ResenaService resenaService;
     @Autowired
-    private EnvioRepository envioRepository;
+    private CotizadorCarritoService cotizadorCarritoService;
     @Autowired
-    private CalificacionRepository calificacionRepository;
+    private ReservaStockService reservaStockService;
+    @Autowired
+    private UsuarioRepository usuarioRepository;
     @Autowired
     private com.example.springbootagrolink.repository.CompraRepository compraRepository;
     @Autowired
     private com.example.springbootagrolink.repository.ClienteRepository clienteRepository;
 
+    // Resultados por página en /buscar
+    private static final int TAMANIO_PAGINA_BUSQUEDA = 24;
+    // Productos por página del catálogo sin filtros (paginación por cursor)
+    private static final int TAMANIO_PAGINA_CATALOGO = 24;
+    private static final String ORDEN_PRECIO = "precio";
+    private static final String ORDEN_CALIFICACION = "calificacion";
+    // Reseñas recientes que se muestran en la página de producto
+    private static final int RESENAS_POR_PRODUCTO = 5;
+
     /**
      * Método que agrega el contador del carrito a todas las vistas automáticamente
      * El carrito es un Map<Integer, Integer> donde la clave es el ID del producto y el valor es la cantidad
@@ -91,11 +110,15 @@ public class ClienteController {
                         @RequestParam(value = "precioMax", required = false) Double precioMax,
                         @RequestParam(value = "soloDisponibles", required = false) Boolean soloDisponibles,
                         @RequestParam(value = "organicosBPA", required = false) Boolean organicosBPA,
+                        @RequestParam(value = "calificacionMin", required = false) Double calificacionMin,
+                        @RequestParam(value = "orden", required = false) String orden,
+                        @RequestParam(value = "despues", required = false) Integer despuesDeId,
+                        @RequestParam(value = "despuesPrecio", required = false) BigDecimal despuesDePrecio,
+                        @RequestParam(value = "despuesPuntaje", required = false) Double despuesDePuntaje,
                         Model model) {
         List<Producto> productos;
         List<CategoriaProducto> categorias = categoriaProductoService.obtenerTodos();
-        List<Servicio> servicios = servicioService.obtenerTodosLosServicios();
-        Map<String, List<Servicio>> categoriasServicios = categorizarServicios(servicios);
+        Map<String, List<Servicio>> categoriasServicios = datosReferenciaService.categoriasServicios(true);
         String tituloSeccion = "Productos Frescos del Campo";
         String subtituloSeccion = "Directamente desde nuestros productores certificados";
 
@@ -105,16 +128,36 @@ public class ClienteController {
                            (ubicacion != null && !ubicacion.trim().isEmpty()) ||
                            precioMin != null || precioMax != null ||
                            Boolean.TRUE.equals(soloDisponibles) ||
-                           Boolean.TRUE.equals(organicosBPA);
+                           Boolean.TRUE.equals(organicosBPA) ||
+                           calificacionMin != null;
 
         if (hayFiltros) {
-            // Aplicar filtros combinados
-            productos = aplicarFiltrosCombinados(busqueda, categoriaId, ubicacion, precioMin, precioMax, soloDisponibles, organicosBPA);
+            // Aplicar filtros combinados (con filtros, el orden por calificación también se resuelve con los índices en memoria)
+            boolean porCalificacion = ORDEN_CALIFICACION.equals(orden);
+            productos = aplicarFiltrosCombinados(busqueda, categoriaId, ubicacion, precioMin, precioMax,
+                    soloDisponibles, organicosBPA, calificacionMin, porCalificacion);
+            model.addAttribute("ordenActual", porCalificacion ? ORDEN_CALIFICACION : null);
             tituloSeccion = "Productos Filtrados";
             subtituloSeccion = "Se encontraron " + productos.size() + " productos según los filtros aplicados";
         } else {
-            // Mostrar todos los productos por defecto
-            productos = productoService.obtenerTodos();
+            // Sin filtros se pagina el catálogo por cursor en lugar de cargarlo completo
+            boolean porPrecio = ORDEN_PRECIO.equals(orden);
+            boolean porCalificacion = ORDEN_CALIFICACION.equals(orden);
+            PaginaCatalogo pagina;
+            if (porPrecio) {
+                pagina = productoService.obtenerPaginaCatalogoPorPrecio(despuesDePrecio, despuesDeId, TAMANIO_PAGINA_CATALOGO);
+            } else if (porCalificacion) {
+                pagina = productoService.obtenerPaginaCatalogoPorCalificacion(despuesDePuntaje, despuesDeId, TAMANIO_PAGINA_CATALOGO);
+            } else {
+                pagina = productoService.obtenerPaginaCatalogo(despuesDeId, TAMANIO_PAGINA_CATALOGO);
+            }
+            productos = pagina.productos();
+            model.addAttribute("ordenActual", porPrecio ? ORDEN_PRECIO : porCalificacion ? ORDEN_CALIFICACION : null);
+            model.addAttribute("hayMasProductos", pagina.hayMas());
+            model.addAttribute("siguienteId", pagina.siguienteId());
+            model.addAttribute("siguientePrecio", porPrecio ? pagina.siguientePrecio() : null);
+            model.addAttribute("siguientePuntaje", porCalificacion ? pagina.siguientePuntaje() : null);
+            model.addAttribute("esPrimeraPagina", despuesDeId == null && despuesDePrecio == null && despuesDePuntaje == null);
         }
 
         model.addAttribute("productos", productos);
@@ -131,56 +174,17 @@ public class ClienteController {
         model.addAttribute("precioMaxActual", precioMax);
         model.addAttribute("soloDisponiblesActual", soloDisponibles);
         model.addAttribute("organicosBPAActual", organicosBPA);
+        model.addAttribute("calificacionMinActual", calificacionMin);
         model.addAttribute("hayFiltrosActivos", hayFiltros);
 
-        // --- NUEVO: obtener producto destacado por compras ---
-        try {
-            Producto productoDestacado = productoService.obtenerProductoMasVendido();
-            model.addAttribute("productoDestacado", productoDestacado);
-        } catch (Exception e) {
-            // En caso de error, agregar atributo nulo para que la vista muestre fallback
-            model.addAttribute("productoDestacado", null);
-            // Log sencillo para debugging en consola
-            System.err.println("Error obteniendo producto destacado: " + e.getMessage());
-            e.printStackTrace();
-        }
-        // --- FIN producto destacado ---
-
-        // --- NUEVO: Estadísticas dinámicas ---
-        try {
-            // 1. Total de usuarios registrados
-            Long totalUsuarios = usuarioRepository.count();
-            model.addAttribute("totalUsuarios", totalUsuarios);
-
-            // 2. Productos disponibles (con stock > 0)
-            Long productosDisponibles = productoRepository.countProductosDisponibles();
-            model.addAttribute("productosDisponibles", productosDisponibles);
-
-            // 3. Porcentaje de entregas exitosas
-            Long totalEnvios = envioRepository.count();
-            Long enviosFinalizados = envioRepository.countEnviosFinalizados();
-            double porcentajeEntregas = 0.0;
-            if (totalEnvios > 0) {
-                porcentajeEntregas = (enviosFinalizados * 100.0) / totalEnvios;
-            }
-            model.addAttribute("porcentajeEntregas", porcentajeEntregas);
-
-            // 4. Calificación promedio general
-            Double promedioCalificaciones = calificacionRepository.calcularPromedioGeneral();
-            if (promedioCalificaciones == null) {
-                promedioCalificaciones = 0.0;
-            }
-            model.addAttribute("promedioCalificaciones", promedioCalificaciones);
-
-        } catch (Exception e) {
-            // En caso de error, poner valores por defecto
-            model.addAttribute("totalUsuarios", 0L);
-            model.addAttribute("productosDisponibles", 0L);
-            model.addAttribute("porcentajeEntregas", 0.0);
-            model.addAttribute("promedioCalificaciones", 0.0);
-            System.err.println("Error calculando estadísticas: " + e.getMessage());
-        }
-        // --- FIN estadísticas ---
+        // Producto destacado y estadísticas: se leen de la instantánea calculada en segundo plano
+        EstadisticasInicioService.Instantanea estadisticas = estadisticasInicioService.actual();
+        model.addAttribute("productoDestacado", estadisticas.productoDestacado());
+        model.addAttribute("totalUsuarios", estadisticas.totalUsuarios());
+        model.addAttribute("productosDisponibles", estadisticas.productosDisponibles());
+        model.addAttribute("porcentajeEntregas", estadisticas.porcentajeEntregas());
+        model.addAttribute("promedioCalificaciones", estadisticas.promedioCalificaciones());
+        model.addAttribute("productosTendencia", estadisticas.tendencias());
 
         return "cliente/index";
     }
@@ -189,8 +193,7 @@ public class ClienteController {
     public String Cliente(Model model) {
         List<Producto> productos = productoService.obtenerTodos();
         List<CategoriaProducto> categorias = categoriaProductoService.obtenerTodos();
-        List<Servicio> servicios = servicioService.obtenerTodosLosServicios();
-        Map<String, List<Servicio>> categoriasServicios = categorizarServicios(servicios);
+        Map<String, List<Servicio>> categoriasServicios = datosReferenciaService.categoriasServicios(true);
 
         model.addAttribute("productos", productos);
         model.addAttribute("categorias", categorias);
@@ -206,7 +209,7 @@ public class ClienteController {
     @GetMapping("/cliente/index")
     public String clienteIndex(Model model) {
         // Reusar la lógica del método inicio
-        return inicio(null, null, null, null, null, null, null, model);
+        return inicio(null, null, null, null, null, null, null, null, null, null, null, null, model);
     }
 
 
@@ -243,7 +246,7 @@ public class ClienteController {
         // Añadir datos para el navbar/plantilla (categorías y servicios) por consistencia
         try {
             model.addAttribute("categorias", categoriaProductoService.obtenerTodos());
-            model.addAttribute("categoriasServicios", categorizarServicios(servicioService.obtenerTodosLosServicios()));
+            model.addAttribute("categoriasServicios", datosReferenciaService.categoriasServicios(true));
         } catch (Exception ignored) {}
 
         // Si el cliente existe, asegurarnos de que el usuario en el modelo es el mismo objeto asociado
@@ -283,30 +286,25 @@ public class ClienteController {
      */
     @GetMapping("/buscar")
     public String buscarDesdeNavbar(@RequestParam(value = "busqueda", required = false) String busqueda,
+                                   @RequestParam(value = "pagina", defaultValue = "0") int pagina,
                                    Model model) {
-        System.out.println("=== MÉTODO /buscar EJECUTADO ===");
-        System.out.println("Parámetro recibido: '" + busqueda + "'");
+        if (busqueda == null || busqueda.isBlank()) {
+            // Sin término no hay nada que buscar: el catálogo completo va por la ruta paginada
+            return "redirect:/";
+        }
 
         try {
             List<CategoriaProducto> categorias = categoriaProductoService.obtenerTodos();
-            List<Servicio> servicios = servicioService.obtenerTodosLosServicios();
-            Map<String, List<Servicio>> categoriasServicios = categorizarServicios(servicios);
-
-            List<Producto> productos;
-            String tituloSeccion = "Productos Frescos del Campo";
-            String subtituloSeccion = "Directamente desde nuestros productores certificados";
-
-            if (busqueda != null && !busqueda.trim().isEmpty()) {
-                System.out.println("Ejecutando búsqueda para: " + busqueda.trim());
-                // Aplicar búsqueda mejorada con normalización de texto
-                productos = busquedaAvanzadaConNormalizacion(busqueda.trim());
-                tituloSeccion = "Resultados de búsqueda";
-                subtituloSeccion = "Se encontraron " + productos.size() + " productos para: \"" + busqueda.trim() + "\"";
-                System.out.println("Productos encontrados: " + productos.size());
-            } else {
-                System.out.println("Búsqueda vacía, mostrando todos los productos");
-                productos = productoService.obtenerTodos();
-            }
+            Map<String, List<Servicio>> categoriasServicios = datosReferenciaService.categoriasServicios(true);
+
+            // Búsqueda de texto completo: ids ordenados por relevancia y paginados, luego una sola consulta
+            BuscadorProductosService.ResultadoBusqueda resultado =
+                    productoService.buscarEnCatalogo(busqueda.trim(), pagina, TAMANIO_PAGINA_BUSQUEDA);
+            List<Producto> productos = productoService.obtenerPorIds(resultado.ids());
+            String tituloSeccion = "Resultados de búsqueda";
+            String subtituloSeccion = "Se encontraron " + resultado.total() + " productos para: \"" + busqueda.trim() + "\"";
+            model.addAttribute("paginaActual", resultado.pagina());
+            model.addAttribute("totalPaginas", resultado.totalPaginas());
 
             // Agregar atributos necesarios para el navbar
             model.addAttribute("productos", productos);
@@ -317,9 +315,8 @@ public class ClienteController {
             model.addAttribute("busquedaActual", busqueda);
             model.addAttribute("categoriaSeleccionada", null);
             model.addAttribute("ubicacionActual", null);
-            model.addAttribute("hayFiltrosActivos", busqueda != null && !busqueda.trim().isEmpty());
+            model.addAttribute("hayFiltrosActivos", true);
 
-            System.out.println("Modelo configurado correctamente, retornando vista");
             return "cliente/index";
 
         } catch (Exception e) {
@@ -372,50 +369,6 @@ public class ClienteController {
         return "redirect:/clientes";
     }
 
-    // Método privado para categorizar servicios por palabras clave en la descripción
-    private Map<String, List<Servicio>> categorizarServicios(List<Servicio> servicios) {
-        Map<String, List<Servicio>> categoriasServicios = new HashMap<>();
-
-        // Inicializar categorías predefinidas
-        categoriasServicios.put("Veterinaria", new ArrayList<>());
-        categoriasServicios.put("Asesoría Agrícola", new ArrayList<>());
-        categoriasServicios.put("Transporte", new ArrayList<>());
-        categoriasServicios.put("Capacitación", new ArrayList<>());
-        categoriasServicios.put("Maquinaria", new ArrayList<>());
-        categoriasServicios.put("Otros", new ArrayList<>());
-
-        for (Servicio servicio : servicios) {
-            if (servicio.getDescripcion() != null && servicio.getEstado() == Servicio.EstadoServicio.Activo) {
-                String descripcion = servicio.getDescripcion().toLowerCase();
-
-                // Categorizar por palabras clave
-                if (descripcion.contains("veterinari") || descripcion.contains("animal") ||
-                    descripcion.contains("mascota") || descripcion.contains("ganad")) {
-                    categoriasServicios.get("Veterinaria").add(servicio);
-                } else if (descripcion.contains("asesor") || descripcion.contains("agricul") ||
-                          descripcion.contains("cultivo") || descripcion.contains("siembra")) {
-                    categoriasServicios.get("Asesoría Agrícola").add(servicio);
-                } else if (descripcion.contains("transport") || descripcion.contains("envío") ||
-                          descripcion.contains("logística") || descripcion.contains("entrega")) {
-                    categoriasServicios.get("Transporte").add(servicio);
-                } else if (descripcion.contains("capacita") || descripcion.contains("curso") ||
-                          descripcion.contains("entrena") || descripcion.contains("taller")) {
-                    categoriasServicios.get("Capacitación").add(servicio);
-                } else if (descripcion.contains("maquina") || descripcion.contains("tracto") ||
-                        descripcion.contains("mecanica") || descripcion.contains("motor")) {
-                    categoriasServicios.get("Maquinaria").add(servicio);
-                } else {
-                    categoriasServicios.get("Otros").add(servicio);
-                }
-            }
-        }
-
-        // Remover categorías vacías
-        categoriasServicios.entrySet().removeIf(entry -> entry.getValue().isEmpty());
-
-        return categoriasServicios;
-    }
-
     // NUEVA FUNCIONALIDAD PARA VISTAS DE CLIENTE
 
     /**
@@ -429,30 +382,82 @@ public class ClienteController {
             return "cliente/producto-no-encontrado";
         }
 
-        // Obtener productos relacionados (misma categoría, excluyendo el actual)
-        List<Producto> productosRelacionados = new ArrayList<>();
-        if (producto.getCategoria() != null) {
-            List<Producto> todosDeLaCategoria = productoService.obtenerPorCategoria(producto.getCategoria().getIdCategoria());
-            productosRelacionados = todosDeLaCategoria.stream()
-                .filter(p -> !p.getIdProducto().equals(id))
-                .limit(4)
-                .toList();
-        }
+        // Productos relacionados (comprados juntos o, si no hay, de la misma categoría y región)
+        List<ProductoCarrito> productosRelacionados = productosRelacionadosService.relacionados(id, 4);
 
         // AGREGAR DATOS NECESARIOS PARA EL NAVBAR (igual que en el index)
         List<CategoriaProducto> categorias = categoriaProductoService.obtenerTodos();
-        List<Servicio> servicios = servicioService.obtenerTodosLosServicios();
-        Map<String, List<Servicio>> categoriasServicios = categorizarServicios(servicios);
+        Map<String, List<Servicio>> categoriasServicios = datosReferenciaService.categoriasServicios(true);
+
+        // Calificaciones: se leen de los acumulados, sin promediar las reseñas
+        Integer idProductor = producto.getProductor() != null ? producto.getProductor().getIdProductor() : null;
 
         // Agregar al modelo
         model.addAttribute("producto", producto);
         model.addAttribute("relacionados", productosRelacionados);
+        model.addAttribute("calificacionProducto", resenaService.resumenProducto(id));
+        model.addAttribute("calificacionProductor", resenaService.resumenProductor(idProductor));
+        model.addAttribute("resenas", resenaService.ultimasResenasProducto(id, RESENAS_POR_PRODUCTO));
         model.addAttribute("categorias", categorias);
         model.addAttribute("categoriasServicios", categoriasServicios);
 
         return "cliente/producto";
     }
 
+    /**
+     * Calificar un producto comprado (una reseña por cliente; si ya existe se reemplaza)
+     */
+    @PostMapping("/cliente/producto/{id}/resena")
+    public String calificarProducto(@PathVariable Integer id,
+                                    @RequestParam int puntaje,
+                                    @RequestParam(required = false) String comentario,
+                                    RedirectAttributes redirectAttributes) {
+        Cliente cliente = clienteAutenticado();
+        if (cliente == null) {
+            return "redirect:/login";
+        }
+        try {
+            resenaService.calificarProducto(cliente.getIdUsuario(), id, puntaje, comentario);
+            redirectAttributes.addFlashAttribute("success", "¡Gracias! Tu calificación del producto fue guardada");
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("error", e.getMessage());
+        }
+        return "redirect:/cliente/producto/" + id;
+    }
+
+    /**
+     * Calificar al productor de un producto comprado; vuelve a la página del producto
+     */
+    @PostMapping("/cliente/productor/{id}/resena")
+    public String calificarProductor(@PathVariable Integer id,
+                                     @RequestParam int puntaje,
+                                     @RequestParam(required = false) String comentario,
+                                     @RequestParam Integer idProducto,
+                                     RedirectAttributes redirectAttributes) {
+        Cliente cliente = clienteAutenticado();
+        if (cliente == null) {
+            return "redirect:/login";
+        }
+        try {
+            resenaService.calificarProductor(cliente.getIdUsuario(), id, puntaje, comentario);
+            redirectAttributes.addFlashAttribute("success", "¡Gracias! Tu calificación del productor fue guardada");
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("error", e.getMessage());
+        }
+        return "redirect:/cliente/producto/" + idProducto;
+    }
+
+    private Cliente clienteAutenticado() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated() ||
+            "anonymousUser".equals(authentication.getPrincipal())) {
+            return null;
+        }
+        return usuarioRepository.findByNombreUsuario(authentication.getName())
+                .flatMap(clienteRepository::findByUsuario)
+                .orElse(null);
+    }
+
     /**
      * Agregar producto al carrito
      * El carrito es un Map<Integer, Integer> donde la clave es el ID del producto y el valor es la cantidad
@@ -481,10 +486,12 @@ public class ClienteController {
             int cantidadActual = carrito.getOrDefault(idProducto, 0);
             int nuevaCantidad = cantidadActual + cantidad;
 
-            // Verificar stock disponible
-            if (nuevaCantidad > producto.getStock()) {
+            // Reservar las unidades (descuenta lo que ya tienen reservado otros carritos)
+            ReservaStockService.ResultadoReserva reserva =
+                    reservaStockService.reservar(reservaStockService.tokenDe(session), idProducto, nuevaCantidad);
+            if (!reserva.reservado()) {
                 redirectAttributes.addFlashAttribute("error",
-                    "No hay suficiente stock disponible. Stock actual: " + producto.getStock() +
+                    "No hay suficiente stock disponible. Disponible: " + reserva.disponible() +
                     ", en carrito: " + cantidadActual);
                 return "redirect:/cliente/producto/" + idProducto;
             }
@@ -524,56 +531,18 @@ public class ClienteController {
             return "cliente/carrito";
         }
 
-        // Convertir el Map a una lista de objetos para la vista
-        List<Map<String, Object>> cartItems = new ArrayList<>();
-        double subtotal = 0.0;
-
-        for (Map.Entry<Integer, Integer> entry : carrito.entrySet()) {
-            Integer idProducto = entry.getKey();
-            Integer cantidad = entry.getValue();
-
-            // Obtener el producto desde la base de datos
-            Producto producto = productoService.obtenerPorId(idProducto).orElse(null);
-            if (producto != null) {
-                // Obtener URL de la imagen
-                String imagenUrl = "/imag/placeholder.jpg";
-                if (producto.getImagenesProducto() != null && !producto.getImagenesProducto().isEmpty()) {
-                    imagenUrl = "/" + producto.getImagenesProducto().get(0).getUrlImagen();
-                }
-
-                // Calcular subtotal del item
-                double precioProducto = producto.getPrecio().doubleValue();
-                double subtotalItem = precioProducto * cantidad;
-                subtotal += subtotalItem;
-
-                // Crear objeto para la vista
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", producto.getIdProducto());
-                item.put("nombre", producto.getNombreProducto());
-                item.put("descripcion", producto.getDescripcionProducto());
-                item.put("precio", precioProducto);
-                item.put("cantidad", cantidad);
-                item.put("subtotal", subtotalItem);
-                item.put("imagenUrl", imagenUrl);
-
-                cartItems.add(item);
-            }
-        }
-
-        // Calcular envío
-        double envio = cartItems.isEmpty() ? 0.0 : 7000.0;
-
-        // Calcular total
-        double total = subtotal + envio;
+        // Cotizar todo el carrito con una sola consulta
+        CotizadorCarritoService.Cotizacion cotizacion =
+                cotizadorCarritoService.cotizar(carrito, CotizadorCarritoService.TarifaEnvio.FIJA);
 
         // Calcular cantidad total de items
         int cartCount = carrito.values().stream().mapToInt(Integer::intValue).sum();
 
         // Agregar atributos al modelo
-        model.addAttribute("cartItems", cartItems);
-        model.addAttribute("subtotal", subtotal);
-        model.addAttribute("envio", envio);
-        model.addAttribute("total", total);
+        model.addAttribute("cartItems", cotizacion.lineas());
+        model.addAttribute("subtotal", cotizacion.subtotal());
+        model.addAttribute("envio", cotizacion.envio());
+        model.addAttribute("total", cotizacion.total());
         model.addAttribute("cartCount", cartCount);
 
         return "cliente/carrito";
@@ -597,11 +566,17 @@ public class ClienteController {
                 return "redirect:/cliente/carrito";
             }
 
-            // Verificar stock disponible
-            Producto producto = productoService.obtenerPorId(idProducto).orElse(null);
-            if (producto != null && cantidad > producto.getStock()) {
+            if (cantidad == null || cantidad < 1) {
+                redirectAttributes.addFlashAttribute("error", "La cantidad debe ser al menos 1");
+                return "redirect:/cliente/carrito";
+            }
+
+            // Ajustar la reserva a la nueva cantidad
+            ReservaStockService.ResultadoReserva reserva =
+                    reservaStockService.reservar(reservaStockService.tokenDe(session), idProducto, cantidad);
+            if (!reserva.reservado()) {
                 redirectAttributes.addFlashAttribute("error",
-                    "Stock insuficiente. Disponible: " + producto.getStock());
+                    "Stock insuficiente. Disponible: " + reserva.disponible());
                 return "redirect:/cliente/carrito";
             }
 
@@ -633,8 +608,9 @@ public class ClienteController {
                 return "redirect:/cliente/carrito";
             }
 
-            // Eliminar el producto del carrito
+            // Eliminar el producto del carrito y liberar su reserva
             carrito.remove(idProducto);
+            reservaStockService.liberar(reservaStockService.tokenDe(session), idProducto);
             session.setAttribute("carrito", carrito);
 
             redirectAttributes.addFlashAttribute("success", "Producto eliminado del carrito");
@@ -650,6 +626,11 @@ public class ClienteController {
      */
     @PostMapping("/cliente/carrito/vaciar")
     public String vaciarCarrito(HttpSession session, RedirectAttributes redirectAttributes) {
+        @SuppressWarnings("unchecked")
+        Map<Integer, Integer> carrito = (Map<Integer, Integer>) session.getAttribute("carrito");
+        if (carrito != null) {
+            reservaStockService.liberarTodo(reservaStockService.tokenDe(session), carrito.keySet());
+        }
         session.removeAttribute("carrito");
         redirectAttributes.addFlashAttribute("success", "Carrito vaciado correctamente");
         return "redirect:/cliente/carrito";
@@ -657,220 +638,14 @@ public class ClienteController {
 
     /**
      * Método para aplicar filtros combinados de productos
+     * Los filtros se resuelven con el índice en memoria del catálogo (IndiceCatalogoService),
+     * así que solo se cargan de BD los productos que cumplen los criterios
      */
     private List<Producto> aplicarFiltrosCombinados(String busqueda, Integer categoriaId, String ubicacion,
-                                                   Double precioMin, Double precioMax, Boolean soloDisponibles, Boolean organicosBPA) {
-        // Comenzar with todos los productos
-        List<Producto> productos = productoService.obtenerTodos();
-
-        // DEBUG: Verificar si hay productos de Medellín
-        long productosMedellin = productos.stream()
-            .filter(p -> p.getProductor() != null &&
-                       p.getProductor().getUsuario() != null &&
-                       p.getProductor().getUsuario().getCiudad() != null &&
-                       normalizarTexto(p.getProductor().getUsuario().getCiudad()).contains("medellin"))
-            .count();
-        System.out.println("=== Productos de Medellín en BD: " + productosMedellin);
-
-        // Aplicar filtro de búsqueda (nombre o descripción)
-        if (busqueda != null && !busqueda.trim().isEmpty()) {
-            String terminoBusqueda = busqueda.trim().toLowerCase();
-            productos = productos.stream()
-                .filter(p -> (p.getNombreProducto() != null && p.getNombreProducto().toLowerCase().contains(terminoBusqueda)) ||
-                           (p.getDescripcionProducto() != null && p.getDescripcionProducto().toLowerCase().contains(terminoBusqueda)))
-                .toList();
-        }
-
-        // Aplicar filtro por categoría
-        if (categoriaId != null) {
-            productos = productos.stream()
-                .filter(p -> p.getCategoria() != null && p.getCategoria().getIdCategoria().equals(categoriaId))
-                .toList();
-        }
-
-        // Aplicar filtro por ubicación (ciudad del productor) - Mejorado para acentos y variaciones
-        if (ubicacion != null && !ubicacion.trim().isEmpty()) {
-            String ubicacionBusqueda = normalizarTexto(ubicacion.trim());
-
-            // Debug: Imprimir ciudades disponibles (temporal)
-            System.out.println("=== DEBUG: Buscando ubicación: " + ubicacion + " (normalizado: " + ubicacionBusqueda + ")");
-            System.out.println("Ciudades disponibles en la BD:");
-            productos.stream()
-                .filter(p -> p.getProductor() != null &&
-                           p.getProductor().getUsuario() != null &&
-                           p.getProductor().getUsuario().getCiudad() != null)
-                .map(p -> p.getProductor().getUsuario().getCiudad())
-                .distinct()
-                .forEach(ciudad -> System.out.println("- " + ciudad));
-
-            productos = productos.stream()
-                .filter(p -> {
-                    if (p.getProductor() == null ||
-                        p.getProductor().getUsuario() == null ||
-                        p.getProductor().getUsuario().getCiudad() == null) {
-                        return false;
-                    }
-
-                    String ciudadProductor = normalizarTexto(p.getProductor().getUsuario().getCiudad());
-                    boolean coincide = ciudadProductor.contains(ubicacionBusqueda);
-
-                    // También buscar en departamento/estado si existe
-                    if (!coincide && p.getProductor().getUsuario().getDepartamento() != null) {
-                        String departamentoProductor = normalizarTexto(p.getProductor().getUsuario().getDepartamento());
-                        coincide = departamentoProductor.contains(ubicacionBusqueda);
-                    }
-
-                    return coincide;
-                })
-                .toList();
-
-            System.out.println("Productos encontrados después del filtro de ubicación: " + productos.size());
-        }
-
-        // Aplicar filtro por precio mínimo
-        if (precioMin != null) {
-            productos = productos.stream()
-                .filter(p -> p.getPrecio() != null && p.getPrecio().doubleValue() >= precioMin)
-                .toList();
-        }
-
-        // Aplicar filtro por precio máximo
-        if (precioMax != null) {
-            productos = productos.stream()
-                .filter(p -> p.getPrecio() != null && p.getPrecio().doubleValue() <= precioMax)
-                .toList();
-        }
-
-        // Aplicar filtro solo productos disponibles
-        if (Boolean.TRUE.equals(soloDisponibles)) {
-            productos = productos.stream()
-                .filter(p -> p.getStock() != null && p.getStock() > 0)
-                .toList();
-        }
-
-        // Aplicar filtro orgánicos/BPA (simulado por ahora)
-        if (Boolean.TRUE.equals(organicosBPA)) {
-            productos = productos.stream()
-                .filter(p -> p.getDescripcionProducto() != null &&
-                           (p.getDescripcionProducto().toLowerCase().contains("orgánico") ||
-                            p.getDescripcionProducto().toLowerCase().contains("bpa") ||
-                            p.getDescripcionProducto().toLowerCase().contains("certificado")))
-                .toList();
-        }
-
-        return productos;
-    }
-
-    /**
-     * Método de búsqueda avanzada con normalización de texto
-     */
-    private List<Producto> busquedaAvanzadaConNormalizacion(String terminoBusqueda) {
-        System.out.println("=== INICIANDO BÚSQUEDA AVANZADA ===");
-
-        List<Producto> todosProductos = productoService.obtenerTodos();
-        System.out.println("Total de productos en BD: " + todosProductos.size());
-
-        String terminoNormalizado = normalizarTexto(terminoBusqueda);
-        System.out.println("Término de búsqueda: '" + terminoBusqueda + "' → normalizado: '" + terminoNormalizado + "'");
-
-        // DEBUG: Mostrar algunos productos disponibles
-        System.out.println("=== PRIMEROS 5 PRODUCTOS EN BD ===");
-        todosProductos.stream().limit(5).forEach(p -> {
-            String ciudad = (p.getProductor() != null && p.getProductor().getUsuario() != null)
-                ? p.getProductor().getUsuario().getCiudad() : "Sin ciudad";
-            String productor = (p.getProductor() != null && p.getProductor().getUsuario() != null)
-                ? p.getProductor().getUsuario().getNombre() : "Sin productor";
-            System.out.println("- " + p.getNombreProducto() + " | Ciudad: " + ciudad + " | Productor: " + productor);
-        });
-
-        List<Producto> productosEncontrados = new ArrayList<>();
-
-        for (Producto producto : todosProductos) {
-            boolean encontrado = false;
-            String razonEncontrado = "";
-
-            try {
-                // Buscar en nombre del producto
-                if (producto.getNombreProducto() != null) {
-                    String nombreNormalizado = normalizarTexto(producto.getNombreProducto());
-                    if (nombreNormalizado.contains(terminoNormalizado)) {
-                        encontrado = true;
-                        razonEncontrado = "nombre: " + producto.getNombreProducto();
-                    }
-                }
-
-                // Buscar en descripción del producto
-                if (!encontrado && producto.getDescripcionProducto() != null) {
-                    String descripcionNormalizada = normalizarTexto(producto.getDescripcionProducto());
-                    if (descripcionNormalizada.contains(terminoNormalizado)) {
-                        encontrado = true;
-                        razonEncontrado = "descripción: " + producto.getDescripcionProducto();
-                    }
-                }
-
-                // Buscar en ciudad del productor
-                if (!encontrado && producto.getProductor() != null &&
-                    producto.getProductor().getUsuario() != null &&
-                    producto.getProductor().getUsuario().getCiudad() != null) {
-                    String ciudadNormalizada = normalizarTexto(producto.getProductor().getUsuario().getCiudad());
-                    if (ciudadNormalizada.contains(terminoNormalizado)) {
-                        encontrado = true;
-                        razonEncontrado = "ciudad: " + producto.getProductor().getUsuario().getCiudad();
-                    }
-                }
-
-                // Buscar en nombre del productor
-                if (!encontrado && producto.getProductor() != null &&
-                    producto.getProductor().getUsuario() != null &&
-                    producto.getProductor().getUsuario().getNombre() != null) {
-                    String nombreProductorNormalizado = normalizarTexto(producto.getProductor().getUsuario().getNombre());
-                    if (nombreProductorNormalizado.contains(terminoNormalizado)) {
-                        encontrado = true;
-                        razonEncontrado = "productor: " + producto.getProductor().getUsuario().getNombre();
-                    }
-                }
-
-                // Buscar en categoría
-                if (!encontrado && producto.getCategoria() != null) {
-                    String categoriaNormalizada = normalizarTexto(producto.getCategoria().getNombreCategoria());
-                    if (categoriaNormalizada.contains(terminoNormalizado)) {
-                        encontrado = true;
-                        razonEncontrado = "categoría: " + producto.getCategoria().getNombreCategoria();
-                    }
-                }
-
-                if (encontrado) {
-                    productosEncontrados.add(producto);
-                    System.out.println("✓ Producto encontrado: " + producto.getNombreProducto() + " (" + razonEncontrado + ")");
-                }
-
-            } catch (Exception e) {
-                System.err.println("Error procesando producto ID " + producto.getIdProducto() + ": " + e.getMessage());
-            }
-        }
-
-        System.out.println("=== RESULTADO BÚSQUEDA: " + productosEncontrados.size() + " productos encontrados ===");
-
-        return productosEncontrados;
-    }
-
-    /**
-     * Método auxiliar para normalizar texto eliminando acentos y convirtiendo a minúsculas
-     */
-    private String normalizarTexto(String texto) {
-        if (texto == null) {
-            return "";
-        }
-
-        // Convertir a minúsculas y eliminar acentos comunes
-        return texto.toLowerCase()
-                   .replace("á", "a").replace("à", "a").replace("ä", "a")
-                   .replace("é", "e").replace("è", "e").replace("ë", "e")
-                   .replace("í", "i").replace("ì", "i").replace("ï", "i")
-                   .replace("ó", "o").replace("ò", "o").replace("ö", "o")
-                   .replace("ú", "u").replace("ù", "u").replace("ü", "u")
-                   .replace("ñ", "n")
-                   .trim();
+                                                   Double precioMin, Double precioMax, Boolean soloDisponibles, Boolean organicosBPA,
+                                                   Double calificacionMin, boolean porCalificacion) {
+        return productoService.filtrarCatalogo(busqueda, categoriaId, ubicacion,
+                precioMin, precioMax, soloDisponibles, organicosBPA, calificacionMin, porCalificacion);
     }
 
     /**
@@ -2,7 +2,8 @@ package com.example.springbootagrolink.controllers;
 
 import com.example.springbootagrolink.model.*;
 import com.example.springbootagrolink.services.CompraService;
-import com.example.springbootagrolink.services.ProductoService;
+import com.example.springbootagrolink.services.CotizadorCarritoService;
+import com.example.springbootagrolink.services.ReservaStockService;
 import com.example.springbootagrolink.repository.UsuarioRepository;
 import com.example.springbootagrolink.repository.ClienteRepository;
 import com.example.springbootagrolink.repository.EnvioRepository;
@@ -35,7 +36,10 @@ public class CompraController {
     private final CompraService compraService;
 
     @Autowired
-    private ProductoService productoService;
+    private CotizadorCarritoService cotizadorCarritoService;
+
+    @Autowired
+    private ReservaStockService reservaStockService;
 
     @Autowired
     private UsuarioRepository usuarioRepository;
@@ -176,64 +180,20 @@ public class CompraController {
                 }
             }
 
-            // Convertir el carrito a una lista de items con detalles del producto
-            System.out.println("Procesando items del carrito...");
-            List<Map<String, Object>> cartItems = new ArrayList<>();
-            double subtotal = 0.0;
-            double pesoTotal = 0.0;
-
-            for (Map.Entry<Integer, Integer> entry : carrito.entrySet()) {
-                Integer idProducto = entry.getKey();
-                Integer cantidad = entry.getValue();
-                System.out.println("Procesando producto ID: " + idProducto + ", cantidad: " + cantidad);
-
-                Producto producto = productoService.obtenerPorId(idProducto).orElse(null);
-                if (producto != null) {
-                    String imagenUrl = "/imag/placeholder.jpg";
-                    if (producto.getImagenesProducto() != null && !producto.getImagenesProducto().isEmpty()) {
-                        imagenUrl = "/" + producto.getImagenesProducto().get(0).getUrlImagen();
-                    }
-
-                    double precioProducto = producto.getPrecio().doubleValue();
-                    double subtotalItem = precioProducto * cantidad;
-                    subtotal += subtotalItem;
-
-                    // Calcular peso total
-                    double pesoProducto = producto.getPesoKg() != null ? producto.getPesoKg().doubleValue() : 1.0;
-                    pesoTotal += pesoProducto * cantidad;
-
-                    Map<String, Object> item = new HashMap<>();
-                    item.put("id", producto.getIdProducto());
-                    item.put("nombre", producto.getNombreProducto());
-                    item.put("precio", precioProducto);
-                    item.put("cantidad", cantidad);
-                    item.put("subtotal", subtotalItem);
-                    item.put("imagenUrl", imagenUrl);
-                    item.put("peso", pesoProducto);
-
-                    cartItems.add(item);
-                    System.out.println("Producto agregado: " + producto.getNombreProducto());
-                } else {
-                    System.out.println("WARNING: Producto no encontrado ID: " + idProducto);
-                }
-            }
-
-            // Calcular costos
-            double costoEnvio = pesoTotal * 800; // $800 por kg
-            double impuestos = subtotal * 0.08; // 8% de impuestos
-            double total = subtotal + costoEnvio + impuestos;
-
-            System.out.println("Cálculos - Subtotal: " + subtotal + ", Envío: " + costoEnvio + ", Total: " + total);
+            // Cotizar el carrito con una sola consulta (precios, pesos e imagen principal)
+            CotizadorCarritoService.Cotizacion cotizacion =
+                    cotizadorCarritoService.cotizar(carrito, CotizadorCarritoService.TarifaEnvio.POR_PESO);
+            System.out.println("Cálculos - Subtotal: " + cotizacion.subtotal() + ", Envío: " + cotizacion.envio() + ", Total: " + cotizacion.total());
 
             // Agregar atributos al modelo
             model.addAttribute("usuario", usuario);
             model.addAttribute("cliente", cliente);
-            model.addAttribute("cartItems", cartItems);
-            model.addAttribute("subtotal", subtotal);
-            model.addAttribute("pesoTotal", pesoTotal);
-            model.addAttribute("costoEnvio", costoEnvio);
-            model.addAttribute("impuestos", impuestos);
-            model.addAttribute("total", total);
+            model.addAttribute("cartItems", cotizacion.lineas());
+            model.addAttribute("subtotal", cotizacion.subtotal());
+            model.addAttribute("pesoTotal", cotizacion.pesoTotal());
+            model.addAttribute("costoEnvio", cotizacion.envio());
+            model.addAttribute("impuestos", cotizacion.impuestos());
+            model.addAttribute("total", cotizacion.total());
 
             System.out.println("=== FIN mostrarFormularioCrear - Retornando vista compras/crear ===");
             return "compras/crear";
@@ -307,21 +267,14 @@ public class CompraController {
                 }
             }
 
-            // Crear la compra
-            System.out.println("Creando compra con ID cliente: " + cliente.getIdUsuario());
-            Compra nuevaCompra = compraService.crearCompra(cliente.getIdUsuario(), metodoPago, direccionEntrega);
+            // Crear la compra con todas las líneas del carrito en una sola transacción
+            System.out.println("Creando compra con ID cliente: " + cliente.getIdUsuario() + ", líneas: " + carrito.size());
+            Compra nuevaCompra = compraService.realizarCompra(cliente.getIdUsuario(), metodoPago, direccionEntrega,
+                    carrito, reservaStockService.tokenDe(session));
             System.out.println("Compra creada con ID: " + nuevaCompra.getIdCompra());
 
-            // Agregar cada producto del carrito a la compra
-            System.out.println("Agregando productos a la compra...");
-            for (Map.Entry<Integer, Integer> entry : carrito.entrySet()) {
-                Integer idProducto = entry.getKey();
-                Integer cantidad = entry.getValue();
-                System.out.println("Agregando producto ID: " + idProducto + ", cantidad: " + cantidad);
-                compraService.agregarProducto(nuevaCompra.getIdCompra(), idProducto, cantidad);
-            }
-
-            // Limpiar el carrito después de procesar la compra
+            // Limpiar el carrito después de procesar la compra; el stock ya se descontó en BD
+            reservaStockService.liberarTodo(reservaStockService.tokenDe(session), carrito.keySet());
             session.removeAttribute("carrito");
             System.out.println("Carrito limpiado de la sesión");
 
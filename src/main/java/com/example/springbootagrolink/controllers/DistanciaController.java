@@ -2,11 +2,15 @@ package com.example.springbootagrolink.controllers;
 
 import com.example.springbootagrolink.services.CostoEnvioService;
 import com.example.springbootagrolink.services.EnvioService;
+import com.example.springbootagrolink.model.CotizacionLoteDistancias;
 import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.LoteDistancias;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -20,6 +24,9 @@ import java.util.Optional;
 @RequestMapping("/api")
 public class DistanciaController {
 
+    // Tope de pares por solicitud para acotar la memoria de una sola petición
+    private static final int MAX_PARES_POR_LOTE = 200_000;
+
     @Autowired
     private CostoEnvioService costoEnvioService;
 
@@ -54,6 +61,39 @@ public class DistanciaController {
         return ResponseEntity.ok(resultado);
     }
 
+    /**
+     * Cotiza un lote de pares origen/destino en una sola llamada (formato columnar, ver LoteDistancias).
+     * Ejemplo: POST /api/distancias/lote
+     * {"latOrigen":[4.7110],"lonOrigen":[-74.0721],"latDestino":[2.4456],"lonDestino":[-76.6142],"pesoKg":[500]}
+     */
+    @PostMapping("/distancias/lote")
+    public ResponseEntity<?> cotizarLote(@RequestBody LoteDistancias lote) {
+        String error = validarLote(lote);
+        if (error != null) {
+            Map<String, Object> resultado = new HashMap<>();
+            resultado.put("error", error);
+            return ResponseEntity.badRequest().body(resultado);
+        }
+        CotizacionLoteDistancias cotizacion = costoEnvioService.cotizarLote(lote);
+        return ResponseEntity.ok(cotizacion);
+    }
+
+    private String validarLote(LoteDistancias lote) {
+        if (lote == null || lote.latOrigen() == null || lote.lonOrigen() == null
+                || lote.latDestino() == null || lote.lonDestino() == null) {
+            return "Parametros latOrigen, lonOrigen, latDestino, lonDestino son requeridos";
+        }
+        int n = lote.latOrigen().length;
+        if (lote.lonOrigen().length != n || lote.latDestino().length != n || lote.lonDestino().length != n
+                || (lote.pesoKg() != null && lote.pesoKg().length != n)) {
+            return "Todos los arreglos deben tener la misma longitud";
+        }
+        if (n > MAX_PARES_POR_LOTE) {
+            return "El lote supera el maximo de " + MAX_PARES_POR_LOTE + " pares";
+        }
+        return null;
+    }
+
     /**
      * Recalcula distancia y costos para un Envío existente y lo guarda.
      * Ejemplo: GET /api/envios/1/recalcular
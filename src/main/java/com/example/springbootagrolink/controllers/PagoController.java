@@ -5,19 +5,29 @@ import com.example.springbootagrolink.model.Usuario;
 import com.example.springbootagrolink.model.Envio;
 import com.example.springbootagrolink.services.CompraService;
 import com.example.springbootagrolink.services.EnvioService;
+import com.example.springbootagrolink.services.ProcesadorEnviosService;
+import com.example.springbootagrolink.services.RastreoEnviosService;
+import com.example.springbootagrolink.repository.CompraRepository;
 import com.example.springbootagrolink.repository.UsuarioRepository;
 import com.example.springbootagrolink.repository.EnvioRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.servlet.http.HttpSession;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @Controller
@@ -32,12 +42,21 @@ public class PagoController {
     @Autowired
     private EnvioService envioService;
 
+    @Autowired
+    private ProcesadorEnviosService procesadorEnviosService;
+
     @Autowired
     private UsuarioRepository usuarioRepository;
 
     @Autowired
     private EnvioRepository envioRepository;
 
+    @Autowired
+    private CompraRepository compraRepository;
+
+    @Autowired
+    private RastreoEnviosService rastreoEnviosService;
+
     /**
      * Método que agrega el contador del carrito a todas las vistas automáticamente
      */
@@ -133,40 +152,11 @@ public class PagoController {
             log.info("  ✓ Compra obtenida: ID={}, Cliente={}", compra.getIdCompra(),
                     (compra.getCliente() != null ? compra.getCliente().getIdUsuario() : "NULL"));
 
-            // Crear el envío con todos los datos correctamente capturados
-            log.info("  → Preparando datos para crear envío...");
-
-            Envio envio = new Envio();
-            envio.setCompra(compra);
-
-            // ASEGURAR que la dirección de destino esté seteada desde la compra
-            if (compra.getDireccionEntrega() != null && !compra.getDireccionEntrega().isEmpty()) {
-                envio.setDireccionDestino(compra.getDireccionEntrega());
-                log.info("  ✓ Dirección destino capturada: {}", compra.getDireccionEntrega());
-            } else {
-                log.warn("  ⚠ Advertencia: Dirección de entrega no definida en la compra");
-                envio.setDireccionDestino("Por confirmar");
-            }
-
-            envio.setEstadoEnvio(Envio.EstadoEnvio.Buscando_Transporte);
-
-            // Usar EnvioService.crear() que automáticamente:
-            // 1. Obtiene el peso total desde los detalles de la compra
-            // 2. Obtiene coordenadas de origen desde la finca del primer producto
-            // 3. Calcula la distancia
-            // 4. Calcula costo_base, costo_peso, costo_total
-            log.info("  → Llamando a EnvioService.crear() para cálculos automáticos...");
-            envio = envioService.crear(envio);
-
-            log.info("  ✓ Envío creado exitosamente:");
-            log.info("    - ID Envío: {}", envio.getIdEnvio());
-            log.info("    - Origen: {}", envio.getDireccionOrigen());
-            log.info("    - Destino: {}", envio.getDireccionDestino());
-            log.info("    - Distancia: {} km", envio.getDistanciaKm());
-            log.info("    - Peso Total: {} kg", envio.getPesoTotalKg());
-            log.info("    - Costo Base: ${}", envio.getCostoBase());
-            log.info("    - Costo Peso: ${}", envio.getCostoPeso());
-            log.info("    - Costo Total: ${}", envio.getCostoTotal());
+            // Registrar el envío como pendiente; la geocodificación, la distancia y los costos
+            // se calculan en segundo plano (ProcesadorEnviosService) para no demorar el pago
+            Envio envio = envioService.registrarPendiente(compra);
+            procesadorEnviosService.programar(envio.getIdEnvio());
+            log.info("  ✓ Envío {} registrado, cálculo de costos programado", envio.getIdEnvio());
 
             // Limpiar la sesión
             session.removeAttribute("idCompraActual");
@@ -196,13 +186,123 @@ public class PagoController {
     ) {
         Compra compra = compraService.obtenerPorId(idCompra).orElse(null);
 
-        if (compra == null) {
+        if (compra == null || !esCompraDelCliente(idCompra)) {
             redirectAttributes.addFlashAttribute("error", "Compra no encontrada");
             return "redirect:/";
         }
 
         model.addAttribute("compra", compra);
+        model.addAttribute("envios", envioService.obtenerPorCompra(idCompra));
         return "pago/confirmacion";
     }
-}
 
+    /**
+     * Estado del cálculo de los envíos de una compra (la confirmación lo consulta mientras se calcula).
+     * Una compra con productos de fincas lejanas tiene varios envíos: se devuelve cada uno y el agregado
+     * (costo total, distancia total y el estado de cálculo más atrasado).
+     */
+    @GetMapping("/envio/estado")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> estadoEnvio(@RequestParam Integer idCompra) {
+        if (!esCompraDelCliente(idCompra)) {
+            return ResponseEntity.status(403).body(Map.of("success", false, "message", "No autorizado"));
+        }
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        List<Envio> envios = envioService.obtenerPorCompra(idCompra);
+        if (envios.isEmpty()) {
+            respuesta.put("encontrado", false);
+            return ResponseEntity.ok(respuesta);
+        }
+
+        Envio.EstadoCalculo estadoCalculo = Envio.EstadoCalculo.COMPLETO;
+        BigDecimal costoTotal = BigDecimal.ZERO;
+        double distanciaKm = 0;
+        List<Map<String, Object>> detalle = new ArrayList<>(envios.size());
+        for (Envio envio : envios) {
+            Envio.EstadoCalculo estado = envio.getEstadoCalculo() != null ? envio.getEstadoCalculo() : Envio.EstadoCalculo.COMPLETO;
+            estadoCalculo = peorEstadoCalculo(estadoCalculo, estado);
+            if (envio.getCostoTotal() != null) {
+                costoTotal = costoTotal.add(envio.getCostoTotal());
+            }
+            if (envio.getDistanciaKm() != null) {
+                distanciaKm += envio.getDistanciaKm();
+            }
+
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("idEnvio", envio.getIdEnvio());
+            item.put("direccionOrigen", envio.getDireccionOrigen());
+            item.put("estadoEnvio", envio.getEstadoEnvio());
+            item.put("estadoCalculo", estado);
+            item.put("intentosCalculo", envio.getIntentosCalculo());
+            item.put("distanciaKm", envio.getDistanciaKm());
+            item.put("costoTotal", envio.getCostoTotal());
+            item.put("errorCalculo", envio.getErrorCalculo());
+            detalle.add(item);
+        }
+
+        respuesta.put("encontrado", true);
+        respuesta.put("cantidadEnvios", envios.size());
+        respuesta.put("estadoCalculo", estadoCalculo);
+        // El costo y la distancia totales solo son definitivos cuando todos los envíos están calculados
+        respuesta.put("costoTotal", estadoCalculo == Envio.EstadoCalculo.COMPLETO ? costoTotal : null);
+        respuesta.put("distanciaKm", estadoCalculo == Envio.EstadoCalculo.COMPLETO ? distanciaKm : null);
+        respuesta.put("envios", detalle);
+        return ResponseEntity.ok(respuesta);
+    }
+
+    // FALLIDO pesa más que PENDIENTE, y este más que COMPLETO
+    private static Envio.EstadoCalculo peorEstadoCalculo(Envio.EstadoCalculo a, Envio.EstadoCalculo b) {
+        if (a == Envio.EstadoCalculo.FALLIDO || b == Envio.EstadoCalculo.FALLIDO) {
+            return Envio.EstadoCalculo.FALLIDO;
+        }
+        if (a == Envio.EstadoCalculo.PENDIENTE || b == Envio.EstadoCalculo.PENDIENTE) {
+            return Envio.EstadoCalculo.PENDIENTE;
+        }
+        return Envio.EstadoCalculo.COMPLETO;
+    }
+
+    /**
+     * Rastreo de un envío del cliente autenticado: últimas posiciones y ETA
+     */
+    @GetMapping("/envio/rastreo")
+    @ResponseBody
+    public ResponseEntity<?> rastreoEnvio(@RequestParam Integer idEnvio,
+                                          @RequestParam(defaultValue = "20") int n) {
+        if (!esEnvioDelCliente(idEnvio)) {
+            return ResponseEntity.status(403).body(Map.of("success", false, "message", "No autorizado"));
+        }
+        return ResponseEntity.ok(rastreoEnviosService.estado(idEnvio, n));
+    }
+
+    /**
+     * Suscripción SSE al rastreo de un envío del cliente autenticado
+     */
+    @GetMapping(value = "/envio/rastreo/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> suscribirRastreo(@RequestParam Integer idEnvio) {
+        if (!esEnvioDelCliente(idEnvio)) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(rastreoEnviosService.suscribir(idEnvio));
+    }
+
+    private boolean esCompraDelCliente(Integer idCompra) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            return false;
+        }
+        return usuarioRepository.findByNombreUsuario(authentication.getName())
+                .map(u -> compraRepository.existsByIdCompraAndCliente_IdUsuario(idCompra, u.getIdUsuario()))
+                .orElse(false);
+    }
+
+    private boolean esEnvioDelCliente(Integer idEnvio) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            return false;
+        }
+        return usuarioRepository.findByNombreUsuario(authentication.getName())
+                .map(u -> envioRepository.existsByIdEnvioAndCompra_Cliente_IdUsuario(idEnvio, u.getIdUsuario()))
+                .orElse(false);
+    }
+}
@@ -5,6 +5,7 @@ import com.example.springbootagrolink.services.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -17,7 +18,7 @@ import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
+import java.time.LocalDate;
 import java.time.format.TextStyle;
 import java.util.*;
 import org.springframework.security.core.Authentication;
@@ -51,41 +52,52 @@ public class ProductoController {
     private ProductoFincaService productoFincaService;
 
     @Autowired
-    private com.example.springbootagrolink.services.DetalleCompraService detalleCompraService;
+    private VentasResumenService ventasResumenService;
 
     // Directorio para guardar las imágenes (usar ruta absoluta que funcione en desarrollo y producción)
     private static final String UPLOAD_DIR = "target/classes/static/images/products/";
 
+    // Productos por página en el dashboard (paginación por cursor)
+    private static final int TAMANIO_PAGINA_DASHBOARD = 50;
+
     /**
      * Mostrar dashboard de productor con lista de productos
      */
     @GetMapping
-    public String listarProductos(Model model) {
+    public String listarProductos(@RequestParam(value = "despues", required = false) Integer despuesDeId,
+                                  Model model) {
         // Obtener el usuario autenticado
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String username = authentication != null ? authentication.getName() : null;
 
         // Buscar el productor correspondiente
         Optional<Productor> productorOpt = productorService.obtenerPorNombreUsuario(username);
-        List<Producto> productos;
+        PaginaCatalogo pagina;
+        long totalProductos;
         List<Finca> fincas;
         String nombreUsuario = username;
         if (productorOpt.isPresent()) {
             Productor productor = productorOpt.get();
-            productos = productoService.obtenerPorProductor(productor.getIdProductor());
+            pagina = productoService.obtenerPaginaPorProductor(productor.getIdProductor(), despuesDeId, TAMANIO_PAGINA_DASHBOARD);
+            totalProductos = productoService.contarPorProductor(productor.getIdProductor());
             fincas = fincaService.obtenerPorProductor(productor.getIdProductor());
             model.addAttribute("productor", productor);
             if (productor.getUsuario() != null && productor.getUsuario().getNombreUsuario() != null) {
                 nombreUsuario = productor.getUsuario().getNombreUsuario();
             }
         } else {
-            productos = productoService.obtenerTodos();
+            pagina = productoService.obtenerPaginaCatalogo(despuesDeId, TAMANIO_PAGINA_DASHBOARD);
+            totalProductos = productoService.contarTodos();
             fincas = fincaService.obtenerTodos();
         }
         List<CategoriaProducto> categorias = categoriaProductoService.obtenerTodos();
         List<Productor> productores = productorService.obtenerTodos();
 
-        model.addAttribute("productos", productos);
+        model.addAttribute("productos", pagina.productos());
+        model.addAttribute("totalProductos", totalProductos);
+        model.addAttribute("hayMasProductos", pagina.hayMas());
+        model.addAttribute("siguienteId", pagina.siguienteId());
+        model.addAttribute("esPrimeraPagina", despuesDeId == null);
         model.addAttribute("categorias", categorias);
         model.addAttribute("productores", productores);
         model.addAttribute("fincas", fincas);
@@ -100,9 +112,10 @@ public class ProductoController {
      * Alias explícito para el dashboard (soporta /productos/dashboard)
      */
     @GetMapping("/dashboard")
-    public String listarProductosDashboard(Model model) {
+    public String listarProductosDashboard(@RequestParam(value = "despues", required = false) Integer despuesDeId,
+                                           Model model) {
         // Reusar la lógica existente
-        return listarProductos(model);
+        return listarProductos(despuesDeId, model);
     }
 
     /**
@@ -133,42 +146,27 @@ public class ProductoController {
     }
 
     /**
-     * Obtener datos de ventas de los últimos 6 meses para la gráfica
+     * Obtener datos de ventas de los últimos 6 meses para la gráfica.
+     * Lee los acumulados mensuales del productor autenticado (6 filas), no el histórico de compras.
      */
     @GetMapping("/ventas-mensuales")
     @ResponseBody
     public ResponseEntity<Map<String, Object>> obtenerVentasMensuales() {
         try {
-            List<Compra> todasLasCompras = compraService.obtenerTodas();
-            LocalDateTime ahora = LocalDateTime.now();
-
-            // Crear mapa para últimos 6 meses
-            Map<String, BigDecimal> ventasPorMes = new LinkedHashMap<>();
-            List<String> meses = new ArrayList<>();
+            LocalDate hoy = LocalDate.now();
+            List<VentasResumenService.PuntoVentas> serie = ventasResumenService.serie(
+                    idProductorAutenticado(), hoy.minusMonths(5).withDayOfMonth(1), hoy,
+                    VentasResumenService.Granularidad.MES);
 
             Locale localeES = Locale.of("es", "ES");
-
-            for (int i = 5; i >= 0; i--) {
-                LocalDateTime mesActual = ahora.minusMonths(i);
-                String nombreMes = mesActual.getMonth().getDisplayName(TextStyle.SHORT, localeES);
+            List<String> meses = new ArrayList<>();
+            List<BigDecimal> ventas = new ArrayList<>();
+            for (VentasResumenService.PuntoVentas punto : serie) {
+                String nombreMes = punto.periodo().getMonth().getDisplayName(TextStyle.SHORT, localeES);
                 meses.add(nombreMes.substring(0, 1).toUpperCase() + nombreMes.substring(1, 3));
-                ventasPorMes.put(nombreMes, BigDecimal.ZERO);
-            }
-
-            // Agrupar ventas por mes
-            for (Compra compra : todasLasCompras) {
-                // Validar que fechaHoraCompra no sea NULL
-                if (compra.getFechaHoraCompra() != null &&
-                    compra.getFechaHoraCompra().isAfter(ahora.minusMonths(6))) {
-                    String mes = compra.getFechaHoraCompra().getMonth()
-                            .getDisplayName(TextStyle.SHORT, localeES);
-                    ventasPorMes.merge(mes, compra.getTotal(), BigDecimal::add);
-                }
+                ventas.add(punto.totalVentas());
             }
 
-            // Convertir a lista de valores
-            List<BigDecimal> ventas = new ArrayList<>(ventasPorMes.values());
-
             Map<String, Object> resultado = new HashMap<>();
             resultado.put("meses", meses);
             resultado.put("ventas", ventas);
@@ -184,6 +182,34 @@ public class ProductoController {
         }
     }
 
+    /**
+     * Serie de ventas del productor autenticado para cualquier rango y granularidad (DIA, SEMANA, MES, ANIO).
+     * Ejemplo: GET /productos/ventas/serie?desde=2026-01-01&hasta=2026-06-30&granularidad=SEMANA
+     */
+    @GetMapping("/ventas/serie")
+    @ResponseBody
+    public ResponseEntity<?> obtenerSerieVentas(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(defaultValue = "MES") VentasResumenService.Granularidad granularidad) {
+        try {
+            return ResponseEntity.ok(ventasResumenService.serie(idProductorAutenticado(), desde, hasta, granularidad));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        }
+    }
+
+    // Productor del usuario autenticado; null si no es productor (se suman todos los productores)
+    private Integer idProductorAutenticado() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            return null;
+        }
+        return productorService.obtenerPorNombreUsuario(authentication.getName())
+                .map(Productor::getIdProductor)
+                .orElse(null);
+    }
+
     /**
      * Guardar un nuevo producto
      */
@@ -509,79 +535,25 @@ public class ProductoController {
     }
 
     /**
-     * Endpoint JSON para cargar pedidos vía AJAX (usado en el dashboard interactivo)
-     * Maneja fechas NULL y referencias circulares
+     * Endpoint JSON paginado para cargar pedidos vía AJAX (usado en el dashboard interactivo)
+     * Devuelve proyecciones (sin entidades), así que no hay referencias circulares ni cargas perezosas
      */
     @GetMapping("/pedidos/json")
     @ResponseBody
-    public ResponseEntity<?> obtenerPedidosJson() {
+    public ResponseEntity<?> obtenerPedidosJson(@RequestParam(defaultValue = "0") int pagina,
+                                                @RequestParam(defaultValue = "50") int tamanio) {
         try {
-            // Obtener usuario autenticado y su productor (si existe)
-            org.springframework.security.core.Authentication authentication = org.springframework.security.core.context.SecurityContextHolder.getContext().getAuthentication();
-            String username = authentication != null ? authentication.getName() : null;
-            // Resolver el productorId en una sola asignación final para ser compatible con lambdas
-            final Integer productorId = (username != null)
-                ? productorService.obtenerPorNombreUsuario(username)
-                    .map(com.example.springbootagrolink.model.Productor::getIdProductor)
-                    .orElse(null)
-                : null;
-
-            List<Compra> compras = compraService.obtenerTodas();
-
-            // Si tenemos un productor identificado, filtramos las compras que incluyan al menos
-            // un detalle cuyo producto pertenezca a dicho productor
-            if (productorId != null) {
-                List<Compra> comprasFiltradas = new java.util.ArrayList<>();
-                for (Compra c : compras) {
-                    try {
-                        java.util.List<com.example.springbootagrolink.model.DetalleCompra> detalles = detalleCompraService.listarPorCompra(c.getIdCompra());
-                        boolean pertenece = detalles.stream().anyMatch(d -> d.getProducto() != null
-                                && d.getProducto().getProductor() != null
-                                && d.getProducto().getProductor().getIdProductor() != null
-                                && d.getProducto().getProductor().getIdProductor().equals(productorId));
-                        if (pertenece) comprasFiltradas.add(c);
-                    } catch (Exception ex) {
-                        // Si falla al cargar detalles, omitimos esta compra
-                        log.debug("No se pudieron cargar detalles para compra {}: {}", c.getIdCompra(), ex.getMessage());
-                    }
-                }
-                compras = comprasFiltradas;
-            }
-
-             // Si no hay compras, retornar lista vacía
-             if (compras == null || compras.isEmpty()) {
-                 return ResponseEntity.ok(new ArrayList<>());
-             }
-
-             // Filtrar compras con fechas válidas para evitar errores
-             List<Map<String, Object>> comprasSimplificadas = new ArrayList<>();
-             for (Compra c : compras) {
-                 try {
-                     Map<String, Object> compraMap = new HashMap<>();
-                     compraMap.put("idCompra", c.getIdCompra());
-                     compraMap.put("fechaHoraCompra", c.getFechaHoraCompra());
-                     compraMap.put("total", c.getTotal());
-                     compraMap.put("direccionEntrega", c.getDireccionEntrega());
-                     compraMap.put("metodoPago", c.getMetodoPago());
-
-                     // Datos del cliente (evitar referencia circular)
-                     if (c.getCliente() != null) {
-                         Map<String, Object> clienteMap = new HashMap<>();
-                         clienteMap.put("nombre", c.getCliente().getUsuario() != null ?
-                             c.getCliente().getUsuario().getNombre() : "Sin nombre");
-                         clienteMap.put("correo", c.getCliente().getUsuario() != null ?
-                             c.getCliente().getUsuario().getCorreo() : "");
-                         compraMap.put("cliente", clienteMap);
-                     }
-
-                     comprasSimplificadas.add(compraMap);
-                 } catch (Exception ex) {
-                     log.warn("Error al procesar compra {}: {}", c.getIdCompra(), ex.getMessage());
-                     // Continuar con las demás compras
-                 }
-             }
-
-             return ResponseEntity.ok(comprasSimplificadas);
+            // Solo los pedidos con productos del productor autenticado, en una consulta paginada
+            org.springframework.data.domain.Page<PedidoProductor> pedidos =
+                    compraService.obtenerPedidosProductor(idProductorAutenticado(), pagina, tamanio);
+
+            Map<String, Object> respuesta = new LinkedHashMap<>();
+            respuesta.put("contenido", pedidos.getContent());
+            respuesta.put("pagina", pedidos.getNumber());
+            respuesta.put("tamanio", pedidos.getSize());
+            respuesta.put("totalElementos", pedidos.getTotalElements());
+            respuesta.put("totalPaginas", pedidos.getTotalPages());
+            return ResponseEntity.ok(respuesta);
          } catch (Exception e) {
              log.error("Error al obtener pedidos: {}", e.getMessage(), e);
              Map<String, String> error = new HashMap<>();
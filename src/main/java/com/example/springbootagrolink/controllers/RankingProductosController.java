@@ -0,0 +1,55 @@
+package com.example.springbootagrolink.controllers;
+
+import com.example.springbootagrolink.model.ProductoRanking;
+import com.example.springbootagrolink.services.RankingProductosService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rankings públicos de productos, servidos desde los contadores en memoria de RankingProductosService
+ */
+@RestController
+@RequestMapping("/api/ranking")
+public class RankingProductosController {
+
+    @Autowired
+    private RankingProductosService rankingProductosService;
+
+    /**
+     * Más vendidos. Ejemplo: /api/ranking/mas-vendidos?ventana=7d&categoria=3&limite=10
+     * ventana: total (por defecto), 7d o 30d
+     */
+    @GetMapping("/mas-vendidos")
+    public ResponseEntity<?> masVendidos(@RequestParam(value = "ventana", required = false) String ventana,
+                                         @RequestParam(value = "categoria", required = false) Integer idCategoria,
+                                         @RequestParam(value = "limite", defaultValue = "10") int limite) {
+        try {
+            RankingProductosService.Ventana v = RankingProductosService.Ventana.desde(ventana);
+            List<ProductoRanking> productos = rankingProductosService.detallar(
+                    rankingProductosService.masVendidos(v, idCategoria, limite));
+            return ResponseEntity.ok(productos);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> resultado = new HashMap<>();
+            resultado.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(resultado);
+        }
+    }
+
+    /**
+     * Productos en tendencia (ventas de los últimos 7 días por encima de su ritmo habitual).
+     * Ejemplo: /api/ranking/tendencias?categoria=3&limite=10
+     */
+    @GetMapping("/tendencias")
+    public ResponseEntity<List<ProductoRanking>> tendencias(@RequestParam(value = "categoria", required = false) Integer idCategoria,
+                                                            @RequestParam(value = "limite", defaultValue = "10") int limite) {
+        return ResponseEntity.ok(rankingProductosService.detallar(rankingProductosService.tendencias(idCategoria, limite)));
+    }
+}
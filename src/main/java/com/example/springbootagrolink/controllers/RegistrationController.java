@@ -2,6 +2,7 @@ package com.example.springbootagrolink.controllers;
 
 import com.example.springbootagrolink.model.*;
 import com.example.springbootagrolink.repository.*;
+import com.example.springbootagrolink.services.DatosReferenciaService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,6 +33,9 @@ public class RegistrationController {
     @Autowired
     private AsesorRepository asesorRepository;
 
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
     private static final Logger logger = LoggerFactory.getLogger(RegistrationController.class);
 
     public RegistrationController(UsuarioRepository usuarioRepository, PasswordEncoder passwordEncoder) {
@@ -226,6 +230,7 @@ public class RegistrationController {
             logger.info("Productor - Usuario asociado: {}", productor.getUsuario() != null ? "SI" : "NO");
 
             Productor productorGuardado = productorRepository.saveAndFlush(productor);
+            datosReferenciaService.invalidarProductores();
             logger.info("✓✓✓ Productor guardado en BD exitosamente");
             logger.info("ID del productor guardado: {}", productorGuardado.getIdProductor());
             logger.info("=== FIN crearProductor EXITOSO ===");
@@ -4,6 +4,7 @@ import com.example.springbootagrolink.model.Servicio;
 import com.example.springbootagrolink.services.ServicioService;
 import com.example.springbootagrolink.services.AsesorService;
 import com.example.springbootagrolink.services.CategoriaProductoService;
+import com.example.springbootagrolink.services.DatosReferenciaService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -25,6 +26,9 @@ public class ServicioController {
     @Autowired
     private CategoriaProductoService categoriaProductoService; // reutilizamos para el navbar
 
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
     // Exponer contador del carrito a la vista (como hace ClienteController)
     @ModelAttribute("cartCount")
     public Integer getCartCount(HttpSession session) {
@@ -51,7 +55,7 @@ public class ServicioController {
 
         // Para compatibilidad con la plantilla: categorías del navbar y mapa de categorías de servicios
         List<?> categorias = categoriaProductoService.obtenerTodos();
-        Map<String, List<Servicio>> categoriasServicios = categorizarServicios(servicios);
+        Map<String, List<Servicio>> categoriasServicios = datosReferenciaService.categoriasServicios(false);
 
         model.addAttribute("servicios", servicios);
         model.addAttribute("categorias", categorias);
@@ -115,44 +119,4 @@ public class ServicioController {
         servicioService.eliminarServicio(id);
         return "redirect:/servicios";
     }
-
-    // Copia de la función de categorización usada por ClienteController para popular el navbar de servicios
-    private Map<String, List<Servicio>> categorizarServicios(List<Servicio> servicios) {
-        Map<String, List<Servicio>> categoriasServicios = new HashMap<>();
-
-        categoriasServicios.put("Veterinaria", new ArrayList<>());
-        categoriasServicios.put("Asesoría Agrícola", new ArrayList<>());
-        categoriasServicios.put("Transporte", new ArrayList<>());
-        categoriasServicios.put("Capacitación", new ArrayList<>());
-        categoriasServicios.put("Maquinaria", new ArrayList<>());
-        categoriasServicios.put("Otros", new ArrayList<>());
-
-        for (Servicio servicio : servicios) {
-            if (servicio.getDescripcion() != null /* && servicio.getEstado() == Servicio.EstadoServicio.Activo */) {
-                String descripcion = servicio.getDescripcion().toLowerCase();
-
-                if (descripcion.contains("veterinari") || descripcion.contains("animal") ||
-                    descripcion.contains("mascota") || descripcion.contains("ganad")) {
-                    categoriasServicios.get("Veterinaria").add(servicio);
-                } else if (descripcion.contains("asesor") || descripcion.contains("agricul") ||
-                           descripcion.contains("cultivo") || descripcion.contains("siembra")) {
-                    categoriasServicios.get("Asesoría Agrícola").add(servicio);
-                } else if (descripcion.contains("transport") || descripcion.contains("envío") ||
-                           descripcion.contains("logística") || descripcion.contains("entrega")) {
-                    categoriasServicios.get("Transporte").add(servicio);
-                } else if (descripcion.contains("capacita") || descripcion.contains("curso") ||
-                           descripcion.contains("entrena") || descripcion.contains("taller")) {
-                    categoriasServicios.get("Capacitación").add(servicio);
-                } else if (descripcion.contains("maquina") || descripcion.contains("tracto") ||
-                           descripcion.contains("mecanica") || descripcion.contains("motor")) {
-                    categoriasServicios.get("Maquinaria").add(servicio);
-                } else {
-                    categoriasServicios.get("Otros").add(servicio);
-                }
-            }
-        }
-
-        categoriasServicios.entrySet().removeIf(entry -> entry.getValue().isEmpty());
-        return categoriasServicios;
-    }
 }
@@ -6,6 +6,7 @@ import com.example.springbootagrolink.services.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -13,6 +14,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -42,6 +44,18 @@ public class TransportistaController {
     @Autowired
     private TransportistaService transportistaService;
 
+    @Autowired
+    private OptimizadorRutasService optimizadorRutasService;
+
+    @Autowired
+    private MercadoEnviosService mercadoEnviosService;
+
+    @Autowired
+    private EnvioService envioService;
+
+    @Autowired
+    private RastreoEnviosService rastreoEnviosService;
+
     @Autowired
     private jakarta.persistence.EntityManager entityManager;
 
@@ -49,50 +63,20 @@ public class TransportistaController {
     private com.example.springbootagrolink.services.CategoriaProductoService categoriaProductoService;
 
     @Autowired
-    private com.example.springbootagrolink.services.ServicioService servicioService;
+    private com.example.springbootagrolink.services.DatosReferenciaService datosReferenciaService;
 
     /**
-     * API para obtener envíos disponibles en JSON (usando SQL nativa para obtener cliente)
+     * API para obtener envíos disponibles en JSON, ordenados para el transportista autenticado.
+     * Se sirve desde el mercado de envíos en memoria, sin consultar los envíos en la BD.
      */
     @GetMapping("/envios-api")
     @ResponseBody
-    public ResponseEntity<List<Map<String, Object>>> obtenerEnviosDisponiblesApi() {
+    public ResponseEntity<List<MercadoEnviosService.OfertaTransportista>> obtenerEnviosDisponiblesApi() {
         try {
-            log.info("▶ Obteniendo envíos disponibles para API (JSON)");
-
-            List<Map<String, Object>> respuesta = new ArrayList<>();
-
-            // Obtener envíos disponibles con SQL nativa que trae el nombre del cliente
-            List<Object[]> enviosData = envioRepository.findEnviosDisponiblesConCliente("Buscando_Transporte");
-
-            if (enviosData != null && !enviosData.isEmpty()) {
-                log.info("  → Envíos obtenidos: {}", enviosData.size());
-
-                for (Object[] row : enviosData) {
-                    Map<String, Object> envioMap = new HashMap<>();
-
-                    // Los valores vienen en orden: id_envio, direccion_origen, direccion_destino,
-                    // distancia_km, peso_total_kg, costo_total, estado_envio, id_compra, nombre_cliente
-                    envioMap.put("idEnvio", row[0]);
-                    envioMap.put("direccionOrigen", row[1] != null ? row[1] : "N/A");
-                    envioMap.put("direccionDestino", row[2] != null ? row[2] : "N/A");
-                    envioMap.put("distanciaKm", row[3] != null ? row[3] : 0);
-                    envioMap.put("pesoTotalKg", row[4] != null ? row[4] : 0);
-                    envioMap.put("costoTotal", row[5] != null ? row[5] : 0);
-                    envioMap.put("estadoEnvio", row[6] != null ? row[6] : "Buscando_Transporte");
-
-                    // El nombre del cliente viene directamente de la SQL (índice 8)
-                    String cliente = row[8] != null ? row[8].toString() : "Por asignar";
-                    log.debug("    Envío ID {} → Cliente: {}", row[0], cliente);
-
-                    envioMap.put("cliente", cliente);
-                    respuesta.add(envioMap);
-                }
-            } else {
-                log.info("  → No hay envíos disponibles");
-            }
-
-            log.info("✓ Enviando {} envíos disponibles en JSON", respuesta.size());
+            Transportista transportista = obtenerTransportistaAutenticado();
+            List<MercadoEnviosService.OfertaTransportista> respuesta =
+                    mercadoEnviosService.ofertasPara(transportista.getIdUsuario());
+            log.debug("✓ Enviando {} envíos disponibles en JSON", respuesta.size());
             return ResponseEntity.ok(respuesta);
 
         } catch (Exception e) {
@@ -102,6 +86,40 @@ public class TransportistaController {
         }
     }
 
+    /**
+     * Suscripción SSE al mercado de envíos: evento "ofertas" con la lista ordenada al conectar
+     * y cada vez que se abre, se acepta o cambia un envío.
+     * Ejemplo: new EventSource('/transportista/api/ofertas/stream?lat=4.7110&lon=-74.0721')
+     */
+    @GetMapping(value = "/api/ofertas/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter suscribirOfertas(
+            @RequestParam(required = false) Double lat,
+            @RequestParam(required = false) Double lon) {
+        Transportista transportista = obtenerTransportistaAutenticado();
+        return mercadoEnviosService.suscribir(transportista.getIdUsuario(), lat, lon);
+    }
+
+    /**
+     * Actualizar la posición del transportista (reordena sus ofertas por cercanía)
+     */
+    @PostMapping("/api/posicion")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> actualizarPosicion(
+            @RequestParam Double lat,
+            @RequestParam Double lon) {
+        try {
+            Transportista transportista = obtenerTransportistaAutenticado();
+            mercadoEnviosService.actualizarPosicion(transportista.getIdUsuario(), lat, lon);
+            return ResponseEntity.ok(Map.of("success", true, "message", "Posición actualizada"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error al actualizar la posición: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).body(Map.of("success", false, "message", "Error al actualizar la posición"));
+        }
+    }
+
     /**
      * Obtener el transportista autenticado
      */
@@ -263,61 +281,52 @@ public class TransportistaController {
         try {
             Transportista transportista = obtenerTransportistaAutenticado();
 
-            Optional<Envio> envioOpt = envioRepository.findById(id);
-            if (envioOpt.isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("success", false, "message", "Envío no encontrado"));
-            }
-
-            Envio envio = envioOpt.get();
-
-            if (envio.getEstadoEnvio() != Envio.EstadoEnvio.Buscando_Transporte) {
-                return ResponseEntity.badRequest().body(Map.of("success", false, "message", "El envío ya no está disponible"));
-            }
-
-            // Asignar transportista
-            envio.setTransportista(transportista);
-
-            // Si se envió un vehiculoId, validar y asignar
+            // Validar el vehículo y las fechas antes de intentar tomar el envío
+            Vehiculo vehiculo = null;
             if (vehiculoId != null) {
                 Optional<Vehiculo> vehiculoOpt = vehiculoRepository.findById(vehiculoId);
                 if (vehiculoOpt.isEmpty()) {
                     return ResponseEntity.badRequest().body(Map.of("success", false, "message", "Vehículo no encontrado"));
                 }
-                Vehiculo vehiculo = vehiculoOpt.get();
+                vehiculo = vehiculoOpt.get();
                 // Verificar que el vehículo pertenece al transportista
                 if (vehiculo.getTransportista() == null || !vehiculo.getTransportista().getIdUsuario().equals(transportista.getIdUsuario())) {
                     return ResponseEntity.badRequest().body(Map.of("success", false, "message", "Vehículo no autorizado"));
                 }
-                envio.setVehiculo(vehiculo);
             }
 
-            // Asignar fecha de salida si se proporciona
+            java.time.LocalDate salida = null;
             if (fechaSalida != null && !fechaSalida.isBlank()) {
                 try {
-                    envio.setFechaSalida(java.time.LocalDate.parse(fechaSalida));
+                    salida = java.time.LocalDate.parse(fechaSalida);
                 } catch (Exception ex) {
                     return ResponseEntity.badRequest().body(Map.of("success", false, "message", "Fecha de salida inválida (formato esperado: yyyy-MM-dd)"));
                 }
-            } else {
-                envio.setFechaSalida(null);
             }
 
-            // Asignar fecha de entrega si se proporciona
+            java.time.LocalDate entrega = null;
             if (fechaEntrega != null && !fechaEntrega.isBlank()) {
                 try {
-                    envio.setFechaEntrega(java.time.LocalDate.parse(fechaEntrega));
+                    entrega = java.time.LocalDate.parse(fechaEntrega);
                 } catch (Exception ex) {
                     return ResponseEntity.badRequest().body(Map.of("success", false, "message", "Fecha de entrega inválida (formato esperado: yyyy-MM-dd)"));
                 }
-            } else {
-                envio.setFechaEntrega(null);
             }
 
-            // Cambiar estado del envío a ASIGNADO
-            envio.setEstadoEnvio(Envio.EstadoEnvio.Asignado);
-            envioRepository.save(envio);
-
-            return ResponseEntity.ok(Map.of("success", true, "message", "Envío aceptado y asignado correctamente"));
+            // Un solo UPDATE condicional: si dos transportistas aceptan a la vez, solo uno gana
+            EnvioService.ResultadoAceptacion resultado = envioService.aceptar(id, transportista, vehiculo, salida, entrega);
+            return switch (resultado) {
+                case ACEPTADO -> ResponseEntity.ok(Map.of("success", true, "message", "Envío aceptado y asignado correctamente",
+                        "resultado", resultado.name()));
+                case YA_ASIGNADO_A_TI -> ResponseEntity.ok(Map.of("success", true, "message", "Ya tenías este envío asignado",
+                        "resultado", resultado.name()));
+                case YA_TOMADO -> ResponseEntity.status(409).body(Map.of("success", false, "message", "Otro transportista ya tomó este envío",
+                        "resultado", resultado.name()));
+                case NO_DISPONIBLE -> ResponseEntity.status(409).body(Map.of("success", false, "message", "El envío ya no está disponible",
+                        "resultado", resultado.name()));
+                case NO_ENCONTRADO -> ResponseEntity.badRequest().body(Map.of("success", false, "message", "Envío no encontrado",
+                        "resultado", resultado.name()));
+            };
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("success", false, "message", "Error al aceptar envío: " + e.getMessage()));
         }
@@ -431,6 +440,8 @@ public class TransportistaController {
                  envio.setEstadoEnvio(Envio.EstadoEnvio.Buscando_Transporte);
 
                  envioRepository.save(envio);
+                 mercadoEnviosService.sincronizar(id);
+                 rastreoEnviosService.finalizar(id);
                  log.info("El envío {} fue cancelado por el transportista y devuelto a Buscando_Transporte", id);
                  return ResponseEntity.ok(Map.of("success", true, "message", "Envío cancelado y devuelto a búsqueda de transportista", "prevEstado", prevEstado, "nuevoEstado", "Buscando_Transporte"));
              }
@@ -440,6 +451,7 @@ public class TransportistaController {
                  envio.setEstadoEnvio(Envio.EstadoEnvio.Finalizado);
                  envio.setFechaEntrega(java.time.LocalDate.now());
                  envioRepository.save(envio);
+                 rastreoEnviosService.finalizar(id);
                  log.info("Estado del envío {} actualizado a Finalizado", id);
                  return ResponseEntity.ok(Map.of("success", true, "message", "Estado actualizado a Finalizado", "prevEstado", prevEstado, "nuevoEstado", "Finalizado"));
              }
@@ -447,6 +459,7 @@ public class TransportistaController {
              // Caso general (En_Transito, Asignado, etc.)
             envio.setEstadoEnvio(Envio.EstadoEnvio.valueOf(estado));
             envioRepository.save(envio);
+            rastreoEnviosService.actualizarEstado(id, envio.getEstadoEnvio());
 
             log.info("Estado del envío {} actualizado a {}", id, estado);
             return ResponseEntity.ok(Map.of("success", true, "message", "Estado actualizado exitosamente", "prevEstado", prevEstado, "nuevoEstado", estado));
@@ -575,6 +588,79 @@ public class TransportistaController {
         }
     }
 
+    /**
+     * Orden sugerido de recogidas y entregas para los envíos Asignado / En_Transito del transportista,
+     * con los km que ahorra frente a atenderlos en el orden en que se aceptaron.
+     * Ejemplo: GET /transportista/api/ruta-optimizada?idVehiculo=3&lat=4.7110&lon=-74.0721
+     */
+    @GetMapping("/api/ruta-optimizada")
+    @ResponseBody
+    public ResponseEntity<?> rutaOptimizada(
+            @RequestParam(required = false) Integer idVehiculo,
+            @RequestParam(required = false) Double lat,
+            @RequestParam(required = false) Double lon) {
+        try {
+            Transportista transportista = obtenerTransportistaAutenticado();
+            OptimizadorRutasService.RutaOptimizada ruta =
+                    optimizadorRutasService.optimizar(transportista.getIdUsuario(), idVehiculo, lat, lon);
+            return ResponseEntity.ok(ruta);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error al optimizar la ruta: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("success", false, "message", "Error al optimizar la ruta: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Recibir posiciones GPS del transportista (en lote). Se guardan en segundo plano.
+     * Como todo POST de la app, exige el token CSRF de la sesión (cabecera X-CSRF-TOKEN).
+     * Ejemplo: POST /transportista/api/posiciones
+     * [{"idEnvio":12,"latitud":4.7110,"longitud":-74.0721,"velocidadKmh":52.0,"registradaEnMs":1792300000000}]
+     */
+    @PostMapping("/api/posiciones")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> registrarPosiciones(
+            @RequestBody List<RastreoEnviosService.PingPosicion> posiciones) {
+        try {
+            Transportista transportista = obtenerTransportistaAutenticado();
+            RastreoEnviosService.ResultadoIngesta resultado =
+                    rastreoEnviosService.registrarPosiciones(transportista.getIdUsuario(), posiciones);
+            return ResponseEntity.ok(Map.of("success", true, "aceptadas", resultado.aceptadas(), "rechazadas", resultado.rechazadas()));
+        } catch (Exception e) {
+            log.error("Error al registrar posiciones: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).body(Map.of("success", false, "message", "Error al registrar posiciones"));
+        }
+    }
+
+    /**
+     * Últimas posiciones y ETA de un envío del transportista
+     */
+    @GetMapping("/api/envios/{id}/rastreo")
+    @ResponseBody
+    public ResponseEntity<?> rastreoEnvio(@PathVariable Integer id,
+                                          @RequestParam(defaultValue = "20") int n) {
+        Transportista transportista = obtenerTransportistaAutenticado();
+        if (!envioRepository.existsByIdEnvioAndTransportista_IdUsuario(id, transportista.getIdUsuario())) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", "No autorizado"));
+        }
+        return ResponseEntity.ok(rastreoEnviosService.estado(id, n));
+    }
+
+    /**
+     * Suscripción SSE al rastreo de un envío del transportista
+     */
+    @GetMapping(value = "/api/envios/{id}/rastreo/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> suscribirRastreo(@PathVariable Integer id) {
+        Transportista transportista = obtenerTransportistaAutenticado();
+        if (!envioRepository.existsByIdEnvioAndTransportista_IdUsuario(id, transportista.getIdUsuario())) {
+            return ResponseEntity.status(403).build();
+        }
+        return ResponseEntity.ok(rastreoEnviosService.suscribir(id));
+    }
+
     /**
      * Crear un nuevo vehículo
      */
@@ -601,6 +687,7 @@ public class TransportistaController {
              vehiculo.setPlacaVehiculo(placaVehiculo);
 
              vehiculoRepository.save(vehiculo);
+             mercadoEnviosService.olvidarCapacidad(transportista.getIdUsuario());
 
              log.info("Vehículo creado: {}", placaVehiculo);
              return ResponseEntity.ok(Map.of("success", true, "message", "Vehículo creado exitosamente"));
@@ -633,6 +720,7 @@ public class TransportistaController {
             }
 
             vehiculoRepository.delete(vehiculo);
+            mercadoEnviosService.olvidarCapacidad(transportista.getIdUsuario());
 
             log.info("Vehículo eliminado: {}", id);
             return ResponseEntity.ok(Map.of("success", true, "message", "Vehículo eliminado exitosamente"));
@@ -752,19 +840,7 @@ public class TransportistaController {
             try {
                 model.addAttribute("categorias", categoriaProductoService.obtenerTodos());
                 // Agrupar servicios por clave similar al controller de perfil
-                Map<String, List<com.example.springbootagrolink.model.Servicio>> categoriasServicios = new java.util.HashMap<>();
-                List<com.example.springbootagrolink.model.Servicio> servicios = servicioService.obtenerTodosLosServicios();
-                if (servicios != null) {
-                    for (com.example.springbootagrolink.model.Servicio s : servicios) {
-                        String key = "Otros";
-                        try {
-                            if (s.getAsesor() != null && s.getAsesor().getTipoAsesoria() != null && !s.getAsesor().getTipoAsesoria().trim().isEmpty()) {
-                                key = s.getAsesor().getTipoAsesoria();
-                            }
-                        } catch (Exception ignored) {}
-                        categoriasServicios.computeIfAbsent(key, k -> new java.util.ArrayList<>()).add(s);
-                    }
-                }
+                Map<String, List<com.example.springbootagrolink.model.Servicio>> categoriasServicios = datosReferenciaService.serviciosPorTipoAsesoria();
                 model.addAttribute("categoriasServicios", categoriasServicios);
             } catch (Exception e) {
                 model.addAttribute("categorias", new java.util.ArrayList<>());
@@ -3,7 +3,7 @@ package com.example.springbootagrolink.controllers;
 import com.example.springbootagrolink.model.*;
 import com.example.springbootagrolink.services.*;
 import com.example.springbootagrolink.services.CategoriaProductoService;
-import com.example.springbootagrolink.services.ServicioService;
+import com.example.springbootagrolink.services.DatosReferenciaService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -43,7 +43,7 @@ public class perfilController {
     private CategoriaProductoService categoriaProductoService;
 
     @Autowired
-    private ServicioService servicioService;
+    private DatosReferenciaService datosReferenciaService;
 
     @Autowired
     private com.example.springbootagrolink.repository.UsuarioRepository usuarioRepository;
@@ -129,7 +129,7 @@ public class perfilController {
         // Agregar datos para el navbar (categorías, servicios)
         try {
             model.addAttribute("categorias", categoriaProductoService.obtenerTodos());
-            Map<String, List<com.example.springbootagrolink.model.Servicio>> categoriasServicios = categorizarServicios(servicioService.obtenerTodosLosServicios());
+            Map<String, List<com.example.springbootagrolink.model.Servicio>> categoriasServicios = datosReferenciaService.serviciosPorTipoAsesoria();
             model.addAttribute("categoriasServicios", categoriasServicios);
         } catch (Exception e) {
             model.addAttribute("categorias", new java.util.ArrayList<>());
@@ -260,7 +260,7 @@ public class perfilController {
                 if (datosEspecificos instanceof Productor) {
                     Productor productor = (Productor) datosEspecificos;
                     // ProductoService ofrece métodos para obtener productos por productor
-                    int productosActivos = productoService.obtenerPorProductor(productor.getIdProductor()).size();
+                    long productosActivos = productoService.contarPorProductor(productor.getIdProductor());
                     estadisticas.put("productosActivos", productosActivos);
                     estadisticas.put("ventasMes", 0);
                     estadisticas.put("clientesAtendidos", 0);
@@ -291,21 +291,4 @@ public class perfilController {
 
         model.addAttribute("estadisticas", estadisticas);
     }
-
-    // Helper to group servicios by category key (copiado simplificado)
-    private Map<String, List<com.example.springbootagrolink.model.Servicio>> categorizarServicios(List<com.example.springbootagrolink.model.Servicio> servicios) {
-        Map<String, List<com.example.springbootagrolink.model.Servicio>> map = new java.util.HashMap<>();
-        if (servicios == null) return map;
-        for (com.example.springbootagrolink.model.Servicio s : servicios) {
-            String key = "Otros";
-            try {
-                if (s.getAsesor() != null && s.getAsesor().getTipoAsesoria() != null && !s.getAsesor().getTipoAsesoria().trim().isEmpty()) {
-                    key = s.getAsesor().getTipoAsesoria();
-                }
-            } catch (Exception ignored) {
-            }
-            map.computeIfAbsent(key, k -> new java.util.ArrayList<>()).add(s);
-        }
-        return map;
-    }
-}
\ No newline at end of file
+}
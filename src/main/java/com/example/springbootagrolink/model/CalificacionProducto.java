@@ -0,0 +1,43 @@
+package com.example.springbootagrolink.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Acumulado de las reseñas de un producto (tb_calificaciones_producto).
+ * Solo lo escribe ResenaService; la entidad existe para poder filtrar y ordenar productos por
+ * calificación desde las consultas JPQL de ProductoRepository.
+ */
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@Table(name = "tb_calificaciones_producto")
+public class CalificacionProducto {
+
+    @Id
+    @Column(name = "id_producto")
+    private Integer idProducto;
+
+    @Column(name = "cantidad", nullable = false)
+    private Integer cantidad;
+
+    @Column(name = "suma", nullable = false)
+    private Integer suma;
+
+    // Promedio simple de las reseñas
+    @Column(name = "promedio", precision = 4, scale = 2)
+    private BigDecimal promedio;
+
+    // Promedio bayesiano: es el que se usa para filtrar y ordenar
+    @Column(name = "puntaje", nullable = false, precision = 6, scale = 4)
+    private BigDecimal puntaje;
+
+    @Column(name = "fecha_actualizacion", insertable = false, updatable = false)
+    private LocalDateTime fechaActualizacion;
+}
@@ -0,0 +1,14 @@
+package com.example.springbootagrolink.model;
+
+/**
+ * Resultado de cotizar un LoteDistancias, también columnar: la posición i de cada arreglo
+ * corresponde al par i de la solicitud.
+ */
+public record CotizacionLoteDistancias(
+        int cantidad,
+        double[] distanciaKm,
+        double[] costoBase,
+        double[] costoPeso,
+        double[] costoTotal
+) {
+}
@@ -6,6 +6,7 @@ import lombok.*;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "tb_envios")
@@ -21,8 +22,9 @@ public class Envio implements Serializable {
     @Column(name = "id_envio")
     private Integer idEnvio;
 
-    // Permitir que un Envío se cree sin compra para fines de prueba y flujo posterior
-    @OneToOne(fetch = FetchType.LAZY, optional = true)
+    // Permitir que un Envío se cree sin compra para fines de prueba y flujo posterior.
+    // Una compra con productos de fincas lejanas entre sí se reparte en varios envíos (PlanificadorEnviosService)
+    @ManyToOne(fetch = FetchType.LAZY, optional = true)
     @JoinColumn(
         name = "id_compra",
         nullable = true,
@@ -98,6 +100,27 @@ public class Envio implements Serializable {
     @Column(name = "tarifa_por_kg", precision = 10, scale = 2, columnDefinition = "DECIMAL(10,2)")
     private BigDecimal tarifaPorKg = new BigDecimal("50"); // $50 COP por kg por defecto
 
+    // ========== CÁLCULO ASÍNCRONO (geocodificación, distancia y costos) ==========
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado_calculo", length = 20)
+    private EstadoCalculo estadoCalculo = EstadoCalculo.COMPLETO;
+
+    @Column(name = "intentos_calculo")
+    private Integer intentosCalculo = 0;
+
+    @Column(name = "proximo_intento_calculo")
+    private LocalDateTime proximoIntentoCalculo;
+
+    @Column(name = "error_calculo", length = 255)
+    private String errorCalculo;
+
+    public enum EstadoCalculo {
+        PENDIENTE,
+        COMPLETO,
+        FALLIDO
+    }
+
     public enum EstadoEnvio {
         Buscando_Transporte,
         Asignado,
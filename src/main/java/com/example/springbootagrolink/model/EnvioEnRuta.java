@@ -0,0 +1,13 @@
+package com.example.springbootagrolink.model;
+
+/**
+ * Proyección de un envío Asignado o En_Transito con lo que necesita el rastreo GPS:
+ * a quién pertenece y hacia dónde va (para validar las posiciones y calcular el ETA)
+ */
+public record EnvioEnRuta(
+        Integer idEnvio,
+        Integer idTransportista,
+        Double latitudDestino,
+        Double longitudDestino
+) {
+}
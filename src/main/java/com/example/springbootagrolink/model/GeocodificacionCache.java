@@ -0,0 +1,33 @@
+package com.example.springbootagrolink.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resultado de geocodificación persistido para que la caché sobreviva a los reinicios.
+ * La clave es la dirección normalizada (minúsculas, sin tildes y con espacios simples).
+ */
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@Table(name = "tb_cache_geocodificacion")
+public class GeocodificacionCache {
+
+    @Id
+    @Column(name = "direccion_normalizada", length = 255)
+    private String direccionNormalizada;
+
+    @Column(name = "latitud", nullable = false)
+    private Double latitud;
+
+    @Column(name = "longitud", nullable = false)
+    private Double longitud;
+
+    @Column(name = "fecha_actualizacion", nullable = false)
+    private LocalDateTime fechaActualizacion;
+}
@@ -0,0 +1,15 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Proyección de una línea de compra con lo que necesita la planificación de envíos
+ * (producto, peso unitario y cantidad), sin cargar el producto ni sus colecciones
+ */
+public record LineaEnvio(
+        Integer idDetalle,
+        Integer idProducto,
+        BigDecimal pesoKg,
+        Integer cantidad
+) {
+}
@@ -0,0 +1,15 @@
+package com.example.springbootagrolink.model;
+
+/**
+ * Lote de pares origen/destino para cotizar en una sola llamada, en formato columnar:
+ * el par i es (latOrigen[i], lonOrigen[i]) -> (latDestino[i], lonDestino[i]).
+ * pesoKg es opcional; si falta se cotiza con el peso mínimo (1 kg).
+ */
+public record LoteDistancias(
+        double[] latOrigen,
+        double[] lonOrigen,
+        double[] latDestino,
+        double[] lonDestino,
+        double[] pesoKg
+) {
+}
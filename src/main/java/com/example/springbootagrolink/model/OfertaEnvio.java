@@ -0,0 +1,20 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Proyección de un envío abierto (Buscando_Transporte, sin transportista y ya costeado) con lo que
+ * necesita el mercado de envíos para ofrecerlo a los transportistas, incluido el nombre del cliente
+ */
+public record OfertaEnvio(
+        Integer idEnvio,
+        String direccionOrigen,
+        String direccionDestino,
+        Double latitudOrigen,
+        Double longitudOrigen,
+        Double distanciaKm,
+        Double pesoTotalKg,
+        BigDecimal costoTotal,
+        String cliente
+) {
+}
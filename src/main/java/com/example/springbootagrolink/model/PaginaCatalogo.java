@@ -0,0 +1,19 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Página del catálogo obtenida con paginación por cursor (keyset).
+ * siguienteId y siguientePrecio son el cursor para pedir la página siguiente; son null si no hay más.
+ * En el orden por calificación el cursor es (siguientePuntaje, siguienteId); siguientePuntaje es null
+ * cuando la página ya llegó a los productos sin reseñas.
+ */
+public record PaginaCatalogo(
+        List<Producto> productos,
+        Integer siguienteId,
+        BigDecimal siguientePrecio,
+        Double siguientePuntaje,
+        boolean hayMas
+) {
+}
@@ -0,0 +1,33 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Proyección de un pedido para el panel del productor: datos de la compra, el cliente y lo que
+ * suman en ella las líneas de los productos del productor. No carga entidades ni relaciones.
+ */
+public record PedidoProductor(
+        Integer idCompra,
+        LocalDateTime fechaHoraCompra,
+        BigDecimal total,
+        String direccionEntrega,
+        String metodoPago,
+        ClientePedido cliente,
+        BigDecimal subtotalProductor,
+        Long unidadesProductor
+) {
+
+    public record ClientePedido(String nombre, String correo) {
+    }
+
+    // Constructor plano usado por las consultas JPQL (SELECT new ...)
+    public PedidoProductor(Integer idCompra, LocalDateTime fechaHoraCompra, BigDecimal total,
+                           String direccionEntrega, String metodoPago, String nombreCliente,
+                           String correoCliente, BigDecimal subtotalProductor, Long unidadesProductor) {
+        this(idCompra, fechaHoraCompra, total, direccionEntrega, metodoPago,
+                new ClientePedido(nombreCliente != null ? nombreCliente : "Sin nombre",
+                        correoCliente != null ? correoCliente : ""),
+                subtotalProductor, unidadesProductor);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Proyección liviana de un producto con lo que necesita el carrito (sin cargar la entidad ni sus colecciones)
+ */
+public record ProductoCarrito(
+        Integer idProducto,
+        String nombre,
+        String descripcion,
+        BigDecimal precio,
+        BigDecimal pesoKg,
+        Integer stock,
+        String urlImagen
+) {
+}
@@ -0,0 +1,20 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Producto destacado de la página de inicio con los datos que muestra la tarjeta
+ * (sin la entidad ni sus colecciones, para poder guardarlo en memoria entre peticiones)
+ */
+public record ProductoDestacado(
+        Integer idProducto,
+        String nombreProducto,
+        String descripcionProducto,
+        BigDecimal precio,
+        BigDecimal pesoKg,
+        Integer stock,
+        String urlImagen,
+        String nombreCategoria,
+        String nombreFinca
+) {
+}
@@ -0,0 +1,17 @@
+package com.example.springbootagrolink.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Producto de un ranking (más vendidos o tendencias) con los datos que muestran las tarjetas.
+ * unidades son las vendidas en la ventana consultada.
+ */
+public record ProductoRanking(
+        Integer idProducto,
+        String nombre,
+        BigDecimal precio,
+        Integer stock,
+        String urlImagen,
+        long unidades
+) {
+}
@@ -0,0 +1,14 @@
+package com.example.springbootagrolink.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Reseña de un cliente tal como se muestra en la página de producto
+ */
+public record Resena(
+        String nombreCliente,
+        int puntaje,
+        String comentario,
+        LocalDateTime fecha
+) {
+}
@@ -1,9 +1,19 @@
 package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Asesor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface AsesorRepository extends JpaRepository<Asesor, Integer> {
+public interface AsesorRepository extends JpaRepository<Asesor, Integer>, JpaSpecificationExecutor<Asesor> {
+
+    // Página del listado de administración con el usuario en la misma consulta
+    @Override
+    @EntityGraph(attributePaths = {"usuario"})
+    Page<Asesor> findAll(Specification<Asesor> spec, Pageable pageable);
 }
@@ -2,15 +2,19 @@ package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Cliente;
 import com.example.springbootagrolink.model.Usuario;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ClienteRepository extends JpaRepository<Cliente, Integer> {
+public interface ClienteRepository extends JpaRepository<Cliente, Integer>, JpaSpecificationExecutor<Cliente> {
 
     // Sobrescribir findAll para cargar el usuario junto con el cliente
     @Override
@@ -23,4 +27,9 @@ public interface ClienteRepository extends JpaRepository<Cliente, Integer> {
      * @return Optional con el cliente si existe
      */
     Optional<Cliente> findByUsuario(Usuario usuario);
+
+    // Página del listado de administración con el usuario en la misma consulta
+    @Override
+    @EntityGraph(attributePaths = {"usuario"})
+    Page<Cliente> findAll(Specification<Cliente> spec, Pageable pageable);
 }
@@ -2,10 +2,18 @@ package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Compra;
 import com.example.springbootagrolink.model.Cliente;
+import com.example.springbootagrolink.model.PedidoProductor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
@@ -24,6 +32,46 @@ public interface CompraRepository extends JpaRepository<Compra, Integer>, JpaSpe
      * @return Lista de compras del cliente
      */
     List<Compra> findByCliente(Cliente cliente);
-}
 
+    // Si la compra es del cliente (usuario) indicado
+    boolean existsByIdCompraAndCliente_IdUsuario(Integer idCompra, Integer idUsuario);
+
+    /**
+     * Pedidos que incluyen productos del productor, del más reciente al más antiguo.
+     * La consulta parte de los productos del productor (idx_detalle_producto), así que su coste
+     * depende de las ventas de ese productor y no del total de compras del sistema.
+     */
+    @Query(value = "SELECT new com.example.springbootagrolink.model.PedidoProductor(c.idCompra, c.fechaHoraCompra, c.total, " +
+                   "c.direccionEntrega, c.metodoPago, u.nombre, u.correo, SUM(d.subtotal), SUM(d.cantidad)) " +
+                   "FROM DetalleCompra d JOIN d.compra c JOIN d.producto p " +
+                   "LEFT JOIN c.cliente cl LEFT JOIN cl.usuario u " +
+                   "WHERE p.productor.idProductor = :idProductor " +
+                   "GROUP BY c.idCompra, c.fechaHoraCompra, c.total, c.direccionEntrega, c.metodoPago, u.nombre, u.correo " +
+                   "ORDER BY c.fechaHoraCompra DESC, c.idCompra DESC",
+           countQuery = "SELECT COUNT(DISTINCT d.compra.idCompra) FROM DetalleCompra d " +
+                        "WHERE d.producto.productor.idProductor = :idProductor")
+    Page<PedidoProductor> findPedidosProductor(@Param("idProductor") Integer idProductor, Pageable pageable);
 
+    /**
+     * Todos los pedidos con la misma proyección (usuarios que no son productores)
+     */
+    @Query(value = "SELECT new com.example.springbootagrolink.model.PedidoProductor(c.idCompra, c.fechaHoraCompra, c.total, " +
+                   "c.direccionEntrega, c.metodoPago, u.nombre, u.correo, c.subtotal, " +
+                   "(SELECT COALESCE(SUM(d.cantidad), 0L) FROM DetalleCompra d WHERE d.compra = c)) " +
+                   "FROM Compra c LEFT JOIN c.cliente cl LEFT JOIN cl.usuario u " +
+                   "ORDER BY c.fechaHoraCompra DESC, c.idCompra DESC",
+           countQuery = "SELECT COUNT(c) FROM Compra c")
+    Page<PedidoProductor> findPedidos(Pageable pageable);
+
+    // Página del listado de administración con el cliente y su usuario en la misma consulta
+    @Override
+    @EntityGraph(attributePaths = {"cliente", "cliente.usuario"})
+    Page<Compra> findAll(Specification<Compra> spec, Pageable pageable);
+
+    /**
+     * Número de compras y suma de sus totales desde la fecha indicada (null = todo el histórico)
+     */
+    @Query("SELECT COUNT(c), COALESCE(SUM(c.total), 0) FROM Compra c " +
+           "WHERE :desde IS NULL OR c.fechaHoraCompra >= :desde")
+    List<Object[]> resumenVentas(@Param("desde") LocalDateTime desde);
+}
@@ -1,12 +1,26 @@
 package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.DetalleCompra;
+import com.example.springbootagrolink.model.LineaEnvio;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface DetalleCompraRepository extends JpaRepository<DetalleCompra, Integer> {
     List<DetalleCompra> findByCompra_IdCompra(Integer idCompra);
+
+    // Líneas de la compra con el peso del producto en una sola consulta (planificación de envíos)
+    @Query("SELECT new com.example.springbootagrolink.model.LineaEnvio(d.idDetalle, p.idProducto, p.pesoKg, d.cantidad) " +
+           "FROM DetalleCompra d JOIN d.producto p WHERE d.compra.idCompra = :idCompra ORDER BY d.idDetalle")
+    List<LineaEnvio> findLineasEnvio(@Param("idCompra") Integer idCompra);
+
+    // Líneas de varias compras con su producto y categoría (una página del listado de pedidos)
+    @EntityGraph(attributePaths = {"producto", "producto.categoria"})
+    List<DetalleCompra> findByCompra_IdCompraIn(Collection<Integer> idsCompra);
 }
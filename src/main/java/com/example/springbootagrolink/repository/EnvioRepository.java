@@ -1,15 +1,29 @@
 package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.EnvioEnRuta;
+import com.example.springbootagrolink.model.OfertaEnvio;
+import com.example.springbootagrolink.model.Transportista;
+import com.example.springbootagrolink.model.Vehiculo;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface EnvioRepository extends JpaRepository<Envio, Integer> {
+public interface EnvioRepository extends JpaRepository<Envio, Integer>, JpaSpecificationExecutor<Envio> {
 
     // Contar envíos finalizados (entregas exitosas)
     @Query("SELECT COUNT(e) FROM Envio e WHERE e.estadoEnvio = 'Finalizado'")
@@ -23,6 +37,12 @@ public interface EnvioRepository extends JpaRepository<Envio, Integer> {
            "WHERE e.transportista.idUsuario = :idUsuario")
     List<Envio> findByTransportista_IdUsuario(@Param("idUsuario") Integer idUsuario);
 
+    // Envíos de un transportista en los estados indicados (por ejemplo Asignado y En_Transito para la ruta)
+    @Query("SELECT e FROM Envio e WHERE e.transportista.idUsuario = :idUsuario " +
+           "AND e.estadoEnvio IN :estados ORDER BY e.idEnvio")
+    List<Envio> findByTransportistaYEstados(@Param("idUsuario") Integer idUsuario,
+                                            @Param("estados") Collection<Envio.EstadoEnvio> estados);
+
     // Buscar envíos por estado - versión simple sin FETCH
     @Query("SELECT e FROM Envio e WHERE e.estadoEnvio = :estado ORDER BY e.idEnvio DESC")
     List<Envio> findByEstadoEnvio(@Param("estado") Envio.EstadoEnvio estado);
@@ -57,4 +77,73 @@ public interface EnvioRepository extends JpaRepository<Envio, Integer> {
            "ORDER BY e.idEnvio DESC")
     List<Envio> findEnviosDisponiblesSinFechas(@Param("estado") Envio.EstadoEnvio estado);
 
+    // Envíos con cálculo pendiente cuyo próximo intento ya venció (o nunca se programó)
+    @Query("SELECT e.idEnvio FROM Envio e WHERE e.estadoCalculo = :estado " +
+           "AND (e.proximoIntentoCalculo IS NULL OR e.proximoIntentoCalculo <= :ahora) " +
+           "ORDER BY e.idEnvio")
+    List<Integer> findIdsCalculoPendiente(@Param("estado") Envio.EstadoCalculo estado,
+                                          @Param("ahora") LocalDateTime ahora);
+
+    // Primer envío de una compra (puede tener varios si sus productos salen de fincas lejanas)
+    Optional<Envio> findFirstByCompra_IdCompraOrderByIdEnvio(Integer idCompra);
+
+    // Todos los envíos de una compra, en el orden en que se planificaron
+    List<Envio> findByCompra_IdCompraOrderByIdEnvio(Integer idCompra);
+
+    // Envíos abiertos para el mercado de transportistas: sin transportista, sin fechas y con el cálculo completo
+    @Query("SELECT new com.example.springbootagrolink.model.OfertaEnvio(e.idEnvio, e.direccionOrigen, e.direccionDestino, " +
+           "e.latitudOrigen, e.longitudOrigen, e.distanciaKm, e.pesoTotalKg, e.costoTotal, COALESCE(u.nombre, 'Por asignar')) " +
+           "FROM Envio e LEFT JOIN e.compra c LEFT JOIN c.cliente cl LEFT JOIN cl.usuario u " +
+           "WHERE e.estadoEnvio = :estado AND e.transportista IS NULL " +
+           "AND e.fechaSalida IS NULL AND e.fechaEntrega IS NULL " +
+           "AND (e.estadoCalculo IS NULL OR e.estadoCalculo = :calculo) " +
+           "ORDER BY e.idEnvio DESC")
+    List<OfertaEnvio> findOfertasAbiertas(@Param("estado") Envio.EstadoEnvio estado,
+                                          @Param("calculo") Envio.EstadoCalculo calculo);
+
+    // La misma proyección para un solo envío (refresco del mercado tras un cambio)
+    @Query("SELECT new com.example.springbootagrolink.model.OfertaEnvio(e.idEnvio, e.direccionOrigen, e.direccionDestino, " +
+           "e.latitudOrigen, e.longitudOrigen, e.distanciaKm, e.pesoTotalKg, e.costoTotal, COALESCE(u.nombre, 'Por asignar')) " +
+           "FROM Envio e LEFT JOIN e.compra c LEFT JOIN c.cliente cl LEFT JOIN cl.usuario u " +
+           "WHERE e.idEnvio = :idEnvio AND e.estadoEnvio = :estado AND e.transportista IS NULL " +
+           "AND e.fechaSalida IS NULL AND e.fechaEntrega IS NULL " +
+           "AND (e.estadoCalculo IS NULL OR e.estadoCalculo = :calculo)")
+    Optional<OfertaEnvio> findOfertaAbierta(@Param("idEnvio") Integer idEnvio,
+                                            @Param("estado") Envio.EstadoEnvio estado,
+                                            @Param("calculo") Envio.EstadoCalculo calculo);
+
+    // Aceptación atómica (compare-and-set): solo la primera petición encuentra el envío libre y costeado;
+    // las demás actualizan 0 filas
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Envio e SET e.transportista = :transportista, e.vehiculo = :vehiculo, " +
+           "e.fechaSalida = :fechaSalida, e.fechaEntrega = :fechaEntrega, e.estadoEnvio = :asignado " +
+           "WHERE e.idEnvio = :idEnvio AND e.estadoEnvio = :disponible AND e.transportista IS NULL " +
+           "AND (e.estadoCalculo IS NULL OR e.estadoCalculo = :calculo)")
+    int asignarSiDisponible(@Param("idEnvio") Integer idEnvio,
+                            @Param("transportista") Transportista transportista,
+                            @Param("vehiculo") Vehiculo vehiculo,
+                            @Param("fechaSalida") LocalDate fechaSalida,
+                            @Param("fechaEntrega") LocalDate fechaEntrega,
+                            @Param("asignado") Envio.EstadoEnvio asignado,
+                            @Param("disponible") Envio.EstadoEnvio disponible,
+                            @Param("calculo") Envio.EstadoCalculo calculo);
+
+    // Envío en ruta (para el rastreo GPS): transportista y destino, sin cargar la entidad
+    @Query("SELECT new com.example.springbootagrolink.model.EnvioEnRuta(e.idEnvio, t.idUsuario, e.latitudDestino, e.longitudDestino) " +
+           "FROM Envio e JOIN e.transportista t WHERE e.idEnvio = :idEnvio AND e.estadoEnvio IN :estados")
+    Optional<EnvioEnRuta> findEnvioEnRuta(@Param("idEnvio") Integer idEnvio,
+                                          @Param("estados") Collection<Envio.EstadoEnvio> estados);
+
+    boolean existsByIdEnvioAndTransportista_IdUsuario(Integer idEnvio, Integer idUsuario);
+
+    boolean existsByIdEnvioAndCompra_Cliente_IdUsuario(Integer idEnvio, Integer idUsuario);
+
+    // Página del listado de administración con pedido y transportista en la misma consulta
+    @Override
+    @EntityGraph(attributePaths = {"compra", "transportista", "transportista.usuario"})
+    Page<Envio> findAll(Specification<Envio> spec, Pageable pageable);
+
+    // Cantidad de envíos por estado (indicadores del administrador)
+    @Query("SELECT e.estadoEnvio, COUNT(e) FROM Envio e GROUP BY e.estadoEnvio")
+    List<Object[]> contarPorEstado();
 }
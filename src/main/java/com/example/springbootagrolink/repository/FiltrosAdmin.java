@@ -0,0 +1,148 @@
+package com.example.springbootagrolink.repository;
+
+import com.example.springbootagrolink.model.Compra;
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.Usuario;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.From;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filtros (Specifications) de los listados paginados del administrador.
+ *
+ * Cada filtro sin valor devuelve una condición siempre verdadera, así que se pueden encadenar con
+ * and() sin comprobar antes si el parámetro vino en la petición. Las búsquedas de texto usan LIKE
+ * con el comodín solo al final (búsqueda por prefijo) para que MySQL pueda usar los índices de las columnas.
+ */
+public final class FiltrosAdmin {
+
+    private FiltrosAdmin() {
+    }
+
+    /**
+     * Perfiles (Cliente, Productor, Transportista, Asesor) cuyo usuario coincide con el texto
+     * en nombre, apellido, nombre de usuario, correo, ciudad o cédula
+     */
+    public static <T> Specification<T> perfilPorTexto(String texto) {
+        return (root, query, cb) -> {
+            if (vacio(texto)) {
+                return cb.conjunction();
+            }
+            Join<T, Usuario> usuario = root.join("usuario", JoinType.INNER);
+            return coincideUsuario(cb, usuario, texto.trim());
+        };
+    }
+
+    /**
+     * Compras por número de pedido o por datos del cliente, método de pago o dirección
+     */
+    public static Specification<Compra> compraPorTexto(String texto) {
+        return (root, query, cb) -> {
+            if (vacio(texto)) {
+                return cb.conjunction();
+            }
+            String valor = texto.trim();
+            Integer id = comoEntero(valor);
+            if (id != null) {
+                return cb.equal(root.get("idCompra"), id);
+            }
+            Join<Object, Object> usuario = root.join("cliente", JoinType.LEFT).join("usuario", JoinType.LEFT);
+            String patron = patron(valor);
+            return cb.or(
+                    coincideUsuario(cb, usuario, valor),
+                    cb.like(root.<String>get("metodoPago"), patron),
+                    cb.like(root.<String>get("direccionEntrega"), patron));
+        };
+    }
+
+    /**
+     * Compras hechas entre dos fechas (incluidas); cualquiera de las dos puede faltar
+     */
+    public static Specification<Compra> compraEntre(LocalDate desde, LocalDate hasta) {
+        return (root, query, cb) -> {
+            List<Predicate> condiciones = new ArrayList<>(2);
+            if (desde != null) {
+                condiciones.add(cb.greaterThanOrEqualTo(root.get("fechaHoraCompra"), desde.atStartOfDay()));
+            }
+            if (hasta != null) {
+                condiciones.add(cb.lessThan(root.get("fechaHoraCompra"), hasta.plusDays(1).atStartOfDay()));
+            }
+            return cb.and(condiciones.toArray(new Predicate[0]));
+        };
+    }
+
+    public static Specification<Compra> compraPorMetodoPago(String metodoPago) {
+        return (root, query, cb) -> vacio(metodoPago)
+                ? cb.conjunction()
+                : cb.equal(root.get("metodoPago"), metodoPago.trim());
+    }
+
+    public static Specification<Envio> envioPorEstado(Envio.EstadoEnvio estado) {
+        return (root, query, cb) -> estado == null
+                ? cb.conjunction()
+                : cb.equal(root.get("estadoEnvio"), estado);
+    }
+
+    /**
+     * Envíos por número de envío o de pedido, número de seguimiento, direcciones o transportista
+     */
+    public static Specification<Envio> envioPorTexto(String texto) {
+        return (root, query, cb) -> {
+            if (vacio(texto)) {
+                return cb.conjunction();
+            }
+            String valor = texto.trim();
+            Integer id = comoEntero(valor);
+            if (id != null) {
+                return cb.or(
+                        cb.equal(root.get("idEnvio"), id),
+                        cb.equal(root.join("compra", JoinType.LEFT).get("idCompra"), id));
+            }
+            Join<Object, Object> usuario = root.join("transportista", JoinType.LEFT).join("usuario", JoinType.LEFT);
+            String patron = patron(valor);
+            return cb.or(
+                    cb.like(root.<String>get("numeroSeguimiento"), patron),
+                    cb.like(root.<String>get("direccionOrigen"), patron),
+                    cb.like(root.<String>get("direccionDestino"), patron),
+                    coincideUsuario(cb, usuario, valor));
+        };
+    }
+
+    private static Predicate coincideUsuario(CriteriaBuilder cb, From<?, ?> usuario, String texto) {
+        String patron = patron(texto);
+        Expression<String> nombreCompleto = cb.concat(cb.concat(usuario.<String>get("nombre"), " "), usuario.<String>get("apellido"));
+        return cb.or(
+                cb.like(usuario.<String>get("nombre"), patron),
+                cb.like(usuario.<String>get("apellido"), patron),
+                cb.like(nombreCompleto, patron),
+                cb.like(usuario.<String>get("nombreUsuario"), patron),
+                cb.like(usuario.<String>get("correo"), patron),
+                cb.like(usuario.<String>get("ciudad"), patron),
+                cb.equal(usuario.get("cedula"), texto));
+    }
+
+    // Prefijo literal: se escapan los comodines que escriba el usuario
+    private static String patron(String texto) {
+        return texto.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    private static Integer comoEntero(String texto) {
+        String sinNumeral = texto.startsWith("#") ? texto.substring(1) : texto;
+        if (sinNumeral.isEmpty() || sinNumeral.length() > 9 || !sinNumeral.chars().allMatch(Character::isDigit)) {
+            return null;
+        }
+        return Integer.parseInt(sinNumeral);
+    }
+
+    private static boolean vacio(String texto) {
+        return texto == null || texto.isBlank();
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.springbootagrolink.repository;
+
+import com.example.springbootagrolink.model.GeocodificacionCache;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface GeocodificacionCacheRepository extends JpaRepository<GeocodificacionCache, String> {
+}
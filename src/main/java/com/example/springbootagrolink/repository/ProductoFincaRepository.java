@@ -99,4 +99,12 @@ public interface ProductoFincaRepository extends JpaRepository<ProductoFinca, In
      */
     @Query("SELECT pf FROM ProductoFinca pf WHERE pf.finca.idFinca = :idFinca AND pf.producto.idProducto = :idProducto")
     Optional<ProductoFinca> buscarAsociacion(@Param("idFinca") Integer idFinca, @Param("idProducto") Integer idProducto);
+
+    /**
+     * Pares (idProducto, idFinca) de todas las asociaciones, sin cargar entidades
+     *
+     * CASO DE USO: Construir el índice de fincas (IndiceFincasService) al arrancar
+     */
+    @Query("SELECT pf.producto.idProducto, pf.finca.idFinca FROM ProductoFinca pf")
+    List<Object[]> findParesProductoFinca();
 }
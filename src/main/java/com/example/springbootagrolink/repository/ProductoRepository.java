@@ -1,12 +1,17 @@
 package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Producto;
+import com.example.springbootagrolink.model.ProductoCarrito;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -45,6 +50,92 @@ public interface ProductoRepository extends JpaRepository<Producto, Integer>, Jp
            "LEFT JOIN FETCH pf.finca")
     List<Producto> findAllWithFincas();
 
+    // Cargar productos con productor, usuario y categoría para construir el índice del catálogo
+    @Query("SELECT p FROM Producto p " +
+           "LEFT JOIN FETCH p.productor prod " +
+           "LEFT JOIN FETCH prod.usuario " +
+           "LEFT JOIN FETCH p.categoria")
+    List<Producto> findAllParaIndice();
+
+    // Igual que findAllParaIndice pero limitado a los productos de un productor
+    @Query("SELECT p FROM Producto p " +
+           "LEFT JOIN FETCH p.productor prod " +
+           "LEFT JOIN FETCH prod.usuario " +
+           "LEFT JOIN FETCH p.categoria " +
+           "WHERE prod.idProductor = :productorId")
+    List<Producto> findParaIndiceByProductor(@Param("productorId") Integer productorId);
+
+    // Obtener solo los productos indicados con sus imágenes y los datos que muestra la tarjeta del catálogo
+    @Query("SELECT DISTINCT p FROM Producto p " +
+           "LEFT JOIN FETCH p.imagenesProducto " +
+           "LEFT JOIN FETCH p.productor prod " +
+           "LEFT JOIN FETCH prod.usuario " +
+           "LEFT JOIN FETCH p.categoria " +
+           "WHERE p.idProducto IN :ids")
+    List<Producto> findAllWithImagesByIds(@Param("ids") Collection<Integer> ids);
+
+    // Paginación por cursor del catálogo: ids de la página siguiente a :despuesDeId, en orden de id.
+    // Solo se leen ids (sin JOIN FETCH de colecciones) para que el LIMIT del Pageable llegue a la BD
+    @Query("SELECT p.idProducto FROM Producto p " +
+           "WHERE (:despuesDeId IS NULL OR p.idProducto > :despuesDeId) " +
+           "ORDER BY p.idProducto")
+    List<Integer> findIdsPaginaCatalogo(@Param("despuesDeId") Integer despuesDeId, Pageable limite);
+
+    // Paginación por cursor ordenada por (precio, id); la resuelve idx_producto_precio, que en InnoDB ya incluye la PK
+    @Query("SELECT p.idProducto FROM Producto p " +
+           "WHERE p.precio IS NOT NULL " +
+           "AND (:despuesDePrecio IS NULL " +
+           "OR p.precio > :despuesDePrecio " +
+           "OR (p.precio = :despuesDePrecio AND p.idProducto > :despuesDeId)) " +
+           "ORDER BY p.precio, p.idProducto")
+    List<Integer> findIdsPaginaCatalogoPorPrecio(@Param("despuesDePrecio") BigDecimal despuesDePrecio,
+                                                 @Param("despuesDeId") Integer despuesDeId,
+                                                 Pageable limite);
+
+    // Cola del orden por calificación: productos sin reseñas, en orden de id (los calificados salen de ResenaService)
+    @Query("SELECT p.idProducto FROM Producto p " +
+           "WHERE NOT EXISTS (SELECT 1 FROM CalificacionProducto cal " +
+           "                  WHERE cal.idProducto = p.idProducto AND cal.cantidad > 0) " +
+           "AND (:despuesDeId IS NULL OR p.idProducto > :despuesDeId) " +
+           "ORDER BY p.idProducto")
+    List<Integer> findIdsSinCalificacion(@Param("despuesDeId") Integer despuesDeId, Pageable limite);
+
+    // Paginación por cursor de los productos de un productor
+    @Query("SELECT p.idProducto FROM Producto p " +
+           "WHERE p.productor.idProductor = :productorId " +
+           "AND (:despuesDeId IS NULL OR p.idProducto > :despuesDeId) " +
+           "ORDER BY p.idProducto")
+    List<Integer> findIdsPaginaPorProductor(@Param("productorId") Integer productorId,
+                                            @Param("despuesDeId") Integer despuesDeId,
+                                            Pageable limite);
+
+    // Contar productos de un productor
+    @Query("SELECT COUNT(p) FROM Producto p WHERE p.productor.idProductor = :productorId")
+    long countByProductorId(@Param("productorId") Integer productorId);
+
+    // Datos de los productos del carrito en una sola consulta; la imagen es la principal o, si no hay, la primera
+    @Query("SELECT new com.example.springbootagrolink.model.ProductoCarrito(" +
+           "p.idProducto, p.nombreProducto, p.descripcionProducto, p.precio, p.pesoKg, p.stock, " +
+           "(SELECT i.urlImagen FROM ImagenProducto i WHERE i.producto = p " +
+           "ORDER BY i.esPrincipal DESC, i.idImagen LIMIT 1)) " +
+           "FROM Producto p WHERE p.idProducto IN :ids")
+    List<ProductoCarrito> findProductosCarrito(@Param("ids") Collection<Integer> ids);
+
+    // Descuento atómico de stock: solo afecta la fila si alcanza el inventario (devuelve 0 si no)
+    @Modifying
+    @Query("UPDATE Producto p SET p.stock = p.stock - :cantidad " +
+           "WHERE p.idProducto = :idProducto AND p.stock >= :cantidad")
+    int descontarStock(@Param("idProducto") Integer idProducto, @Param("cantidad") int cantidad);
+
+    // Devolver unidades al inventario (cancelaciones) sin leer y reescribir el valor
+    @Modifying
+    @Query("UPDATE Producto p SET p.stock = COALESCE(p.stock, 0) + :cantidad WHERE p.idProducto = :idProducto")
+    int reponerStock(@Param("idProducto") Integer idProducto, @Param("cantidad") int cantidad);
+
+    // Stock actual leído de la BD (no de la entidad que pueda estar en el contexto de persistencia)
+    @Query("SELECT p.stock FROM Producto p WHERE p.idProducto = :idProducto")
+    Integer findStockById(@Param("idProducto") Integer idProducto);
+
     // Búsqueda avanzada en múltiples campos
     @Query("SELECT DISTINCT p FROM Producto p " +
            "LEFT JOIN FETCH p.imagenesProducto " +
@@ -73,7 +164,7 @@ public interface ProductoRepository extends JpaRepository<Producto, Integer>, Jp
            "(:precioMax IS NULL OR p.precio <= :precioMax)")
     List<Producto> filtrarPorRangoPrecio(@Param("precioMin") Double precioMin, @Param("precioMax") Double precioMax);
 
-    // Filtrar por múltiples criterios (versión simplificada)
+    // Filtrar por múltiples criterios; la calificación mínima se compara con el promedio bayesiano acumulado
     @Query("SELECT DISTINCT p FROM Producto p " +
            "LEFT JOIN FETCH p.imagenesProducto " +
            "LEFT JOIN p.categoria c " +
@@ -82,7 +173,9 @@ public interface ProductoRepository extends JpaRepository<Producto, Integer>, Jp
            "WHERE (:categoriaId IS NULL OR c.idCategoria = :categoriaId) " +
            "AND (:ubicacion IS NULL OR LOWER(u.ciudad) LIKE LOWER(CONCAT('%', :ubicacion, '%'))) " +
            "AND (:precioMin IS NULL OR p.precio >= :precioMin) " +
-           "AND (:precioMax IS NULL OR p.precio <= :precioMax)")
+           "AND (:precioMax IS NULL OR p.precio <= :precioMax) " +
+           "AND (:calificacionMin IS NULL OR EXISTS (SELECT cp.idProducto FROM CalificacionProducto cp " +
+           "     WHERE cp.idProducto = p.idProducto AND cp.cantidad > 0 AND cp.puntaje >= :calificacionMin))")
     List<Producto> filtrarPorMultiplesCriterios(@Param("categoriaId") Integer categoriaId,
                                                @Param("ubicacion") String ubicacion,
                                                @Param("precioMin") Double precioMin,
@@ -105,19 +198,12 @@ public interface ProductoRepository extends JpaRepository<Producto, Integer>, Jp
     @Query("SELECT MAX(p.precio) FROM Producto p")
     Double obtenerPrecioMaximo();
 
-    // Filtrar productos por calificación (versión simplificada - por ahora devuelve todos)
-    @Query("SELECT p FROM Producto p")
+    // Filtrar productos por calificación mínima (promedio bayesiano, índice idx_calificaciones_producto_puntaje)
+    @Query("SELECT p FROM Producto p JOIN CalificacionProducto cp ON cp.idProducto = p.idProducto " +
+           "WHERE cp.cantidad > 0 AND cp.puntaje >= :calificacionMin " +
+           "ORDER BY cp.puntaje DESC, p.idProducto")
     List<Producto> filtrarPorCalificacion(@Param("calificacionMin") Double calificacionMin);
 
-    // Obtener el producto más vendido usando consulta nativa SQL
-    @Query(value = "SELECT p.* FROM tb_productos p " +
-                   "LEFT JOIN tb_detalles_compra dc ON dc.id_producto = p.id_producto " +
-                   "GROUP BY p.id_producto " +
-                   "ORDER BY COALESCE(SUM(dc.cantidad), 0) DESC " +
-                   "LIMIT 1",
-           nativeQuery = true)
-    Producto obtenerProductoMasVendidoNativo();
-
     // Método que devuelve lista para mantener compatibilidad
     @Query("SELECT p FROM Producto p ORDER BY p.idProducto DESC")
     List<Producto> obtenerProductoMasVendido();
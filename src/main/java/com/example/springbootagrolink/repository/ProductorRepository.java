@@ -1,8 +1,12 @@
 package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Productor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -12,7 +16,7 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ProductorRepository extends JpaRepository<Productor, Integer> {
+public interface ProductorRepository extends JpaRepository<Productor, Integer>, JpaSpecificationExecutor<Productor> {
 
     // Sobrescribir findAll para cargar el usuario junto con el productor
     @Override
@@ -33,4 +37,8 @@ public interface ProductorRepository extends JpaRepository<Productor, Integer> {
     // Buscar productor por nombreUsuario del usuario
     Optional<Productor> findByUsuarioNombreUsuario(String nombreUsuario);
 
+    // Página del listado de administración con el usuario en la misma consulta
+    @Override
+    @EntityGraph(attributePaths = {"usuario"})
+    Page<Productor> findAll(Specification<Productor> spec, Pageable pageable);
 }
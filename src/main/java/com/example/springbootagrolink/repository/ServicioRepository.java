@@ -11,8 +11,8 @@ import java.util.List;
 @Repository
 public interface ServicioRepository extends JpaRepository<Servicio, Integer> {
 
-    // Sobrescribir findAll para cargar el asesor junto con el servicio
+    // Sobrescribir findAll para cargar el asesor (y su usuario) junto con el servicio
     @Override
-    @EntityGraph(attributePaths = {"asesor"})
+    @EntityGraph(attributePaths = {"asesor", "asesor.usuario"})
     List<Servicio> findAll();
 }
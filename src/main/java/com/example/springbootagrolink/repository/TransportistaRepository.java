@@ -1,17 +1,26 @@
 package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Transportista;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
-public interface TransportistaRepository extends JpaRepository<Transportista, Integer> {
+public interface TransportistaRepository extends JpaRepository<Transportista, Integer>, JpaSpecificationExecutor<Transportista> {
 
     // Sobrescribir findAll para cargar el usuario junto con el transportista
     @Override
     @EntityGraph(attributePaths = {"usuario"})
     List<Transportista> findAll();
+
+    // Página del listado de administración con el usuario en la misma consulta
+    @Override
+    @EntityGraph(attributePaths = {"usuario"})
+    Page<Transportista> findAll(Specification<Transportista> spec, Pageable pageable);
 }
@@ -2,12 +2,18 @@ package com.example.springbootagrolink.repository;
 
 import com.example.springbootagrolink.model.Usuario;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UsuarioRepository extends JpaRepository<Usuario, Integer> {
 
     Optional<Usuario> findByNombreUsuario(String nombreUsuario);
+
+    // Cantidad de usuarios por rol (pestañas del administrador)
+    @Query("SELECT u.rol, COUNT(u) FROM Usuario u GROUP BY u.rol")
+    List<Object[]> contarPorRol();
 }
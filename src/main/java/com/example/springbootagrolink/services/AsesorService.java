@@ -14,6 +14,10 @@ public class AsesorService {
     @Autowired
     private AsesorRepository asesorRepository;
 
+    // Los servicios en memoria llevan los datos de su asesor
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
     // Obtener todos los asesores
     public List<Asesor> obtenerTodosLosAsesores() {
         return asesorRepository.findAll();
@@ -41,7 +45,9 @@ public class AsesorService {
             asesor.setCalificacion(asesorActualizado.getCalificacion());
             asesor.setTipoAsesoria(asesorActualizado.getTipoAsesoria());
 
-            return asesorRepository.save(asesor);
+            Asesor guardado = asesorRepository.save(asesor);
+            datosReferenciaService.invalidarServicios();
+            return guardado;
         }
         return null;
     }
@@ -50,6 +56,7 @@ public class AsesorService {
     public boolean eliminarAsesor(Integer id) {
         if (asesorRepository.existsById(id)) {
             asesorRepository.deleteById(id);
+            datosReferenciaService.invalidarServicios();
             return true;
         }
         return false;
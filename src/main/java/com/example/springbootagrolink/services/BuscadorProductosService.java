@@ -0,0 +1,367 @@
+package com.example.springbootagrolink.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Motor de búsqueda de texto completo para el catálogo (/buscar).
+ *
+ * Mantiene un índice invertido en memoria (término → producto → frecuencia ponderada) construido
+ * con los textos ya normalizados del IndiceCatalogoService: nombre del producto, categoría,
+ * nombre y ciudad del productor y descripción. Cada campo pesa distinto (el nombre cuenta más
+ * que la descripción) y los resultados se ordenan con BM25.
+ *
+ * Cada término de la consulta se compara de forma exacta, por prefijo ("tom" → "tomate") y,
+ * si no hay coincidencias, con tolerancia a errores de escritura (distancia de edición 1 o 2).
+ * El diccionario está ordenado, así que el prefijo es un rango y no un recorrido completo; para
+ * la búsqueda aproximada los términos se agrupan además por longitud, de modo que solo se
+ * comparan los que pueden quedar a la distancia permitida (un error en la primera letra también
+ * se corrige).
+ *
+ * IndiceCatalogoService lo actualiza de forma incremental cada vez que cambia un producto.
+ */
+@Service
+public class BuscadorProductosService {
+
+    private static final Logger log = LoggerFactory.getLogger(BuscadorProductosService.class);
+
+    // Parámetros de BM25
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Peso de cada campo dentro del documento
+    private static final float PESO_NOMBRE = 3.0f;
+    private static final float PESO_CATEGORIA = 2.0f;
+    private static final float PESO_PRODUCTOR = 1.5f;
+    private static final float PESO_CIUDAD = 1.5f;
+    private static final float PESO_DESCRIPCION = 1.0f;
+
+    // Descuento aplicado a las coincidencias que no son exactas
+    private static final double FACTOR_PREFIJO = 0.8;
+    private static final double FACTOR_APROXIMADO = 0.5;
+
+    private static final int MAX_EXPANSIONES_PREFIJO = 50;
+
+    private static final Set<String> PALABRAS_VACIAS = Set.of(
+            "de", "la", "el", "los", "las", "del", "y", "en", "con", "para", "por", "un", "una", "al", "a", "o"
+    );
+
+    /**
+     * Resultado paginado: ids en orden de relevancia y total de coincidencias
+     */
+    public record ResultadoBusqueda(List<Integer> ids, int total, int pagina, int tamanio) {
+        public int totalPaginas() {
+            return tamanio <= 0 ? 0 : (total + tamanio - 1) / tamanio;
+        }
+    }
+
+    private record Documento(Map<String, Float> frecuencias, float longitud, String firma) {
+    }
+
+    private final TreeMap<String, Map<Integer, Float>> postings = new TreeMap<>();
+    // Términos del diccionario agrupados por longitud, para la búsqueda aproximada
+    private final Map<Integer, Set<String>> terminosPorLongitud = new HashMap<>();
+    private final Map<Integer, Documento> documentos = new HashMap<>();
+    private double longitudTotal = 0;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // ==================== ESCRITURA ====================
+
+    /**
+     * Indexa (o reemplaza) un producto. Los textos deben venir ya normalizados.
+     */
+    public void indexar(IndiceCatalogoService.EntradaCatalogo entrada) {
+        String firma = entrada.nombre() + '|' + entrada.categoria() + '|' + entrada.productor()
+                + '|' + entrada.ciudad() + '|' + entrada.descripcion();
+
+        lock.writeLock().lock();
+        try {
+            Documento actual = documentos.get(entrada.idProducto());
+            if (actual != null && actual.firma().equals(firma)) {
+                // Cambió solo precio o stock: el texto indexado sigue siendo válido
+                return;
+            }
+            if (actual != null) {
+                quitarDocumento(entrada.idProducto(), actual);
+            }
+
+            Map<String, Float> frecuencias = new HashMap<>();
+            float longitud = 0;
+            longitud += acumular(frecuencias, entrada.nombre(), PESO_NOMBRE);
+            longitud += acumular(frecuencias, entrada.categoria(), PESO_CATEGORIA);
+            longitud += acumular(frecuencias, entrada.productor(), PESO_PRODUCTOR);
+            longitud += acumular(frecuencias, entrada.ciudad(), PESO_CIUDAD);
+            longitud += acumular(frecuencias, entrada.descripcion(), PESO_DESCRIPCION);
+
+            for (Map.Entry<String, Float> f : frecuencias.entrySet()) {
+                postings.computeIfAbsent(f.getKey(), k -> {
+                    terminosPorLongitud.computeIfAbsent(k.length(), l -> new HashSet<>()).add(k);
+                    return new HashMap<>();
+                }).put(entrada.idProducto(), f.getValue());
+            }
+            documentos.put(entrada.idProducto(), new Documento(frecuencias, longitud, firma));
+            longitudTotal += longitud;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void quitar(Integer idProducto) {
+        lock.writeLock().lock();
+        try {
+            Documento actual = documentos.get(idProducto);
+            if (actual != null) {
+                quitarDocumento(idProducto, actual);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reemplaza todo el índice con las entradas dadas
+     */
+    public void reconstruir(Collection<IndiceCatalogoService.EntradaCatalogo> entradas) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            terminosPorLongitud.clear();
+            documentos.clear();
+            longitudTotal = 0;
+            for (IndiceCatalogoService.EntradaCatalogo entrada : entradas) {
+                indexar(entrada);
+            }
+            log.info("Buscador de productos: {} documentos, {} términos", documentos.size(), postings.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void quitarDocumento(Integer idProducto, Documento documento) {
+        for (String termino : documento.frecuencias().keySet()) {
+            Map<Integer, Float> lista = postings.get(termino);
+            if (lista != null) {
+                lista.remove(idProducto);
+                if (lista.isEmpty()) {
+                    postings.remove(termino);
+                    Set<String> mismaLongitud = terminosPorLongitud.get(termino.length());
+                    if (mismaLongitud != null) {
+                        mismaLongitud.remove(termino);
+                        if (mismaLongitud.isEmpty()) {
+                            terminosPorLongitud.remove(termino.length());
+                        }
+                    }
+                }
+            }
+        }
+        documentos.remove(idProducto);
+        longitudTotal -= documento.longitud();
+    }
+
+    private static float acumular(Map<String, Float> frecuencias, String texto, float peso) {
+        float longitud = 0;
+        for (String token : tokenizar(texto)) {
+            frecuencias.merge(token, peso, Float::sum);
+            longitud += peso;
+        }
+        return longitud;
+    }
+
+    // ==================== CONSULTA ====================
+
+    /**
+     * Busca productos y devuelve una página de ids ordenados por relevancia
+     *
+     * @param consulta texto libre escrito por el usuario
+     * @param pagina   página (desde 0)
+     * @param tamanio  resultados por página
+     */
+    public ResultadoBusqueda buscar(String consulta, int pagina, int tamanio) {
+        pagina = Math.max(0, pagina);
+        tamanio = Math.max(1, tamanio);
+        List<String> terminos = tokenizar(NormalizadorTexto.normalizar(consulta));
+        if (terminos.isEmpty()) {
+            return new ResultadoBusqueda(List.of(), 0, pagina, tamanio);
+        }
+
+        lock.readLock().lock();
+        try {
+            int n = documentos.size();
+            if (n == 0) {
+                return new ResultadoBusqueda(List.of(), 0, pagina, tamanio);
+            }
+            double longitudMedia = longitudTotal / n;
+
+            // Puntaje acumulado por producto; además se exige que todos los términos coincidan
+            Map<Integer, Double> puntajes = null;
+
+            for (String termino : terminos) {
+                Map<Integer, Double> delTermino = puntuarTermino(termino, n, longitudMedia);
+                if (puntajes == null) {
+                    puntajes = delTermino;
+                } else {
+                    Map<Integer, Double> interseccion = new HashMap<>();
+                    for (Map.Entry<Integer, Double> e : puntajes.entrySet()) {
+                        Double extra = delTermino.get(e.getKey());
+                        if (extra != null) {
+                            interseccion.put(e.getKey(), e.getValue() + extra);
+                        }
+                    }
+                    puntajes = interseccion;
+                }
+                if (puntajes.isEmpty()) {
+                    break;
+                }
+            }
+
+            return paginar(puntajes, pagina, tamanio);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Puntaje BM25 de un término de la consulta, tomando para cada producto la mejor de sus
+     * expansiones (exacta, por prefijo o aproximada)
+     */
+    private Map<Integer, Double> puntuarTermino(String termino, int n, double longitudMedia) {
+        Map<Integer, Double> puntajes = new HashMap<>();
+
+        Map<Integer, Float> exactos = postings.get(termino);
+        if (exactos != null) {
+            sumarBm25(puntajes, exactos, 1.0, n, longitudMedia);
+        }
+
+        // Prefijo: rango (termino, termino + Character.MAX_VALUE) del diccionario ordenado
+        int expansiones = 0;
+        for (Map.Entry<String, Map<Integer, Float>> e : postings.subMap(termino, false, termino + Character.MAX_VALUE, false).entrySet()) {
+            sumarBm25(puntajes, e.getValue(), FACTOR_PREFIJO, n, longitudMedia);
+            if (++expansiones >= MAX_EXPANSIONES_PREFIJO) break;
+        }
+
+        // Aproximada: solo si no hubo coincidencias exactas ni por prefijo
+        if (puntajes.isEmpty() && termino.length() >= 4) {
+            int maxDistancia = termino.length() >= 8 ? 2 : 1;
+            // Solo las longitudes que pueden quedar a maxDistancia ediciones del término
+            for (int longitud = termino.length() - maxDistancia; longitud <= termino.length() + maxDistancia; longitud++) {
+                Set<String> candidatos = terminosPorLongitud.get(longitud);
+                if (candidatos == null) continue;
+                for (String candidato : candidatos) {
+                    if (distanciaEdicion(termino, candidato, maxDistancia) <= maxDistancia) {
+                        sumarBm25(puntajes, postings.get(candidato), FACTOR_APROXIMADO, n, longitudMedia);
+                    }
+                }
+            }
+        }
+        return puntajes;
+    }
+
+    private void sumarBm25(Map<Integer, Double> puntajes, Map<Integer, Float> lista, double factor,
+                           int n, double longitudMedia) {
+        int df = lista.size();
+        double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+        for (Map.Entry<Integer, Float> e : lista.entrySet()) {
+            Documento doc = documentos.get(e.getKey());
+            if (doc == null) continue;
+            double tf = e.getValue();
+            double norma = K1 * (1 - B + B * doc.longitud() / longitudMedia);
+            double puntaje = factor * idf * (tf * (K1 + 1)) / (tf + norma);
+            // Nos quedamos con la mejor expansión del término para cada producto
+            puntajes.merge(e.getKey(), puntaje, Math::max);
+        }
+    }
+
+    private static ResultadoBusqueda paginar(Map<Integer, Double> puntajes, int pagina, int tamanio) {
+        int total = puntajes.size();
+        int desde = pagina * tamanio;
+        if (desde >= total) {
+            return new ResultadoBusqueda(List.of(), total, pagina, tamanio);
+        }
+        int limite = Math.min(total, desde + tamanio);
+
+        // Montículo de los 'limite' mejores: O(n log k) en vez de ordenar todas las coincidencias
+        Comparator<Map.Entry<Integer, Double>> porRelevancia = Map.Entry.<Integer, Double>comparingByValue()
+                .thenComparing(Map.Entry.<Integer, Double>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<Integer, Double>> mejores = new PriorityQueue<>(limite + 1, porRelevancia);
+        for (Map.Entry<Integer, Double> e : puntajes.entrySet()) {
+            mejores.offer(e);
+            if (mejores.size() > limite) {
+                mejores.poll();
+            }
+        }
+        List<Map.Entry<Integer, Double>> ordenados = new ArrayList<>(mejores);
+        ordenados.sort(porRelevancia.reversed());
+
+        List<Integer> ids = new ArrayList<>(limite - desde);
+        for (int i = desde; i < limite; i++) {
+            ids.add(ordenados.get(i).getKey());
+        }
+        return new ResultadoBusqueda(ids, total, pagina, tamanio);
+    }
+
+    // ==================== UTILIDADES ====================
+
+    /**
+     * Divide un texto normalizado en términos (letras y dígitos), sin palabras vacías
+     */
+    static List<String> tokenizar(String textoNormalizado) {
+        List<String> tokens = new ArrayList<>();
+        if (textoNormalizado == null || textoNormalizado.isEmpty()) {
+            return tokens;
+        }
+        int inicio = -1;
+        for (int i = 0; i <= textoNormalizado.length(); i++) {
+            boolean esParte = i < textoNormalizado.length() && Character.isLetterOrDigit(textoNormalizado.charAt(i));
+            if (esParte && inicio < 0) {
+                inicio = i;
+            } else if (!esParte && inicio >= 0) {
+                String token = textoNormalizado.substring(inicio, i);
+                if (token.length() >= 2 && !PALABRAS_VACIAS.contains(token)) {
+                    tokens.add(token);
+                }
+                inicio = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Distancia de Levenshtein con corte temprano cuando ya supera el máximo permitido
+     */
+    static int distanciaEdicion(String a, String b, int maximo) {
+        int[] anterior = new int[b.length() + 1];
+        int[] actual = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) anterior[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            actual[0] = i;
+            int minimoFila = actual[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int costo = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                actual[j] = Math.min(Math.min(actual[j - 1] + 1, anterior[j] + 1), anterior[j - 1] + costo);
+                minimoFila = Math.min(minimoFila, actual[j]);
+            }
+            if (minimoFila > maximo) {
+                return maximo + 1;
+            }
+            int[] tmp = anterior;
+            anterior = actual;
+            actual = tmp;
+        }
+        return anterior[b.length()];
+    }
+
+    public int totalDocumentos() {
+        lock.readLock().lock();
+        try {
+            return documentos.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.springbootagrolink.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caché en memoria acotada, con expiración por entrada y desalojo LRU cuando se llena.
+ *
+ * Es deliberadamente simple: un LinkedHashMap en orden de acceso protegido por un lock. Los valores
+ * que guarda (coordenadas, distancias) son pequeños y el coste que evita es una llamada HTTP, así que
+ * el lock no es un cuello de botella. Lleva contadores de aciertos, fallos, desalojos y expiraciones.
+ */
+public final class CacheLruConExpiracion<K, V> {
+
+    private record Entrada<V>(V valor, long expiraEn) {
+    }
+
+    private final String nombre;
+    private final int capacidad;
+    private final long ttlPorDefectoMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entrada<V>> mapa;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+    private final LongAdder expiraciones = new LongAdder();
+
+    public CacheLruConExpiracion(String nombre, int capacidad, long ttlPorDefectoMs) {
+        this.nombre = nombre;
+        this.capacidad = capacidad;
+        this.ttlPorDefectoMs = ttlPorDefectoMs;
+        this.mapa = new LinkedHashMap<>(Math.min(capacidad, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entrada<V>> masAntigua) {
+                if (size() > CacheLruConExpiracion.this.capacidad) {
+                    desalojos.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Devuelve el valor si está y no ha expirado; null en otro caso
+     */
+    public V obtener(K clave) {
+        long ahora = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Entrada<V> e = mapa.get(clave);
+            if (e == null) {
+                fallos.increment();
+                return null;
+            }
+            if (e.expiraEn() <= ahora) {
+                mapa.remove(clave);
+                expiraciones.increment();
+                fallos.increment();
+                return null;
+            }
+            aciertos.increment();
+            return e.valor();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void guardar(K clave, V valor) {
+        guardar(clave, valor, ttlPorDefectoMs);
+    }
+
+    /**
+     * Guarda el valor con un TTL propio (por ejemplo, más corto para resultados de respaldo)
+     */
+    public void guardar(K clave, V valor, long ttlMs) {
+        if (clave == null || valor == null) {
+            return;
+        }
+        long expiraEn = System.currentTimeMillis() + ttlMs;
+        lock.lock();
+        try {
+            mapa.put(clave, new Entrada<>(valor, expiraEn));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidar(K clave) {
+        lock.lock();
+        try {
+            mapa.remove(clave);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void limpiar() {
+        lock.lock();
+        try {
+            mapa.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int tamanio() {
+        lock.lock();
+        try {
+            return mapa.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Métricas de la caché (aciertos, fallos, tasa de acierto, desalojos, expiraciones, tamaño)
+     */
+    public Map<String, Object> estadisticas() {
+        long a = aciertos.sum();
+        long f = fallos.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nombre", nombre);
+        stats.put("tamanio", tamanio());
+        stats.put("capacidad", capacidad);
+        stats.put("aciertos", a);
+        stats.put("fallos", f);
+        stats.put("tasaAcierto", (a + f) == 0 ? 0.0 : (double) a / (a + f));
+        stats.put("desalojos", desalojos.sum());
+        stats.put("expiraciones", expiraciones.sum());
+        return stats;
+    }
+}
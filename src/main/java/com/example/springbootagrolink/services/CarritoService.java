@@ -6,19 +6,15 @@ import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import com.example.springbootagrolink.repository.ProductoRepository;
-import com.example.springbootagrolink.model.Producto;
-
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 
 @Service
 public class CarritoService {
 
     @Autowired
-    private ProductoRepository productoRepository;
+    private CotizadorCarritoService cotizadorCarritoService;
 
     @SuppressWarnings("unchecked")
     public Map<Integer, Integer> obtenerCarrito(HttpSession session) {
@@ -89,26 +85,12 @@ public class CarritoService {
     }
 
     /**
-     * Calcula el total monetario del carrito consultando los precios en BD
+     * Calcula el total monetario del carrito consultando los precios en BD (una sola consulta)
      */
     public BigDecimal calcularTotal(HttpSession session) {
         Map<Integer, Integer> carrito = obtenerCarrito(session);
-        BigDecimal total = BigDecimal.ZERO;
-
-        if (carrito.isEmpty()) return total;
+        if (carrito.isEmpty()) return BigDecimal.ZERO;
 
-        for (Map.Entry<Integer, Integer> entry : carrito.entrySet()) {
-            Integer idProducto = entry.getKey();
-            Integer cantidad = entry.getValue();
-
-            Optional<Producto> opt = productoRepository.findById(idProducto);
-            if (opt.isPresent()) {
-                Producto p = opt.get();
-                if (p.getPrecio() != null) {
-                    total = total.add(p.getPrecio().multiply(BigDecimal.valueOf(cantidad)));
-                }
-            }
-        }
-        return total;
+        return cotizadorCarritoService.cotizar(carrito, CotizadorCarritoService.TarifaEnvio.FIJA).subtotal();
     }
 }
@@ -16,10 +16,16 @@ public class CategoriaProductoService implements Idao<CategoriaProducto, Integer
     @Autowired
     private CategoriaProductoRepository categoriaProductoRepository;
 
+    @Autowired
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
+    // Desde memoria: las categorías se usan en casi todas las páginas (navbar, filtros, formularios)
     @Override
-    @Transactional(readOnly = true)
     public List<CategoriaProducto> obtenerTodos() {
-        return categoriaProductoRepository.findAll();
+        return datosReferenciaService.categorias();
     }
 
     @Override
@@ -31,7 +37,9 @@ public class CategoriaProductoService implements Idao<CategoriaProducto, Integer
     @Override
     @Transactional
     public CategoriaProducto guardar(CategoriaProducto entidad) {
-        return categoriaProductoRepository.save(entidad);
+        CategoriaProducto guardada = categoriaProductoRepository.save(entidad);
+        datosReferenciaService.invalidarCategorias();
+        return guardada;
     }
 
     @Override
@@ -41,7 +49,10 @@ public class CategoriaProductoService implements Idao<CategoriaProducto, Integer
                 .orElseThrow(() -> new RuntimeException("Categoría no encontrada con ID: " + id));
         // Actualizar campos simples
         existente.setNombreCategoria(cambios.getNombreCategoria());
-        return categoriaProductoRepository.save(existente);
+        CategoriaProducto guardada = categoriaProductoRepository.save(existente);
+        datosReferenciaService.invalidarCategorias();
+        indiceCatalogoService.renombrarCategoria(guardada.getIdCategoria(), guardada.getNombreCategoria());
+        return guardada;
     }
 
     @Override
@@ -49,6 +60,7 @@ public class CategoriaProductoService implements Idao<CategoriaProducto, Integer
     public boolean eliminar(Integer id) {
         if (categoriaProductoRepository.existsById(id)) {
             categoriaProductoRepository.deleteById(id);
+            datosReferenciaService.invalidarCategorias();
             return true;
         }
         return false;
@@ -4,20 +4,30 @@ import com.example.springbootagrolink.model.Compra;
 import com.example.springbootagrolink.model.DetalleCompra;
 import com.example.springbootagrolink.model.Producto;
 import com.example.springbootagrolink.model.Cliente;
+import com.example.springbootagrolink.model.PedidoProductor;
 import com.example.springbootagrolink.repository.CompraRepository;
 import com.example.springbootagrolink.repository.DetalleCompraRepository;
 import com.example.springbootagrolink.repository.ProductoRepository;
 import com.example.springbootagrolink.repository.ClienteRepository;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeSet;
 
 @Service
 public class CompraService {
@@ -26,15 +36,30 @@ public class CompraService {
     private final DetalleCompraRepository detalleCompraRepository;
     private final ProductoRepository productoRepository;
     private final ClienteRepository clienteRepository;
+    private final IndiceCatalogoService indiceCatalogoService;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final VentasResumenService ventasResumenService;
+    private final RankingProductosService rankingProductosService;
+    private final ReservaStockService reservaStockService;
 
     public CompraService(CompraRepository compraRepository,
                          DetalleCompraRepository detalleCompraRepository,
                          ProductoRepository productoRepository,
-                         ClienteRepository clienteRepository) {
+                         ClienteRepository clienteRepository,
+                         IndiceCatalogoService indiceCatalogoService,
+                         NamedParameterJdbcTemplate jdbcTemplate,
+                         VentasResumenService ventasResumenService,
+                         RankingProductosService rankingProductosService,
+                         ReservaStockService reservaStockService) {
         this.compraRepository = compraRepository;
         this.detalleCompraRepository = detalleCompraRepository;
         this.productoRepository = productoRepository;
         this.clienteRepository = clienteRepository;
+        this.indiceCatalogoService = indiceCatalogoService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.ventasResumenService = ventasResumenService;
+        this.rankingProductosService = rankingProductosService;
+        this.reservaStockService = reservaStockService;
     }
 
     @Transactional
@@ -55,6 +80,134 @@ public class CompraService {
         return compraRepository.save(compra);
     }
 
+    // Datos de un producto leídos durante el checkout
+    private record ProductoCompra(Integer idProducto, String nombre, BigDecimal precio, BigDecimal pesoKg, Integer stock) {
+    }
+
+    /**
+     * Crea la compra con todas las líneas del carrito (idProducto -> cantidad) en una sola transacción.
+     *
+     * A diferencia de llamar agregarProducto por cada línea (que relee la compra y todos sus detalles
+     * cada vez), aquí se leen todos los productos con una sola consulta, se insertan los detalles y se
+     * descuenta el stock con dos lotes JDBC, y los totales se calculan una sola vez.
+     * El descuento es condicional (stock >= cantidad), así que no hace falta bloquear las filas al leer:
+     * si otra compra se llevó las unidades, la actualización no afecta la fila y se revierte todo.
+     *
+     * Las unidades que otros carritos tienen reservadas (ReservaStockService) no se pueden comprar:
+     * tokenReservas identifica las reservas del propio carrito, que sí cuentan como disponibles.
+     * Con tokenReservas null no se consulta el libro de reservas.
+     */
+    @Transactional
+    public Compra realizarCompra(Integer idCliente, String metodoPago, String direccionEntrega,
+                                 Map<Integer, Integer> carrito, String tokenReservas) {
+        if (carrito == null || carrito.isEmpty()) {
+            throw new IllegalArgumentException("El carrito está vacío");
+        }
+
+        // Las filas se actualizan en orden de id para que dos compras simultáneas no se bloqueen mutuamente
+        List<Integer> ids = new ArrayList<>(new TreeSet<>(carrito.keySet()));
+        Map<Integer, ProductoCompra> productos = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT id_producto, nombre_producto, precio, peso_kg, stock FROM tb_productos " +
+                "WHERE id_producto IN (:ids)",
+                new MapSqlParameterSource("ids", ids),
+                rs -> {
+                    productos.put(rs.getInt("id_producto"), new ProductoCompra(
+                            rs.getInt("id_producto"),
+                            rs.getString("nombre_producto"),
+                            rs.getBigDecimal("precio"),
+                            rs.getBigDecimal("peso_kg"),
+                            rs.getObject("stock", Integer.class)));
+                });
+
+        Map<Integer, Integer> reservadoPorOtros = tokenReservas != null
+                ? reservaStockService.reservadoPorOtros(tokenReservas, ids)
+                : Map.of();
+
+        // Validar todas las líneas antes de escribir nada (el stock leído es orientativo; lo garantiza el UPDATE)
+        for (Integer idProducto : ids) {
+            ProductoCompra p = productos.get(idProducto);
+            int cantidad = carrito.get(idProducto);
+            if (p == null) {
+                throw new IllegalArgumentException("Producto no encontrado: " + idProducto);
+            }
+            if (cantidad <= 0) {
+                throw new IllegalArgumentException("Cantidad inválida para " + p.nombre());
+            }
+            if (p.precio() == null) {
+                throw new IllegalStateException("El producto " + p.nombre() + " no tiene precio");
+            }
+            if (p.stock() == null || p.stock() < cantidad) {
+                throw new IllegalStateException("Stock insuficiente para " + p.nombre());
+            }
+            if (p.stock() - reservadoPorOtros.getOrDefault(idProducto, 0) < cantidad) {
+                throw new IllegalStateException("Las unidades disponibles de " + p.nombre() + " están reservadas en otros carritos");
+            }
+        }
+
+        Compra compra = crearCompra(idCliente, metodoPago, direccionEntrega);
+
+        SqlParameterSource[] detalles = new SqlParameterSource[ids.size()];
+        SqlParameterSource[] descuentos = new SqlParameterSource[ids.size()];
+        BigDecimal subtotal = BigDecimal.ZERO;
+        BigDecimal pesoTotal = BigDecimal.ZERO;
+
+        for (int i = 0; i < ids.size(); i++) {
+            ProductoCompra p = productos.get(ids.get(i));
+            int cantidad = carrito.get(p.idProducto());
+            BigDecimal subtotalDetalle = p.precio().multiply(BigDecimal.valueOf(cantidad));
+            BigDecimal peso = p.pesoKg() != null ? p.pesoKg() : BigDecimal.ONE;
+
+            detalles[i] = new MapSqlParameterSource()
+                    .addValue("idCompra", compra.getIdCompra())
+                    .addValue("idProducto", p.idProducto())
+                    .addValue("cantidad", cantidad)
+                    .addValue("precioUnitario", p.precio())
+                    .addValue("subtotal", subtotalDetalle);
+            descuentos[i] = new MapSqlParameterSource()
+                    .addValue("idProducto", p.idProducto())
+                    .addValue("cantidad", cantidad);
+
+            subtotal = subtotal.add(subtotalDetalle);
+            pesoTotal = pesoTotal.add(peso.multiply(BigDecimal.valueOf(cantidad)));
+        }
+
+        // Los detalles van antes del descuento: el trigger trg_validar_stock compara la cantidad de cada
+        // detalle con el stock vigente al insertarlo
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO tb_detalles_compra (id_compra, id_producto, cantidad, precio_unitario, subtotal) " +
+                "VALUES (:idCompra, :idProducto, :cantidad, :precioUnitario, :subtotal)",
+                detalles);
+
+        int[] actualizados = jdbcTemplate.batchUpdate(
+                "UPDATE tb_productos SET stock = stock - :cantidad " +
+                "WHERE id_producto = :idProducto AND stock >= :cantidad",
+                descuentos);
+        for (int i = 0; i < actualizados.length; i++) {
+            if (actualizados[i] == 0) {
+                throw new IllegalStateException("Stock insuficiente para " + productos.get(ids.get(i)).nombre());
+            }
+        }
+
+        BigDecimal valorEnvio = pesoTotal.multiply(CotizadorCarritoService.TARIFA_ENVIO_POR_KG)
+                .setScale(2, RoundingMode.HALF_UP);
+        BigDecimal impuestos = subtotal.multiply(CotizadorCarritoService.TASA_IMPUESTOS)
+                .setScale(2, RoundingMode.HALF_UP);
+        compra.setSubtotal(subtotal);
+        compra.setImpuestos(impuestos);
+        compra.setValorEnvio(valorEnvio);
+        compra.setTotal(subtotal.add(impuestos).add(valorEnvio));
+        compraRepository.save(compra);
+        ventasResumenService.acumularCompra(compra.getIdCompra());
+        rankingProductosService.registrarVenta(carrito, compra.getFechaHoraCompra());
+
+        // El índice descuenta las mismas unidades al confirmar (diferencias, no el stock leído aquí)
+        Map<Integer, Integer> descontado = new HashMap<>();
+        carrito.forEach((idProducto, cantidad) -> descontado.put(idProducto, -cantidad));
+        indiceCatalogoService.ajustarStock(descontado);
+        return compra;
+    }
+
     @Transactional
     public DetalleCompra agregarProducto(Integer idCompra, Integer idProducto, Integer cantidad) {
         Compra compra = compraRepository.findById(idCompra)
@@ -62,8 +215,8 @@ public class CompraService {
         Producto producto = productoRepository.findById(idProducto)
                 .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado"));
 
-        if (producto.getStock() == null || producto.getStock() < cantidad) {
-            throw new IllegalStateException("Stock insuficiente");
+        if (cantidad == null || cantidad <= 0) {
+            throw new IllegalArgumentException("Cantidad inválida");
         }
 
         BigDecimal precioUnitario = producto.getPrecio();
@@ -77,9 +230,17 @@ public class CompraService {
         detalle.setSubtotal(subtotalDetalle);
         detalleCompraRepository.save(detalle);
 
-        // Actualizar stock
-        producto.setStock(producto.getStock() - cantidad);
-        productoRepository.save(producto);
+        // Descuento atómico: leer el stock y luego guardar stock - cantidad permitía vender de más
+        // con compras simultáneas del mismo producto. Va después del detalle porque el trigger
+        // trg_validar_stock valida la cantidad contra el stock vigente al insertarlo.
+        if (productoRepository.descontarStock(idProducto, cantidad) == 0) {
+            throw new IllegalStateException("Stock insuficiente");
+        }
+        ventasResumenService.acumularDetalle(detalle.getIdDetalle());
+        rankingProductosService.registrarVenta(Map.of(idProducto, cantidad), compra.getFechaHoraCompra());
+
+        // La entidad no se modifica (su stock quedó desactualizado); el índice aplica la misma diferencia
+        indiceCatalogoService.ajustarStock(Map.of(idProducto, -cantidad));
 
         // Obtener todos los detalles de la compra y recalcular peso total y totales
         List<DetalleCompra> detalles = detalleCompraRepository.findByCompra_IdCompra(idCompra);
@@ -108,17 +269,33 @@ public class CompraService {
     public void cancelarCompra(Integer idCompra) {
         Optional<Compra> compraOpt = compraRepository.findById(idCompra);
         if (compraOpt.isEmpty()) return;
-        // Restaurar stock basado en detalles de la compra y eliminar
+        // Restaurar stock basado en detalles de la compra (incremento atómico) y eliminar
         List<DetalleCompra> detalles = detalleCompraRepository.findByCompra_IdCompra(idCompra);
-        detalles.forEach(d -> {
-            Producto p = d.getProducto();
-            p.setStock(p.getStock() + d.getCantidad());
-            productoRepository.save(p);
-            detalleCompraRepository.delete(d);
-        });
+        for (DetalleCompra d : detalles) {
+            productoRepository.reponerStock(d.getProducto().getIdProducto(), d.getCantidad());
+        }
+        ventasResumenService.descontarCompra(idCompra);
+        Map<Integer, Integer> unidadesVendidas = new HashMap<>();
+        for (DetalleCompra d : detalles) {
+            unidadesVendidas.merge(d.getProducto().getIdProducto(), d.getCantidad(), Integer::sum);
+        }
+        indiceCatalogoService.ajustarStock(unidadesVendidas);
+        rankingProductosService.descontarVenta(unidadesVendidas, compraOpt.get().getFechaHoraCompra());
+        detalleCompraRepository.deleteAll(detalles);
         compraRepository.deleteById(idCompra);
     }
 
+    /**
+     * Página de pedidos del productor (o de todos si idProductor es null), del más reciente al más antiguo
+     */
+    @Transactional(readOnly = true)
+    public Page<PedidoProductor> obtenerPedidosProductor(Integer idProductor, int pagina, int tamanio) {
+        Pageable pageable = PageRequest.of(Math.max(pagina, 0), Math.min(Math.max(tamanio, 1), 200));
+        return idProductor != null
+                ? compraRepository.findPedidosProductor(idProductor, pageable)
+                : compraRepository.findPedidos(pageable);
+    }
+
     public Page<Compra> buscarCompras(Specification<Compra> spec, Pageable pageable) {
         return compraRepository.findAll(spec, pageable);
     }
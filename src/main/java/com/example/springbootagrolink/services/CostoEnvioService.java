@@ -1,29 +1,109 @@
 package com.example.springbootagrolink.services;
 
+import com.example.springbootagrolink.model.CotizacionLoteDistancias;
+import com.example.springbootagrolink.model.GeocodificacionCache;
+import com.example.springbootagrolink.model.LoteDistancias;
+import com.example.springbootagrolink.repository.GeocodificacionCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 /**
  * Servicio para calcular costos de envío basados en distancia y peso
  * Integrado con Google Maps Distance Matrix API
+ *
+ * Las respuestas de Google se guardan en cachés en memoria acotadas y con expiración:
+ * geocodificación por dirección normalizada y distancias por par de coordenadas redondeadas
+ * a 4 decimales (~11 m). Opcionalmente (costo.cache.persistir=true) la geocodificación se
+ * guarda también en tb_cache_geocodificacion para no perderla al reiniciar.
  */
 @Service
 public class CostoEnvioService {
 
+    private static final Logger log = LoggerFactory.getLogger(CostoEnvioService.class);
+
     @Value("${google.maps.api.key:}")
     private String googleMapsApiKey;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Base de las APIs de Google; se puede apuntar a un servidor local para pruebas
+    @Value("${google.maps.api.url:https://maps.googleapis.com/maps/api}")
+    private String googleMapsApiUrl;
+
+    @Value("${costo.cache.persistir:false}")
+    private boolean persistirCache;
+
+    @Value("${costo.cache.geocodificacion.diasVigencia:30}")
+    private long diasVigenciaGeocodificacion;
+
+    @Autowired
+    private GeocodificacionCacheRepository geocodificacionCacheRepository;
+
+    private TransactionTemplate transaccionCache;
+
+    // La caché persistente usa su propia transacción: si falla no debe marcar para rollback
+    // la transacción del envío o la compra que la está usando
+    @Autowired
+    void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transaccionCache = new TransactionTemplate(transactionManager);
+        this.transaccionCache.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    private static final double LATITUD_POR_DEFECTO = 4.7110;
+    private static final double LONGITUD_POR_DEFECTO = -74.0721;
+
+    private static final double RADIO_TIERRA_KM = 6371;
+    // Las carreteras no son líneas rectas: la distancia Haversine se multiplica por 1.3
+    private static final double FACTOR_CARRETERA = 1.3;
+    // Por debajo de este tamaño el lote se calcula en el hilo de la petición
+    private static final int UMBRAL_LOTE_PARALELO = 10_000;
+
+    private static final long TTL_GEOCODIFICACION_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long TTL_DISTANCIA_MS = TimeUnit.DAYS.toMillis(1);
+    // Los resultados de respaldo (Google falló) se recuerdan poco tiempo para no reintentar en cada envío
+    private static final long TTL_RESPALDO_MS = TimeUnit.MINUTES.toMillis(10);
+
+    // respaldo = true cuando son las coordenadas por defecto porque Google no respondió;
+    // transitorio = true si el fallo puede resolverse reintentando (timeout, cuota, error del servidor)
+    private record Coordenadas(double latitud, double longitud, boolean respaldo, boolean transitorio) {
+    }
+
+    private final CacheLruConExpiracion<String, Coordenadas> cacheGeocodificacion =
+            new CacheLruConExpiracion<>("geocodificacion", 10_000, TTL_GEOCODIFICACION_MS);
+    private final CacheLruConExpiracion<String, Double> cacheDistancias =
+            new CacheLruConExpiracion<>("distancias", 50_000, TTL_DISTANCIA_MS);
+
+    private final RestTemplate restTemplate = new RestTemplate(fabricaConTiempoLimite());
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // La llamada se hace en el hilo de la petición: sin límites un Google lento bloquea el pago
+    private static SimpleClientHttpRequestFactory fabricaConTiempoLimite() {
+        SimpleClientHttpRequestFactory fabrica = new SimpleClientHttpRequestFactory();
+        fabrica.setConnectTimeout(3000);
+        fabrica.setReadTimeout(5000);
+        return fabrica;
+    }
+
     // Tarifas en COP (Pesos Colombianos) — ahora configurables via properties
     @Value("${costo.tarifaBasePorKm:2500}")
     private BigDecimal tarifaBasePorKm;
@@ -45,16 +125,23 @@ public class CostoEnvioService {
      */
     public Double calcularDistanciaGoogleMaps(Double origenLat, Double origenLng,
                                                Double destinoLat, Double destinoLng) {
-        try {
-            if (googleMapsApiKey == null || googleMapsApiKey.isEmpty()) {
-                // Si no hay API key, usar cálculo de distancia euclidiana aproximada
-                return calcularDistanciaHaversine(origenLat, origenLng, destinoLat, destinoLng);
-            }
+        if (googleMapsApiKey == null || googleMapsApiKey.isEmpty()) {
+            // Si no hay API key, usar cálculo de distancia euclidiana aproximada
+            return calcularDistanciaHaversine(origenLat, origenLng, destinoLat, destinoLng);
+        }
 
-            String url = String.format(
-                "https://maps.googleapis.com/maps/api/distancematrix/json?origins=%s,%s&destinations=%s,%s&key=%s",
-                origenLat, origenLng, destinoLat, destinoLng, googleMapsApiKey
-            );
+        String clave = claveDistancia(origenLat, origenLng, destinoLat, destinoLng);
+        Double enCache = cacheDistancias.obtener(clave);
+        if (enCache != null) {
+            return enCache;
+        }
+
+        try {
+            URI url = UriComponentsBuilder.fromUriString(googleMapsApiUrl + "/distancematrix/json")
+                    .queryParam("origins", origenLat + "," + origenLng)
+                    .queryParam("destinations", destinoLat + "," + destinoLng)
+                    .queryParam("key", googleMapsApiKey)
+                    .build().encode().toUri();
 
             String response = restTemplate.getForObject(url, String.class);
             JsonNode root = objectMapper.readTree(response);
@@ -65,18 +152,20 @@ public class CostoEnvioService {
                 if ("OK".equals(element.get("status").asText())) {
                     // La distancia viene en metros, convertir a kilómetros
                     int distanciaMetros = element.get("distance").get("value").asInt();
-                    return distanciaMetros / 1000.0;
+                    double distanciaKm = distanciaMetros / 1000.0;
+                    cacheDistancias.guardar(clave, distanciaKm);
+                    return distanciaKm;
                 }
             }
 
-            // Si falla la API, usar método alternativo
-            return calcularDistanciaHaversine(origenLat, origenLng, destinoLat, destinoLng);
-
         } catch (Exception e) {
-            System.err.println("Error al calcular distancia con Google Maps: " + e.getMessage());
-            // Usar método alternativo en caso de error
-            return calcularDistanciaHaversine(origenLat, origenLng, destinoLat, destinoLng);
+            log.warn("⚠ Error al calcular distancia con Google Maps: {}", e.getMessage());
         }
+
+        // Si falla la API, usar método alternativo
+        Double respaldo = calcularDistanciaHaversine(origenLat, origenLng, destinoLat, destinoLng);
+        cacheDistancias.guardar(clave, respaldo, TTL_RESPALDO_MS);
+        return respaldo;
     }
 
     /**
@@ -90,22 +179,8 @@ public class CostoEnvioService {
      * @return Distancia en kilómetros
      */
     public Double calcularDistanciaHaversine(Double lat1, Double lon1, Double lat2, Double lon2) {
-        final int RADIO_TIERRA_KM = 6371;
-
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        double distancia = RADIO_TIERRA_KM * c;
-
-        // Ajuste: Multiplicar por 1.3 para aproximar distancia por carretera
-        // (las carreteras no son líneas rectas)
-        return distancia * 1.3;
+        // Incluye el ajuste x1.3 para aproximar la distancia por carretera
+        return haversineKm(lat1, lon1, lat2, lon2);
     }
 
     /**
@@ -151,6 +226,80 @@ public class CostoEnvioService {
         return costos;
     }
 
+    /**
+     * Distancias Haversine (ya con el factor de carretera 1.3) de un lote de pares en arreglos primitivos,
+     * sin objetos intermedios. Los lotes grandes se reparten entre los núcleos con un stream paralelo.
+     */
+    public double[] calcularDistanciasHaversine(double[] lat1, double[] lon1, double[] lat2, double[] lon2) {
+        int n = lat1.length;
+        double[] distancias = new double[n];
+        if (n >= UMBRAL_LOTE_PARALELO) {
+            IntStream.range(0, n).parallel()
+                    .forEach(i -> distancias[i] = haversineKm(lat1[i], lon1[i], lat2[i], lon2[i]));
+        } else {
+            for (int i = 0; i < n; i++) {
+                distancias[i] = haversineKm(lat1[i], lon1[i], lat2[i], lon2[i]);
+            }
+        }
+        return distancias;
+    }
+
+    /**
+     * Cotiza un lote de pares: distancia y costos con las mismas reglas que calcularCostoEnvio
+     * (mínimo 1 km, 1 kg y costo mínimo), pero en double y redondeado a centavos al final.
+     */
+    public CotizacionLoteDistancias cotizarLote(LoteDistancias lote) {
+        double[] distancias = calcularDistanciasHaversine(lote.latOrigen(), lote.lonOrigen(),
+                lote.latDestino(), lote.lonDestino());
+        return cotizarDistancias(distancias, lote.pesoKg());
+    }
+
+    /**
+     * Costos de un lote cuya distancia ya se conoce (por ejemplo rutas con varias paradas), con las
+     * mismas reglas que cotizarLote. pesos puede ser null (se cotiza con 1 kg).
+     */
+    public CotizacionLoteDistancias cotizarDistancias(double[] distancias, double[] pesos) {
+        int n = distancias.length;
+        double porKm = tarifaBasePorKm.doubleValue();
+        double porKg = tarifaPorKg.doubleValue();
+        double minimo = costoMinimo.doubleValue();
+
+        double[] costoBase = new double[n];
+        double[] costoPeso = new double[n];
+        double[] costoTotal = new double[n];
+        for (int i = 0; i < n; i++) {
+            double km = distancias[i] > 0 ? distancias[i] : 1.0;
+            double kg = pesos != null && pesos[i] > 0 ? pesos[i] : 1.0;
+            double base = centavos(porKm * km);
+            double peso = centavos(porKg * kg);
+            costoBase[i] = base;
+            costoPeso[i] = peso;
+            costoTotal[i] = Math.max(base + peso, minimo);
+        }
+        return new CotizacionLoteDistancias(n, distancias, costoBase, costoPeso, costoTotal);
+    }
+
+    public BigDecimal getTarifaBasePorKm() {
+        return tarifaBasePorKm;
+    }
+
+    public BigDecimal getTarifaPorKg() {
+        return tarifaPorKg;
+    }
+
+    private static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return RADIO_TIERRA_KM * c * FACTOR_CARRETERA;
+    }
+
+    private static double centavos(double valor) {
+        return Math.round(valor * 100.0) / 100.0;
+    }
+
     /**
      * Obtiene las coordenadas GPS de una dirección usando Google Geocoding API
      *
@@ -158,41 +307,145 @@ public class CostoEnvioService {
      * @return Map con latitud y longitud
      */
     public Map<String, Double> obtenerCoordenadas(String direccion) {
-        Map<String, Double> coordenadas = new HashMap<>();
+        if (googleMapsApiKey == null || googleMapsApiKey.isEmpty() || direccion == null || direccion.isBlank()) {
+            // Retornar coordenadas por defecto (Bogotá, Colombia)
+            return comoMapa(new Coordenadas(LATITUD_POR_DEFECTO, LONGITUD_POR_DEFECTO, true, false));
+        }
+        return comoMapa(resolverCoordenadas(direccion, false));
+    }
 
-        try {
-            if (googleMapsApiKey == null || googleMapsApiKey.isEmpty()) {
-                // Retornar coordenadas por defecto (Bogotá, Colombia)
-                coordenadas.put("latitud", 4.7110);
-                coordenadas.put("longitud", -74.0721);
-                return coordenadas;
-            }
+    /**
+     * Igual que obtenerCoordenadas, pero si la geocodificación falló por un problema transitorio
+     * (timeout, cuota, error de Google) lanza IllegalStateException en lugar de devolver las coordenadas
+     * por defecto. Lo usa el cálculo asíncrono de envíos para reintentar más tarde. Los fallos que no se
+     * arreglan reintentando (sin API key, clave rechazada, dirección sin resultados) devuelven las
+     * coordenadas por defecto como obtenerCoordenadas.
+     */
+    public Map<String, Double> obtenerCoordenadasOFallar(String direccion) {
+        if (googleMapsApiKey == null || googleMapsApiKey.isEmpty() || direccion == null || direccion.isBlank()) {
+            return comoMapa(new Coordenadas(LATITUD_POR_DEFECTO, LONGITUD_POR_DEFECTO, true, false));
+        }
+        Coordenadas coordenadas = resolverCoordenadas(direccion, true);
+        if (coordenadas.respaldo() && coordenadas.transitorio()) {
+            throw new IllegalStateException("No se pudo geocodificar la dirección: " + direccion);
+        }
+        return comoMapa(coordenadas);
+    }
 
-            String url = String.format(
-                "https://maps.googleapis.com/maps/api/geocode/json?address=%s&key=%s",
-                direccion.replace(" ", "+"), googleMapsApiKey
-            );
+    // reintentarRespaldo = true ignora un respaldo transitorio guardado en caché y vuelve a consultar a Google
+    private Coordenadas resolverCoordenadas(String direccion, boolean reintentarRespaldo) {
+        String clave = normalizarDireccion(direccion);
+        Coordenadas coordenadas = cacheGeocodificacion.obtener(clave);
+        if (coordenadas != null && coordenadas.transitorio() && reintentarRespaldo) {
+            coordenadas = null;
+        }
+        if (coordenadas == null) {
+            coordenadas = buscarPersistida(clave);
+        }
+        if (coordenadas == null) {
+            coordenadas = geocodificar(direccion, clave);
+        }
+        return coordenadas;
+    }
+
+    private Coordenadas geocodificar(String direccion, String clave) {
+        boolean transitorio = true;
+        try {
+            URI url = UriComponentsBuilder.fromUriString(googleMapsApiUrl + "/geocode/json")
+                    .queryParam("address", direccion)
+                    .queryParam("key", googleMapsApiKey)
+                    .build().encode().toUri();
 
             String response = restTemplate.getForObject(url, String.class);
             JsonNode root = objectMapper.readTree(response);
 
-            if ("OK".equals(root.get("status").asText())) {
+            String estado = root.get("status").asText();
+            if ("OK".equals(estado)) {
                 JsonNode location = root.get("results").get(0).get("geometry").get("location");
-                coordenadas.put("latitud", location.get("lat").asDouble());
-                coordenadas.put("longitud", location.get("lng").asDouble());
-            } else {
-                // Coordenadas por defecto si falla
-                coordenadas.put("latitud", 4.7110);
-                coordenadas.put("longitud", -74.0721);
+                Coordenadas encontradas = new Coordenadas(location.get("lat").asDouble(), location.get("lng").asDouble(), false, false);
+                cacheGeocodificacion.guardar(clave, encontradas);
+                persistir(clave, encontradas);
+                return encontradas;
             }
+            // Solo la cuota y los errores internos de Google se arreglan reintentando
+            transitorio = "OVER_QUERY_LIMIT".equals(estado) || "UNKNOWN_ERROR".equals(estado);
 
         } catch (Exception e) {
-            System.err.println("Error al obtener coordenadas: " + e.getMessage());
-            // Coordenadas por defecto
-            coordenadas.put("latitud", 4.7110);
-            coordenadas.put("longitud", -74.0721);
+            log.warn("⚠ Error al obtener coordenadas: {}", e.getMessage());
         }
 
+        // Coordenadas por defecto si falla (solo en memoria y por poco tiempo)
+        Coordenadas porDefecto = new Coordenadas(LATITUD_POR_DEFECTO, LONGITUD_POR_DEFECTO, true, transitorio);
+        cacheGeocodificacion.guardar(clave, porDefecto, TTL_RESPALDO_MS);
+        return porDefecto;
+    }
+
+    private Coordenadas buscarPersistida(String clave) {
+        if (!persistirCache) {
+            return null;
+        }
+        try {
+            GeocodificacionCache guardada = transaccionCache.execute(
+                    estado -> geocodificacionCacheRepository.findById(clave).orElse(null));
+            if (guardada == null
+                    || guardada.getFechaActualizacion().isBefore(LocalDateTime.now().minusDays(diasVigenciaGeocodificacion))) {
+                return null;
+            }
+            Coordenadas coordenadas = new Coordenadas(guardada.getLatitud(), guardada.getLongitud(), false, false);
+            cacheGeocodificacion.guardar(clave, coordenadas);
+            return coordenadas;
+        } catch (Exception e) {
+            log.warn("⚠ Error leyendo caché de geocodificación: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void persistir(String clave, Coordenadas coordenadas) {
+        if (!persistirCache) {
+            return;
+        }
+        try {
+            transaccionCache.executeWithoutResult(estado -> geocodificacionCacheRepository.save(new GeocodificacionCache(
+                    clave, coordenadas.latitud(), coordenadas.longitud(), LocalDateTime.now())));
+        } catch (Exception e) {
+            // La caché persistente es opcional: un fallo aquí no debe afectar el envío
+            log.warn("⚠ Error guardando caché de geocodificación: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Métricas de las cachés de geocodificación y distancias (aciertos, fallos, desalojos...)
+     */
+    public List<Map<String, Object>> estadisticasCache() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        stats.add(cacheGeocodificacion.estadisticas());
+        stats.add(cacheDistancias.estadisticas());
+        return stats;
+    }
+
+    /**
+     * Vacía las cachés en memoria (la tabla persistente no se toca)
+     */
+    public void limpiarCache() {
+        cacheGeocodificacion.limpiar();
+        cacheDistancias.limpiar();
+    }
+
+    // "Calle 10 #5-20,  Medellín " y "calle 10 #5-20, medellin" comparten entrada
+    private static String normalizarDireccion(String direccion) {
+        String normalizada = NormalizadorTexto.normalizar(direccion).replaceAll("\\s+", " ");
+        return normalizada.length() > 255 ? normalizada.substring(0, 255) : normalizada;
+    }
+
+    private static String claveDistancia(double origenLat, double origenLng, double destinoLat, double destinoLng) {
+        return Math.round(origenLat * 10_000) + "," + Math.round(origenLng * 10_000) + ";"
+                + Math.round(destinoLat * 10_000) + "," + Math.round(destinoLng * 10_000);
+    }
+
+    private static Map<String, Double> comoMapa(Coordenadas c) {
+        Map<String, Double> coordenadas = new HashMap<>();
+        coordenadas.put("latitud", c.latitud());
+        coordenadas.put("longitud", c.longitud());
         return coordenadas;
     }
 
@@ -0,0 +1,129 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.ProductoCarrito;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cotización del carrito: resuelve todos los productos con una sola consulta (proyección ProductoCarrito)
+ * y calcula subtotal, peso, impuestos y envío en una sola pasada.
+ *
+ * La usan la vista del carrito, el formulario de compra y CarritoService.calcularTotal, de modo que
+ * un carrito de 30 productos cuesta una consulta en lugar de una por producto más sus imágenes.
+ */
+@Service
+public class CotizadorCarritoService {
+
+    public static final BigDecimal TASA_IMPUESTOS = new BigDecimal("0.08");
+    public static final BigDecimal TARIFA_ENVIO_POR_KG = new BigDecimal("800");
+    public static final BigDecimal TARIFA_ENVIO_FIJA = new BigDecimal("7000");
+    private static final BigDecimal PESO_POR_DEFECTO = BigDecimal.ONE;
+    private static final String IMAGEN_POR_DEFECTO = "/imag/placeholder.jpg";
+
+    /**
+     * Cómo se cobra el envío: la vista del carrito muestra una tarifa fija estimada y el
+     * formulario de compra cobra por peso.
+     */
+    public enum TarifaEnvio { FIJA, POR_PESO }
+
+    /**
+     * Línea del carrito ya cotizada. Es una clase con getters (y no un record) para que
+     * las plantillas la lean igual que los mapas que se usaban antes (item.nombre, item.subtotal...).
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class LineaCarrito {
+        private final Integer id;
+        private final String nombre;
+        private final String descripcion;
+        private final BigDecimal precio;
+        private final int cantidad;
+        private final BigDecimal subtotal;
+        private final BigDecimal peso;
+        private final Integer stock;
+        private final String imagenUrl;
+    }
+
+    public record Cotizacion(
+            List<LineaCarrito> lineas,
+            int cantidadItems,
+            BigDecimal subtotal,
+            BigDecimal pesoTotal,
+            BigDecimal impuestos,
+            BigDecimal envio,
+            BigDecimal total
+    ) {
+        public boolean estaVacia() {
+            return lineas.isEmpty();
+        }
+    }
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    /**
+     * Cotiza el carrito (idProducto -> cantidad). Los productos que ya no existen se ignoran.
+     */
+    @Transactional(readOnly = true)
+    public Cotizacion cotizar(Map<Integer, Integer> carrito, TarifaEnvio tarifaEnvio) {
+        if (carrito == null || carrito.isEmpty()) {
+            return new Cotizacion(new ArrayList<>(), 0, BigDecimal.ZERO, BigDecimal.ZERO,
+                    BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+
+        Map<Integer, ProductoCarrito> porId = new HashMap<>();
+        for (ProductoCarrito p : productoRepository.findProductosCarrito(carrito.keySet())) {
+            porId.put(p.idProducto(), p);
+        }
+
+        List<LineaCarrito> lineas = new ArrayList<>(carrito.size());
+        int cantidadItems = 0;
+        BigDecimal subtotal = BigDecimal.ZERO;
+        BigDecimal pesoTotal = BigDecimal.ZERO;
+
+        for (Map.Entry<Integer, Integer> entry : carrito.entrySet()) {
+            ProductoCarrito p = porId.get(entry.getKey());
+            int cantidad = entry.getValue() != null ? entry.getValue() : 0;
+            if (p == null || cantidad <= 0) {
+                continue;
+            }
+            BigDecimal precio = p.precio() != null ? p.precio() : BigDecimal.ZERO;
+            BigDecimal peso = p.pesoKg() != null ? p.pesoKg() : PESO_POR_DEFECTO;
+            BigDecimal cantidadDecimal = BigDecimal.valueOf(cantidad);
+            BigDecimal subtotalLinea = precio.multiply(cantidadDecimal);
+            String imagenUrl = p.urlImagen() != null ? "/" + p.urlImagen() : IMAGEN_POR_DEFECTO;
+
+            lineas.add(new LineaCarrito(p.idProducto(), p.nombre(), p.descripcion(), precio, cantidad,
+                    subtotalLinea, peso, p.stock(), imagenUrl));
+            cantidadItems += cantidad;
+            subtotal = subtotal.add(subtotalLinea);
+            pesoTotal = pesoTotal.add(peso.multiply(cantidadDecimal));
+        }
+
+        BigDecimal impuestos = BigDecimal.ZERO;
+        BigDecimal envio = BigDecimal.ZERO;
+        if (!lineas.isEmpty()) {
+            if (tarifaEnvio == TarifaEnvio.POR_PESO) {
+                impuestos = subtotal.multiply(TASA_IMPUESTOS).setScale(2, RoundingMode.HALF_UP);
+                envio = pesoTotal.multiply(TARIFA_ENVIO_POR_KG).setScale(2, RoundingMode.HALF_UP);
+            } else {
+                // La vista del carrito no discrimina impuestos, solo el envío estimado
+                envio = TARIFA_ENVIO_FIJA;
+            }
+        }
+        BigDecimal total = subtotal.add(impuestos).add(envio);
+
+        return new Cotizacion(lineas, cantidadItems, subtotal, pesoTotal, impuestos, envio, total);
+    }
+}
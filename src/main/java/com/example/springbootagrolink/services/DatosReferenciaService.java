@@ -0,0 +1,285 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.CategoriaProducto;
+import com.example.springbootagrolink.model.Productor;
+import com.example.springbootagrolink.model.Servicio;
+import com.example.springbootagrolink.repository.CategoriaProductoRepository;
+import com.example.springbootagrolink.repository.ProductorRepository;
+import com.example.springbootagrolink.repository.ServicioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Datos de referencia que casi todas las páginas necesitan (categorías, servicios, productores y
+ * los menús de servicios del navbar), memorizados en la aplicación.
+ *
+ * Cada dato se carga una vez y se sirve desde memoria hasta que alguien lo modifica: los servicios
+ * que escriben categorías, servicios, asesores, productores o usuarios llaman a invalidar*(), que
+ * descarta el valor al momento y otra vez al confirmar la transacción. Una carga que empezó antes
+ * de una invalidación no se guarda (contador de generación), así que no puede volver a dejar datos
+ * viejos. El TTL (referencia.cache.ttlMinutos) cubre los cambios que no pasan por esos métodos,
+ * como el nombre de un usuario editado desde su perfil.
+ *
+ * Las entidades guardadas están desconectadas: se cargan con las relaciones que usan las vistas
+ * (usuario del productor, asesor y su usuario en los servicios) y no deben modificarse.
+ */
+@Service
+public class DatosReferenciaService {
+
+    private static final Logger log = LoggerFactory.getLogger(DatosReferenciaService.class);
+
+    @Autowired
+    private CategoriaProductoRepository categoriaProductoRepository;
+
+    @Autowired
+    private ServicioRepository servicioRepository;
+
+    @Autowired
+    private ProductorRepository productorRepository;
+
+    private final long ttlMs;
+
+    private final Memo<List<CategoriaProducto>> categorias;
+    private final Memo<List<Servicio>> servicios;
+    private final Memo<List<Productor>> productores;
+    private final Memo<Map<String, List<Servicio>>> serviciosActivosPorCategoria;
+    private final Memo<Map<String, List<Servicio>>> serviciosPorCategoria;
+    private final Memo<Map<String, List<Servicio>>> serviciosPorTipoAsesoria;
+
+    public DatosReferenciaService(@Value("${referencia.cache.ttlMinutos:10}") long ttlMinutos) {
+        this.ttlMs = ttlMinutos * 60_000L;
+        this.categorias = new Memo<>("categorias", () -> List.copyOf(categoriaProductoRepository.findAll()));
+        this.servicios = new Memo<>("servicios", () -> List.copyOf(servicioRepository.findAll()));
+        this.productores = new Memo<>("productores", () -> List.copyOf(productorRepository.findAll()));
+        this.serviciosActivosPorCategoria = new Memo<>("serviciosActivosPorCategoria",
+                () -> categorizarServicios(servicios.obtener(), true));
+        this.serviciosPorCategoria = new Memo<>("serviciosPorCategoria",
+                () -> categorizarServicios(servicios.obtener(), false));
+        this.serviciosPorTipoAsesoria = new Memo<>("serviciosPorTipoAsesoria",
+                () -> agruparPorTipoAsesoria(servicios.obtener()));
+    }
+
+    // ==================== LECTURA ====================
+
+    /**
+     * Todas las categorías de producto (copia de la lista en memoria)
+     */
+    public List<CategoriaProducto> categorias() {
+        return new ArrayList<>(categorias.obtener());
+    }
+
+    /**
+     * Todos los servicios con su asesor y el usuario del asesor (copia de la lista en memoria)
+     */
+    public List<Servicio> servicios() {
+        return new ArrayList<>(servicios.obtener());
+    }
+
+    /**
+     * Todos los productores con su usuario (copia de la lista en memoria)
+     */
+    public List<Productor> productores() {
+        return new ArrayList<>(productores.obtener());
+    }
+
+    /**
+     * Servicios del menú del navbar agrupados por palabras clave de la descripción.
+     * Con soloActivos se omiten los servicios inactivos. El mapa es de solo lectura.
+     */
+    public Map<String, List<Servicio>> categoriasServicios(boolean soloActivos) {
+        return soloActivos ? serviciosActivosPorCategoria.obtener() : serviciosPorCategoria.obtener();
+    }
+
+    /**
+     * Servicios agrupados por el tipo de asesoría de su asesor (navbar de las páginas de perfil).
+     * El mapa es de solo lectura.
+     */
+    public Map<String, List<Servicio>> serviciosPorTipoAsesoria() {
+        return serviciosPorTipoAsesoria.obtener();
+    }
+
+    // ==================== INVALIDACIÓN ====================
+
+    public void invalidarCategorias() {
+        invalidar(categorias);
+    }
+
+    /**
+     * Servicios y los menús que se derivan de ellos (también cuando cambia un asesor)
+     */
+    public void invalidarServicios() {
+        invalidar(servicios, serviciosActivosPorCategoria, serviciosPorCategoria, serviciosPorTipoAsesoria);
+    }
+
+    public void invalidarProductores() {
+        invalidar(productores);
+    }
+
+    /**
+     * Todo; para cambios en usuarios, que aparecen dentro de productores y servicios
+     */
+    public void invalidarTodo() {
+        invalidar(categorias, productores, servicios, serviciosActivosPorCategoria, serviciosPorCategoria,
+                serviciosPorTipoAsesoria);
+    }
+
+    /**
+     * Métricas de cada dato memorizado (aciertos, cargas e invalidaciones)
+     */
+    public List<Map<String, Object>> estadisticas() {
+        List<Map<String, Object>> lista = new ArrayList<>();
+        for (Memo<?> memo : List.of(categorias, servicios, productores, serviciosActivosPorCategoria,
+                serviciosPorCategoria, serviciosPorTipoAsesoria)) {
+            lista.add(memo.estadisticas());
+        }
+        return lista;
+    }
+
+    private void invalidar(Memo<?>... memos) {
+        for (Memo<?> memo : memos) {
+            memo.invalidar();
+        }
+        // Una lectura entre este momento y el commit vería los datos anteriores: se vuelve a invalidar
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    for (Memo<?> memo : memos) {
+                        memo.invalidar();
+                    }
+                }
+            });
+        }
+    }
+
+    // ==================== AGRUPACIONES DEL NAVBAR ====================
+
+    private static Map<String, List<Servicio>> categorizarServicios(List<Servicio> servicios, boolean soloActivos) {
+        Map<String, List<Servicio>> categoriasServicios = new LinkedHashMap<>();
+
+        // Categorías predefinidas, en el orden del menú
+        for (String categoria : List.of("Veterinaria", "Asesoría Agrícola", "Transporte", "Capacitación", "Maquinaria", "Otros")) {
+            categoriasServicios.put(categoria, new ArrayList<>());
+        }
+
+        for (Servicio servicio : servicios) {
+            if (servicio.getDescripcion() == null
+                    || (soloActivos && servicio.getEstado() != Servicio.EstadoServicio.Activo)) {
+                continue;
+            }
+            String descripcion = servicio.getDescripcion().toLowerCase();
+
+            // Categorizar por palabras clave
+            if (descripcion.contains("veterinari") || descripcion.contains("animal") ||
+                descripcion.contains("mascota") || descripcion.contains("ganad")) {
+                categoriasServicios.get("Veterinaria").add(servicio);
+            } else if (descripcion.contains("asesor") || descripcion.contains("agricul") ||
+                       descripcion.contains("cultivo") || descripcion.contains("siembra")) {
+                categoriasServicios.get("Asesoría Agrícola").add(servicio);
+            } else if (descripcion.contains("transport") || descripcion.contains("envío") ||
+                       descripcion.contains("logística") || descripcion.contains("entrega")) {
+                categoriasServicios.get("Transporte").add(servicio);
+            } else if (descripcion.contains("capacita") || descripcion.contains("curso") ||
+                       descripcion.contains("entrena") || descripcion.contains("taller")) {
+                categoriasServicios.get("Capacitación").add(servicio);
+            } else if (descripcion.contains("maquina") || descripcion.contains("tracto") ||
+                       descripcion.contains("mecanica") || descripcion.contains("motor")) {
+                categoriasServicios.get("Maquinaria").add(servicio);
+            } else {
+                categoriasServicios.get("Otros").add(servicio);
+            }
+        }
+
+        // Remover categorías vacías
+        categoriasServicios.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+        return soloLectura(categoriasServicios);
+    }
+
+    private static Map<String, List<Servicio>> agruparPorTipoAsesoria(List<Servicio> servicios) {
+        Map<String, List<Servicio>> grupos = new LinkedHashMap<>();
+        for (Servicio s : servicios) {
+            String clave = "Otros";
+            if (s.getAsesor() != null && s.getAsesor().getTipoAsesoria() != null
+                    && !s.getAsesor().getTipoAsesoria().trim().isEmpty()) {
+                clave = s.getAsesor().getTipoAsesoria();
+            }
+            grupos.computeIfAbsent(clave, k -> new ArrayList<>()).add(s);
+        }
+        return soloLectura(grupos);
+    }
+
+    private static Map<String, List<Servicio>> soloLectura(Map<String, List<Servicio>> grupos) {
+        grupos.replaceAll((clave, lista) -> List.copyOf(lista));
+        return Collections.unmodifiableMap(grupos);
+    }
+
+    /**
+     * Valor memorizado con TTL. La generación cambia con cada invalidación; una carga solo se
+     * publica si la generación no cambió mientras se hacía la consulta.
+     */
+    private final class Memo<T> {
+        private record Valor<T>(T valor, long generacion, long expiraEn) {
+        }
+
+        private final String nombre;
+        private final Supplier<T> cargador;
+        private final AtomicLong generacion = new AtomicLong();
+        private volatile Valor<T> actual;
+
+        private final LongAdder aciertos = new LongAdder();
+        private final LongAdder cargas = new LongAdder();
+        private final LongAdder invalidaciones = new LongAdder();
+
+        Memo(String nombre, Supplier<T> cargador) {
+            this.nombre = nombre;
+            this.cargador = cargador;
+        }
+
+        T obtener() {
+            long ahora = System.currentTimeMillis();
+            Valor<T> v = actual;
+            if (v != null && v.expiraEn() > ahora && v.generacion() == generacion.get()) {
+                aciertos.increment();
+                return v.valor();
+            }
+            long gen = generacion.get();
+            T cargado = cargador.get();
+            cargas.increment();
+            log.debug("▶ Datos de referencia '{}' cargados desde la base de datos", nombre);
+            if (gen == generacion.get()) {
+                actual = new Valor<>(cargado, gen, ahora + ttlMs);
+            }
+            return cargado;
+        }
+
+        void invalidar() {
+            generacion.incrementAndGet();
+            actual = null;
+            invalidaciones.increment();
+        }
+
+        Map<String, Object> estadisticas() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("nombre", nombre);
+            stats.put("cargado", actual != null);
+            stats.put("aciertos", aciertos.sum());
+            stats.put("cargas", cargas.sum());
+            stats.put("invalidaciones", invalidaciones.sum());
+            return stats;
+        }
+    }
+}
@@ -1,22 +1,30 @@
 package com.example.springbootagrolink.services;
 
+import com.example.springbootagrolink.model.Compra;
 import com.example.springbootagrolink.model.Envio;
 import com.example.springbootagrolink.model.DetalleCompra;
 import com.example.springbootagrolink.model.ProductoFinca;
 import com.example.springbootagrolink.model.Producto;
 import com.example.springbootagrolink.model.Finca;
+import com.example.springbootagrolink.model.Transportista;
+import com.example.springbootagrolink.model.Vehiculo;
 import com.example.springbootagrolink.repository.EnvioRepository;
 import com.example.springbootagrolink.repository.DetalleCompraRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
 import java.util.Optional;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class EnvioService {
@@ -32,6 +40,33 @@ public class EnvioService {
     @Autowired
     private CostoEnvioService costoEnvioService;
 
+    @Autowired
+    private IndiceFincasService indiceFincasService;
+
+    @Autowired
+    private PlanificadorEnviosService planificadorEnviosService;
+
+    @Autowired
+    private MercadoEnviosService mercadoEnviosService;
+
+    @Autowired
+    private RastreoEnviosService rastreoEnviosService;
+
+    private TransactionTemplate transaccion;
+
+    // calcularPendiente abre sus transacciones a mano para dejar la geocodificación fuera de ellas
+    @Autowired
+    void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transaccion = new TransactionTemplate(transactionManager);
+    }
+
+    // Dirección y coordenadas de destino de un envío pendiente, leídas antes de geocodificar
+    private record DestinoPendiente(String direccion, Double latitud, Double longitud) {
+        boolean tieneCoordenadas() {
+            return latitud != null && longitud != null;
+        }
+    }
+
     // Obtener todos los envíos
     public List<Envio> obtenerTodos() {
         return envioRepository.findAll();
@@ -42,152 +77,391 @@ public class EnvioService {
         return envioRepository.findById(id);
     }
 
-    // Crear nuevo envío
+    // Crear nuevo envío (cálculo de coordenadas, distancia y costos en la misma petición)
     @Transactional
     public Envio crear(Envio envio) {
         try {
             log.info("▶ INICIANDO CREACIÓN DE ENVÍO");
             log.info("  ID Compra: {}", (envio.getCompra() != null ? envio.getCompra().getIdCompra() : "NULL"));
 
-            // 1. OBTENER Y VALIDAR DIRECCIÓN DE DESTINO
-            if ((envio.getDireccionDestino() == null || envio.getDireccionDestino().isEmpty())
-                    && envio.getCompra() != null && envio.getCompra().getDireccionEntrega() != null) {
-                envio.setDireccionDestino(envio.getCompra().getDireccionEntrega());
-                log.info("  ✓ Dirección destino capturada desde compra: {}", envio.getDireccionDestino());
-            }
+            completarCalculos(envio, false);
 
-            // 2. OBTENER COORDENADAS DE DESTINO
-            if ((envio.getLatitudDestino() == null || envio.getLongitudDestino() == null)
-                    && envio.getDireccionDestino() != null && !envio.getDireccionDestino().isEmpty()) {
-                log.info("  → Obteniendo coordenadas de destino...");
-                Map<String, Double> coordsDestino = costoEnvioService.obtenerCoordenadas(envio.getDireccionDestino());
-                if (coordsDestino != null) {
-                    envio.setLatitudDestino(coordsDestino.get("latitud"));
-                    envio.setLongitudDestino(coordsDestino.get("longitud"));
-                    log.info("    ✓ Coordenadas destino obtenidas: lat={}, lon={}",
-                            envio.getLatitudDestino(), envio.getLongitudDestino());
-                }
+            // 7. GUARDAR EL ENVÍO
+            log.info("  → Guardando envío en BD...");
+            Envio envioGuardado = envioRepository.save(envio);
+            mercadoEnviosService.sincronizar(envioGuardado.getIdEnvio());
+            log.info("✓ ENVÍO CREADO EXITOSAMENTE:");
+            log.info("  ID: {}", envioGuardado.getIdEnvio());
+            log.info("  Compra: {}", (envioGuardado.getCompra() != null ? envioGuardado.getCompra().getIdCompra() : "NULL"));
+            log.info("  Origen: {}", envioGuardado.getDireccionOrigen());
+            log.info("  Destino: {}", envioGuardado.getDireccionDestino());
+            log.info("  Distancia: {} km", envioGuardado.getDistanciaKm());
+            log.info("  Peso: {} kg", envioGuardado.getPesoTotalKg());
+            log.info("  Costo Total: ${}", envioGuardado.getCostoTotal());
+
+            return envioGuardado;
+
+        } catch (Exception e) {
+            // En caso de error, se procede a guardar sin cálculo para evitar bloquear el flujo
+            log.error("✗ WARNING: Fallo al completar cálculo de envío: {}", e.getMessage());
+            log.error("  Guardando envío con datos incompletos...");
+            e.printStackTrace();
+            Envio envioGuardado = envioRepository.save(envio);
+            mercadoEnviosService.sincronizar(envioGuardado.getIdEnvio());
+            return envioGuardado;
+        }
+    }
+
+    /**
+     * Registra el envío de una compra sin hacer ningún cálculo (solo dirección de destino y estado).
+     * La geocodificación, la distancia y los costos los completa ProcesadorEnviosService en segundo plano,
+     * así el pago no espera al geocodificador.
+     */
+    @Transactional
+    public Envio registrarPendiente(Compra compra) {
+        Envio envio = envioRepository.findFirstByCompra_IdCompraOrderByIdEnvio(compra.getIdCompra()).orElse(null);
+        if (envio != null) {
+            // Pago reenviado: la compra ya tiene su envío
+            return envio;
+        }
+        envio = new Envio();
+        envio.setCompra(compra);
+        if (compra.getDireccionEntrega() != null && !compra.getDireccionEntrega().isEmpty()) {
+            envio.setDireccionDestino(compra.getDireccionEntrega());
+        } else {
+            log.warn("  ⚠ Advertencia: Dirección de entrega no definida en la compra {}", compra.getIdCompra());
+            envio.setDireccionDestino("Por confirmar");
+        }
+        envio.setEstadoEnvio(Envio.EstadoEnvio.Buscando_Transporte);
+        envio.setEstadoCalculo(Envio.EstadoCalculo.PENDIENTE);
+        envio.setIntentosCalculo(0);
+        return envioRepository.save(envio);
+    }
+
+    /**
+     * Completa los cálculos de un envío pendiente. Si la geocodificación falla lanza excepción
+     * (sin haber escrito nada) para que se reintente; en el último intento se aceptan las
+     * coordenadas por defecto como hacía el cálculo síncrono.
+     *
+     * La geocodificación es la única llamada de red y se hace fuera de cualquier transacción: una
+     * lectura corta obtiene la dirección, luego se consulta el geocodificador sin conexión de BD
+     * tomada, y una segunda transacción corta vuelve a leer el envío, planifica (en memoria, con
+     * distancias Haversine) y guarda. Si otro proceso completó el envío entretanto no se toca.
+     *
+     * @return true si el envío quedó calculado, false si ya no estaba pendiente
+     */
+    public boolean calcularPendiente(Integer idEnvio, boolean ultimoIntento) {
+        boolean estricto = !ultimoIntento;
+        DestinoPendiente destino = transaccion.execute(estado -> leerDestinoPendiente(idEnvio));
+        if (destino == null) {
+            return false;
+        }
+
+        Map<String, Double> coordenadas = destino.tieneCoordenadas()
+                ? null
+                : geocodificarDestino(destino.direccion(), estricto);
+
+        return Boolean.TRUE.equals(transaccion.execute(estado -> guardarCalculo(idEnvio, coordenadas)));
+    }
+
+    private DestinoPendiente leerDestinoPendiente(Integer idEnvio) {
+        Envio envio = envioRepository.findById(idEnvio).orElse(null);
+        if (envio == null || envio.getEstadoCalculo() != Envio.EstadoCalculo.PENDIENTE) {
+            return null;
+        }
+        completarDireccionDestino(envio);
+        return new DestinoPendiente(envio.getDireccionDestino(), envio.getLatitudDestino(), envio.getLongitudDestino());
+    }
+
+    // Segunda fase de calcularPendiente: solo BD y cálculos en memoria
+    private boolean guardarCalculo(Integer idEnvio, Map<String, Double> coordenadas) {
+        Envio envio = envioRepository.findById(idEnvio).orElse(null);
+        if (envio == null || envio.getEstadoCalculo() != Envio.EstadoCalculo.PENDIENTE) {
+            return false;
+        }
+        completarDireccionDestino(envio);
+        if (coordenadas != null && (envio.getLatitudDestino() == null || envio.getLongitudDestino() == null)) {
+            envio.setLatitudDestino(coordenadas.get("latitud"));
+            envio.setLongitudDestino(coordenadas.get("longitud"));
+        }
+
+        // Si los productos salen de fincas lejanas entre sí, la compra se reparte en varios envíos
+        List<Envio> plan = planificadorEnviosService.planificar(envio);
+        if (plan.isEmpty()) {
+            calcularOrigenYCostos(envio);
+        }
+        envio.setEstadoCalculo(Envio.EstadoCalculo.COMPLETO);
+        envio.setIntentosCalculo((envio.getIntentosCalculo() != null ? envio.getIntentosCalculo() : 0) + 1);
+        envio.setProximoIntentoCalculo(null);
+        envio.setErrorCalculo(null);
+        if (plan.size() > 1) {
+            envioRepository.saveAll(plan);
+            plan.forEach(e -> mercadoEnviosService.sincronizar(e.getIdEnvio()));
+        } else {
+            envioRepository.save(envio);
+            mercadoEnviosService.sincronizar(envio.getIdEnvio());
+        }
+        log.info("✓ Cálculo de envío {} completado: {} km, ${}", idEnvio, envio.getDistanciaKm(), envio.getCostoTotal());
+        return true;
+    }
+
+    /**
+     * Registra un intento fallido y programa el siguiente con espera exponencial
+     * (30 s, 1 min, 2 min... hasta 30 min). Al agotar los intentos el envío queda FALLIDO.
+     */
+    @Transactional
+    public void registrarFalloCalculo(Integer idEnvio, String error, int maxIntentos) {
+        Envio envio = envioRepository.findById(idEnvio).orElse(null);
+        if (envio == null || envio.getEstadoCalculo() != Envio.EstadoCalculo.PENDIENTE) {
+            return;
+        }
+        int intentos = (envio.getIntentosCalculo() != null ? envio.getIntentosCalculo() : 0) + 1;
+        envio.setIntentosCalculo(intentos);
+        envio.setErrorCalculo(error != null && error.length() > 255 ? error.substring(0, 255) : error);
+        if (intentos >= maxIntentos) {
+            envio.setEstadoCalculo(Envio.EstadoCalculo.FALLIDO);
+            envio.setProximoIntentoCalculo(null);
+            log.error("✗ Cálculo de envío {} FALLIDO tras {} intentos: {}", idEnvio, intentos, error);
+        } else {
+            long esperaSegundos = Math.min(30L << (intentos - 1), TimeUnit.MINUTES.toSeconds(30));
+            envio.setProximoIntentoCalculo(LocalDateTime.now().plusSeconds(esperaSegundos));
+            log.warn("⚠ Cálculo de envío {} falló (intento {}), reintento en {} s: {}", idEnvio, intentos, esperaSegundos, error);
+        }
+        envioRepository.save(envio);
+    }
+
+    /**
+     * Ids de envíos pendientes de cálculo cuyo próximo intento ya venció
+     */
+    @Transactional(readOnly = true)
+    public List<Integer> obtenerIdsCalculoPendiente() {
+        return envioRepository.findIdsCalculoPendiente(Envio.EstadoCalculo.PENDIENTE, LocalDateTime.now());
+    }
+
+    /**
+     * Envíos de una compra: uno por grupo de fincas de origen si el planificador la dividió
+     */
+    @Transactional(readOnly = true)
+    public List<Envio> obtenerPorCompra(Integer idCompra) {
+        return envioRepository.findByCompra_IdCompraOrderByIdEnvio(idCompra);
+    }
+
+    /**
+     * Pasos 1 y 2: dirección de destino (desde la compra si falta) y sus coordenadas
+     */
+    private void resolverDestino(Envio envio, boolean estricto) {
+        completarDireccionDestino(envio);
+
+        // 2. OBTENER COORDENADAS DE DESTINO
+        if (envio.getLatitudDestino() == null || envio.getLongitudDestino() == null) {
+            Map<String, Double> coordsDestino = geocodificarDestino(envio.getDireccionDestino(), estricto);
+            if (coordsDestino != null) {
+                envio.setLatitudDestino(coordsDestino.get("latitud"));
+                envio.setLongitudDestino(coordsDestino.get("longitud"));
+                log.info("    ✓ Coordenadas destino obtenidas: lat={}, lon={}",
+                        envio.getLatitudDestino(), envio.getLongitudDestino());
             }
+        }
+    }
 
-            // 3. CALCULAR PESO TOTAL desde los detalles de la compra
-            if ((envio.getPesoTotalKg() == null || envio.getPesoTotalKg() <= 0)
-                    && envio.getCompra() != null && envio.getCompra().getIdCompra() != null) {
-                log.info("  → Calculando peso total desde detalles de compra...");
-                Double pesoTotal = 0.0;
-
-                List<DetalleCompra> detalles = detalleCompraRepository.findByCompra_IdCompra(envio.getCompra().getIdCompra());
-                if (detalles != null && !detalles.isEmpty()) {
-                    for (DetalleCompra d : detalles) {
-                        if (d.getProducto() != null && d.getProducto().getPesoKg() != null) {
-                            BigDecimal pesoProducto = d.getProducto().getPesoKg();
-                            int cantidad = d.getCantidad() != null ? d.getCantidad() : 1;
-                            Double pesoParcial = pesoProducto.doubleValue() * cantidad;
-                            pesoTotal += pesoParcial;
-                            log.debug("    Producto: {}, Peso: {} kg, Cantidad: {}, Subtotal: {} kg",
-                                    d.getProducto().getNombreProducto(), pesoProducto, cantidad, pesoParcial);
-                        }
-                    }
-                }
+    // 1. OBTENER Y VALIDAR DIRECCIÓN DE DESTINO
+    private void completarDireccionDestino(Envio envio) {
+        if ((envio.getDireccionDestino() == null || envio.getDireccionDestino().isEmpty())
+                && envio.getCompra() != null && envio.getCompra().getDireccionEntrega() != null) {
+            envio.setDireccionDestino(envio.getCompra().getDireccionEntrega());
+            log.info("  ✓ Dirección destino capturada desde compra: {}", envio.getDireccionDestino());
+        }
+    }
 
-                if (pesoTotal <= 0) {
-                    pesoTotal = 1.0; // Peso mínimo
-                    log.warn("    ⚠ Peso total <= 0, asignando mínimo: 1.0 kg");
-                } else {
-                    log.info("    ✓ Peso total calculado: {} kg", pesoTotal);
+    // Llamada de red al geocodificador; null si no hay dirección que geocodificar
+    private Map<String, Double> geocodificarDestino(String direccion, boolean estricto) {
+        if (direccion == null || direccion.isEmpty()) {
+            return null;
+        }
+        log.info("  → Obteniendo coordenadas de destino...");
+        return estricto
+                ? costoEnvioService.obtenerCoordenadasOFallar(direccion)
+                : costoEnvioService.obtenerCoordenadas(direccion);
+    }
+
+    /**
+     * Dirección y coordenadas de destino, peso, origen (finca del primer producto), distancia y costos.
+     * Con estricto = true un fallo de geocodificación lanza excepción en vez de usar coordenadas por defecto.
+     */
+    private void completarCalculos(Envio envio, boolean estricto) {
+        resolverDestino(envio, estricto);
+        calcularOrigenYCostos(envio);
+    }
+
+    /**
+     * Pasos 3 a 6 (peso, origen, distancia y costos) con el destino ya resuelto; no hace llamadas de red
+     */
+    private void calcularOrigenYCostos(Envio envio) {
+
+        // Los detalles se consultan una sola vez para el peso y el origen
+        boolean necesitaPeso = envio.getPesoTotalKg() == null || envio.getPesoTotalKg() <= 0;
+        boolean necesitaOrigen = envio.getLatitudOrigen() == null || envio.getLongitudOrigen() == null;
+        List<DetalleCompra> detalles = null;
+        if ((necesitaPeso || necesitaOrigen) && envio.getCompra() != null && envio.getCompra().getIdCompra() != null) {
+            detalles = detalleCompraRepository.findByCompra_IdCompra(envio.getCompra().getIdCompra());
+        }
+
+        // 3. CALCULAR PESO TOTAL desde los detalles de la compra
+        if (necesitaPeso && detalles != null) {
+            log.info("  → Calculando peso total desde detalles de compra...");
+            Double pesoTotal = 0.0;
+
+            for (DetalleCompra d : detalles) {
+                if (d.getProducto() != null && d.getProducto().getPesoKg() != null) {
+                    BigDecimal pesoProducto = d.getProducto().getPesoKg();
+                    int cantidad = d.getCantidad() != null ? d.getCantidad() : 1;
+                    Double pesoParcial = pesoProducto.doubleValue() * cantidad;
+                    pesoTotal += pesoParcial;
+                    log.debug("    Producto: {}, Peso: {} kg, Cantidad: {}, Subtotal: {} kg",
+                            d.getProducto().getNombreProducto(), pesoProducto, cantidad, pesoParcial);
                 }
-                envio.setPesoTotalKg(pesoTotal);
-            } else if (envio.getPesoTotalKg() != null) {
-                log.info("  ✓ Peso total ya definido: {} kg", envio.getPesoTotalKg());
             }
 
-            // 4. OBTENER COORDENADAS Y DIRECCIÓN DE ORIGEN desde la finca del primer producto
-            if ((envio.getLatitudOrigen() == null || envio.getLongitudOrigen() == null)
-                    && envio.getCompra() != null && envio.getCompra().getIdCompra() != null) {
-                log.info("  → Obteniendo coordenadas de origen desde finca del primer producto...");
+            if (pesoTotal <= 0) {
+                pesoTotal = 1.0; // Peso mínimo
+                log.warn("    ⚠ Peso total <= 0, asignando mínimo: 1.0 kg");
+            } else {
+                log.info("    ✓ Peso total calculado: {} kg", pesoTotal);
+            }
+            envio.setPesoTotalKg(pesoTotal);
+        } else if (envio.getPesoTotalKg() != null) {
+            log.info("  ✓ Peso total ya definido: {} kg", envio.getPesoTotalKg());
+        }
 
-                List<DetalleCompra> detalles = detalleCompraRepository.findByCompra_IdCompra(envio.getCompra().getIdCompra());
-                if (detalles != null && !detalles.isEmpty()) {
-                    DetalleCompra primerDetalle = detalles.get(0);
-                    Producto producto = primerDetalle.getProducto();
-
-                    if (producto != null && producto.getProductoFincas() != null && !producto.getProductoFincas().isEmpty()) {
-                        ProductoFinca pf = producto.getProductoFincas().get(0);
-                        if (pf != null && pf.getFinca() != null) {
-                            Finca finca = pf.getFinca();
-                            envio.setLatitudOrigen(finca.getLatitud());
-                            envio.setLongitudOrigen(finca.getLongitud());
-
-                            if (envio.getDireccionOrigen() == null || envio.getDireccionOrigen().isEmpty()) {
-                                envio.setDireccionOrigen(finca.getDireccionFinca());
-                            }
-
-                            log.info("    ✓ Coordenadas origen obtenidas desde finca: lat={}, lon={}",
-                                    envio.getLatitudOrigen(), envio.getLongitudOrigen());
-                            log.info("    ✓ Dirección origen: {}", envio.getDireccionOrigen());
+        // 4. OBTENER COORDENADAS Y DIRECCIÓN DE ORIGEN: la finca más cercana al destino que cultiva
+        //    el producto (índice espacial en memoria); si no hay ninguna georreferenciada, la finca del primer producto
+        if (necesitaOrigen && detalles != null && !detalles.isEmpty()) {
+            boolean asignado = false;
+            if (envio.getLatitudDestino() != null && envio.getLongitudDestino() != null) {
+                log.info("  → Buscando la finca más cercana al destino...");
+                for (DetalleCompra d : detalles) {
+                    if (d.getProducto() == null) {
+                        continue;
+                    }
+                    Optional<IndiceFincasService.FincaCercana> cercana = indiceFincasService.buscarMasCercana(
+                            d.getProducto().getIdProducto(), envio.getLatitudDestino(), envio.getLongitudDestino());
+                    if (cercana.isPresent()) {
+                        IndiceFincasService.PuntoFinca finca = cercana.get().finca();
+                        envio.setLatitudOrigen(finca.latitud());
+                        envio.setLongitudOrigen(finca.longitud());
+                        if (envio.getDireccionOrigen() == null || envio.getDireccionOrigen().isEmpty()) {
+                            envio.setDireccionOrigen(finca.direccion());
                         }
+                        log.info("    ✓ Finca {} a {} km en línea recta: lat={}, lon={}", finca.idFinca(),
+                                String.format("%.1f", cercana.get().distanciaKm()), finca.latitud(), finca.longitud());
+                        asignado = true;
+                        break;
                     }
                 }
             }
 
-            // 5. CALCULAR DISTANCIA si hay coordenadas de origen y destino
-            if (envio.getLatitudOrigen() != null && envio.getLongitudOrigen() != null
-                    && envio.getLatitudDestino() != null && envio.getLongitudDestino() != null) {
-                log.info("  → Calculando distancia...");
-                Double distancia = costoEnvioService.calcularDistanciaHaversine(
-                        envio.getLatitudOrigen(), envio.getLongitudOrigen(),
-                        envio.getLatitudDestino(), envio.getLongitudDestino());
-                envio.setDistanciaKm(distancia);
-                log.info("    ✓ Distancia calculada: {} km", distancia);
-
-                // 6. CALCULAR COSTOS basados en distancia y peso
-                log.info("  → Calculando costos...");
-                Map<String, BigDecimal> desglose = costoEnvioService.calcularCostoEnvio(
-                        envio.getDistanciaKm(), envio.getPesoTotalKg());
-
-                if (desglose != null) {
-                    envio.setCostoBase(desglose.getOrDefault("costoBase", BigDecimal.ZERO));
-                    envio.setCostoPeso(desglose.getOrDefault("costoPeso", BigDecimal.ZERO));
-                    envio.setCostoTotal(desglose.getOrDefault("costoTotal", BigDecimal.ZERO));
+            if (!asignado) {
+                log.info("  → Obteniendo coordenadas de origen desde finca del primer producto...");
+                DetalleCompra primerDetalle = detalles.get(0);
+                Producto producto = primerDetalle.getProducto();
+
+                if (producto != null && producto.getProductoFincas() != null && !producto.getProductoFincas().isEmpty()) {
+                    ProductoFinca pf = producto.getProductoFincas().get(0);
+                    if (pf != null && pf.getFinca() != null) {
+                        Finca finca = pf.getFinca();
+                        envio.setLatitudOrigen(finca.getLatitud());
+                        envio.setLongitudOrigen(finca.getLongitud());
+
+                        if (envio.getDireccionOrigen() == null || envio.getDireccionOrigen().isEmpty()) {
+                            envio.setDireccionOrigen(finca.getDireccionFinca());
+                        }
 
-                    if (desglose.get("tarifaPorKm") != null) {
-                        envio.setTarifaPorKm(desglose.get("tarifaPorKm"));
-                    }
-                    if (desglose.get("tarifaPorKg") != null) {
-                        envio.setTarifaPorKg(desglose.get("tarifaPorKg"));
+                        log.info("    ✓ Coordenadas origen obtenidas desde finca: lat={}, lon={}",
+                                envio.getLatitudOrigen(), envio.getLongitudOrigen());
+                        log.info("    ✓ Dirección origen: {}", envio.getDireccionOrigen());
                     }
+                }
+            }
+        }
 
-                    log.info("    ✓ Costos calculados:");
-                    log.info("      - Costo Base (distancia): ${}", envio.getCostoBase());
-                    log.info("      - Costo Peso: ${}", envio.getCostoPeso());
-                    log.info("      - Costo Total: ${}", envio.getCostoTotal());
+        // 5. CALCULAR DISTANCIA si hay coordenadas de origen y destino
+        if (envio.getLatitudOrigen() != null && envio.getLongitudOrigen() != null
+                && envio.getLatitudDestino() != null && envio.getLongitudDestino() != null) {
+            log.info("  → Calculando distancia...");
+            Double distancia = costoEnvioService.calcularDistanciaHaversine(
+                    envio.getLatitudOrigen(), envio.getLongitudOrigen(),
+                    envio.getLatitudDestino(), envio.getLongitudDestino());
+            envio.setDistanciaKm(distancia);
+            log.info("    ✓ Distancia calculada: {} km", distancia);
+
+            // 6. CALCULAR COSTOS basados en distancia y peso
+            log.info("  → Calculando costos...");
+            Map<String, BigDecimal> desglose = costoEnvioService.calcularCostoEnvio(
+                    envio.getDistanciaKm(), envio.getPesoTotalKg());
+
+            if (desglose != null) {
+                envio.setCostoBase(desglose.getOrDefault("costoBase", BigDecimal.ZERO));
+                envio.setCostoPeso(desglose.getOrDefault("costoPeso", BigDecimal.ZERO));
+                envio.setCostoTotal(desglose.getOrDefault("costoTotal", BigDecimal.ZERO));
+
+                if (desglose.get("tarifaPorKm") != null) {
+                    envio.setTarifaPorKm(desglose.get("tarifaPorKm"));
                 }
-            } else {
-                log.warn("  ⚠ No hay coordenadas suficientes para calcular distancia y costos");
-                log.warn("    Origen: lat={}, lon={}", envio.getLatitudOrigen(), envio.getLongitudOrigen());
-                log.warn("    Destino: lat={}, lon={}", envio.getLatitudDestino(), envio.getLongitudDestino());
+                if (desglose.get("tarifaPorKg") != null) {
+                    envio.setTarifaPorKg(desglose.get("tarifaPorKg"));
+                }
+
+                log.info("    ✓ Costos calculados:");
+                log.info("      - Costo Base (distancia): ${}", envio.getCostoBase());
+                log.info("      - Costo Peso: ${}", envio.getCostoPeso());
+                log.info("      - Costo Total: ${}", envio.getCostoTotal());
             }
+        } else {
+            log.warn("  ⚠ No hay coordenadas suficientes para calcular distancia y costos");
+            log.warn("    Origen: lat={}, lon={}", envio.getLatitudOrigen(), envio.getLongitudOrigen());
+            log.warn("    Destino: lat={}, lon={}", envio.getLatitudDestino(), envio.getLongitudDestino());
+        }
+    }
 
-            // 7. GUARDAR EL ENVÍO
-            log.info("  → Guardando envío en BD...");
-            Envio envioGuardado = envioRepository.save(envio);
-            log.info("✓ ENVÍO CREADO EXITOSAMENTE:");
-            log.info("  ID: {}", envioGuardado.getIdEnvio());
-            log.info("  Compra: {}", (envioGuardado.getCompra() != null ? envioGuardado.getCompra().getIdCompra() : "NULL"));
-            log.info("  Origen: {}", envioGuardado.getDireccionOrigen());
-            log.info("  Destino: {}", envioGuardado.getDireccionDestino());
-            log.info("  Distancia: {} km", envioGuardado.getDistanciaKm());
-            log.info("  Peso: {} kg", envioGuardado.getPesoTotalKg());
-            log.info("  Costo Total: ${}", envioGuardado.getCostoTotal());
+    /**
+     * Resultado de aceptar un envío. Los demás transportistas que pierden la carrera reciben siempre YA_TOMADO.
+     */
+    public enum ResultadoAceptacion {
+        ACEPTADO,
+        YA_ASIGNADO_A_TI,
+        YA_TOMADO,
+        NO_DISPONIBLE,
+        NO_ENCONTRADO
+    }
 
-            return envioGuardado;
+    /**
+     * Asigna el envío al transportista con un UPDATE condicional, sin leerlo antes ni bloquearlo.
+     * Si varios transportistas aceptan a la vez, la BD deja pasar solo la primera actualización.
+     * A las demás se les explica por qué no la obtuvieron, leyendo el estado que quedó.
+     */
+    @Transactional
+    public ResultadoAceptacion aceptar(Integer idEnvio, Transportista transportista, Vehiculo vehiculo,
+                                       LocalDate fechaSalida, LocalDate fechaEntrega) {
+        int filas = envioRepository.asignarSiDisponible(idEnvio, transportista, vehiculo, fechaSalida, fechaEntrega,
+                Envio.EstadoEnvio.Asignado, Envio.EstadoEnvio.Buscando_Transporte, Envio.EstadoCalculo.COMPLETO);
+        if (filas == 1) {
+            mercadoEnviosService.retirar(idEnvio);
+            rastreoEnviosService.invalidar(idEnvio);
+            log.info("✓ Envío {} aceptado por el transportista {}", idEnvio, transportista.getIdUsuario());
+            return ResultadoAceptacion.ACEPTADO;
+        }
 
-        } catch (Exception e) {
-            // En caso de error, se procede a guardar sin cálculo para evitar bloquear el flujo
-            log.error("✗ WARNING: Fallo al completar cálculo de envío: {}", e.getMessage());
-            log.error("  Guardando envío con datos incompletos...");
-            e.printStackTrace();
-            return envioRepository.save(envio);
+        Envio actual = envioRepository.findById(idEnvio).orElse(null);
+        if (actual == null) {
+            return ResultadoAceptacion.NO_ENCONTRADO;
+        }
+        if (actual.getTransportista() != null) {
+            return actual.getTransportista().getIdUsuario().equals(transportista.getIdUsuario())
+                    ? ResultadoAceptacion.YA_ASIGNADO_A_TI
+                    : ResultadoAceptacion.YA_TOMADO;
         }
+        // Otro estado o todavía sin costos calculados
+        return ResultadoAceptacion.NO_DISPONIBLE;
     }
 
     // Actualizar envío existente
@@ -205,7 +479,10 @@ public class EnvioService {
             envio.setFechaEntrega(envioActualizado.getFechaEntrega());
             envio.setNumeroSeguimiento(envioActualizado.getNumeroSeguimiento());
 
-            return envioRepository.save(envio);
+            Envio guardado = envioRepository.save(envio);
+            mercadoEnviosService.sincronizar(id);
+            rastreoEnviosService.actualizarEstado(id, guardado.getEstadoEnvio());
+            return guardado;
         }
 
         return null;
@@ -215,6 +492,8 @@ public class EnvioService {
     public boolean eliminar(Integer id) {
         if (envioRepository.existsById(id)) {
             envioRepository.deleteById(id);
+            mercadoEnviosService.retirar(id);
+            rastreoEnviosService.finalizar(id);
             return true;
         }
         return false;
@@ -0,0 +1,150 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.ProductoDestacado;
+import com.example.springbootagrolink.model.ProductoRanking;
+import com.example.springbootagrolink.repository.CalificacionRepository;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import com.example.springbootagrolink.repository.UsuarioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Indicadores de la página de inicio (usuarios, productos disponibles, entregas exitosas,
+ * calificación promedio), el producto más vendido y los productos en tendencia. Los dos últimos
+ * salen de RankingProductosService, sin recorrer el histórico de compras.
+ *
+ * Se calculan en segundo plano cada estadisticas.inicio.refrescoMs y se publican como una
+ * instantánea inmutable que se reemplaza de una sola vez: la página de inicio solo lee la
+ * instantánea actual y no lanza consultas de agregación por petición. Si un cálculo falla se
+ * conserva la instantánea anterior.
+ */
+@Service
+public class EstadisticasInicioService {
+
+    private static final Logger log = LoggerFactory.getLogger(EstadisticasInicioService.class);
+
+    /**
+     * Valores publicados; productoDestacado es null si todavía no hay productos
+     */
+    public record Instantanea(
+            long totalUsuarios,
+            long productosDisponibles,
+            double porcentajeEntregas,
+            double promedioCalificaciones,
+            ProductoDestacado productoDestacado,
+            List<ProductoRanking> tendencias,
+            LocalDateTime calculadaEn
+    ) {
+    }
+
+    private static final Instantanea VACIA = new Instantanea(0, 0, 0.0, 0.0, null, List.of(), null);
+
+    // Productos en tendencia que se muestran en el inicio
+    private static final int TENDENCIAS_INICIO = 4;
+
+    // Datos de la tarjeta del producto indicado o, si no se indica ninguno, del más reciente
+    private static final String PRODUCTO_DESTACADO =
+            "SELECT p.id_producto, p.nombre_producto, p.descripcion_producto, p.precio, p.peso_kg, p.stock, " +
+            "       cat.nombre_categoria, " +
+            "       (SELECT i.url_imagen FROM tb_imagenes_productos i " +
+            "        WHERE i.id_producto = p.id_producto ORDER BY i.es_principal DESC, i.id_imagen LIMIT 1) AS url_imagen, " +
+            "       (SELECT f.nombre_finca FROM tb_productos_fincas pf JOIN tb_fincas f ON f.id_finca = pf.id_finca " +
+            "        WHERE pf.id_producto = p.id_producto ORDER BY pf.id_producto_finca LIMIT 1) AS nombre_finca " +
+            "FROM tb_productos p " +
+            "LEFT JOIN tb_categorias_productos cat ON cat.id_categoria = p.id_categoria " +
+            "WHERE p.id_producto = COALESCE(:idProducto, (SELECT MAX(id_producto) FROM tb_productos))";
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Autowired
+    private EnvioRepository envioRepository;
+
+    @Autowired
+    private CalificacionRepository calificacionRepository;
+
+    @Autowired
+    private RankingProductosService rankingProductosService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile Instantanea actual = VACIA;
+
+    /**
+     * Instantánea vigente (ceros hasta que termine el primer cálculo)
+     */
+    public Instantanea actual() {
+        return actual;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void calcularAlIniciar() {
+        refrescar();
+    }
+
+    @Scheduled(fixedDelayString = "${estadisticas.inicio.refrescoMs:60000}",
+               initialDelayString = "${estadisticas.inicio.refrescoMs:60000}")
+    public void refrescar() {
+        long inicio = System.currentTimeMillis();
+        try {
+            long totalEnvios = 0;
+            long enviosFinalizados = 0;
+            for (Object[] fila : envioRepository.contarPorEstado()) {
+                long cantidad = (Long) fila[1];
+                totalEnvios += cantidad;
+                if (fila[0] == Envio.EstadoEnvio.Finalizado) {
+                    enviosFinalizados += cantidad;
+                }
+            }
+            Long productosDisponibles = productoRepository.countProductosDisponibles();
+            Double promedio = calificacionRepository.calcularPromedioGeneral();
+
+            actual = new Instantanea(
+                    usuarioRepository.count(),
+                    productosDisponibles != null ? productosDisponibles : 0,
+                    totalEnvios > 0 ? (enviosFinalizados * 100.0) / totalEnvios : 0.0,
+                    promedio != null ? promedio : 0.0,
+                    productoDestacado(),
+                    List.copyOf(rankingProductosService.detallar(rankingProductosService.tendencias(null, TENDENCIAS_INICIO))),
+                    LocalDateTime.now());
+            log.debug("▶ Estadísticas de inicio recalculadas en {} ms", System.currentTimeMillis() - inicio);
+        } catch (Exception e) {
+            log.warn("⚠ No se pudieron recalcular las estadísticas de inicio (se mantienen las anteriores): {}", e.getMessage());
+        }
+    }
+
+    private ProductoDestacado productoDestacado() {
+        List<RankingProductosService.Posicion> masVendido =
+                rankingProductosService.masVendidos(RankingProductosService.Ventana.TOTAL, null, 1);
+        Integer idProducto = masVendido.isEmpty() ? null : masVendido.get(0).idProducto();
+        List<ProductoDestacado> filas = jdbcTemplate.query(PRODUCTO_DESTACADO,
+                new MapSqlParameterSource("idProducto", idProducto),
+                (rs, i) -> new ProductoDestacado(
+                        rs.getInt("id_producto"),
+                        rs.getString("nombre_producto"),
+                        rs.getString("descripcion_producto"),
+                        rs.getBigDecimal("precio"),
+                        rs.getBigDecimal("peso_kg"),
+                        rs.getObject("stock", Integer.class),
+                        rs.getString("url_imagen"),
+                        rs.getString("nombre_categoria"),
+                        rs.getString("nombre_finca")));
+        return filas.isEmpty() ? null : filas.get(0);
+    }
+}
@@ -0,0 +1,374 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exportación de compras, envíos y productos para el administrador (CSV o NDJSON, opcionalmente gzip).
+ *
+ * Las filas se leen con un cursor de solo avance (fetch size Integer.MIN_VALUE, que en MySQL
+ * Connector/J hace que el servidor envíe las filas una a una) y se escriben en la salida según
+ * llegan, así que la memoria usada no depende del tamaño de la tabla. La conexión queda ocupada
+ * mientras dura la descarga.
+ */
+@Service
+public class ExportacionService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportacionService.class);
+
+    private static final int TAMANIO_BUFFER = 64 * 1024;
+
+    public enum Tipo {
+        COMPRAS, ENVIOS, PRODUCTOS
+    }
+
+    public enum Formato {
+        CSV, NDJSON
+    }
+
+    /**
+     * Filtros opcionales; las fechas se aplican sobre la fecha de la compra (incluidas) y el estado
+     * es el estado del envío o, en productos, DISPONIBLE / AGOTADO
+     */
+    public record Filtros(LocalDate desde, LocalDate hasta, String estado) {
+    }
+
+    private static final String SQL_COMPRAS =
+            "SELECT c.id_compra, c.fecha_hora_compra, c.id_cliente, " +
+            "       CONCAT(u.nombre, ' ', u.apellido) AS cliente, u.correo, " +
+            "       c.subtotal, c.impuestos, c.valor_envio, c.total, c.metodo_pago, c.direccion_entrega " +
+            "FROM tb_compras c " +
+            "LEFT JOIN tb_usuarios u ON u.id_usuario = c.id_cliente " +
+            "WHERE 1 = 1 %s ORDER BY c.id_compra";
+
+    private static final String SQL_ENVIOS =
+            "SELECT e.id_envio, e.id_compra, c.fecha_hora_compra, e.estado_envio, e.numero_seguimiento, " +
+            "       e.id_transportista, CONCAT(t.nombre, ' ', t.apellido) AS transportista, e.id_vehiculo, " +
+            "       e.fecha_salida, e.fecha_entrega, e.direccion_origen, e.direccion_destino, " +
+            "       e.distancia_km, e.peso_total_kg, e.costo_base, e.costo_peso, e.costo_total, e.estado_calculo " +
+            "FROM tb_envios e " +
+            "LEFT JOIN tb_compras c ON c.id_compra = e.id_compra " +
+            "LEFT JOIN tb_usuarios t ON t.id_usuario = e.id_transportista " +
+            "WHERE 1 = 1 %s ORDER BY e.id_envio";
+
+    private static final String SQL_PRODUCTOS =
+            "SELECT p.id_producto, p.nombre_producto, p.descripcion_producto, cat.nombre_categoria AS categoria, " +
+            "       p.id_usuario AS id_productor, CONCAT(u.nombre, ' ', u.apellido) AS productor, " +
+            "       p.precio, p.stock, p.peso_kg " +
+            "FROM tb_productos p " +
+            "LEFT JOIN tb_categorias_productos cat ON cat.id_categoria = p.id_categoria " +
+            "LEFT JOIN tb_usuarios u ON u.id_usuario = p.id_usuario " +
+            "WHERE 1 = 1 %s ORDER BY p.id_producto";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ExportacionService(DataSource dataSource) {
+        // Plantilla propia: el fetch size de streaming no debe afectar al resto de consultas
+        JdbcTemplate plantilla = new JdbcTemplate(dataSource);
+        plantilla.setFetchSize(Integer.MIN_VALUE);
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(plantilla);
+    }
+
+    /**
+     * Valida tipo, formato y filtros antes de empezar a escribir (después ya no se puede devolver
+     * un error al cliente).
+     *
+     * @throws IllegalArgumentException si algún valor no es válido
+     */
+    public Tipo tipo(String valor) {
+        try {
+            return Tipo.valueOf(valor.trim().toUpperCase(Locale.ROOT));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Tipo de exportación no válido: " + valor);
+        }
+    }
+
+    public Formato formato(String valor) {
+        try {
+            return Formato.valueOf(valor.trim().toUpperCase(Locale.ROOT));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Formato no válido (csv o ndjson): " + valor);
+        }
+    }
+
+    public void validar(Tipo tipo, Filtros filtros) {
+        if (filtros.desde() != null && filtros.hasta() != null && filtros.hasta().isBefore(filtros.desde())) {
+            throw new IllegalArgumentException("Rango de fechas inválido");
+        }
+        if (tipo == Tipo.PRODUCTOS && (filtros.desde() != null || filtros.hasta() != null)) {
+            throw new IllegalArgumentException("Los productos no se filtran por fecha");
+        }
+        if (filtros.estado() != null && !filtros.estado().isBlank()) {
+            switch (tipo) {
+                case COMPRAS -> throw new IllegalArgumentException("Las compras no se filtran por estado");
+                case ENVIOS -> {
+                    boolean valido = false;
+                    for (Envio.EstadoEnvio estado : Envio.EstadoEnvio.values()) {
+                        valido |= estado.name().equals(filtros.estado());
+                    }
+                    if (!valido) {
+                        throw new IllegalArgumentException("Estado de envío no válido: " + filtros.estado());
+                    }
+                }
+                case PRODUCTOS -> {
+                    String estado = filtros.estado().toUpperCase(Locale.ROOT);
+                    if (!estado.equals("DISPONIBLE") && !estado.equals("AGOTADO")) {
+                        throw new IllegalArgumentException("Estado de producto no válido (DISPONIBLE o AGOTADO)");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Escribe la exportación en la salida; si comprimir es true la salida va en gzip.
+     * No cierra la salida.
+     */
+    public long exportar(Tipo tipo, Formato formato, Filtros filtros, boolean comprimir, OutputStream salida) throws IOException {
+        validar(tipo, filtros);
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = consulta(tipo, filtros, params);
+
+        GZIPOutputStream gzip = comprimir ? new GZIPOutputStream(salida, TAMANIO_BUFFER) : null;
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(gzip != null ? gzip : salida, StandardCharsets.UTF_8), TAMANIO_BUFFER);
+        EscritorFilas escritor = formato == Formato.CSV ? new EscritorCsv(writer) : new EscritorNdjson(writer, objectMapper);
+
+        long inicio = System.currentTimeMillis();
+        long[] filas = {0};
+        try {
+            jdbcTemplate.query(sql, params, (ResultSet rs) -> {
+                try {
+                    escritor.cabecera(rs.getMetaData());
+                    while (rs.next()) {
+                        escritor.fila(rs);
+                        filas[0]++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            // Normalmente el cliente cerró la descarga
+            log.warn("⚠ Exportación de {} interrumpida tras {} filas: {}", tipo, filas[0], e.getCause().getMessage());
+            throw e.getCause();
+        }
+        escritor.terminar();
+        writer.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+        log.info("✓ Exportación de {} ({}{}): {} filas en {} ms", tipo, formato, comprimir ? ", gzip" : "",
+                filas[0], System.currentTimeMillis() - inicio);
+        return filas[0];
+    }
+
+    private static String consulta(Tipo tipo, Filtros filtros, MapSqlParameterSource params) {
+        StringBuilder where = new StringBuilder();
+        if (filtros.desde() != null) {
+            where.append("AND c.fecha_hora_compra >= :desde ");
+            params.addValue("desde", filtros.desde().atStartOfDay());
+        }
+        if (filtros.hasta() != null) {
+            where.append("AND c.fecha_hora_compra < :hasta ");
+            params.addValue("hasta", filtros.hasta().plusDays(1).atStartOfDay());
+        }
+        boolean conEstado = filtros.estado() != null && !filtros.estado().isBlank();
+        return switch (tipo) {
+            case COMPRAS -> String.format(SQL_COMPRAS, where);
+            case ENVIOS -> {
+                if (conEstado) {
+                    where.append("AND e.estado_envio = :estado ");
+                    params.addValue("estado", filtros.estado());
+                }
+                yield String.format(SQL_ENVIOS, where);
+            }
+            case PRODUCTOS -> {
+                if (conEstado) {
+                    where.append("AGOTADO".equalsIgnoreCase(filtros.estado())
+                            ? "AND COALESCE(p.stock, 0) <= 0 "
+                            : "AND p.stock > 0 ");
+                }
+                yield String.format(SQL_PRODUCTOS, where);
+            }
+        };
+    }
+
+    // Texto de una columna: decimales sin notación científica, fechas en ISO-8601
+    private static Object valor(ResultSet rs, int columna) throws SQLException {
+        Object valor = rs.getObject(columna);
+        if (valor instanceof java.sql.Timestamp ts) {
+            return ts.toLocalDateTime().toString();
+        }
+        if (valor instanceof java.sql.Date fecha) {
+            return fecha.toLocalDate().toString();
+        }
+        if (valor instanceof java.time.temporal.Temporal) {
+            return valor.toString();
+        }
+        return valor;
+    }
+
+    private interface EscritorFilas {
+        void cabecera(ResultSetMetaData meta) throws IOException, SQLException;
+
+        void fila(ResultSet rs) throws IOException, SQLException;
+
+        void terminar() throws IOException;
+    }
+
+    private static final class EscritorCsv implements EscritorFilas {
+        private final Writer writer;
+        private int columnas;
+
+        EscritorCsv(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void cabecera(ResultSetMetaData meta) throws IOException, SQLException {
+            // BOM para que Excel abra el archivo como UTF-8
+            writer.write('\uFEFF');
+            columnas = meta.getColumnCount();
+            for (int i = 1; i <= columnas; i++) {
+                if (i > 1) {
+                    writer.write(',');
+                }
+                escribirCampo(meta.getColumnLabel(i));
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void fila(ResultSet rs) throws IOException, SQLException {
+            for (int i = 1; i <= columnas; i++) {
+                if (i > 1) {
+                    writer.write(',');
+                }
+                Object valor = valor(rs, i);
+                if (valor instanceof BigDecimal decimal) {
+                    writer.write(decimal.toPlainString());
+                } else if (valor instanceof String texto && pareceFormula(texto)) {
+                    // Texto de usuarios que Excel ejecutaría como fórmula: se antepone ' y va entre comillas
+                    writer.write('"');
+                    writer.write('\'');
+                    writer.write(texto.replace("\"", "\"\""));
+                    writer.write('"');
+                } else if (valor != null) {
+                    escribirCampo(valor.toString());
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void terminar() {
+        }
+
+        private static boolean pareceFormula(String texto) {
+            if (texto.isEmpty()) {
+                return false;
+            }
+            char c = texto.charAt(0);
+            return c == '=' || c == '+' || c == '-' || c == '@' || c == '\t' || c == '\r';
+        }
+
+        // RFC 4180: comillas solo si hace falta, duplicando las comillas internas
+        private void escribirCampo(String texto) throws IOException {
+            boolean comillas = false;
+            for (int i = 0; i < texto.length() && !comillas; i++) {
+                char c = texto.charAt(i);
+                comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!comillas) {
+                writer.write(texto);
+                return;
+            }
+            writer.write('"');
+            writer.write(texto.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    private static final class EscritorNdjson implements EscritorFilas {
+        private final Writer writer;
+        private final JsonGenerator generador;
+        private String[] nombres;
+        private boolean conFilas;
+
+        EscritorNdjson(Writer writer, ObjectMapper objectMapper) throws IOException {
+            this.writer = writer;
+            this.generador = objectMapper.getFactory().createGenerator(writer);
+            // Un objeto por línea; el Writer lo vacía y lo cierra quien creó la salida
+            this.generador.setRootValueSeparator(new SerializedString("\n"));
+            this.generador.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.generador.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+
+        @Override
+        public void cabecera(ResultSetMetaData meta) throws SQLException {
+            nombres = new String[meta.getColumnCount()];
+            for (int i = 0; i < nombres.length; i++) {
+                nombres[i] = meta.getColumnLabel(i + 1);
+            }
+        }
+
+        @Override
+        public void fila(ResultSet rs) throws IOException, SQLException {
+            generador.writeStartObject();
+            for (int i = 0; i < nombres.length; i++) {
+                Object valor = valor(rs, i + 1);
+                generador.writeFieldName(nombres[i]);
+                if (valor == null) {
+                    generador.writeNull();
+                } else if (valor instanceof BigDecimal decimal) {
+                    generador.writeNumber(decimal);
+                } else if (valor instanceof Integer || valor instanceof Long) {
+                    generador.writeNumber(((Number) valor).longValue());
+                } else if (valor instanceof Number numero) {
+                    generador.writeNumber(numero.doubleValue());
+                } else if (valor instanceof Boolean b) {
+                    generador.writeBoolean(b);
+                } else {
+                    generador.writeString(valor.toString());
+                }
+            }
+            generador.writeEndObject();
+            conFilas = true;
+        }
+
+        @Override
+        public void terminar() throws IOException {
+            generador.flush();
+            if (conFilas) {
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -42,6 +42,9 @@ public class FincaService implements Idao<Finca, Integer> {
     @Autowired
     private ProductorRepository productorRepository;
 
+    @Autowired
+    private IndiceFincasService indiceFincasService;
+
     // ==================== MÉTODOS DE IDAO (CRUD BÁSICO) ====================
 
     /**
@@ -83,8 +86,10 @@ public class FincaService implements Idao<Finca, Integer> {
             throw new IllegalArgumentException("El productor con ID " + productorId + " no existe");
         }
 
-        // Guardar la finca
-        return fincaRepository.save(entidad);
+        // Guardar la finca y registrar su ubicación en el índice espacial
+        Finca guardada = fincaRepository.save(entidad);
+        indiceFincasService.registrarFinca(guardada);
+        return guardada;
     }
 
     /**
@@ -125,7 +130,9 @@ public class FincaService implements Idao<Finca, Integer> {
             fincaExistente.setProductor(entidad.getProductor());
         }
 
-        return fincaRepository.save(fincaExistente);
+        Finca actualizada = fincaRepository.save(fincaExistente);
+        indiceFincasService.registrarFinca(actualizada);
+        return actualizada;
     }
 
     /**
@@ -140,6 +147,7 @@ public class FincaService implements Idao<Finca, Integer> {
     public boolean eliminar(Integer id) {
         if (fincaRepository.existsById(id)) {
             fincaRepository.deleteById(id);
+            indiceFincasService.quitarFinca(id);
             return true;
         }
         return false;
@@ -0,0 +1,560 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Producto;
+import com.example.springbootagrolink.model.Usuario;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice en memoria del catálogo público de productos.
+ *
+ * Guarda por cada producto los textos ya normalizados con NormalizadorTexto (nombre, descripción,
+ * ciudad, departamento y nombre del productor, categoría), listas invertidas por categoría, ciudad y departamento,
+ * y un arreglo de ids ordenado por precio. Así los filtros del inicio se resuelven
+ * sobre los candidatos del criterio más selectivo en vez de recorrer todo el catálogo.
+ *
+ * El índice se carga al arrancar la aplicación y se actualiza de forma incremental
+ * desde ProductoService (guardar / actualizar / eliminar) cuando la transacción confirma.
+ * Cada cambio se propaga también al BuscadorProductosService (búsqueda de texto de /buscar).
+ */
+@Service
+public class IndiceCatalogoService {
+
+    private static final Logger log = LoggerFactory.getLogger(IndiceCatalogoService.class);
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Autowired
+    private BuscadorProductosService buscadorProductosService;
+
+    @Autowired
+    private ResenaService resenaService;
+
+    /**
+     * Datos precalculados de un producto para filtrar sin tocar la entidad
+     */
+    public record EntradaCatalogo(
+            Integer idProducto,
+            Integer idCategoria,
+            String nombre,
+            String descripcion,
+            String ciudad,
+            String departamento,
+            String productor,
+            String categoria,
+            double precio,
+            boolean tienePrecio,
+            int stock,
+            boolean organicoBPA
+    ) {
+    }
+
+    /**
+     * Entradas y listas invertidas. reconstruir arma un juego nuevo y lo publica de una vez, así las
+     * consultas que corren durante la reconstrucción siguen viendo el juego anterior completo.
+     * Los cambios incrementales se aplican sobre el juego vigente.
+     */
+    private record Estructuras(
+            Map<Integer, EntradaCatalogo> entradas,
+            Map<Integer, Set<Integer>> porCategoria,
+            Map<String, Set<Integer>> porCiudad,
+            Map<String, Set<Integer>> porDepartamento
+    ) {
+        static Estructuras vacias() {
+            return new Estructuras(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(),
+                    new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Ids y precios de los productos con precio, ordenados por (precio, id). Es inmutable: cada cambio
+     * publica un arreglo nuevo, así una lectura nunca mezcla precios de un orden con ids de otro.
+     */
+    private record OrdenPrecio(int[] ids, double[] precios) {
+    }
+
+    private volatile Estructuras estructuras = Estructuras.vacias();
+    private volatile OrdenPrecio ordenPrecio = new OrdenPrecio(new int[0], new double[0]);
+
+    private volatile boolean cargado = false;
+
+    // ==================== CARGA Y ACTUALIZACIÓN ====================
+
+    // Antes que el ranking y las estadísticas de inicio, que filtran con el índice
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE - 2)
+    @Transactional(readOnly = true)
+    public void cargarAlIniciar() {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            log.error("No se pudo construir el índice del catálogo: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reconstruye el índice completo desde la base de datos (una sola consulta con productor, usuario y categoría)
+     */
+    @Transactional(readOnly = true)
+    public synchronized void reconstruir() {
+        List<Producto> productos = productoRepository.findAllParaIndice();
+
+        Estructuras nuevas = Estructuras.vacias();
+        for (Producto producto : productos) {
+            EntradaCatalogo entrada = crearEntrada(producto);
+            nuevas.entradas().put(entrada.idProducto(), entrada);
+            agregarPostings(nuevas, entrada);
+        }
+        OrdenPrecio orden = ordenarPorPrecio(nuevas.entradas().values());
+        estructuras = nuevas;
+        ordenPrecio = orden;
+        buscadorProductosService.reconstruir(nuevas.entradas().values());
+        cargado = true;
+
+        log.info("Índice del catálogo construido con {} productos", nuevas.entradas().size());
+    }
+
+    /**
+     * Registra (o reemplaza) un producto en el índice. Si hay una transacción activa,
+     * la entrada se calcula ahora (con las relaciones aún accesibles) y se aplica al confirmar.
+     */
+    public void indexar(Producto producto) {
+        if (producto == null || producto.getIdProducto() == null) {
+            return;
+        }
+        EntradaCatalogo entrada = crearEntrada(producto);
+        alConfirmar(() -> aplicar(entrada));
+    }
+
+    /**
+     * Quita un producto del índice (al confirmar la transacción si existe una)
+     */
+    public void quitar(Integer idProducto) {
+        if (idProducto == null) {
+            return;
+        }
+        alConfirmar(() -> eliminarEntrada(idProducto));
+    }
+
+    /**
+     * Vuelve a indexar los productos de un productor (cambió su nombre, ciudad o departamento)
+     */
+    @Transactional(readOnly = true)
+    public void reindexarProductor(Integer idProductor) {
+        if (idProductor == null) {
+            return;
+        }
+        List<EntradaCatalogo> nuevas = new ArrayList<>();
+        for (Producto producto : productoRepository.findParaIndiceByProductor(idProductor)) {
+            nuevas.add(crearEntrada(producto));
+        }
+        alConfirmar(() -> nuevas.forEach(this::aplicar));
+    }
+
+    /**
+     * Suma al stock indexado de cada producto la variación indicada (idProducto -> +/- unidades), al confirmar.
+     * Se aplican diferencias y no valores absolutos: los afterCommit de compras simultáneas pueden
+     * ejecutarse en cualquier orden, y un stock leído dentro de la transacción ya estaría viejo si otra
+     * compra confirmó después. Las sumas conmutan, así que el índice termina igual que la BD.
+     */
+    public void ajustarStock(Map<Integer, Integer> variacionPorProducto) {
+        if (variacionPorProducto == null || variacionPorProducto.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> copia = new HashMap<>(variacionPorProducto);
+        alConfirmar(() -> aplicarAjusteStock(copia));
+    }
+
+    /**
+     * Actualiza la clave de categoría de los productos afectados cuando se renombra una categoría
+     */
+    public void renombrarCategoria(Integer idCategoria, String nuevoNombre) {
+        if (idCategoria == null) {
+            return;
+        }
+        String clave = normalizar(nuevoNombre);
+        alConfirmar(() -> {
+            Estructuras ix = estructuras;
+            Set<Integer> ids = ix.porCategoria().getOrDefault(idCategoria, Collections.emptySet());
+            for (Integer id : new ArrayList<>(ids)) {
+                EntradaCatalogo e = ix.entradas().get(id);
+                if (e != null) {
+                    aplicar(new EntradaCatalogo(e.idProducto(), e.idCategoria(), e.nombre(), e.descripcion(),
+                            e.ciudad(), e.departamento(), e.productor(), clave, e.precio(), e.tienePrecio(),
+                            e.stock(), e.organicoBPA()));
+                }
+            }
+        });
+    }
+
+    public boolean estaCargado() {
+        return cargado;
+    }
+
+    public int tamanio() {
+        return estructuras.entradas().size();
+    }
+
+    /**
+     * Stock del producto según el índice (se actualiza al confirmar cada transacción), o null si no está indexado
+     */
+    public Integer stockDe(Integer idProducto) {
+        EntradaCatalogo e = idProducto != null ? estructuras.entradas().get(idProducto) : null;
+        return e != null ? e.stock() : null;
+    }
+
+    /**
+     * Categoría del producto según el índice, o null si el producto no está en el catálogo
+     */
+    public Integer categoriaDe(Integer idProducto) {
+        EntradaCatalogo e = idProducto != null ? estructuras.entradas().get(idProducto) : null;
+        return e != null ? e.idCategoria() : null;
+    }
+
+    /**
+     * Copia de las entradas del catálogo (para los procesos que recorren todo el catálogo en segundo plano)
+     */
+    public List<EntradaCatalogo> entradasCatalogo() {
+        return new ArrayList<>(estructuras.entradas().values());
+    }
+
+    /**
+     * Hasta maximo ids de productos de la categoría, sin copiar la lista completa
+     */
+    public List<Integer> productosDeCategoria(Integer idCategoria, int maximo) {
+        List<Integer> ids = new ArrayList<>(Math.max(maximo, 0));
+        if (idCategoria == null) {
+            return ids;
+        }
+        for (Integer id : estructuras.porCategoria().getOrDefault(idCategoria, Collections.emptySet())) {
+            if (ids.size() >= maximo) {
+                break;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private void alConfirmar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+
+    private synchronized void aplicar(EntradaCatalogo entrada) {
+        Estructuras ix = estructuras;
+        EntradaCatalogo anterior = ix.entradas().put(entrada.idProducto(), entrada);
+        if (anterior != null) {
+            quitarPostings(ix, anterior);
+        }
+        agregarPostings(ix, entrada);
+        buscadorProductosService.indexar(entrada);
+        if (anterior == null || anterior.precio() != entrada.precio() || anterior.tienePrecio() != entrada.tienePrecio()) {
+            moverEnOrdenPrecio(anterior, entrada);
+        }
+    }
+
+    private synchronized void aplicarAjusteStock(Map<Integer, Integer> variacionPorProducto) {
+        // El stock no forma parte de los postings ni del texto indexado: basta con reemplazar la entrada
+        Map<Integer, EntradaCatalogo> entradas = estructuras.entradas();
+        variacionPorProducto.forEach((id, variacion) -> entradas.computeIfPresent(id, (k, e) ->
+                new EntradaCatalogo(e.idProducto(), e.idCategoria(), e.nombre(), e.descripcion(),
+                        e.ciudad(), e.departamento(), e.productor(), e.categoria(), e.precio(), e.tienePrecio(),
+                        Math.max(0, e.stock() + variacion), e.organicoBPA())));
+    }
+
+    private synchronized void eliminarEntrada(Integer idProducto) {
+        Estructuras ix = estructuras;
+        EntradaCatalogo anterior = ix.entradas().remove(idProducto);
+        if (anterior != null) {
+            quitarPostings(ix, anterior);
+            buscadorProductosService.quitar(idProducto);
+            if (anterior.tienePrecio()) {
+                moverEnOrdenPrecio(anterior, null);
+            }
+        }
+    }
+
+    private static void agregarPostings(Estructuras ix, EntradaCatalogo e) {
+        if (e.idCategoria() != null) {
+            ix.porCategoria().computeIfAbsent(e.idCategoria(), k -> ConcurrentHashMap.newKeySet()).add(e.idProducto());
+        }
+        if (!e.ciudad().isEmpty()) {
+            ix.porCiudad().computeIfAbsent(e.ciudad(), k -> ConcurrentHashMap.newKeySet()).add(e.idProducto());
+        }
+        if (!e.departamento().isEmpty()) {
+            ix.porDepartamento().computeIfAbsent(e.departamento(), k -> ConcurrentHashMap.newKeySet()).add(e.idProducto());
+        }
+    }
+
+    private static void quitarPostings(Estructuras ix, EntradaCatalogo e) {
+        quitarDe(ix.porCategoria(), e.idCategoria(), e.idProducto());
+        quitarDe(ix.porCiudad(), e.ciudad(), e.idProducto());
+        quitarDe(ix.porDepartamento(), e.departamento(), e.idProducto());
+    }
+
+    private static <K> void quitarDe(Map<K, Set<Integer>> postings, K clave, Integer idProducto) {
+        if (clave == null) return;
+        Set<Integer> ids = postings.get(clave);
+        if (ids != null) {
+            ids.remove(idProducto);
+            if (ids.isEmpty()) {
+                postings.remove(clave);
+            }
+        }
+    }
+
+    private static OrdenPrecio ordenarPorPrecio(Collection<EntradaCatalogo> entradas) {
+        List<EntradaCatalogo> conPrecio = new ArrayList<>();
+        for (EntradaCatalogo e : entradas) {
+            if (e.tienePrecio()) conPrecio.add(e);
+        }
+        conPrecio.sort(Comparator.comparingDouble(EntradaCatalogo::precio).thenComparing(EntradaCatalogo::idProducto));
+
+        int[] ids = new int[conPrecio.size()];
+        double[] precios = new double[conPrecio.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = conPrecio.get(i).idProducto();
+            precios[i] = conPrecio.get(i).precio();
+        }
+        return new OrdenPrecio(ids, precios);
+    }
+
+    /**
+     * Quita la posición anterior del producto (si tenía precio) e inserta la nueva (si tiene precio),
+     * ubicando ambas con búsqueda binaria: un cambio cuesta una copia del arreglo, no un reordenamiento.
+     * nueva null quita el producto.
+     */
+    private void moverEnOrdenPrecio(EntradaCatalogo anterior, EntradaCatalogo nueva) {
+        OrdenPrecio orden = ordenPrecio;
+        int[] ids = orden.ids();
+        double[] precios = orden.precios();
+        int n = ids.length;
+
+        int quitar = -1;
+        if (anterior != null && anterior.tienePrecio()) {
+            int pos = posicionEnOrden(ids, precios, n, anterior.precio(), anterior.idProducto());
+            if (pos < n && ids[pos] == anterior.idProducto()) {
+                quitar = pos;
+            }
+        }
+        int[] sinAnterior = ids;
+        double[] preciosSinAnterior = precios;
+        if (quitar >= 0) {
+            sinAnterior = new int[n - 1];
+            preciosSinAnterior = new double[n - 1];
+            System.arraycopy(ids, 0, sinAnterior, 0, quitar);
+            System.arraycopy(ids, quitar + 1, sinAnterior, quitar, n - quitar - 1);
+            System.arraycopy(precios, 0, preciosSinAnterior, 0, quitar);
+            System.arraycopy(precios, quitar + 1, preciosSinAnterior, quitar, n - quitar - 1);
+            n--;
+        }
+        if (nueva == null || !nueva.tienePrecio()) {
+            ordenPrecio = new OrdenPrecio(sinAnterior, preciosSinAnterior);
+            return;
+        }
+
+        int pos = posicionEnOrden(sinAnterior, preciosSinAnterior, n, nueva.precio(), nueva.idProducto());
+        int[] nuevosIds = new int[n + 1];
+        double[] nuevosPrecios = new double[n + 1];
+        System.arraycopy(sinAnterior, 0, nuevosIds, 0, pos);
+        System.arraycopy(sinAnterior, pos, nuevosIds, pos + 1, n - pos);
+        System.arraycopy(preciosSinAnterior, 0, nuevosPrecios, 0, pos);
+        System.arraycopy(preciosSinAnterior, pos, nuevosPrecios, pos + 1, n - pos);
+        nuevosIds[pos] = nueva.idProducto();
+        nuevosPrecios[pos] = nueva.precio();
+        ordenPrecio = new OrdenPrecio(nuevosIds, nuevosPrecios);
+    }
+
+    /**
+     * Primera posición cuyo par (precio, id) es mayor o igual al indicado
+     */
+    private static int posicionEnOrden(int[] ids, double[] precios, int n, double precio, int idProducto) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Double.compare(precios[mid], precio);
+            if (cmp < 0 || (cmp == 0 && ids[mid] < idProducto)) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private EntradaCatalogo crearEntrada(Producto p) {
+        String ciudad = "";
+        String departamento = "";
+        String productor = "";
+        if (p.getProductor() != null && p.getProductor().getUsuario() != null) {
+            Usuario u = p.getProductor().getUsuario();
+            ciudad = normalizar(u.getCiudad());
+            departamento = normalizar(u.getDepartamento());
+            productor = normalizar(u.getNombre());
+        }
+        String descripcion = normalizar(p.getDescripcionProducto());
+        boolean organicoBPA = descripcion.contains("organico")
+                || descripcion.contains("bpa")
+                || descripcion.contains("certificado");
+
+        return new EntradaCatalogo(
+                p.getIdProducto(),
+                p.getCategoria() != null ? p.getCategoria().getIdCategoria() : null,
+                normalizar(p.getNombreProducto()),
+                descripcion,
+                ciudad,
+                departamento,
+                productor,
+                p.getCategoria() != null ? normalizar(p.getCategoria().getNombreCategoria()) : "",
+                p.getPrecio() != null ? p.getPrecio().doubleValue() : 0.0,
+                p.getPrecio() != null,
+                p.getStock() != null ? p.getStock() : 0,
+                organicoBPA
+        );
+    }
+
+    // ==================== CONSULTAS ====================
+
+    /**
+     * Devuelve los ids de los productos que cumplen todos los filtros, ordenados por id.
+     *
+     * Se arranca por el criterio más selectivo disponible (categoría, ubicación, rango de precio o
+     * calificación mínima) y el resto de condiciones se verifican sobre las entradas precalculadas de
+     * esos candidatos. La calificación es el promedio bayesiano que mantiene ResenaService; los
+     * productos sin reseñas no cumplen ninguna calificación mínima.
+     */
+    public List<Integer> filtrar(String busqueda, Integer categoriaId, String ubicacion,
+                                 Double precioMin, Double precioMax,
+                                 Boolean soloDisponibles, Boolean organicosBPA, Double calificacionMin) {
+        String termino = (busqueda != null && !busqueda.trim().isEmpty()) ? normalizar(busqueda) : null;
+        String lugar = (ubicacion != null && !ubicacion.trim().isEmpty()) ? normalizar(ubicacion) : null;
+        boolean filtraPrecio = precioMin != null || precioMax != null;
+        Estructuras ix = estructuras;
+
+        // Reunir las fuentes de candidatos disponibles y quedarse con la más pequeña
+        Collection<Integer> candidatos = null;
+
+        if (categoriaId != null) {
+            candidatos = ix.porCategoria().getOrDefault(categoriaId, Collections.emptySet());
+        }
+        if (lugar != null) {
+            Set<Integer> porLugar = idsPorUbicacion(ix, lugar);
+            if (candidatos == null || porLugar.size() < candidatos.size()) {
+                candidatos = porLugar;
+            }
+        }
+        if (filtraPrecio) {
+            List<Integer> enRango = idsEnRangoDePrecio(precioMin, precioMax);
+            if (candidatos == null || enRango.size() < candidatos.size()) {
+                candidatos = enRango;
+            }
+        }
+        if (calificacionMin != null) {
+            List<Integer> calificados = resenaService.productosConPuntajeMinimo(calificacionMin);
+            if (candidatos == null || calificados.size() < candidatos.size()) {
+                candidatos = calificados;
+            }
+        }
+        if (candidatos == null) {
+            candidatos = ix.entradas().keySet();
+        }
+
+        List<Integer> resultado = new ArrayList<>();
+        for (Integer id : candidatos) {
+            EntradaCatalogo e = ix.entradas().get(id);
+            if (e == null) continue;
+
+            if (categoriaId != null && !categoriaId.equals(e.idCategoria())) continue;
+            if (lugar != null && !e.ciudad().contains(lugar) && !e.departamento().contains(lugar)) continue;
+            if (precioMin != null && (!e.tienePrecio() || e.precio() < precioMin)) continue;
+            if (precioMax != null && (!e.tienePrecio() || e.precio() > precioMax)) continue;
+            if (Boolean.TRUE.equals(soloDisponibles) && e.stock() <= 0) continue;
+            if (Boolean.TRUE.equals(organicosBPA) && !e.organicoBPA()) continue;
+            if (termino != null && !e.nombre().contains(termino) && !e.descripcion().contains(termino)) continue;
+            if (calificacionMin != null && !cumpleCalificacion(id, calificacionMin)) continue;
+
+            resultado.add(id);
+        }
+        Collections.sort(resultado);
+        return resultado;
+    }
+
+    private boolean cumpleCalificacion(Integer idProducto, double minimo) {
+        Double puntaje = resenaService.puntajeDe(idProducto);
+        return puntaje != null && puntaje >= minimo;
+    }
+
+    /**
+     * Productos cuya ciudad o departamento (normalizados) contienen el texto buscado.
+     * Se recorren las claves de las listas invertidas (pocas ciudades) y no los productos.
+     */
+    private static Set<Integer> idsPorUbicacion(Estructuras ix, String lugar) {
+        Set<Integer> ids = new HashSet<>();
+        ix.porCiudad().forEach((ciudad, postings) -> {
+            if (ciudad.contains(lugar)) ids.addAll(postings);
+        });
+        ix.porDepartamento().forEach((departamento, postings) -> {
+            if (departamento.contains(lugar)) ids.addAll(postings);
+        });
+        return ids;
+    }
+
+    /**
+     * Rango contiguo del arreglo ordenado por precio, ubicado con búsqueda binaria
+     */
+    private List<Integer> idsEnRangoDePrecio(Double precioMin, Double precioMax) {
+        OrdenPrecio orden = ordenPrecio;
+        int[] ids = orden.ids();
+        double[] precios = orden.precios();
+        int n = ids.length;
+
+        int desde = precioMin != null ? primeraPosicionMayorOIgual(precios, n, precioMin) : 0;
+        int hasta = precioMax != null ? primeraPosicionMayor(precios, n, precioMax) : n;
+
+        List<Integer> enRango = new ArrayList<>(Math.max(0, hasta - desde));
+        for (int i = desde; i < hasta; i++) {
+            enRango.add(ids[i]);
+        }
+        return enRango;
+    }
+
+    private static int primeraPosicionMayorOIgual(double[] precios, int n, double valor) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (precios[mid] < valor) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int primeraPosicionMayor(double[] precios, int n, double valor) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (precios[mid] <= valor) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static String normalizar(String texto) {
+        return NormalizadorTexto.normalizar(texto);
+    }
+}
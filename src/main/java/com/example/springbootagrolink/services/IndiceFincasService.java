@@ -0,0 +1,373 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Finca;
+import com.example.springbootagrolink.repository.FincaRepository;
+import com.example.springbootagrolink.repository.ProductoFincaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice espacial en memoria de las fincas, para elegir como origen de un envío la finca más cercana
+ * al destino entre las que cultivan el producto.
+ *
+ * Las fincas con coordenadas se guardan en un árbol k-d de 3 dimensiones sobre vectores unitarios de la
+ * esfera: la distancia euclidiana entre esos vectores (la cuerda) crece igual que la distancia sobre la
+ * superficie, así que el vecino más cercano del árbol es también el más cercano en kilómetros y no hay
+ * que proyectar ni preocuparse por la curvatura. La búsqueda descarta ramas completas y suele visitar
+ * O(log n) nodos. Si el producto está en pocas fincas se revisan directamente.
+ *
+ * Se carga al arrancar y se mantiene al día desde FincaService y ProductoFincaService cuando la
+ * transacción confirma. El árbol es inmutable y se reemplaza completo en cada cambio de fincas
+ * (pocas escrituras, muchas lecturas).
+ */
+@Service
+public class IndiceFincasService {
+
+    private static final Logger log = LoggerFactory.getLogger(IndiceFincasService.class);
+
+    private static final double RADIO_TIERRA_KM = 6371;
+    // Con hasta este número de fincas candidatas se comparan todas en vez de recorrer el árbol
+    private static final int UMBRAL_ESCANEO_DIRECTO = 16;
+
+    @Autowired
+    private FincaRepository fincaRepository;
+
+    @Autowired
+    private ProductoFincaRepository productoFincaRepository;
+
+    /**
+     * Finca con coordenadas tal como la necesita el cálculo de envíos
+     */
+    public record PuntoFinca(Integer idFinca, double latitud, double longitud, String direccion) {
+    }
+
+    /**
+     * Resultado de una búsqueda: la finca y su distancia en línea recta (km) al punto consultado
+     */
+    public record FincaCercana(PuntoFinca finca, double distanciaKm) {
+    }
+
+    // Árbol k-d implícito: el nodo de [lo, hi) está en (lo + hi) / 2 y divide por el eje profundidad % 3
+    private record Arbol(PuntoFinca[] puntos, double[] x, double[] y, double[] z) {
+        static final Arbol VACIO = new Arbol(new PuntoFinca[0], new double[0], new double[0], new double[0]);
+    }
+
+    private final Map<Integer, PuntoFinca> fincas = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> fincasPorProducto = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> productosPorFinca = new ConcurrentHashMap<>();
+
+    private volatile Arbol arbol = Arbol.VACIO;
+
+    // ==================== CARGA Y ACTUALIZACIÓN ====================
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void cargarAlIniciar() {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            log.error("No se pudo construir el índice de fincas: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reconstruye el índice completo (fincas y asociaciones producto-finca) desde la base de datos
+     */
+    @Transactional(readOnly = true)
+    public synchronized void reconstruir() {
+        fincas.clear();
+        fincasPorProducto.clear();
+        productosPorFinca.clear();
+
+        for (Finca finca : fincaRepository.findAll()) {
+            PuntoFinca punto = crearPunto(finca);
+            if (punto != null) {
+                fincas.put(punto.idFinca(), punto);
+            }
+        }
+        for (Object[] par : productoFincaRepository.findParesProductoFinca()) {
+            agregarAsociacion((Integer) par[0], (Integer) par[1]);
+        }
+        reconstruirArbol();
+
+        log.info("Índice de fincas construido con {} fincas georreferenciadas", fincas.size());
+    }
+
+    /**
+     * Registra o actualiza la ubicación de una finca (al confirmar la transacción si existe una)
+     */
+    public void registrarFinca(Finca finca) {
+        if (finca == null || finca.getIdFinca() == null) {
+            return;
+        }
+        Integer idFinca = finca.getIdFinca();
+        PuntoFinca punto = crearPunto(finca);
+        alConfirmar(() -> aplicarFinca(idFinca, punto));
+    }
+
+    /**
+     * Quita una finca y sus asociaciones (la BD las borra en cascada)
+     */
+    public void quitarFinca(Integer idFinca) {
+        if (idFinca == null) {
+            return;
+        }
+        alConfirmar(() -> {
+            Set<Integer> productos = productosPorFinca.remove(idFinca);
+            if (productos != null) {
+                for (Integer idProducto : productos) {
+                    quitarDeConjunto(fincasPorProducto, idProducto, idFinca);
+                }
+            }
+            aplicarFinca(idFinca, null);
+        });
+    }
+
+    public void asociar(Integer idProducto, Integer idFinca) {
+        if (idProducto == null || idFinca == null) {
+            return;
+        }
+        alConfirmar(() -> agregarAsociacion(idProducto, idFinca));
+    }
+
+    public void desasociar(Integer idProducto, Integer idFinca) {
+        if (idProducto == null || idFinca == null) {
+            return;
+        }
+        alConfirmar(() -> {
+            quitarDeConjunto(fincasPorProducto, idProducto, idFinca);
+            quitarDeConjunto(productosPorFinca, idFinca, idProducto);
+        });
+    }
+
+    /**
+     * Quita las asociaciones de un producto eliminado
+     */
+    public void quitarProducto(Integer idProducto) {
+        if (idProducto == null) {
+            return;
+        }
+        alConfirmar(() -> {
+            Set<Integer> ids = fincasPorProducto.remove(idProducto);
+            if (ids != null) {
+                for (Integer idFinca : ids) {
+                    quitarDeConjunto(productosPorFinca, idFinca, idProducto);
+                }
+            }
+        });
+    }
+
+    // ==================== CONSULTAS ====================
+
+    /**
+     * Finca georreferenciada más cercana al punto que cultiva el producto; vacío si ninguna tiene coordenadas
+     */
+    public Optional<FincaCercana> buscarMasCercana(Integer idProducto, double latitud, double longitud) {
+        Set<Integer> candidatas = idProducto != null ? fincasPorProducto.get(idProducto) : null;
+        if (candidatas == null || candidatas.isEmpty()) {
+            return Optional.empty();
+        }
+        double[] q = vectorUnitario(latitud, longitud);
+
+        PuntoFinca mejor = null;
+        double mejorCuerda2 = Double.POSITIVE_INFINITY;
+
+        if (candidatas.size() <= UMBRAL_ESCANEO_DIRECTO) {
+            for (Integer idFinca : candidatas) {
+                PuntoFinca punto = fincas.get(idFinca);
+                if (punto == null) {
+                    continue;
+                }
+                double[] p = vectorUnitario(punto.latitud(), punto.longitud());
+                double d2 = cuadrado(p[0] - q[0]) + cuadrado(p[1] - q[1]) + cuadrado(p[2] - q[2]);
+                if (d2 < mejorCuerda2) {
+                    mejorCuerda2 = d2;
+                    mejor = punto;
+                }
+            }
+        } else {
+            Busqueda busqueda = new Busqueda(arbol, q, candidatas);
+            busqueda.recorrer(0, busqueda.arbol.puntos().length, 0);
+            mejor = busqueda.mejor;
+            mejorCuerda2 = busqueda.mejorCuerda2;
+        }
+
+        if (mejor == null) {
+            return Optional.empty();
+        }
+        // cuerda -> ángulo central -> km
+        double angulo = 2 * Math.asin(Math.min(1.0, Math.sqrt(mejorCuerda2) / 2));
+        return Optional.of(new FincaCercana(mejor, RADIO_TIERRA_KM * angulo));
+    }
+
+    public int tamanio() {
+        return fincas.size();
+    }
+
+    /**
+     * Búsqueda del vecino más cercano que además cumple el filtro (finca que cultiva el producto)
+     */
+    private static final class Busqueda {
+        private final Arbol arbol;
+        private final double[] q;
+        private final Set<Integer> permitidas;
+        private PuntoFinca mejor;
+        private double mejorCuerda2 = Double.POSITIVE_INFINITY;
+
+        Busqueda(Arbol arbol, double[] q, Set<Integer> permitidas) {
+            this.arbol = arbol;
+            this.q = q;
+            this.permitidas = permitidas;
+        }
+
+        void recorrer(int lo, int hi, int profundidad) {
+            if (lo >= hi) {
+                return;
+            }
+            int medio = (lo + hi) >>> 1;
+            double dx = q[0] - arbol.x()[medio];
+            double dy = q[1] - arbol.y()[medio];
+            double dz = q[2] - arbol.z()[medio];
+            PuntoFinca punto = arbol.puntos()[medio];
+            if (permitidas.contains(punto.idFinca())) {
+                double d2 = dx * dx + dy * dy + dz * dz;
+                if (d2 < mejorCuerda2) {
+                    mejorCuerda2 = d2;
+                    mejor = punto;
+                }
+            }
+            double diferencia = switch (profundidad % 3) {
+                case 0 -> dx;
+                case 1 -> dy;
+                default -> dz;
+            };
+            // Primero el lado del punto consultado; el otro solo si el plano está más cerca que el mejor
+            if (diferencia < 0) {
+                recorrer(lo, medio, profundidad + 1);
+                if (diferencia * diferencia < mejorCuerda2) {
+                    recorrer(medio + 1, hi, profundidad + 1);
+                }
+            } else {
+                recorrer(medio + 1, hi, profundidad + 1);
+                if (diferencia * diferencia < mejorCuerda2) {
+                    recorrer(lo, medio, profundidad + 1);
+                }
+            }
+        }
+    }
+
+    // ==================== INTERNOS ====================
+
+    private void alConfirmar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+
+    private synchronized void aplicarFinca(Integer idFinca, PuntoFinca punto) {
+        PuntoFinca anterior = punto != null ? fincas.put(idFinca, punto) : fincas.remove(idFinca);
+        if (anterior == null && punto == null) {
+            return;
+        }
+        if (anterior == null || punto == null
+                || anterior.latitud() != punto.latitud() || anterior.longitud() != punto.longitud()) {
+            reconstruirArbol();
+        } else {
+            // Solo cambió la dirección: se publica una copia con el punto reemplazado, sin reordenar;
+            // las búsquedas en curso siguen con el árbol anterior
+            Arbol actual = arbol;
+            PuntoFinca[] puntos = actual.puntos().clone();
+            for (int i = 0; i < puntos.length; i++) {
+                if (puntos[i].idFinca().equals(idFinca)) {
+                    puntos[i] = punto;
+                    break;
+                }
+            }
+            arbol = new Arbol(puntos, actual.x(), actual.y(), actual.z());
+        }
+    }
+
+    private void agregarAsociacion(Integer idProducto, Integer idFinca) {
+        fincasPorProducto.computeIfAbsent(idProducto, k -> ConcurrentHashMap.newKeySet()).add(idFinca);
+        productosPorFinca.computeIfAbsent(idFinca, k -> ConcurrentHashMap.newKeySet()).add(idProducto);
+    }
+
+    private static void quitarDeConjunto(Map<Integer, Set<Integer>> mapa, Integer clave, Integer valor) {
+        mapa.computeIfPresent(clave, (k, conjunto) -> {
+            conjunto.remove(valor);
+            return conjunto.isEmpty() ? null : conjunto;
+        });
+    }
+
+    private synchronized void reconstruirArbol() {
+        PuntoFinca[] puntos = fincas.values().toArray(new PuntoFinca[0]);
+        Map<Integer, double[]> vectores = new HashMap<>(puntos.length * 2);
+        for (PuntoFinca p : puntos) {
+            vectores.put(p.idFinca(), vectorUnitario(p.latitud(), p.longitud()));
+        }
+        construir(puntos, vectores, 0, puntos.length, 0);
+
+        double[] x = new double[puntos.length];
+        double[] y = new double[puntos.length];
+        double[] z = new double[puntos.length];
+        for (int i = 0; i < puntos.length; i++) {
+            double[] v = vectores.get(puntos[i].idFinca());
+            x[i] = v[0];
+            y[i] = v[1];
+            z[i] = v[2];
+        }
+        arbol = new Arbol(puntos, x, y, z);
+    }
+
+    // Ordena [lo, hi) por el eje del nivel y deja la mediana en el centro; luego cada mitad
+    private static void construir(PuntoFinca[] puntos, Map<Integer, double[]> vectores, int lo, int hi, int profundidad) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int eje = profundidad % 3;
+        Arrays.sort(puntos, lo, hi, Comparator.comparingDouble(p -> vectores.get(p.idFinca())[eje]));
+        int medio = (lo + hi) >>> 1;
+        construir(puntos, vectores, lo, medio, profundidad + 1);
+        construir(puntos, vectores, medio + 1, hi, profundidad + 1);
+    }
+
+    private static PuntoFinca crearPunto(Finca finca) {
+        if (finca.getLatitud() == null || finca.getLongitud() == null) {
+            return null;
+        }
+        return new PuntoFinca(finca.getIdFinca(), finca.getLatitud(), finca.getLongitud(), finca.getDireccionFinca());
+    }
+
+    private static double[] vectorUnitario(double latitud, double longitud) {
+        double lat = Math.toRadians(latitud);
+        double lon = Math.toRadians(longitud);
+        double cosLat = Math.cos(lat);
+        return new double[]{cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat)};
+    }
+
+    private static double cuadrado(double v) {
+        return v * v;
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.OfertaEnvio;
+import com.example.springbootagrolink.model.Vehiculo;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.VehiculoRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mercado de envíos: mantiene en memoria los envíos abiertos (Buscando_Transporte, sin transportista
+ * y con el cálculo completo) y se los ofrece a cada transportista ordenados por cercanía y capacidad.
+ *
+ * Los transportistas se suscriben por Server-Sent Events; cada vez que un envío se abre, se acepta o
+ * cambia, el servicio (tras confirmar la transacción) refresca solo ese envío y empuja la lista nueva
+ * a los suscriptores. Los empujes se agrupan en ventanas de 200 ms para que una ráfaga de cambios
+ * (una compra repartida en varios envíos) llegue como un solo mensaje.
+ *
+ * Puntaje de una oferta (menor es mejor): km desde la última posición conocida del transportista
+ * hasta el origen del envío, más hasta BONO_CAPACIDAD_KM según cuánta capacidad del vehículo quedaría
+ * sin usar. Las ofertas más pesadas que el vehículo más grande del transportista no se le muestran.
+ *
+ * Todas las escrituras del mapa de ofertas y los envíos a los suscriptores se hacen en un único hilo,
+ * así un refresco y una recarga completa nunca se pisan. La recarga periódica corrige los cambios que
+ * no pasan por los servicios (por ejemplo, ediciones directas en la BD).
+ */
+@Service
+public class MercadoEnviosService {
+
+    private static final Logger log = LoggerFactory.getLogger(MercadoEnviosService.class);
+
+    private static final long TIMEOUT_SUSCRIPCION_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long VENTANA_EMPUJE_MS = 200;
+    // Cuánto pesa (en km equivalentes) dejar vacío todo el vehículo
+    private static final double BONO_CAPACIDAD_KM = 20.0;
+    // Distancia asumida para envíos sin coordenadas de origen cuando sí se conoce la posición
+    private static final double DISTANCIA_DESCONOCIDA_KM = 500.0;
+
+    @Autowired
+    private EnvioRepository envioRepository;
+
+    @Autowired
+    private VehiculoRepository vehiculoRepository;
+
+    @Autowired
+    private CostoEnvioService costoEnvioService;
+
+    public record Posicion(double latitud, double longitud) {
+    }
+
+    /**
+     * Oferta tal como la recibe un transportista; mantiene los campos de /transportista/envios-api
+     * y añade la distancia hasta la recogida y el puntaje con el que se ordenó
+     */
+    public record OfertaTransportista(
+            Integer idEnvio,
+            String direccionOrigen,
+            String direccionDestino,
+            Double distanciaKm,
+            Double pesoTotalKg,
+            BigDecimal costoTotal,
+            String estadoEnvio,
+            String cliente,
+            Double distanciaRecogidaKm,
+            double puntaje
+    ) {
+    }
+
+    private record Suscriptor(Integer idTransportista, SseEmitter emisor) {
+    }
+
+    private final Map<Integer, OfertaEnvio> ofertas = new ConcurrentHashMap<>();
+    private final Map<Integer, Posicion> posiciones = new ConcurrentHashMap<>();
+    // Capacidad (kg) del vehículo más grande de cada transportista; infinita si no tiene vehículos
+    private final Map<Integer, Double> capacidades = new ConcurrentHashMap<>();
+    private final Set<Suscriptor> suscriptores = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "mercado-envios");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+    private final AtomicBoolean empujeProgramado = new AtomicBoolean();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlIniciar() {
+        ejecutar(() -> {
+            recargar();
+            log.info("✓ Mercado de envíos cargado: {} envío(s) abierto(s)", ofertas.size());
+        });
+    }
+
+    /**
+     * Recarga completa desde la BD para recoger cambios que no pasaron por los servicios
+     */
+    @Scheduled(fixedDelay = 300_000, initialDelay = 300_000)
+    public void reconciliar() {
+        ejecutar(this::recargar);
+    }
+
+    /**
+     * Mantiene vivas las conexiones SSE (los proxies cortan las inactivas) y descarta las cerradas
+     */
+    @Scheduled(fixedDelay = 25_000, initialDelay = 25_000)
+    public void latido() {
+        if (suscriptores.isEmpty()) {
+            return;
+        }
+        ejecutar(() -> {
+            for (Suscriptor s : suscriptores) {
+                try {
+                    s.emisor().send(SseEmitter.event().comment("latido"));
+                } catch (IOException | IllegalStateException e) {
+                    suscriptores.remove(s);
+                }
+            }
+        });
+    }
+
+    /**
+     * Vuelve a leer el envío (tras confirmar la transacción) y lo publica o lo retira del mercado
+     * según su estado. Se llama después de crear, calcular o modificar un envío.
+     */
+    public void sincronizar(Integer idEnvio) {
+        if (idEnvio == null) {
+            return;
+        }
+        alConfirmar(() -> ejecutar(() -> {
+            OfertaEnvio oferta = envioRepository.findOfertaAbierta(idEnvio,
+                    Envio.EstadoEnvio.Buscando_Transporte, Envio.EstadoCalculo.COMPLETO).orElse(null);
+            OfertaEnvio anterior = oferta != null ? ofertas.put(idEnvio, oferta) : ofertas.remove(idEnvio);
+            if (oferta != null ? !oferta.equals(anterior) : anterior != null) {
+                programarEmpuje();
+            }
+        }));
+    }
+
+    /**
+     * Retira el envío del mercado sin consultar la BD (aceptado o eliminado)
+     */
+    public void retirar(Integer idEnvio) {
+        if (idEnvio == null) {
+            return;
+        }
+        alConfirmar(() -> ejecutar(() -> {
+            if (ofertas.remove(idEnvio) != null) {
+                programarEmpuje();
+            }
+        }));
+    }
+
+    /**
+     * Abre la suscripción SSE de un transportista. Recibe de inmediato sus ofertas actuales
+     * (evento "ofertas") y después una lista nueva cada vez que el mercado cambia.
+     */
+    public SseEmitter suscribir(Integer idTransportista, Double latitud, Double longitud) {
+        if (coordenadasValidas(latitud, longitud)) {
+            posiciones.put(idTransportista, new Posicion(latitud, longitud));
+        }
+        // Al suscribirse se vuelve a leer la capacidad por si cambió su flota
+        capacidades.remove(idTransportista);
+        capacidad(idTransportista);
+
+        SseEmitter emisor = new SseEmitter(TIMEOUT_SUSCRIPCION_MS);
+        Suscriptor suscriptor = new Suscriptor(idTransportista, emisor);
+        emisor.onCompletion(() -> suscriptores.remove(suscriptor));
+        emisor.onTimeout(() -> suscriptores.remove(suscriptor));
+        emisor.onError(e -> suscriptores.remove(suscriptor));
+        suscriptores.add(suscriptor);
+
+        ejecutar(() -> enviar(suscriptor, ofertasPara(idTransportista)));
+        log.info("▶ Transportista {} suscrito al mercado de envíos ({} conexión(es))", idTransportista, suscriptores.size());
+        return emisor;
+    }
+
+    /**
+     * Registra la posición actual del transportista y le reenvía sus ofertas reordenadas
+     *
+     * @throws IllegalArgumentException si las coordenadas no son válidas
+     */
+    public void actualizarPosicion(Integer idTransportista, Double latitud, Double longitud) {
+        if (!coordenadasValidas(latitud, longitud)) {
+            throw new IllegalArgumentException("Coordenadas inválidas");
+        }
+        posiciones.put(idTransportista, new Posicion(latitud, longitud));
+        ejecutar(() -> {
+            List<OfertaTransportista> lista = null;
+            for (Suscriptor s : suscriptores) {
+                if (s.idTransportista().equals(idTransportista)) {
+                    if (lista == null) {
+                        lista = ofertasPara(idTransportista);
+                    }
+                    enviar(s, lista);
+                }
+            }
+        });
+    }
+
+    /**
+     * La flota del transportista cambió: su capacidad se vuelve a leer en la siguiente consulta
+     */
+    public void olvidarCapacidad(Integer idTransportista) {
+        if (idTransportista != null) {
+            capacidades.remove(idTransportista);
+        }
+    }
+
+    /**
+     * Ofertas abiertas para el transportista, de la más conveniente a la menos conveniente
+     */
+    public List<OfertaTransportista> ofertasPara(Integer idTransportista) {
+        Posicion posicion = posiciones.get(idTransportista);
+        double capacidad = capacidad(idTransportista);
+
+        List<OfertaTransportista> lista = new ArrayList<>(ofertas.size());
+        for (OfertaEnvio o : ofertas.values()) {
+            double peso = o.pesoTotalKg() != null ? o.pesoTotalKg() : 0.0;
+            if (peso > capacidad) {
+                continue;
+            }
+            Double recogidaKm = null;
+            double distancia = 0.0;
+            if (posicion != null) {
+                if (o.latitudOrigen() != null && o.longitudOrigen() != null) {
+                    recogidaKm = costoEnvioService.calcularDistanciaHaversine(
+                            posicion.latitud(), posicion.longitud(), o.latitudOrigen(), o.longitudOrigen());
+                    distancia = recogidaKm;
+                } else {
+                    distancia = DISTANCIA_DESCONOCIDA_KM;
+                }
+            }
+            double holgura = Double.isInfinite(capacidad) || capacidad <= 0 ? 0.0 : 1.0 - peso / capacidad;
+            double puntaje = distancia + BONO_CAPACIDAD_KM * holgura;
+
+            lista.add(new OfertaTransportista(
+                    o.idEnvio(),
+                    o.direccionOrigen() != null ? o.direccionOrigen() : "N/A",
+                    o.direccionDestino() != null ? o.direccionDestino() : "N/A",
+                    o.distanciaKm() != null ? o.distanciaKm() : 0.0,
+                    peso,
+                    o.costoTotal() != null ? o.costoTotal() : BigDecimal.ZERO,
+                    Envio.EstadoEnvio.Buscando_Transporte.name(),
+                    o.cliente(),
+                    recogidaKm != null ? redondear(recogidaKm) : null,
+                    redondear(puntaje)));
+        }
+        lista.sort(Comparator.comparingDouble(OfertaTransportista::puntaje)
+                .thenComparing(OfertaTransportista::idEnvio, Comparator.reverseOrder()));
+        return lista;
+    }
+
+    public int cantidadAbiertas() {
+        return ofertas.size();
+    }
+
+    // ----------------------------------------------------------------------------------------------
+
+    private void recargar() {
+        Map<Integer, OfertaEnvio> nuevas = new HashMap<>();
+        for (OfertaEnvio o : envioRepository.findOfertasAbiertas(
+                Envio.EstadoEnvio.Buscando_Transporte, Envio.EstadoCalculo.COMPLETO)) {
+            nuevas.put(o.idEnvio(), o);
+        }
+        if (nuevas.equals(ofertas)) {
+            return;
+        }
+        ofertas.keySet().retainAll(nuevas.keySet());
+        ofertas.putAll(nuevas);
+        programarEmpuje();
+    }
+
+    private void programarEmpuje() {
+        if (!empujeProgramado.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ejecutor.schedule(() -> {
+                empujeProgramado.set(false);
+                empujarATodos();
+            }, VENTANA_EMPUJE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            empujeProgramado.set(false);
+        }
+    }
+
+    private void empujarATodos() {
+        // Una lista por transportista aunque tenga varias pestañas abiertas
+        Map<Integer, List<OfertaTransportista>> porTransportista = new HashMap<>();
+        for (Suscriptor s : suscriptores) {
+            enviar(s, porTransportista.computeIfAbsent(s.idTransportista(), this::ofertasPara));
+        }
+    }
+
+    private void enviar(Suscriptor suscriptor, List<OfertaTransportista> lista) {
+        try {
+            suscriptor.emisor().send(SseEmitter.event().name("ofertas").data(lista, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // Conexión cerrada por el navegador
+            suscriptores.remove(suscriptor);
+        }
+    }
+
+    private double capacidad(Integer idTransportista) {
+        return capacidades.computeIfAbsent(idTransportista, id -> {
+            double maxima = 0.0;
+            for (Vehiculo v : vehiculoRepository.findByTransportista_IdUsuario(id)) {
+                if (v.getCapacidadCarga() != null) {
+                    maxima = Math.max(maxima, v.getCapacidadCarga().doubleValue());
+                }
+            }
+            return maxima > 0 ? maxima : Double.POSITIVE_INFINITY;
+        });
+    }
+
+    private void ejecutar(Runnable tarea) {
+        try {
+            ejecutor.execute(() -> {
+                try {
+                    tarea.run();
+                } catch (Exception e) {
+                    log.error("✗ Error en el mercado de envíos: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Apagando la aplicación
+        }
+    }
+
+    private void alConfirmar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+
+    private static boolean coordenadasValidas(Double latitud, Double longitud) {
+        return latitud != null && longitud != null
+                && latitud >= -90 && latitud <= 90 && longitud >= -180 && longitud <= 180;
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 10.0) / 10.0;
+    }
+
+    @PreDestroy
+    public void detener() {
+        for (Suscriptor s : suscriptores) {
+            s.emisor().complete();
+        }
+        suscriptores.clear();
+        ejecutor.shutdownNow();
+    }
+}
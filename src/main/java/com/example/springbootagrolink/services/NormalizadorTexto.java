@@ -0,0 +1,77 @@
+package com.example.springbootagrolink.services;
+
+import java.text.Normalizer;
+
+/**
+ * Normalización de texto para búsquedas: minúsculas y sin tildes ni diéresis ("Medellín" → "medellin").
+ *
+ * La tabla de plegado se calcula una sola vez con la descomposición Unicode NFD para todo el
+ * rango Latin-1 y Latin Extended-A (donde están las letras del español). Después cada texto se
+ * normaliza en una sola pasada sobre un char[], sin las cadenas intermedias que generaba la
+ * cadena de replace(), y si el texto ya está normalizado se devuelve la misma instancia.
+ *
+ * Las claves normalizadas de los productos se calculan al escribir (ver IndiceCatalogoService),
+ * de modo que en cada búsqueda solo se normaliza el término que escribe el usuario.
+ */
+public final class NormalizadorTexto {
+
+    // Cubre U+0000..U+017F: ASCII, Latin-1 Supplement y Latin Extended-A
+    private static final int LIMITE_TABLA = 0x0180;
+    private static final char[] TABLA = new char[LIMITE_TABLA];
+
+    static {
+        for (int c = 0; c < LIMITE_TABLA; c++) {
+            char minuscula = Character.toLowerCase((char) c);
+            String descompuesto = Normalizer.normalize(String.valueOf(minuscula), Normalizer.Form.NFD);
+            // La primera unidad de la descomposición es la letra base; las siguientes son marcas diacríticas
+            TABLA[c] = descompuesto.isEmpty() ? minuscula : descompuesto.charAt(0);
+        }
+    }
+
+    private NormalizadorTexto() {
+    }
+
+    /**
+     * Devuelve el texto en minúsculas, sin marcas diacríticas y sin espacios al inicio y al final.
+     * Para null devuelve cadena vacía.
+     */
+    public static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        int inicio = 0;
+        int fin = texto.length();
+        while (inicio < fin && Character.isWhitespace(texto.charAt(inicio))) inicio++;
+        while (fin > inicio && Character.isWhitespace(texto.charAt(fin - 1))) fin--;
+
+        // Si no hay nada que cambiar se evita cualquier copia
+        if (yaNormalizado(texto, inicio, fin)) {
+            return (inicio == 0 && fin == texto.length()) ? texto : texto.substring(inicio, fin);
+        }
+
+        char[] salida = new char[fin - inicio];
+        int n = 0;
+        for (int i = inicio; i < fin; i++) {
+            char c = texto.charAt(i);
+            if (c < LIMITE_TABLA) {
+                salida[n++] = TABLA[c];
+            } else if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                // Marca combinante suelta (texto ya descompuesto): se descarta
+                continue;
+            } else {
+                salida[n++] = Character.toLowerCase(c);
+            }
+        }
+        return new String(salida, 0, n);
+    }
+
+    private static boolean yaNormalizado(String texto, int inicio, int fin) {
+        for (int i = inicio; i < fin; i++) {
+            char c = texto.charAt(i);
+            if (c >= LIMITE_TABLA || TABLA[c] != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
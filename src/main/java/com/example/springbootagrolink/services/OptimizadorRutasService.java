@@ -0,0 +1,499 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.Vehiculo;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.VehiculoRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Orden de recogidas y entregas para los envíos aceptados por un transportista.
+ *
+ * Cada envío Asignado aporta una recogida (origen) y una entrega (destino); uno En_Transito ya va
+ * cargado y solo aporta la entrega. La ruta respeta que cada recogida vaya antes de su entrega y que
+ * la carga nunca supere la capacidad del vehículo.
+ *
+ * Se construye con vecino más cercano y se mejora con or-opt (mover tramos de 1 a 3 paradas) y 2-opt
+ * (invertir tramos) mientras haya mejoras y quede tiempo. Varias construcciones (una determinista y
+ * otras aleatorizadas, más el orden sin optimizar si es válido) se mejoran en paralelo en un ForkJoinPool
+ * y se queda la más corta. Las distancias salen del kernel por lotes de CostoEnvioService, así que
+ * coinciden con las de los costos de envío.
+ */
+@Service
+public class OptimizadorRutasService {
+
+    private static final Logger log = LoggerFactory.getLogger(OptimizadorRutasService.class);
+
+    private static final double EPSILON = 1e-9;
+    private static final int MAX_TRAMO_OR_OPT = 3;
+
+    @Value("${rutas.optimizacion.tiempoMaxMs:2000}")
+    private long tiempoMaxMs;
+
+    @Autowired
+    private EnvioRepository envioRepository;
+
+    @Autowired
+    private VehiculoRepository vehiculoRepository;
+
+    @Autowired
+    private CostoEnvioService costoEnvioService;
+
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    public enum TipoParada { RECOGIDA, ENTREGA }
+
+    public record ParadaRuta(
+            int orden,
+            Integer idEnvio,
+            TipoParada tipo,
+            String direccion,
+            double latitud,
+            double longitud,
+            double cargaKg,
+            double kmAcumulados
+    ) {
+    }
+
+    public record RutaOptimizada(
+            List<ParadaRuta> paradas,
+            double kmOptimizados,
+            double kmSinOptimizar,
+            double kmAhorrados,
+            Integer idVehiculo,
+            BigDecimal capacidadKg,
+            List<Integer> enviosExcluidos,
+            long tiempoMs
+    ) {
+    }
+
+    // ==================== API ====================
+
+    /**
+     * Ruta para los envíos Asignado / En_Transito del transportista.
+     *
+     * @param idVehiculo vehículo a usar (si es null, el de mayor capacidad del transportista)
+     * @param latInicio  posición actual del transportista (opcional; sin ella la ruta empieza en la mejor parada)
+     */
+    @Transactional(readOnly = true)
+    public RutaOptimizada optimizar(Integer idTransportista, Integer idVehiculo, Double latInicio, Double lonInicio) {
+        long inicio = System.nanoTime();
+
+        Vehiculo vehiculo = elegirVehiculo(idTransportista, idVehiculo);
+        BigDecimal capacidad = vehiculo != null ? vehiculo.getCapacidadCarga() : null;
+        double capacidadKg = capacidad != null && capacidad.signum() > 0 ? capacidad.doubleValue() : Double.POSITIVE_INFINITY;
+
+        List<Envio> envios = envioRepository.findByTransportistaYEstados(idTransportista,
+                List.of(Envio.EstadoEnvio.Asignado, Envio.EstadoEnvio.En_Transito));
+
+        List<Integer> excluidos = new ArrayList<>();
+        List<Envio> validos = new ArrayList<>();
+        double cargaInicial = 0;
+        for (Envio envio : envios) {
+            boolean enTransito = envio.getEstadoEnvio() == Envio.EstadoEnvio.En_Transito;
+            double peso = pesoDe(envio);
+            boolean sinCoordenadas = envio.getLatitudDestino() == null || envio.getLongitudDestino() == null
+                    || (!enTransito && (envio.getLatitudOrigen() == null || envio.getLongitudOrigen() == null));
+            if (sinCoordenadas || (!enTransito && peso > capacidadKg)) {
+                excluidos.add(envio.getIdEnvio());
+                continue;
+            }
+            validos.add(envio);
+            if (enTransito) {
+                cargaInicial += peso;
+            }
+        }
+        if (cargaInicial > capacidadKg) {
+            // Lo que ya va en el vehículo manda: sin esto no habría ninguna ruta válida
+            log.warn("La carga en tránsito ({} kg) supera la capacidad del vehículo; se ignora la capacidad", cargaInicial);
+            capacidadKg = Double.POSITIVE_INFINITY;
+        }
+
+        Instancia instancia = construirInstancia(validos, latInicio, lonInicio, cargaInicial, capacidadKg);
+        int[] base = instancia.rutaSinOptimizar();
+        double kmBase = instancia.longitud(base);
+        int[] mejor = resolver(instancia, System.nanoTime() + tiempoMaxMs * 1_000_000L);
+        double kmMejor = instancia.longitud(mejor);
+
+        List<ParadaRuta> paradas = instancia.describir(mejor, validos);
+        long tiempoMs = (System.nanoTime() - inicio) / 1_000_000L;
+        log.info("Ruta del transportista {}: {} paradas, {} km (sin optimizar {} km) en {} ms",
+                idTransportista, paradas.size(), redondear(kmMejor), redondear(kmBase), tiempoMs);
+
+        return new RutaOptimizada(paradas, redondear(kmMejor), redondear(kmBase),
+                redondear(Math.max(0, kmBase - kmMejor)),
+                vehiculo != null ? vehiculo.getIdVehiculo() : null, capacidad, excluidos, tiempoMs);
+    }
+
+    @PreDestroy
+    public void detener() {
+        pool.shutdownNow();
+    }
+
+    // ==================== PREPARACIÓN ====================
+
+    private Vehiculo elegirVehiculo(Integer idTransportista, Integer idVehiculo) {
+        List<Vehiculo> vehiculos = vehiculoRepository.findByTransportista_IdUsuario(idTransportista);
+        if (idVehiculo != null) {
+            return vehiculos.stream()
+                    .filter(v -> idVehiculo.equals(v.getIdVehiculo()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("El vehículo " + idVehiculo + " no pertenece al transportista"));
+        }
+        return vehiculos.stream()
+                .filter(v -> v.getCapacidadCarga() != null)
+                .max(Comparator.comparing(Vehiculo::getCapacidadCarga))
+                .orElse(null);
+    }
+
+    private Instancia construirInstancia(List<Envio> envios, Double latInicio, Double lonInicio,
+                                         double cargaInicial, double capacidadKg) {
+        // Nodo 0: inicio. Luego, por envío, recogida (si está Asignado) y entrega
+        List<double[]> puntos = new ArrayList<>();
+        List<Integer> envioDeNodo = new ArrayList<>();
+        List<Integer> pareja = new ArrayList<>();
+        List<Double> cambioCarga = new ArrayList<>();
+        boolean conInicio = latInicio != null && lonInicio != null;
+        puntos.add(conInicio ? new double[]{latInicio, lonInicio} : new double[]{0, 0});
+        envioDeNodo.add(-1);
+        pareja.add(-1);
+        cambioCarga.add(0.0);
+
+        for (int k = 0; k < envios.size(); k++) {
+            Envio envio = envios.get(k);
+            double peso = pesoDe(envio);
+            int recogida = -1;
+            if (envio.getEstadoEnvio() != Envio.EstadoEnvio.En_Transito) {
+                recogida = puntos.size();
+                puntos.add(new double[]{envio.getLatitudOrigen(), envio.getLongitudOrigen()});
+                envioDeNodo.add(k);
+                pareja.add(-1);
+                cambioCarga.add(peso);
+            }
+            puntos.add(new double[]{envio.getLatitudDestino(), envio.getLongitudDestino()});
+            envioDeNodo.add(k);
+            pareja.add(recogida);
+            cambioCarga.add(-peso);
+        }
+
+        int n = puntos.size();
+        // Matriz completa de distancias en un solo lote (n² pares)
+        double[] lat1 = new double[n * n];
+        double[] lon1 = new double[n * n];
+        double[] lat2 = new double[n * n];
+        double[] lon2 = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int idx = i * n + j;
+                lat1[idx] = puntos.get(i)[0];
+                lon1[idx] = puntos.get(i)[1];
+                lat2[idx] = puntos.get(j)[0];
+                lon2[idx] = puntos.get(j)[1];
+            }
+        }
+        double[] distancias = costoEnvioService.calcularDistanciasHaversine(lat1, lon1, lat2, lon2);
+        if (!conInicio) {
+            // Sin posición del transportista el inicio está "a cero" de todo: la ruta empieza donde convenga
+            for (int j = 0; j < n; j++) {
+                distancias[j] = 0;
+                distancias[j * n] = 0;
+            }
+        }
+
+        Instancia instancia = new Instancia();
+        instancia.n = n;
+        instancia.d = distancias;
+        instancia.puntos = puntos.toArray(new double[0][]);
+        instancia.envioDeNodo = envioDeNodo.stream().mapToInt(Integer::intValue).toArray();
+        instancia.recogidaDe = pareja.stream().mapToInt(Integer::intValue).toArray();
+        instancia.cambioCarga = cambioCarga.stream().mapToDouble(Double::doubleValue).toArray();
+        instancia.cargaInicial = cargaInicial;
+        instancia.capacidad = capacidadKg;
+        return instancia;
+    }
+
+    // ==================== BÚSQUEDA ====================
+
+    private int[] resolver(Instancia instancia, long limite) {
+        if (instancia.n <= 2) {
+            return instancia.rutaSinOptimizar();
+        }
+        int intentos = Math.max(2, pool.getParallelism());
+        List<Callable<int[]>> tareas = new ArrayList<>(intentos + 1);
+        int[] base = instancia.rutaSinOptimizar();
+        if (instancia.esValida(base)) {
+            tareas.add(() -> instancia.mejorar(base.clone(), limite));
+        }
+        for (int semilla = 0; semilla < intentos; semilla++) {
+            long s = semilla;
+            tareas.add(() -> instancia.mejorar(instancia.vecinoMasCercano(s), limite));
+        }
+
+        int[] mejor = null;
+        double mejorKm = Double.POSITIVE_INFINITY;
+        try {
+            for (Future<int[]> f : pool.invokeAll(tareas)) {
+                int[] ruta = f.get();
+                double km = instancia.longitud(ruta);
+                if (km < mejorKm) {
+                    mejorKm = km;
+                    mejor = ruta;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Optimización de ruta interrumpida", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error optimizando la ruta: " + e.getMessage(), e);
+        }
+        return mejor;
+    }
+
+    /**
+     * Instancia del problema de recogida y entrega con capacidad. Las rutas son arreglos de nodos
+     * que empiezan en 0 (inicio) y recorren todos los demás una vez.
+     */
+    private static final class Instancia {
+        int n;
+        double[] d;
+        double[][] puntos;
+        int[] envioDeNodo;
+        int[] recogidaDe;
+        double[] cambioCarga;
+        double cargaInicial;
+        double capacidad;
+
+        double dist(int a, int b) {
+            return d[a * n + b];
+        }
+
+        double longitud(int[] ruta) {
+            double total = 0;
+            for (int i = 1; i < ruta.length; i++) {
+                total += dist(ruta[i - 1], ruta[i]);
+            }
+            return total;
+        }
+
+        // Orden en que se aceptaron los envíos: recoger y entregar cada uno antes del siguiente
+        int[] rutaSinOptimizar() {
+            int[] ruta = new int[n];
+            for (int i = 0; i < n; i++) {
+                ruta[i] = i;
+            }
+            return ruta;
+        }
+
+        boolean esValida(int[] ruta) {
+            int[] posicion = new int[n];
+            for (int i = 0; i < ruta.length; i++) {
+                posicion[ruta[i]] = i;
+            }
+            double carga = cargaInicial;
+            for (int i = 1; i < ruta.length; i++) {
+                int nodo = ruta[i];
+                int recogida = recogidaDe[nodo];
+                if (recogida >= 0 && posicion[recogida] > i) {
+                    return false;
+                }
+                carga += cambioCarga[nodo];
+                if (carga > capacidad + EPSILON) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Vecino más cercano factible. Con semilla 0 es determinista; con otras elige a veces
+         * el segundo más cercano para explorar construcciones distintas.
+         */
+        int[] vecinoMasCercano(long semilla) {
+            Random azar = semilla == 0 ? null : new Random(semilla);
+            boolean[] visitado = new boolean[n];
+            int[] ruta = new int[n];
+            visitado[0] = true;
+            int actual = 0;
+            double carga = cargaInicial;
+            for (int paso = 1; paso < n; paso++) {
+                int primero = -1;
+                int segundo = -1;
+                double dPrimero = Double.POSITIVE_INFINITY;
+                double dSegundo = Double.POSITIVE_INFINITY;
+                for (int j = 1; j < n; j++) {
+                    if (visitado[j]) {
+                        continue;
+                    }
+                    int recogida = recogidaDe[j];
+                    if (recogida >= 0 && !visitado[recogida]) {
+                        continue;
+                    }
+                    if (carga + cambioCarga[j] > capacidad + EPSILON) {
+                        continue;
+                    }
+                    double dj = dist(actual, j);
+                    if (dj < dPrimero) {
+                        segundo = primero;
+                        dSegundo = dPrimero;
+                        primero = j;
+                        dPrimero = dj;
+                    } else if (dj < dSegundo) {
+                        segundo = j;
+                        dSegundo = dj;
+                    }
+                }
+                int siguiente = (azar != null && segundo >= 0 && azar.nextInt(4) == 0) ? segundo : primero;
+                ruta[paso] = siguiente;
+                visitado[siguiente] = true;
+                carga += cambioCarga[siguiente];
+                actual = siguiente;
+            }
+            return ruta;
+        }
+
+        /**
+         * Or-opt y 2-opt con primera mejora hasta que no haya mejoras o se acabe el tiempo
+         */
+        int[] mejorar(int[] ruta, long limite) {
+            boolean mejoro = true;
+            while (mejoro && System.nanoTime() < limite) {
+                mejoro = orOpt(ruta, limite) | dosOpt(ruta, limite);
+            }
+            return ruta;
+        }
+
+        private boolean orOpt(int[] ruta, long limite) {
+            boolean mejoro = false;
+            int m = ruta.length;
+            for (int largo = 1; largo <= MAX_TRAMO_OR_OPT; largo++) {
+                for (int i = 1; i + largo <= m; i++) {
+                    if (System.nanoTime() >= limite) {
+                        return mejoro;
+                    }
+                    int primero = ruta[i];
+                    int ultimo = ruta[i + largo - 1];
+                    int antes = ruta[i - 1];
+                    int despues = i + largo < m ? ruta[i + largo] : -1;
+                    double ahorro = dist(antes, primero) + (despues >= 0 ? dist(ultimo, despues) - dist(antes, despues) : 0);
+                    for (int p = 0; p < m; p++) {
+                        if (p >= i - 1 && p < i + largo) {
+                            continue;
+                        }
+                        int a = ruta[p];
+                        int b = p + 1 < m ? ruta[p + 1] : -1;
+                        double costo = dist(a, primero) + (b >= 0 ? dist(ultimo, b) - dist(a, b) : 0);
+                        if (costo < ahorro - EPSILON) {
+                            int[] candidata = moverTramo(ruta, i, largo, p);
+                            if (esValida(candidata)) {
+                                System.arraycopy(candidata, 0, ruta, 0, m);
+                                mejoro = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            return mejoro;
+        }
+
+        // Mueve ruta[i .. i+largo-1] para que quede justo después de la posición p (p fuera del tramo)
+        private static int[] moverTramo(int[] ruta, int i, int largo, int p) {
+            int m = ruta.length;
+            int[] nueva = new int[m];
+            int k = 0;
+            for (int j = 0; j < m; j++) {
+                if (j >= i && j < i + largo) {
+                    continue;
+                }
+                nueva[k++] = ruta[j];
+                if (j == p) {
+                    for (int t = 0; t < largo; t++) {
+                        nueva[k++] = ruta[i + t];
+                    }
+                }
+            }
+            return nueva;
+        }
+
+        private boolean dosOpt(int[] ruta, long limite) {
+            boolean mejoro = false;
+            int m = ruta.length;
+            for (int i = 1; i < m - 1; i++) {
+                if (System.nanoTime() >= limite) {
+                    return mejoro;
+                }
+                for (int j = i + 1; j < m; j++) {
+                    int a = ruta[i - 1];
+                    int b = ruta[i];
+                    int c = ruta[j];
+                    int e = j + 1 < m ? ruta[j + 1] : -1;
+                    double delta = dist(a, c) - dist(a, b) + (e >= 0 ? dist(b, e) - dist(c, e) : 0);
+                    if (delta < -EPSILON) {
+                        invertir(ruta, i, j);
+                        if (esValida(ruta)) {
+                            mejoro = true;
+                        } else {
+                            invertir(ruta, i, j);
+                        }
+                    }
+                }
+            }
+            return mejoro;
+        }
+
+        private static void invertir(int[] ruta, int i, int j) {
+            while (i < j) {
+                int t = ruta[i];
+                ruta[i++] = ruta[j];
+                ruta[j--] = t;
+            }
+        }
+
+        List<ParadaRuta> describir(int[] ruta, List<Envio> envios) {
+            List<ParadaRuta> paradas = new ArrayList<>(n - 1);
+            double carga = cargaInicial;
+            double km = 0;
+            for (int i = 1; i < ruta.length; i++) {
+                int nodo = ruta[i];
+                km += dist(ruta[i - 1], nodo);
+                carga += cambioCarga[nodo];
+                Envio envio = envios.get(envioDeNodo[nodo]);
+                boolean esRecogida = esNodoRecogida(nodo);
+                paradas.add(new ParadaRuta(i, envio.getIdEnvio(),
+                        esRecogida ? TipoParada.RECOGIDA : TipoParada.ENTREGA,
+                        esRecogida ? envio.getDireccionOrigen() : envio.getDireccionDestino(),
+                        puntos[nodo][0], puntos[nodo][1],
+                        redondear(Math.max(0, carga)), redondear(km)));
+            }
+            return paradas;
+        }
+
+        // La recogida de un envío es el nodo anterior a su entrega, y la entrega la referencia
+        private boolean esNodoRecogida(int nodo) {
+            return nodo + 1 < n && recogidaDe[nodo + 1] == nodo;
+        }
+    }
+
+    private static double pesoDe(Envio envio) {
+        return envio.getPesoTotalKg() != null && envio.getPesoTotalKg() > 0 ? envio.getPesoTotalKg() : 1.0;
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 100.0) / 100.0;
+    }
+}
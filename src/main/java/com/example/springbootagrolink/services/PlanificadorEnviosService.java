@@ -0,0 +1,329 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.CotizacionLoteDistancias;
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.LineaEnvio;
+import com.example.springbootagrolink.repository.DetalleCompraRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Planificación de los envíos de una compra cuyos productos salen de fincas distintas.
+ *
+ * Cada línea de la compra se asigna a la finca más cercana al destino que cultiva su producto
+ * (IndiceFincasService, en memoria) y las líneas se agrupan por finca. Las fincas a menos de
+ * envio.consolidacion.radioKm entre sí forman un mismo grupo (enlace simple): ese grupo sale en un
+ * solo envío que recorre las fincas (vecino más cercano, empezando por la más lejana al destino) y
+ * termina en el destino. Cada grupo es un Envio con su distancia, su peso y sus costos.
+ *
+ * Usa una sola consulta (las líneas con el peso del producto) sin importar cuántas líneas tenga la compra.
+ * Las distancias (entre fincas y de cada finca al destino) se calculan en un solo lote con
+ * CostoEnvioService.calcularDistanciasHaversine, y los costos de todos los grupos con una sola
+ * llamada a cotizarDistancias.
+ */
+@Service
+public class PlanificadorEnviosService {
+
+    private static final Logger log = LoggerFactory.getLogger(PlanificadorEnviosService.class);
+
+    // Peso mínimo de un envío, el mismo que usa el cálculo de un solo envío
+    private static final double PESO_MINIMO_KG = 1.0;
+
+    @Value("${envio.consolidacion.radioKm:30}")
+    private double radioConsolidacionKm;
+
+    @Autowired
+    private DetalleCompraRepository detalleCompraRepository;
+
+    @Autowired
+    private IndiceFincasService indiceFincasService;
+
+    @Autowired
+    private CostoEnvioService costoEnvioService;
+
+    /**
+     * Finca de origen con el peso que se recoge en ella
+     */
+    private static final class Parada {
+        private final IndiceFincasService.PuntoFinca finca;
+        private double pesoKg;
+        // Fila de la parada en la matriz de distancias entre fincas
+        private int posicion;
+        private double distanciaDestinoKm;
+
+        Parada(IndiceFincasService.PuntoFinca finca) {
+            this.finca = finca;
+        }
+    }
+
+    /**
+     * Completa el envío base con el primer grupo y devuelve, además de él, un envío nuevo (sin guardar)
+     * por cada grupo adicional. Devuelve una lista vacía si no se puede planificar (sin destino, sin
+     * líneas o sin fincas georreferenciadas); en ese caso el envío se calcula como siempre.
+     */
+    public List<Envio> planificar(Envio base) {
+        if (base.getCompra() == null || base.getCompra().getIdCompra() == null
+                || base.getLatitudDestino() == null || base.getLongitudDestino() == null) {
+            return List.of();
+        }
+        double latDestino = base.getLatitudDestino();
+        double lonDestino = base.getLongitudDestino();
+
+        List<LineaEnvio> lineas = detalleCompraRepository.findLineasEnvio(base.getCompra().getIdCompra());
+        if (lineas.isEmpty()) {
+            return List.of();
+        }
+
+        // 1. Agrupar el peso de las líneas por finca de origen
+        Map<Integer, Parada> paradas = new LinkedHashMap<>();
+        double pesoSinOrigen = 0;
+        for (LineaEnvio linea : lineas) {
+            double peso = pesoLinea(linea);
+            IndiceFincasService.FincaCercana cercana = indiceFincasService
+                    .buscarMasCercana(linea.idProducto(), latDestino, lonDestino).orElse(null);
+            if (cercana == null) {
+                pesoSinOrigen += peso;
+                continue;
+            }
+            paradas.computeIfAbsent(cercana.finca().idFinca(), k -> new Parada(cercana.finca())).pesoKg += peso;
+        }
+        if (paradas.isEmpty()) {
+            return List.of();
+        }
+
+        // 2. Agrupar fincas cercanas entre sí (enlace simple con union-find)
+        List<Parada> lista = new ArrayList<>(paradas.values());
+        double[][] entreFincas = medirDistancias(lista, latDestino, lonDestino);
+        List<List<Parada>> grupos = agrupar(lista, entreFincas);
+
+        // Las líneas sin finca georreferenciada viajan con el grupo más pesado
+        if (pesoSinOrigen > 0) {
+            List<Parada> masPesado = grupos.get(0);
+            for (List<Parada> grupo : grupos) {
+                if (pesoGrupo(grupo) > pesoGrupo(masPesado)) {
+                    masPesado = grupo;
+                }
+            }
+            masPesado.get(0).pesoKg += pesoSinOrigen;
+        }
+
+        // 3. Ruta, distancia y peso de cada grupo; los costos se calculan todos en una pasada
+        int n = grupos.size();
+        List<List<Parada>> rutas = new ArrayList<>(n);
+        double[] distancias = new double[n];
+        double[] pesos = new double[n];
+        for (int g = 0; g < n; g++) {
+            List<Parada> ruta = ordenarRuta(grupos.get(g), entreFincas);
+            rutas.add(ruta);
+            distancias[g] = distanciaRuta(ruta, entreFincas);
+            pesos[g] = Math.max(pesoGrupo(ruta), PESO_MINIMO_KG);
+        }
+        CotizacionLoteDistancias costos = costoEnvioService.cotizarDistancias(distancias, pesos);
+
+        // 4. Un envío por grupo: el primero reutiliza el envío base
+        List<Envio> envios = new ArrayList<>(n);
+        for (int g = 0; g < n; g++) {
+            Envio envio = g == 0 ? base : nuevoEnvioHermano(base);
+            aplicarRuta(envio, rutas.get(g), distancias[g], pesos[g], costos, g);
+            envios.add(envio);
+        }
+
+        if (n > 1 || rutas.get(0).size() > 1) {
+            log.info("  ✓ Compra {} planificada en {} envío(s) desde {} finca(s)",
+                    base.getCompra().getIdCompra(), n, lista.size());
+        }
+        return envios;
+    }
+
+    /**
+     * Matriz simétrica de distancias entre las fincas (y distanciaDestinoKm de cada parada),
+     * calculada con una sola llamada al cálculo por lotes
+     */
+    private double[][] medirDistancias(List<Parada> paradas, double latDestino, double lonDestino) {
+        int n = paradas.size();
+        int pares = n * (n - 1) / 2;
+        double[] lat1 = new double[pares + n];
+        double[] lon1 = new double[pares + n];
+        double[] lat2 = new double[pares + n];
+        double[] lon2 = new double[pares + n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            IndiceFincasService.PuntoFinca a = paradas.get(i).finca;
+            paradas.get(i).posicion = i;
+            for (int j = i + 1; j < n; j++) {
+                IndiceFincasService.PuntoFinca b = paradas.get(j).finca;
+                lat1[k] = a.latitud();
+                lon1[k] = a.longitud();
+                lat2[k] = b.latitud();
+                lon2[k] = b.longitud();
+                k++;
+            }
+        }
+        // Las últimas n posiciones son cada finca -> destino
+        for (int i = 0; i < n; i++, k++) {
+            lat1[k] = paradas.get(i).finca.latitud();
+            lon1[k] = paradas.get(i).finca.longitud();
+            lat2[k] = latDestino;
+            lon2[k] = lonDestino;
+        }
+        double[] lote = costoEnvioService.calcularDistanciasHaversine(lat1, lon1, lat2, lon2);
+
+        double[][] matriz = new double[n][n];
+        k = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                matriz[i][j] = lote[k];
+                matriz[j][i] = lote[k];
+                k++;
+            }
+        }
+        for (int i = 0; i < n; i++, k++) {
+            paradas.get(i).distanciaDestinoKm = lote[k];
+        }
+        return matriz;
+    }
+
+    private List<List<Parada>> agrupar(List<Parada> paradas, double[][] entreFincas) {
+        int n = paradas.size();
+        int[] padre = new int[n];
+        for (int i = 0; i < n; i++) {
+            padre[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (entreFincas[i][j] <= radioConsolidacionKm) {
+                    padre[raiz(padre, i)] = raiz(padre, j);
+                }
+            }
+        }
+        Map<Integer, List<Parada>> porRaiz = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            porRaiz.computeIfAbsent(raiz(padre, i), k -> new ArrayList<>()).add(paradas.get(i));
+        }
+        return new ArrayList<>(porRaiz.values());
+    }
+
+    private static int raiz(int[] padre, int i) {
+        while (padre[i] != i) {
+            padre[i] = padre[padre[i]];
+            i = padre[i];
+        }
+        return i;
+    }
+
+    // Empieza por la finca más lejana al destino y sigue siempre a la más cercana que falte
+    private static List<Parada> ordenarRuta(List<Parada> grupo, double[][] entreFincas) {
+        if (grupo.size() == 1) {
+            return grupo;
+        }
+        List<Parada> pendientes = new ArrayList<>(grupo);
+        Parada actual = pendientes.get(0);
+        double masLejos = -1;
+        for (Parada p : pendientes) {
+            if (p.distanciaDestinoKm > masLejos) {
+                masLejos = p.distanciaDestinoKm;
+                actual = p;
+            }
+        }
+        List<Parada> ruta = new ArrayList<>(grupo.size());
+        pendientes.remove(actual);
+        ruta.add(actual);
+        while (!pendientes.isEmpty()) {
+            Parada siguiente = pendientes.get(0);
+            double menor = Double.MAX_VALUE;
+            for (Parada p : pendientes) {
+                double d = entreFincas[actual.posicion][p.posicion];
+                if (d < menor) {
+                    menor = d;
+                    siguiente = p;
+                }
+            }
+            pendientes.remove(siguiente);
+            ruta.add(siguiente);
+            actual = siguiente;
+        }
+        return ruta;
+    }
+
+    private static double distanciaRuta(List<Parada> ruta, double[][] entreFincas) {
+        double total = 0;
+        for (int i = 1; i < ruta.size(); i++) {
+            total += entreFincas[ruta.get(i - 1).posicion][ruta.get(i).posicion];
+        }
+        return total + ruta.get(ruta.size() - 1).distanciaDestinoKm;
+    }
+
+    private void aplicarRuta(Envio envio, List<Parada> ruta, double distanciaKm, double pesoKg,
+                             CotizacionLoteDistancias costos, int g) {
+        IndiceFincasService.PuntoFinca primera = ruta.get(0).finca;
+        envio.setLatitudOrigen(primera.latitud());
+        envio.setLongitudOrigen(primera.longitud());
+        envio.setDireccionOrigen(direccionRuta(ruta));
+        envio.setDistanciaKm(distanciaKm);
+        envio.setPesoTotalKg(pesoKg);
+        envio.setCostoBase(aCentavos(costos.costoBase()[g]));
+        envio.setCostoPeso(aCentavos(costos.costoPeso()[g]));
+        envio.setCostoTotal(aCentavos(costos.costoTotal()[g]));
+        envio.setTarifaPorKm(costoEnvioService.getTarifaBasePorKm());
+        envio.setTarifaPorKg(costoEnvioService.getTarifaPorKg());
+    }
+
+    // Valor en pesos con dos decimales, como los devuelve calcularCostoEnvio
+    private static BigDecimal aCentavos(double valor) {
+        return BigDecimal.valueOf(valor).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    // Dirección de la primera finca; si la ruta recoge en varias, se indican las demás paradas
+    private static String direccionRuta(List<Parada> ruta) {
+        String primera = ruta.get(0).finca.direccion() != null ? ruta.get(0).finca.direccion() : "Finca " + ruta.get(0).finca.idFinca();
+        if (ruta.size() == 1) {
+            return primera;
+        }
+        StringBuilder sb = new StringBuilder(primera);
+        for (int i = 1; i < ruta.size(); i++) {
+            IndiceFincasService.PuntoFinca f = ruta.get(i).finca;
+            sb.append(" → ").append(f.direccion() != null ? f.direccion() : "Finca " + f.idFinca());
+        }
+        // direccion_origen es VARCHAR(300)
+        return sb.length() > 300 ? sb.substring(0, 297) + "..." : sb.toString();
+    }
+
+    private static Envio nuevoEnvioHermano(Envio base) {
+        Envio envio = new Envio();
+        envio.setCompra(base.getCompra());
+        envio.setDireccionDestino(base.getDireccionDestino());
+        envio.setLatitudDestino(base.getLatitudDestino());
+        envio.setLongitudDestino(base.getLongitudDestino());
+        envio.setEstadoEnvio(Envio.EstadoEnvio.Buscando_Transporte);
+        envio.setEstadoCalculo(Envio.EstadoCalculo.COMPLETO);
+        return envio;
+    }
+
+    // Como en el cálculo de un solo envío, los productos sin peso registrado no suman; el mínimo de 1 kg
+    // se aplica al envío completo
+    private static double pesoLinea(LineaEnvio linea) {
+        if (linea.pesoKg() == null) {
+            return 0;
+        }
+        int cantidad = linea.cantidad() != null ? linea.cantidad() : 1;
+        return linea.pesoKg().doubleValue() * cantidad;
+    }
+
+    private static double pesoGrupo(List<Parada> grupo) {
+        double total = 0;
+        for (Parada p : grupo) {
+            total += p.pesoKg;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.springbootagrolink.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completa en segundo plano los cálculos de los envíos registrados al pagar (geocodificación,
+ * distancia y costos), para que la petición de pago no espere a la API de mapas.
+ *
+ * Cada envío se procesa en un hilo virtual; un semáforo limita cuántos cálculos tocan la BD a la vez
+ * para no agotar el pool de conexiones. Si un cálculo falla se reintenta con espera exponencial
+ * (EnvioService.registrarFalloCalculo); el barrido periódico recoge los reintentos vencidos y los
+ * envíos que quedaron pendientes por un reinicio. El último intento acepta coordenadas por defecto,
+ * como el cálculo síncrono, para que el envío no se quede sin costos.
+ */
+@Service
+public class ProcesadorEnviosService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcesadorEnviosService.class);
+
+    private static final int MAX_INTENTOS = 6;
+    // El pool de Hikari es de 10 conexiones; se dejan la mayoría para las peticiones web
+    private static final int MAX_CALCULOS_SIMULTANEOS = 4;
+
+    @Autowired
+    private EnvioService envioService;
+
+    private final ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permisos = new Semaphore(MAX_CALCULOS_SIMULTANEOS);
+    // Envíos ya encolados o en cálculo, para no procesar el mismo dos veces
+    private final Set<Integer> enCurso = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Encola el cálculo del envío. Si hay una transacción activa se espera a que confirme,
+     * para que el hilo de fondo vea el envío recién insertado.
+     */
+    public void programar(Integer idEnvio) {
+        if (idEnvio == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    encolar(idEnvio);
+                }
+            });
+        } else {
+            encolar(idEnvio);
+        }
+    }
+
+    /**
+     * Recoge los envíos pendientes cuyo próximo intento ya venció (reintentos y los que
+     * quedaron sin procesar tras un reinicio)
+     */
+    @Scheduled(fixedDelay = 30_000, initialDelay = 30_000)
+    public void barrerPendientes() {
+        List<Integer> pendientes;
+        try {
+            pendientes = envioService.obtenerIdsCalculoPendiente();
+        } catch (Exception e) {
+            log.error("✗ No se pudieron consultar los envíos pendientes de cálculo: {}", e.getMessage());
+            return;
+        }
+        for (Integer idEnvio : pendientes) {
+            encolar(idEnvio);
+        }
+    }
+
+    private void encolar(Integer idEnvio) {
+        if (!enCurso.add(idEnvio)) {
+            return;
+        }
+        try {
+            ejecutor.execute(() -> procesar(idEnvio));
+        } catch (RejectedExecutionException e) {
+            // Apagando la aplicación: el barrido lo retomará al arrancar
+            enCurso.remove(idEnvio);
+        }
+    }
+
+    private void procesar(Integer idEnvio) {
+        try {
+            permisos.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            enCurso.remove(idEnvio);
+            return;
+        }
+        try {
+            int intentosPrevios = envioService.obtenerPorId(idEnvio)
+                    .map(e -> e.getIntentosCalculo() != null ? e.getIntentosCalculo() : 0)
+                    .orElse(0);
+            boolean ultimoIntento = intentosPrevios + 1 >= MAX_INTENTOS;
+            envioService.calcularPendiente(idEnvio, ultimoIntento);
+        } catch (Exception e) {
+            log.warn("⚠ Error calculando envío {}: {}", idEnvio, e.getMessage());
+            try {
+                envioService.registrarFalloCalculo(idEnvio, e.getMessage(), MAX_INTENTOS);
+            } catch (Exception ex) {
+                log.error("✗ No se pudo registrar el fallo del envío {}: {}", idEnvio, ex.getMessage());
+            }
+        } finally {
+            permisos.release();
+            enCurso.remove(idEnvio);
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        ejecutor.shutdown();
+        try {
+            if (!ejecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                ejecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            ejecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -57,17 +57,21 @@ public class ProductoFincaService implements Idao<ProductoFinca, Integer> {
     private final ProductoFincaRepository productoFincaRepository;
     private final FincaRepository fincaRepository;
     private final ProductoRepository productoRepository;
+    private final IndiceFincasService indiceFincasService;
 
     /**
      * Constructor con inyección de dependencias
-     * Spring automáticamente inyecta los 3 repositorios
+     * Spring automáticamente inyecta los 3 repositorios y el índice de fincas
+     * (que se actualiza con cada asociación para elegir el origen de los envíos)
      */
     public ProductoFincaService(ProductoFincaRepository productoFincaRepository,
                                 FincaRepository fincaRepository,
-                                ProductoRepository productoRepository) {
+                                ProductoRepository productoRepository,
+                                IndiceFincasService indiceFincasService) {
         this.productoFincaRepository = productoFincaRepository;
         this.fincaRepository = fincaRepository;
         this.productoRepository = productoRepository;
+        this.indiceFincasService = indiceFincasService;
     }
 
     // ==================== MÉTODOS DE IDAO (CRUD BÁSICO) ====================
@@ -158,7 +162,9 @@ public class ProductoFincaService implements Idao<ProductoFinca, Integer> {
         }
 
         // Si pasa todas las validaciones, guardar
-        return productoFincaRepository.save(entidad);
+        ProductoFinca guardada = productoFincaRepository.save(entidad);
+        indiceFincasService.asociar(productoId, fincaId);
+        return guardada;
     }
 
     /**
@@ -179,6 +185,9 @@ public class ProductoFincaService implements Idao<ProductoFinca, Integer> {
         ProductoFinca existente = productoFincaRepository.findById(id)
             .orElseThrow(() -> new RuntimeException("ProductoFinca no encontrado con ID: " + id));
 
+        Integer productoAnterior = existente.getProducto().getIdProducto();
+        Integer fincaAnterior = existente.getFinca().getIdFinca();
+
         // Actualizar los campos
         existente.setCantidadProduccion(entidad.getCantidadProduccion());
         existente.setFechaCosecha(entidad.getFechaCosecha());
@@ -191,15 +200,25 @@ public class ProductoFincaService implements Idao<ProductoFinca, Integer> {
             existente.setProducto(entidad.getProducto());
         }
 
-        return productoFincaRepository.save(existente);
+        ProductoFinca actualizada = productoFincaRepository.save(existente);
+        Integer productoNuevo = actualizada.getProducto().getIdProducto();
+        Integer fincaNueva = actualizada.getFinca().getIdFinca();
+        if (!productoNuevo.equals(productoAnterior) || !fincaNueva.equals(fincaAnterior)) {
+            indiceFincasService.desasociar(productoAnterior, fincaAnterior);
+            indiceFincasService.asociar(productoNuevo, fincaNueva);
+        }
+        return actualizada;
     }
 
 
     @Override
     @Transactional
     public boolean eliminar(Integer id) {
-        if (productoFincaRepository.existsById(id)) {
-            productoFincaRepository.deleteById(id);
+        Optional<ProductoFinca> existente = productoFincaRepository.findById(id);
+        if (existente.isPresent()) {
+            ProductoFinca pf = existente.get();
+            productoFincaRepository.delete(pf);
+            indiceFincasService.desasociar(pf.getProducto().getIdProducto(), pf.getFinca().getIdFinca());
             return true;
         }
         return false;
@@ -291,7 +310,9 @@ public class ProductoFincaService implements Idao<ProductoFinca, Integer> {
             productoFinca.setFechaCosecha(fechaCosecha);
         }
 
-        return productoFincaRepository.save(productoFinca);
+        ProductoFinca guardada = productoFincaRepository.save(productoFinca);
+        indiceFincasService.asociar(productoId, fincaId);
+        return guardada;
     }
 
     /**
@@ -310,6 +331,7 @@ public class ProductoFincaService implements Idao<ProductoFinca, Integer> {
             ));
 
         productoFincaRepository.delete(productoFinca);
+        indiceFincasService.desasociar(productoId, fincaId);
     }
 
     /**
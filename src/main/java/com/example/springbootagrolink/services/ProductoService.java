@@ -1,13 +1,19 @@
 package com.example.springbootagrolink.services;
 
+import com.example.springbootagrolink.model.PaginaCatalogo;
 import com.example.springbootagrolink.model.Producto;
 import com.example.springbootagrolink.repository.ProductoRepository;
 import com.example.springbootagrolink.services.Idao.Idao;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -16,6 +22,21 @@ public class ProductoService  implements Idao <Producto, Integer> {
     @Autowired
     private ProductoRepository productoRepository;
 
+    @Autowired
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Autowired
+    private IndiceFincasService indiceFincasService;
+
+    @Autowired
+    private BuscadorProductosService buscadorProductosService;
+
+    @Autowired
+    private RankingProductosService rankingProductosService;
+
+    @Autowired
+    private ResenaService resenaService;
+
 
     @Override
     @Transactional(readOnly = true)
@@ -39,7 +60,9 @@ public class ProductoService  implements Idao <Producto, Integer> {
     @Override
     @Transactional
     public Producto guardar(Producto producto) {
-        return productoRepository.save(producto);
+        Producto guardado = productoRepository.save(producto);
+        indiceCatalogoService.indexar(guardado);
+        return guardado;
     }
 
     @Override
@@ -64,7 +87,9 @@ public class ProductoService  implements Idao <Producto, Integer> {
             if (producto.getCategoria() != null) {
                 prodActual.setCategoria(producto.getCategoria());
             }
-            return productoRepository.save(prodActual);
+            Producto guardado = productoRepository.save(prodActual);
+            indiceCatalogoService.indexar(guardado);
+            return guardado;
         } else {
             throw new RuntimeException("Producto no encontrado con ID: " + id);
         }
@@ -75,12 +100,153 @@ public class ProductoService  implements Idao <Producto, Integer> {
     public boolean eliminar(Integer id) {
         if(productoRepository.existsById(id)){
             productoRepository.deleteById(id);
+            indiceCatalogoService.quitar(id);
+            indiceFincasService.quitarProducto(id);
+            resenaService.quitarProducto(id);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Filtros combinados del catálogo público resueltos con el índice en memoria.
+     * Solo se consultan en BD los productos resultantes (con imágenes, productor y categoría).
+     * Con porCalificacion se ordenan de mejor a peor calificado (puntajes en memoria de ResenaService).
+     */
+    @Transactional(readOnly = true)
+    public List<Producto> filtrarCatalogo(String busqueda, Integer categoriaId, String ubicacion,
+                                          Double precioMin, Double precioMax,
+                                          Boolean soloDisponibles, Boolean organicosBPA,
+                                          Double calificacionMin, boolean porCalificacion) {
+        if (!indiceCatalogoService.estaCargado()) {
+            indiceCatalogoService.reconstruir();
+        }
+        List<Integer> ids = indiceCatalogoService.filtrar(busqueda, categoriaId, ubicacion,
+                precioMin, precioMax, soloDisponibles, organicosBPA, calificacionMin);
+        if (porCalificacion) {
+            ids = resenaService.ordenarPorPuntaje(ids);
+        }
+        return obtenerPorIds(ids);
+    }
+
+    /**
+     * Búsqueda de texto completo del catálogo (prefijos, tolerancia a errores y orden por relevancia).
+     * Devuelve solo los ids de la página pedida; se materializan con obtenerPorIds.
+     */
+    public BuscadorProductosService.ResultadoBusqueda buscarEnCatalogo(String termino, int pagina, int tamanio) {
+        if (!indiceCatalogoService.estaCargado()) {
+            indiceCatalogoService.reconstruir();
+        }
+        return buscadorProductosService.buscar(termino, pagina, tamanio);
+    }
+
+    /**
+     * Página del catálogo ordenada por id, empezando después de despuesDeId (null = primera página).
+     * Primero se leen solo los ids de la página y luego sus imágenes y datos en una segunda consulta,
+     * así el coste no depende del tamaño total del catálogo.
+     */
+    @Transactional(readOnly = true)
+    public PaginaCatalogo obtenerPaginaCatalogo(Integer despuesDeId, int tamanio) {
+        List<Integer> ids = productoRepository.findIdsPaginaCatalogo(despuesDeId, limite(tamanio));
+        return armarPagina(ids, tamanio);
+    }
+
+    /**
+     * Página del catálogo ordenada por precio ascendente (desempate por id).
+     * El cursor es el par (precio, id) del último producto de la página anterior.
+     */
+    @Transactional(readOnly = true)
+    public PaginaCatalogo obtenerPaginaCatalogoPorPrecio(BigDecimal despuesDePrecio, Integer despuesDeId, int tamanio) {
+        if (despuesDePrecio != null && despuesDeId == null) {
+            despuesDeId = 0;
+        }
+        List<Integer> ids = productoRepository.findIdsPaginaCatalogoPorPrecio(despuesDePrecio, despuesDeId, limite(tamanio));
+        return armarPagina(ids, tamanio);
+    }
+
+    /**
+     * Página del catálogo del mejor al peor calificado (promedio bayesiano, desempate por id) y al final
+     * los productos sin reseñas, por id. El cursor es (puntaje, id) del último producto de la página anterior:
+     * los calificados salen del índice en memoria de ResenaService y los demás de la BD, solo lo de la página.
+     */
+    @Transactional(readOnly = true)
+    public PaginaCatalogo obtenerPaginaCatalogoPorCalificacion(Double despuesDePuntaje, Integer despuesDeId, int tamanio) {
+        int limite = Math.max(tamanio, 1) + 1;
+        List<Integer> ids;
+        if (despuesDeId != null && despuesDePuntaje == null) {
+            // La página anterior terminó en los productos sin reseñas
+            ids = productoRepository.findIdsSinCalificacion(despuesDeId, limite(tamanio));
+        } else {
+            ids = new ArrayList<>(resenaService.calificadosDespuesDe(despuesDePuntaje, despuesDeId, limite));
+            if (ids.size() < limite) {
+                ids.addAll(productoRepository.findIdsSinCalificacion(null, PageRequest.of(0, limite - ids.size())));
+            }
+        }
+        PaginaCatalogo pagina = armarPagina(ids, tamanio);
+        if (!pagina.hayMas()) {
+            return pagina;
+        }
+        return new PaginaCatalogo(pagina.productos(), pagina.siguienteId(), pagina.siguientePrecio(),
+                resenaService.puntajeDe(pagina.siguienteId()), true);
+    }
+
+    /**
+     * Página de los productos de un productor, ordenada por id
+     */
+    @Transactional(readOnly = true)
+    public PaginaCatalogo obtenerPaginaPorProductor(Integer productorId, Integer despuesDeId, int tamanio) {
+        List<Integer> ids = productoRepository.findIdsPaginaPorProductor(productorId, despuesDeId, limite(tamanio));
+        return armarPagina(ids, tamanio);
+    }
+
+    @Transactional(readOnly = true)
+    public long contarTodos() {
+        return productoRepository.count();
+    }
+
+    @Transactional(readOnly = true)
+    public long contarPorProductor(Integer productorId) {
+        return productoRepository.countByProductorId(productorId);
+    }
+
+    // Se pide un elemento de más para saber si existe página siguiente sin hacer COUNT
+    private PageRequest limite(int tamanio) {
+        return PageRequest.of(0, Math.max(tamanio, 1) + 1);
+    }
+
+    private PaginaCatalogo armarPagina(List<Integer> ids, int tamanio) {
+        int tamanioPagina = Math.max(tamanio, 1);
+        boolean hayMas = ids.size() > tamanioPagina;
+        List<Integer> idsPagina = hayMas ? ids.subList(0, tamanioPagina) : ids;
+        List<Producto> productos = obtenerPorIds(idsPagina);
+        if (!hayMas || productos.isEmpty()) {
+            return new PaginaCatalogo(productos, null, null, null, false);
+        }
+        Producto ultimo = productos.get(productos.size() - 1);
+        return new PaginaCatalogo(productos, ultimo.getIdProducto(), ultimo.getPrecio(), null, true);
+    }
+
+    /**
+     * Carga los productos indicados en una sola consulta, respetando el orden de la lista de ids
+     */
+    @Transactional(readOnly = true)
+    public List<Producto> obtenerPorIds(List<Integer> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, Producto> porId = new HashMap<>();
+        for (Producto p : productoRepository.findAllWithImagesByIds(ids)) {
+            porId.put(p.getIdProducto(), p);
+        }
+        List<Producto> ordenados = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Producto p = porId.get(id);
+            if (p != null) ordenados.add(p);
+        }
+        return ordenados;
+    }
+
     @Transactional(readOnly = true)
     public List<Producto> buscarPorUbicacionYCategoria(String ubicacion, Integer categoriaId) {
         return productoRepository.buscarPorUbicacionYCategoria(ubicacion, categoriaId);
@@ -134,22 +300,24 @@ public class ProductoService  implements Idao <Producto, Integer> {
         return productoRepository.obtenerPrecioMaximo();
     }
 
-    // Método para filtrar por calificación mínima
+    // Método para filtrar por calificación mínima (promedio bayesiano), de mejor a peor calificado
     @Transactional(readOnly = true)
     public List<Producto> filtrarPorCalificacion(Double calificacionMin) {
         return productoRepository.filtrarPorCalificacion(calificacionMin);
     }
 
-    // Método para obtener el producto más vendido (destacado)
+    // Método para obtener el producto más vendido (destacado); sin ventas, el más reciente
     @Transactional(readOnly = true)
     public Producto obtenerProductoMasVendido() {
-        try {
-            Producto producto = productoRepository.obtenerProductoMasVendidoNativo();
-            return producto != null ? producto : productoRepository.findFirstByOrderByIdProductoDesc();
-        } catch (Exception e) {
-            // Si hay error, devolver el producto más reciente
-            return productoRepository.findFirstByOrderByIdProductoDesc();
+        List<RankingProductosService.Posicion> masVendido =
+                rankingProductosService.masVendidos(RankingProductosService.Ventana.TOTAL, null, 1);
+        if (!masVendido.isEmpty()) {
+            Optional<Producto> producto = productoRepository.findById(masVendido.get(0).idProducto());
+            if (producto.isPresent()) {
+                return producto.get();
+            }
         }
+        return productoRepository.findFirstByOrderByIdProductoDesc();
     }
 
     @Transactional(readOnly = true)
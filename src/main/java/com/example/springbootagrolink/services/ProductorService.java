@@ -15,9 +15,13 @@ public class ProductorService implements Idao<Productor, Integer> {
     @Autowired
     private ProductorRepository productorRepository;
 
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
+    // Desde memoria, con el usuario de cada productor
     @Override
     public List<Productor> obtenerTodos() {
-        return productorRepository.findAll();
+        return datosReferenciaService.productores();
     }
 
     @Override
@@ -32,7 +36,9 @@ public class ProductorService implements Idao<Productor, Integer> {
 
     @Override
     public Productor guardar(Productor productor) {
-        return productorRepository.save(productor);
+        Productor guardado = productorRepository.save(productor);
+        datosReferenciaService.invalidarProductores();
+        return guardado;
     }
 
     @Override
@@ -42,7 +48,9 @@ public class ProductorService implements Idao<Productor, Integer> {
             Productor prodActual = productorEscistente.get();
             prodActual.setCalificacion(productor.getCalificacion());
             prodActual.setTipoCultivo(productor.getTipoCultivo());
-            return productorRepository.save(prodActual);
+            Productor guardado = productorRepository.save(prodActual);
+            datosReferenciaService.invalidarProductores();
+            return guardado;
         } else {
             return null;
         }
@@ -52,6 +60,7 @@ public class ProductorService implements Idao<Productor, Integer> {
     public boolean eliminar(Integer id) {
         if (productorRepository.existsById(id)) {
             productorRepository.deleteById(id);
+            datosReferenciaService.invalidarProductores();
             return true;
         } else {
             return false;
@@ -0,0 +1,284 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.ProductoCarrito;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Productos relacionados de la página de producto (/cliente/producto/{id}).
+ *
+ * Un proceso en segundo plano (al arrancar y cada madrugada) recorre tb_detalles_compra en streaming
+ * y cuenta cuántas compras incluyen cada producto y cada par de productos. La similitud de dos
+ * productos es la del coseno: compras en común / raíz(compras de uno * compras del otro). Cada
+ * producto guarda sus VECINOS_POR_PRODUCTO mejores; si no llegan a tantos, se completan con productos
+ * de la misma categoría y el mismo departamento y luego de la misma categoría, empezando por los que
+ * tienen stock y más compras.
+ *
+ * Las listas se guardan en dos arreglos de int (inicio por id de producto y vecinos seguidos), así
+ * que responder es leer un tramo de un arreglo. Los productos creados después del último cálculo
+ * se completan al momento con su categoría desde IndiceCatalogoService.
+ */
+@Service
+public class ProductosRelacionadosService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductosRelacionadosService.class);
+
+    private static final int VECINOS_POR_PRODUCTO = 8;
+    // Las compras con más productos (pedidos al por mayor) cuentan para la popularidad pero no
+    // generan pares: aportan poca señal y su costo crece con el cuadrado de su tamaño
+    private static final int MAX_PRODUCTOS_CANASTA = 50;
+
+    // inicio[id]..inicio[id + 1] es el tramo de vecinos del producto id
+    private record Tabla(int[] inicio, int[] vecinos) {
+    }
+
+    private record Candidato(int idProducto, double puntaje) {
+    }
+
+    // Mayor puntaje primero; a igual puntaje, el id menor
+    private static final Comparator<Candidato> MEJOR_PRIMERO =
+            Comparator.comparingDouble(Candidato::puntaje).reversed().thenComparingInt(Candidato::idProducto);
+
+    @Autowired
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Tabla tabla = new Tabla(new int[0], new int[0]);
+
+    public ProductosRelacionadosService(DataSource dataSource) {
+        // Plantilla propia: el recorrido de los detalles se lee en streaming sin afectar al resto de consultas
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    // ==================== CONSULTA ====================
+
+    /**
+     * Hasta limite productos relacionados con los datos de sus tarjetas (una sola consulta), sin el propio producto
+     */
+    public List<ProductoCarrito> relacionados(Integer idProducto, int limite) {
+        List<Integer> ids = idsRelacionados(idProducto, limite);
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, ProductoCarrito> porId = new HashMap<>();
+        for (ProductoCarrito p : productoRepository.findProductosCarrito(ids)) {
+            porId.put(p.idProducto(), p);
+        }
+        List<ProductoCarrito> lista = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            ProductoCarrito p = porId.get(id);
+            if (p != null) {
+                lista.add(p);
+            }
+        }
+        return lista;
+    }
+
+    /**
+     * Ids de hasta limite productos relacionados, del más al menos parecido
+     */
+    public List<Integer> idsRelacionados(Integer idProducto, int limite) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        if (idProducto == null || limite <= 0) {
+            return new ArrayList<>();
+        }
+        Tabla t = tabla;
+        if (idProducto >= 0 && idProducto < t.inicio().length - 1) {
+            for (int i = t.inicio()[idProducto]; i < t.inicio()[idProducto + 1] && ids.size() < limite; i++) {
+                int vecino = t.vecinos()[i];
+                // Solo productos que siguen en el catálogo
+                if (indiceCatalogoService.stockDe(vecino) != null) {
+                    ids.add(vecino);
+                }
+            }
+        }
+        if (ids.size() < limite) {
+            // Producto nuevo o vecinos eliminados desde el último cálculo: completar con su categoría
+            for (Integer id : indiceCatalogoService.productosDeCategoria(indiceCatalogoService.categoriaDe(idProducto), limite + 1)) {
+                if (ids.size() >= limite) {
+                    break;
+                }
+                if (!id.equals(idProducto)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    // ==================== CÁLCULO ====================
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE - 1)
+    public void calcularAlIniciar() {
+        try {
+            recalcular();
+        } catch (Exception e) {
+            log.error("✗ No se pudieron calcular los productos relacionados: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(cron = "0 15 4 * * *")
+    public void recalcularProgramado() {
+        try {
+            recalcular();
+        } catch (Exception e) {
+            log.warn("⚠ No se pudieron recalcular los productos relacionados (se conservan los actuales): {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Recalcula todas las listas de vecinos y las publica de una vez
+     */
+    public synchronized void recalcular() {
+        long inicio = System.currentTimeMillis();
+        Map<Integer, IndiceCatalogoService.EntradaCatalogo> catalogo = new HashMap<>();
+        for (IndiceCatalogoService.EntradaCatalogo e : indiceCatalogoService.entradasCatalogo()) {
+            catalogo.put(e.idProducto(), e);
+        }
+
+        // 1. Compras por producto y compras en común por par (clave: id menor << 32 | id mayor)
+        Map<Integer, Integer> comprasPorProducto = new HashMap<>();
+        Map<Long, Integer> comprasEnComun = new HashMap<>();
+        List<Integer> canasta = new ArrayList<>();
+        int[] compraActual = {-1};
+        jdbcTemplate.query(
+                "SELECT id_compra, id_producto FROM tb_detalles_compra ORDER BY id_compra",
+                rs -> {
+                    int idCompra = rs.getInt("id_compra");
+                    if (idCompra != compraActual[0]) {
+                        contarCanasta(canasta, comprasPorProducto, comprasEnComun);
+                        canasta.clear();
+                        compraActual[0] = idCompra;
+                    }
+                    int idProducto = rs.getInt("id_producto");
+                    if (catalogo.containsKey(idProducto) && !canasta.contains(idProducto)) {
+                        canasta.add(idProducto);
+                    }
+                });
+        contarCanasta(canasta, comprasPorProducto, comprasEnComun);
+
+        // 2. Los mejores vecinos por co-compra de cada producto (cola acotado)
+        Comparator<Candidato> peorPrimero = MEJOR_PRIMERO.reversed();
+        Map<Integer, PriorityQueue<Candidato>> mejores = new HashMap<>();
+        for (Map.Entry<Long, Integer> par : comprasEnComun.entrySet()) {
+            int a = (int) (par.getKey() >>> 32);
+            int b = (int) par.getKey().longValue();
+            double similitud = par.getValue() / Math.sqrt((double) comprasPorProducto.get(a) * comprasPorProducto.get(b));
+            ofrecer(mejores.computeIfAbsent(a, k -> new PriorityQueue<>(peorPrimero)), new Candidato(b, similitud));
+            ofrecer(mejores.computeIfAbsent(b, k -> new PriorityQueue<>(peorPrimero)), new Candidato(a, similitud));
+        }
+
+        // 3. Respaldo: misma categoría y departamento, luego misma categoría (con stock y más compras primero)
+        Comparator<IndiceCatalogoService.EntradaCatalogo> porRelevancia = Comparator
+                .comparing((IndiceCatalogoService.EntradaCatalogo e) -> e.stock() <= 0)
+                .thenComparingInt(e -> -comprasPorProducto.getOrDefault(e.idProducto(), 0))
+                .thenComparing(IndiceCatalogoService.EntradaCatalogo::idProducto);
+        Map<Integer, List<Integer>> porCategoria = new HashMap<>();
+        Map<String, List<Integer>> porCategoriaYDepartamento = new HashMap<>();
+        catalogo.values().stream().sorted(porRelevancia).forEach(e -> {
+            if (e.idCategoria() == null) {
+                return;
+            }
+            porCategoria.computeIfAbsent(e.idCategoria(), k -> new ArrayList<>()).add(e.idProducto());
+            if (!e.departamento().isEmpty()) {
+                porCategoriaYDepartamento.computeIfAbsent(e.idCategoria() + "|" + e.departamento(), k -> new ArrayList<>())
+                        .add(e.idProducto());
+            }
+        });
+
+        // 4. Arreglos finales
+        int maxId = catalogo.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        int[] inicioPorId = new int[maxId + 2];
+        int[] vecinos = new int[catalogo.size() * VECINOS_POR_PRODUCTO];
+        int total = 0;
+        for (int id = 0; id <= maxId; id++) {
+            inicioPorId[id] = total;
+            IndiceCatalogoService.EntradaCatalogo entrada = catalogo.get(id);
+            if (entrada == null) {
+                continue;
+            }
+            Set<Integer> lista = new LinkedHashSet<>();
+            PriorityQueue<Candidato> candidatos = mejores.get(id);
+            if (candidatos != null) {
+                candidatos.stream().sorted(MEJOR_PRIMERO).forEach(c -> lista.add(c.idProducto()));
+            }
+            if (entrada.idCategoria() != null) {
+                completar(lista, id, porCategoriaYDepartamento.get(entrada.idCategoria() + "|" + entrada.departamento()));
+                completar(lista, id, porCategoria.get(entrada.idCategoria()));
+            }
+            for (int vecino : lista) {
+                vecinos[total++] = vecino;
+            }
+        }
+        inicioPorId[maxId + 1] = total;
+
+        int[] compactos = new int[total];
+        System.arraycopy(vecinos, 0, compactos, 0, total);
+        tabla = new Tabla(inicioPorId, compactos);
+        log.info("✓ Productos relacionados calculados: {} productos, {} pares comprados juntos, {} ms",
+                catalogo.size(), comprasEnComun.size(), System.currentTimeMillis() - inicio);
+    }
+
+    private static void contarCanasta(List<Integer> canasta, Map<Integer, Integer> comprasPorProducto,
+                                      Map<Long, Integer> comprasEnComun) {
+        for (Integer id : canasta) {
+            comprasPorProducto.merge(id, 1, Integer::sum);
+        }
+        if (canasta.size() < 2 || canasta.size() > MAX_PRODUCTOS_CANASTA) {
+            return;
+        }
+        for (int i = 0; i < canasta.size(); i++) {
+            for (int j = i + 1; j < canasta.size(); j++) {
+                int a = Math.min(canasta.get(i), canasta.get(j));
+                int b = Math.max(canasta.get(i), canasta.get(j));
+                comprasEnComun.merge(((long) a << 32) | b, 1, Integer::sum);
+            }
+        }
+    }
+
+    private static void ofrecer(PriorityQueue<Candidato> cola, Candidato candidato) {
+        cola.offer(candidato);
+        if (cola.size() > VECINOS_POR_PRODUCTO) {
+            cola.poll();
+        }
+    }
+
+    private static void completar(Set<Integer> lista, int idProducto, List<Integer> candidatos) {
+        if (candidatos == null) {
+            return;
+        }
+        for (Integer id : candidatos) {
+            if (lista.size() >= VECINOS_POR_PRODUCTO) {
+                return;
+            }
+            if (id != idProducto) {
+                lista.add(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.ProductoCarrito;
+import com.example.springbootagrolink.model.ProductoRanking;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Ranking de productos por unidades vendidas: más vendidos (histórico, últimos 7 y últimos 30 días)
+ * y tendencias.
+ *
+ * Cada producto tiene un contador en memoria con el total histórico y un anillo de 30 cubetas
+ * diarias; las ventanas de 7 y 30 días suman las cubetas que caen dentro del rango, así que avanzan
+ * solas con el cambio de día. CompraService avisa cada compra, línea agregada o cancelación y el
+ * contador se ajusta al confirmar la transacción, sin volver a leer tb_detalles_compra.
+ *
+ * Los top-N (generales o de una categoría) se eligen con un montículo acotado de tamaño N y se
+ * guardan hasta el siguiente cambio o el cambio de día. Solo entran productos que siguen en el
+ * catálogo (IndiceCatalogoService), que además da la categoría vigente de cada uno.
+ *
+ * Los contadores se cargan al arrancar y se reconstruyen cada madrugada desde la BD, lo que corrige
+ * cualquier diferencia (por ejemplo una venta confirmada mientras se hacía la carga).
+ */
+@Service
+public class RankingProductosService {
+
+    private static final Logger log = LoggerFactory.getLogger(RankingProductosService.class);
+
+    private static final int DIAS_ANILLO = 30;
+    private static final int LIMITE_MAXIMO = 50;
+
+    public enum Ventana {
+        TOTAL(0), SIETE_DIAS(7), TREINTA_DIAS(30);
+
+        private final int dias;
+
+        Ventana(int dias) {
+            this.dias = dias;
+        }
+
+        /**
+         * Ventana a partir del parámetro de la petición: total, 7d o 30d
+         *
+         * @throws IllegalArgumentException si el valor no es ninguno de esos
+         */
+        public static Ventana desde(String valor) {
+            if (valor == null || valor.isBlank() || "total".equalsIgnoreCase(valor)) {
+                return TOTAL;
+            }
+            return switch (valor.trim().toLowerCase()) {
+                case "7d" -> SIETE_DIAS;
+                case "30d" -> TREINTA_DIAS;
+                default -> throw new IllegalArgumentException("Ventana no soportada: " + valor + " (total, 7d o 30d)");
+            };
+        }
+    }
+
+    /**
+     * Posición de un producto: unidades vendidas en la ventana y el puntaje con el que se ordenó
+     */
+    public record Posicion(Integer idProducto, long unidades, double puntaje) {
+    }
+
+    // Unidades vendidas de un producto; se modifica solo con el lock del servicio
+    private static final class Contador {
+        long total;
+        final long[] unidadesDia = new long[DIAS_ANILLO];
+        final long[] diaDe = new long[DIAS_ANILLO];
+
+        void sumarDia(long dia, long hoy, long unidades) {
+            if (dia <= hoy - DIAS_ANILLO || dia > hoy) {
+                return;
+            }
+            int i = Math.floorMod(dia, DIAS_ANILLO);
+            if (diaDe[i] != dia) {
+                // La cubeta era de un día que ya salió del anillo
+                diaDe[i] = dia;
+                unidadesDia[i] = 0;
+            }
+            unidadesDia[i] += unidades;
+        }
+
+        long ultimosDias(long hoy, int dias) {
+            long suma = 0;
+            for (int i = 0; i < DIAS_ANILLO; i++) {
+                if (diaDe[i] > hoy - dias && diaDe[i] <= hoy) {
+                    suma += unidadesDia[i];
+                }
+            }
+            return suma;
+        }
+    }
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    private Map<Integer, Contador> contadores = new HashMap<>();
+    private final Map<String, List<Posicion>> resultados = new HashMap<>();
+    private long diaResultados;
+    private volatile boolean cargado = false;
+
+    // ==================== CARGA ====================
+
+    // Antes que las estadísticas de inicio, que toman de aquí el producto destacado
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE - 1)
+    public void cargarAlIniciar() {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            log.error("✗ No se pudo cargar el ranking de productos: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(cron = "0 45 3 * * *")
+    public void reconciliar() {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            log.warn("⚠ No se pudo reconstruir el ranking de productos (se conserva el actual): {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Recarga todos los contadores: total por producto y las cubetas de los últimos 30 días
+     */
+    public void reconstruir() {
+        long hoy = LocalDate.now().toEpochDay();
+        Map<Integer, Contador> nuevos = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT id_producto, SUM(cantidad) AS unidades FROM tb_detalles_compra GROUP BY id_producto",
+                new MapSqlParameterSource(),
+                rs -> {
+                    nuevos.computeIfAbsent(rs.getInt("id_producto"), id -> new Contador()).total = rs.getLong("unidades");
+                });
+        jdbcTemplate.query(
+                "SELECT d.id_producto, DATE(c.fecha_hora_compra) AS dia, SUM(d.cantidad) AS unidades " +
+                "FROM tb_detalles_compra d JOIN tb_compras c ON c.id_compra = d.id_compra " +
+                "WHERE c.fecha_hora_compra >= :desde " +
+                "GROUP BY d.id_producto, DATE(c.fecha_hora_compra)",
+                new MapSqlParameterSource("desde", LocalDate.ofEpochDay(hoy - DIAS_ANILLO + 1).atStartOfDay()),
+                rs -> {
+                    nuevos.computeIfAbsent(rs.getInt("id_producto"), id -> new Contador())
+                            .sumarDia(rs.getDate("dia").toLocalDate().toEpochDay(), hoy, rs.getLong("unidades"));
+                });
+        synchronized (this) {
+            contadores = nuevos;
+            resultados.clear();
+            cargado = true;
+        }
+        log.info("✓ Ranking de productos cargado con {} productos vendidos", nuevos.size());
+    }
+
+    public boolean estaCargado() {
+        return cargado;
+    }
+
+    // ==================== ACTUALIZACIÓN ====================
+
+    /**
+     * Suma las unidades vendidas (idProducto -> cantidad) de una compra hecha en la fecha indicada,
+     * al confirmar la transacción
+     */
+    public void registrarVenta(Map<Integer, Integer> unidadesPorProducto, LocalDateTime fecha) {
+        aplicarAlConfirmar(unidadesPorProducto, fecha, 1);
+    }
+
+    /**
+     * Resta las unidades de una compra cancelada, al confirmar la transacción
+     */
+    public void descontarVenta(Map<Integer, Integer> unidadesPorProducto, LocalDateTime fecha) {
+        aplicarAlConfirmar(unidadesPorProducto, fecha, -1);
+    }
+
+    private void aplicarAlConfirmar(Map<Integer, Integer> unidadesPorProducto, LocalDateTime fecha, int signo) {
+        if (unidadesPorProducto == null || unidadesPorProducto.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> copia = new HashMap<>(unidadesPorProducto);
+        long dia = (fecha != null ? fecha.toLocalDate() : LocalDate.now()).toEpochDay();
+        Runnable accion = () -> aplicar(copia, dia, signo);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+
+    private synchronized void aplicar(Map<Integer, Integer> unidadesPorProducto, long dia, int signo) {
+        long hoy = LocalDate.now().toEpochDay();
+        for (Map.Entry<Integer, Integer> entry : unidadesPorProducto.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            long unidades = (long) signo * entry.getValue();
+            Contador contador = contadores.computeIfAbsent(entry.getKey(), id -> new Contador());
+            contador.total += unidades;
+            contador.sumarDia(dia, hoy, unidades);
+        }
+        resultados.clear();
+    }
+
+    // ==================== CONSULTAS ====================
+
+    /**
+     * Los productos más vendidos en la ventana, opcionalmente de una sola categoría
+     */
+    public List<Posicion> masVendidos(Ventana ventana, Integer idCategoria, int limite) {
+        int dias = ventana.dias;
+        return top("vendidos:" + ventana + ":" + idCategoria, idCategoria, limite, (c, hoy) -> {
+            long unidades = dias == 0 ? c.total : c.ultimosDias(hoy, dias);
+            return new double[]{unidades, unidades};
+        });
+    }
+
+    /**
+     * Productos en tendencia: los que en los últimos 7 días vendieron por encima de su ritmo de los
+     * 23 días anteriores. El puntaje es ese exceso de unidades; las unidades son las de los 7 días.
+     */
+    public List<Posicion> tendencias(Integer idCategoria, int limite) {
+        return top("tendencias:" + idCategoria, idCategoria, limite, (c, hoy) -> {
+            long semana = c.ultimosDias(hoy, 7);
+            long previas = c.ultimosDias(hoy, DIAS_ANILLO) - semana;
+            return new double[]{semana, semana - previas * 7.0 / (DIAS_ANILLO - 7)};
+        });
+    }
+
+    /**
+     * Completa las posiciones con los datos de los productos (una sola consulta), en el mismo orden
+     */
+    public List<ProductoRanking> detallar(List<Posicion> posiciones) {
+        if (posiciones.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, ProductoCarrito> porId = new HashMap<>();
+        List<Integer> ids = posiciones.stream().map(Posicion::idProducto).toList();
+        for (ProductoCarrito p : productoRepository.findProductosCarrito(ids)) {
+            porId.put(p.idProducto(), p);
+        }
+        List<ProductoRanking> lista = new ArrayList<>(posiciones.size());
+        for (Posicion posicion : posiciones) {
+            ProductoCarrito p = porId.get(posicion.idProducto());
+            if (p != null) {
+                lista.add(new ProductoRanking(p.idProducto(), p.nombre(), p.precio(), p.stock(), p.urlImagen(),
+                        posicion.unidades()));
+            }
+        }
+        return lista;
+    }
+
+    // Unidades y puntaje de un contador; solo entran al ranking los de puntaje positivo
+    private interface Medida {
+        double[] medir(Contador contador, long hoy);
+    }
+
+    private synchronized List<Posicion> top(String clave, Integer idCategoria, int limite, Medida medida) {
+        int n = Math.min(Math.max(limite, 1), LIMITE_MAXIMO);
+        long hoy = LocalDate.now().toEpochDay();
+        if (diaResultados != hoy) {
+            resultados.clear();
+            diaResultados = hoy;
+        }
+        String claveCompleta = clave + ":" + n;
+        List<Posicion> guardado = resultados.get(claveCompleta);
+        if (guardado != null) {
+            return guardado;
+        }
+
+        // Montículo de mínimos con los n mejores vistos hasta ahora (a igual puntaje gana el id menor)
+        Comparator<Posicion> orden = Comparator.comparingDouble(Posicion::puntaje)
+                .thenComparing(Posicion::idProducto, Comparator.reverseOrder());
+        PriorityQueue<Posicion> mejores = new PriorityQueue<>(n + 1, orden);
+        for (Map.Entry<Integer, Contador> entry : contadores.entrySet()) {
+            Integer categoria = indiceCatalogoService.categoriaDe(entry.getKey());
+            if (categoria == null || (idCategoria != null && !idCategoria.equals(categoria))) {
+                continue;
+            }
+            double[] valores = medida.medir(entry.getValue(), hoy);
+            if (valores[1] <= 0) {
+                continue;
+            }
+            mejores.offer(new Posicion(entry.getKey(), (long) valores[0], valores[1]));
+            if (mejores.size() > n) {
+                mejores.poll();
+            }
+        }
+        List<Posicion> lista = new ArrayList<>(mejores);
+        lista.sort(orden.reversed());
+        List<Posicion> resultado = List.copyOf(lista);
+        resultados.put(claveCompleta, resultado);
+        return resultado;
+    }
+}
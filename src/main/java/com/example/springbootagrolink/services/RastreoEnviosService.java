@@ -0,0 +1,554 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.EnvioEnRuta;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rastreo GPS de los envíos en ruta (Asignado / En_Transito).
+ *
+ * Los transportistas envían sus posiciones en lotes. Cada posición válida:
+ * - entra al anillo en memoria del envío (las últimas CAPACIDAD_ANILLO posiciones),
+ * - actualiza de forma incremental la distancia restante, la velocidad (media móvil) y el ETA,
+ * - se encola para escribirse en tb_posiciones_envio.
+ *
+ * La cola se vuelca cada segundo con un INSERT por lotes, así que la BD recibe unas pocas
+ * sentencias por segundo sin importar cuántas posiciones lleguen. La cola está acotada: si la BD
+ * no da abasto se descartan posiciones (quedan contadas) en vez de agotar la memoria.
+ *
+ * Validar una posición no consulta la BD: el primer ping de un envío carga su transportista y su
+ * destino (y sus últimas posiciones guardadas) y los siguientes usan lo que quedó en memoria.
+ * Los envíos que no se pueden rastrear se recuerdan un minuto para no repetir la consulta.
+ * Los suscriptores (transportista y cliente) reciben el estado por SSE, agrupado cada 250 ms.
+ */
+@Service
+public class RastreoEnviosService {
+
+    private static final Logger log = LoggerFactory.getLogger(RastreoEnviosService.class);
+
+    private static final int CAPACIDAD_ANILLO = 100;
+    private static final int CAPACIDAD_COLA = 200_000;
+    private static final int TAMANIO_LOTE = 5_000;
+    private static final long INTERVALO_EMPUJE_MS = 250;
+    private static final long TIMEOUT_SUSCRIPCION_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long INACTIVIDAD_MAXIMA_MS = TimeUnit.HOURS.toMillis(2);
+    // Posiciones con más de un día de retraso no se aceptan (el histórico ya se consolidó)
+    private static final long ANTIGUEDAD_MAXIMA_MS = TimeUnit.DAYS.toMillis(1);
+    // Velocidad asumida mientras no haya datos suficientes, y mínima para no disparar el ETA en un atasco
+    private static final double VELOCIDAD_POR_DEFECTO_KMH = 40.0;
+    private static final double VELOCIDAD_MINIMA_KMH = 5.0;
+    private static final double PESO_MEDIA_MOVIL = 0.3;
+    private static final int MESES_PARTICION_ADELANTE = 2;
+
+    private static final Set<Envio.EstadoEnvio> ESTADOS_EN_RUTA =
+            EnumSet.of(Envio.EstadoEnvio.Asignado, Envio.EstadoEnvio.En_Transito);
+
+    private static final String INSERT_POSICION =
+            "INSERT INTO tb_posiciones_envio (id_envio, id_transportista, latitud, longitud, velocidad_kmh, registrada_en) " +
+            "VALUES (:idEnvio, :idTransportista, :latitud, :longitud, :velocidadKmh, :registradaEn)";
+
+    @Autowired
+    private EnvioRepository envioRepository;
+
+    @Autowired
+    private CostoEnvioService costoEnvioService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Posición tal como la envía el transportista. registradaEnMs es la hora del GPS en epoch ms
+     * (si falta se usa la hora de llegada).
+     */
+    public record PingPosicion(Integer idEnvio, Double latitud, Double longitud, Double velocidadKmh, Long registradaEnMs) {
+    }
+
+    public record PosicionEnvio(double latitud, double longitud, Double velocidadKmh, long registradaEnMs) {
+    }
+
+    public record ResultadoIngesta(int aceptadas, int rechazadas) {
+    }
+
+    /**
+     * Estado del rastreo de un envío: última posición, distancia restante (por carretera), velocidad
+     * estimada, ETA y las últimas posiciones (de la más antigua a la más reciente)
+     */
+    public record EstadoRastreo(
+            Integer idEnvio,
+            PosicionEnvio ultimaPosicion,
+            Double distanciaRestanteKm,
+            Double velocidadKmh,
+            Integer etaMinutos,
+            LocalDateTime llegadaEstimada,
+            List<PosicionEnvio> recorrido
+    ) {
+    }
+
+    private record FilaPosicion(Integer idEnvio, Integer idTransportista, PosicionEnvio posicion) {
+    }
+
+    /**
+     * Envío en ruta con su anillo de posiciones y el ETA calculado con la última
+     */
+    private static final class Seguimiento {
+        private final EnvioEnRuta envio;
+        private final PosicionEnvio[] anillo = new PosicionEnvio[CAPACIDAD_ANILLO];
+        private int siguiente;
+        private int cantidad;
+        private Double velocidadKmh;
+        private Double distanciaRestanteKm;
+        private volatile long ultimaActividadMs = System.currentTimeMillis();
+
+        Seguimiento(EnvioEnRuta envio) {
+            this.envio = envio;
+        }
+
+        synchronized PosicionEnvio ultima() {
+            return cantidad == 0 ? null : anillo[(siguiente - 1 + CAPACIDAD_ANILLO) % CAPACIDAD_ANILLO];
+        }
+
+        /**
+         * Añade la posición si es más reciente que la última y actualiza velocidad y distancia restante.
+         * Devuelve false si llegó fuera de orden (se guarda en el histórico pero no mueve el ETA).
+         */
+        synchronized boolean agregar(PosicionEnvio p, CostoEnvioService costos) {
+            ultimaActividadMs = System.currentTimeMillis();
+            PosicionEnvio anterior = ultima();
+            if (anterior != null && p.registradaEnMs() <= anterior.registradaEnMs()) {
+                return false;
+            }
+            double muestra = -1;
+            if (p.velocidadKmh() != null && p.velocidadKmh() >= 0) {
+                muestra = p.velocidadKmh();
+            } else if (anterior != null) {
+                double horas = (p.registradaEnMs() - anterior.registradaEnMs()) / 3_600_000.0;
+                // Intervalos muy cortos dan velocidades ruidosas
+                if (horas >= 5.0 / 3600) {
+                    muestra = costos.calcularDistanciaHaversine(anterior.latitud(), anterior.longitud(),
+                            p.latitud(), p.longitud()) / horas;
+                }
+            }
+            if (muestra >= 0) {
+                velocidadKmh = velocidadKmh == null ? muestra : PESO_MEDIA_MOVIL * muestra + (1 - PESO_MEDIA_MOVIL) * velocidadKmh;
+            }
+            if (envio.latitudDestino() != null && envio.longitudDestino() != null) {
+                distanciaRestanteKm = costos.calcularDistanciaHaversine(p.latitud(), p.longitud(),
+                        envio.latitudDestino(), envio.longitudDestino());
+            }
+            anillo[siguiente] = p;
+            siguiente = (siguiente + 1) % CAPACIDAD_ANILLO;
+            cantidad = Math.min(cantidad + 1, CAPACIDAD_ANILLO);
+            return true;
+        }
+
+        synchronized EstadoRastreo estado(int n) {
+            int k = Math.min(Math.max(n, 0), cantidad);
+            List<PosicionEnvio> recorrido = new ArrayList<>(k);
+            for (int i = k; i > 0; i--) {
+                recorrido.add(anillo[(siguiente - i + CAPACIDAD_ANILLO) % CAPACIDAD_ANILLO]);
+            }
+            PosicionEnvio ultima = ultima();
+            Integer eta = null;
+            LocalDateTime llegada = null;
+            if (ultima != null && distanciaRestanteKm != null) {
+                double velocidad = Math.max(velocidadKmh != null ? velocidadKmh : VELOCIDAD_POR_DEFECTO_KMH, VELOCIDAD_MINIMA_KMH);
+                eta = (int) Math.ceil(distanciaRestanteKm / velocidad * 60);
+                llegada = LocalDateTime.ofInstant(Instant.ofEpochMilli(ultima.registradaEnMs()), ZoneId.systemDefault())
+                        .plusMinutes(eta);
+            }
+            return new EstadoRastreo(envio.idEnvio(), ultima,
+                    distanciaRestanteKm != null ? redondear(distanciaRestanteKm) : null,
+                    velocidadKmh != null ? redondear(velocidadKmh) : null,
+                    eta, llegada, recorrido);
+        }
+    }
+
+    private final Map<Integer, Seguimiento> seguimientos = new ConcurrentHashMap<>();
+    // Envíos que no están en ruta, para no consultarlos en cada ping
+    private final CacheLruConExpiracion<Integer, Boolean> noRastreables =
+            new CacheLruConExpiracion<>("envios-no-rastreables", 10_000, TimeUnit.MINUTES.toMillis(1));
+    private final BlockingQueue<FilaPosicion> colaEscritura = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+    private final LongAdder descartadas = new LongAdder();
+
+    private final Map<Integer, Set<SseEmitter>> suscriptores = new ConcurrentHashMap<>();
+    private final Set<Integer> pendientesDeEmpujar = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "rastreo-envios");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    @PostConstruct
+    public void iniciar() {
+        ejecutor.scheduleWithFixedDelay(this::empujarPendientes, INTERVALO_EMPUJE_MS, INTERVALO_EMPUJE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // -------------------------------------------------------------------------------- ingesta
+
+    /**
+     * Registra un lote de posiciones del transportista. Se rechazan las de envíos que no son suyos o
+     * que no están en ruta, las coordenadas inválidas y las demasiado antiguas.
+     */
+    public ResultadoIngesta registrarPosiciones(Integer idTransportista, List<PingPosicion> pings) {
+        if (pings == null || pings.isEmpty()) {
+            return new ResultadoIngesta(0, 0);
+        }
+        long ahora = System.currentTimeMillis();
+        int aceptadas = 0;
+        int rechazadas = 0;
+        for (PingPosicion ping : pings) {
+            if (ping == null || !coordenadasValidas(ping.latitud(), ping.longitud())) {
+                rechazadas++;
+                continue;
+            }
+            long registrada = ping.registradaEnMs() != null ? Math.min(ping.registradaEnMs(), ahora) : ahora;
+            if (ahora - registrada > ANTIGUEDAD_MAXIMA_MS) {
+                rechazadas++;
+                continue;
+            }
+            Seguimiento seguimiento = seguimiento(ping.idEnvio());
+            if (seguimiento == null || !seguimiento.envio.idTransportista().equals(idTransportista)) {
+                rechazadas++;
+                continue;
+            }
+            PosicionEnvio posicion = new PosicionEnvio(ping.latitud(), ping.longitud(),
+                    ping.velocidadKmh() != null && ping.velocidadKmh() >= 0 ? ping.velocidadKmh() : null, registrada);
+            if (seguimiento.agregar(posicion, costoEnvioService)) {
+                pendientesDeEmpujar.add(ping.idEnvio());
+            }
+            if (!colaEscritura.offer(new FilaPosicion(ping.idEnvio(), idTransportista, posicion))) {
+                descartadas.increment();
+            }
+            aceptadas++;
+        }
+        return new ResultadoIngesta(aceptadas, rechazadas);
+    }
+
+    /**
+     * Vuelca la cola en tb_posiciones_envio con INSERT por lotes (rewriteBatchedStatements los
+     * convierte en INSERT de varias filas)
+     */
+    @Scheduled(fixedDelay = 1_000, initialDelay = 1_000)
+    public void volcarPosiciones() {
+        long perdidas = descartadas.sumThenReset();
+        if (perdidas > 0) {
+            log.warn("⚠ Rastreo: {} posición(es) descartada(s) por cola llena", perdidas);
+        }
+        List<FilaPosicion> lote = new ArrayList<>(Math.min(colaEscritura.size(), TAMANIO_LOTE));
+        while (colaEscritura.drainTo(lote, TAMANIO_LOTE) > 0) {
+            SqlParameterSource[] filas = new SqlParameterSource[lote.size()];
+            for (int i = 0; i < filas.length; i++) {
+                FilaPosicion f = lote.get(i);
+                filas[i] = new MapSqlParameterSource()
+                        .addValue("idEnvio", f.idEnvio())
+                        .addValue("idTransportista", f.idTransportista())
+                        .addValue("latitud", f.posicion().latitud())
+                        .addValue("longitud", f.posicion().longitud())
+                        .addValue("velocidadKmh", f.posicion().velocidadKmh())
+                        .addValue("registradaEn", new Timestamp(f.posicion().registradaEnMs()));
+            }
+            try {
+                jdbcTemplate.batchUpdate(INSERT_POSICION, filas);
+            } catch (Exception e) {
+                // Se devuelven a la cola para el siguiente volcado; lo que no quepa se pierde
+                log.error("✗ Rastreo: no se pudieron guardar {} posición(es): {}", lote.size(), e.getMessage());
+                for (FilaPosicion f : lote) {
+                    if (!colaEscritura.offer(f)) {
+                        descartadas.increment();
+                    }
+                }
+                return;
+            }
+            lote.clear();
+        }
+    }
+
+    // -------------------------------------------------------------------------------- consulta
+
+    /**
+     * Estado del rastreo con las últimas n posiciones. Para envíos que ya no están en ruta
+     * devuelve el recorrido guardado, sin ETA.
+     */
+    public EstadoRastreo estado(Integer idEnvio, int n) {
+        int limite = Math.min(Math.max(n, 1), CAPACIDAD_ANILLO);
+        Seguimiento seguimiento = seguimiento(idEnvio);
+        if (seguimiento != null) {
+            return seguimiento.estado(limite);
+        }
+        List<PosicionEnvio> recorrido = posicionesGuardadas(idEnvio, limite);
+        return new EstadoRastreo(idEnvio, recorrido.isEmpty() ? null : recorrido.get(recorrido.size() - 1),
+                null, null, null, null, recorrido);
+    }
+
+    /**
+     * Suscripción SSE al rastreo de un envío: evento "rastreo" con el estado actual y después cada
+     * vez que llega una posición nueva
+     */
+    public SseEmitter suscribir(Integer idEnvio) {
+        SseEmitter emisor = new SseEmitter(TIMEOUT_SUSCRIPCION_MS);
+        Set<SseEmitter> delEnvio = suscriptores.computeIfAbsent(idEnvio, k -> ConcurrentHashMap.newKeySet());
+        delEnvio.add(emisor);
+        Runnable quitar = () -> quitarSuscriptor(idEnvio, emisor);
+        emisor.onCompletion(quitar);
+        emisor.onTimeout(quitar);
+        emisor.onError(e -> quitar.run());
+        ejecutor.execute(() -> enviar(idEnvio, emisor, estado(idEnvio, CAPACIDAD_ANILLO)));
+        return emisor;
+    }
+
+    /**
+     * El envío salió de ruta (finalizado, cancelado, devuelto a búsqueda o eliminado): se libera su
+     * memoria y se cierran sus suscripciones tras enviarles el último estado
+     */
+    public void finalizar(Integer idEnvio) {
+        if (idEnvio == null) {
+            return;
+        }
+        seguimientos.remove(idEnvio);
+        noRastreables.invalidar(idEnvio);
+        Set<SseEmitter> delEnvio = suscriptores.remove(idEnvio);
+        if (delEnvio != null) {
+            ejecutor.execute(() -> {
+                EstadoRastreo ultimo = estado(idEnvio, CAPACIDAD_ANILLO);
+                for (SseEmitter emisor : delEnvio) {
+                    enviar(idEnvio, emisor, ultimo);
+                    emisor.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * El envío entró en ruta (un transportista lo aceptó): se olvida que no era rastreable para que
+     * sus pings y suscripciones se atiendan desde ya, al confirmar la transacción si existe una
+     */
+    public void invalidar(Integer idEnvio) {
+        if (idEnvio == null) {
+            return;
+        }
+        alConfirmar(() -> noRastreables.invalidar(idEnvio));
+    }
+
+    /**
+     * El envío cambió de estado: si sigue en ruta se vuelve a leer (transportista y destino) en el
+     * próximo ping sin cerrar sus suscripciones; si salió de ruta se finaliza
+     */
+    public void actualizarEstado(Integer idEnvio, Envio.EstadoEnvio estado) {
+        if (idEnvio == null) {
+            return;
+        }
+        if (!ESTADOS_EN_RUTA.contains(estado)) {
+            alConfirmar(() -> finalizar(idEnvio));
+            return;
+        }
+        alConfirmar(() -> {
+            // El anillo se recupera de lo ya guardado al recargar
+            seguimientos.remove(idEnvio);
+            noRastreables.invalidar(idEnvio);
+        });
+    }
+
+    /**
+     * Libera los envíos sin posiciones recientes (el próximo ping los vuelve a cargar)
+     */
+    @Scheduled(fixedDelay = 600_000, initialDelay = 600_000)
+    public void liberarInactivos() {
+        long limite = System.currentTimeMillis() - INACTIVIDAD_MAXIMA_MS;
+        seguimientos.values().removeIf(s -> s.ultimaActividadMs < limite && !suscriptores.containsKey(s.envio.idEnvio()));
+    }
+
+    @Scheduled(fixedDelay = 25_000, initialDelay = 25_000)
+    public void latido() {
+        if (suscriptores.isEmpty()) {
+            return;
+        }
+        ejecutor.execute(() -> suscriptores.forEach((idEnvio, emisores) -> {
+            for (SseEmitter emisor : emisores) {
+                try {
+                    emisor.send(SseEmitter.event().comment("latido"));
+                } catch (IOException | IllegalStateException e) {
+                    quitarSuscriptor(idEnvio, emisor);
+                }
+            }
+        }));
+    }
+
+    // -------------------------------------------------------------------------------- particiones
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepararAlIniciar() {
+        asegurarParticiones();
+    }
+
+    /**
+     * Crea por adelantado las particiones mensuales de tb_posiciones_envio partiendo la partición pmax
+     */
+    @Scheduled(cron = "0 15 3 * * *")
+    public void asegurarParticiones() {
+        try {
+            List<String> existentes = jdbcTemplate.queryForList(
+                    "SELECT PARTITION_NAME FROM information_schema.PARTITIONS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'tb_posiciones_envio' AND PARTITION_NAME IS NOT NULL",
+                    Collections.emptyMap(), String.class);
+            if (!existentes.contains("pmax")) {
+                return;
+            }
+            LocalDate mes = LocalDate.now().withDayOfMonth(1);
+            DateTimeFormatter formato = DateTimeFormatter.ofPattern("yyyyMM");
+            for (int i = 0; i <= MESES_PARTICION_ADELANTE; i++) {
+                LocalDate inicio = mes.plusMonths(i);
+                String nombre = "p" + inicio.format(formato);
+                if (existentes.contains(nombre)) {
+                    continue;
+                }
+                jdbcTemplate.getJdbcTemplate().execute(
+                        "ALTER TABLE tb_posiciones_envio REORGANIZE PARTITION pmax INTO (" +
+                        "PARTITION " + nombre + " VALUES LESS THAN ('" + inicio.plusMonths(1) + "'), " +
+                        "PARTITION pmax VALUES LESS THAN (MAXVALUE))");
+                log.info("✓ Partición {} creada en tb_posiciones_envio", nombre);
+            }
+        } catch (Exception e) {
+            log.warn("⚠ No se pudieron revisar las particiones de tb_posiciones_envio: {}", e.getMessage());
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+
+    private void alConfirmar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+
+    private Seguimiento seguimiento(Integer idEnvio) {
+        if (idEnvio == null) {
+            return null;
+        }
+        Seguimiento seguimiento = seguimientos.get(idEnvio);
+        if (seguimiento != null || noRastreables.obtener(idEnvio) != null) {
+            return seguimiento;
+        }
+        EnvioEnRuta envio = envioRepository.findEnvioEnRuta(idEnvio, ESTADOS_EN_RUTA).orElse(null);
+        if (envio == null) {
+            noRastreables.guardar(idEnvio, Boolean.TRUE);
+            return null;
+        }
+        Seguimiento nuevo = new Seguimiento(envio);
+        // Tras un reinicio el anillo se recupera de lo ya guardado
+        for (PosicionEnvio p : posicionesGuardadas(idEnvio, CAPACIDAD_ANILLO)) {
+            nuevo.agregar(p, costoEnvioService);
+        }
+        Seguimiento previo = seguimientos.putIfAbsent(idEnvio, nuevo);
+        return previo != null ? previo : nuevo;
+    }
+
+    // Últimas n posiciones guardadas, de la más antigua a la más reciente
+    private List<PosicionEnvio> posicionesGuardadas(Integer idEnvio, int n) {
+        List<PosicionEnvio> posiciones = jdbcTemplate.query(
+                "SELECT latitud, longitud, velocidad_kmh, registrada_en FROM tb_posiciones_envio " +
+                "WHERE id_envio = :idEnvio ORDER BY registrada_en DESC LIMIT :n",
+                new MapSqlParameterSource("idEnvio", idEnvio).addValue("n", n),
+                (rs, i) -> new PosicionEnvio(
+                        rs.getDouble("latitud"),
+                        rs.getDouble("longitud"),
+                        rs.getObject("velocidad_kmh", Double.class),
+                        rs.getTimestamp("registrada_en").getTime()));
+        Collections.reverse(posiciones);
+        return posiciones;
+    }
+
+    private void empujarPendientes() {
+        if (pendientesDeEmpujar.isEmpty()) {
+            return;
+        }
+        for (Integer idEnvio : List.copyOf(pendientesDeEmpujar)) {
+            pendientesDeEmpujar.remove(idEnvio);
+            Set<SseEmitter> emisores = suscriptores.get(idEnvio);
+            Seguimiento seguimiento = seguimientos.get(idEnvio);
+            if (emisores == null || emisores.isEmpty() || seguimiento == null) {
+                continue;
+            }
+            EstadoRastreo estado = seguimiento.estado(CAPACIDAD_ANILLO);
+            for (SseEmitter emisor : emisores) {
+                enviar(idEnvio, emisor, estado);
+            }
+        }
+    }
+
+    private void enviar(Integer idEnvio, SseEmitter emisor, EstadoRastreo estado) {
+        try {
+            emisor.send(SseEmitter.event().name("rastreo").data(estado, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            quitarSuscriptor(idEnvio, emisor);
+        }
+    }
+
+    private void quitarSuscriptor(Integer idEnvio, SseEmitter emisor) {
+        suscriptores.computeIfPresent(idEnvio, (k, emisores) -> {
+            emisores.remove(emisor);
+            return emisores.isEmpty() ? null : emisores;
+        });
+    }
+
+    private static boolean coordenadasValidas(Double latitud, Double longitud) {
+        return latitud != null && longitud != null
+                && latitud >= -90 && latitud <= 90 && longitud >= -180 && longitud <= 180;
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 10.0) / 10.0;
+    }
+
+    @PreDestroy
+    public void detener() {
+        ejecutor.shutdownNow();
+        suscriptores.values().forEach(emisores -> emisores.forEach(SseEmitter::complete));
+        suscriptores.clear();
+        // Lo que quede en la cola se guarda antes de apagar
+        volcarPosiciones();
+    }
+}
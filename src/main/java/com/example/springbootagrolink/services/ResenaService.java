@@ -0,0 +1,393 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Resena;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Reseñas de productos y productores y sus acumulados (tb_calificaciones_producto y
+ * tb_calificaciones_productor).
+ *
+ * Cada acumulado guarda cantidad, suma, promedio simple y promedio bayesiano
+ * (peso * media + suma) / (peso + cantidad), que acerca a la media general los productos con pocas
+ * reseñas. Al guardar una reseña se suma la diferencia con la anterior del mismo cliente (si la había)
+ * con un INSERT ... ON DUPLICATE KEY UPDATE en la misma transacción: el costo no depende de cuántas
+ * reseñas tenga el producto. Una reseña de producto cuenta también para su productor.
+ *
+ * Los puntajes bayesianos de los productos se mantienen además en memoria, ordenados, para que los
+ * filtros del catálogo por calificación mínima y el orden por calificación no consulten la base de datos.
+ * Solo puede reseñar quien haya comprado el producto (o algún producto del productor).
+ */
+@Service
+public class ResenaService {
+
+    private static final Logger log = LoggerFactory.getLogger(ResenaService.class);
+
+    private static final int LONGITUD_MAX_COMENTARIO = 500;
+
+    /**
+     * Acumulado de un producto o productor; promedio es null si no tiene reseñas
+     */
+    public record ResumenCalificacion(int cantidad, BigDecimal promedio, double puntaje) {
+    }
+
+    private record PuntajeProducto(double puntaje, int idProducto) {
+    }
+
+    // Mayor puntaje primero; a igual puntaje, el id menor
+    private static final Comparator<PuntajeProducto> MEJOR_PRIMERO =
+            Comparator.comparingDouble(PuntajeProducto::puntaje).reversed().thenComparingInt(PuntajeProducto::idProducto);
+
+    // %1$s tabla de reseñas, %2$s columna del producto o productor reseñado
+    private static final String RESENA_ANTERIOR =
+            "SELECT puntaje FROM %1$s WHERE %2$s = :objetivo AND id_cliente = :cliente FOR UPDATE";
+
+    private static final String INSERTAR_RESENA =
+            "INSERT INTO %1$s (%2$s, id_cliente, puntaje, comentario, fecha_resena) " +
+            "VALUES (:objetivo, :cliente, :puntaje, :comentario, NOW())";
+
+    private static final String ACTUALIZAR_RESENA =
+            "UPDATE %1$s SET puntaje = :puntaje, comentario = :comentario, fecha_resena = NOW() " +
+            "WHERE %2$s = :objetivo AND id_cliente = :cliente";
+
+    // %1$s tabla de acumulados, %2$s columna de su clave. Las asignaciones se evalúan en orden,
+    // así promedio y puntaje usan la cantidad y la suma ya actualizadas
+    private static final String ACUMULAR =
+            "INSERT INTO %1$s (%2$s, cantidad, suma, promedio, puntaje) " +
+            "SELECT * FROM (" +
+            "  SELECT :objetivo AS objetivo, :cantidad AS c, :suma AS s, " +
+            "         :suma / NULLIF(:cantidad, 0) AS pr, (:peso * :media + :suma) / (:peso + :cantidad) AS pu" +
+            ") AS nuevo " +
+            "ON DUPLICATE KEY UPDATE cantidad = cantidad + nuevo.c, suma = suma + nuevo.s, " +
+            "promedio = suma / NULLIF(cantidad, 0), puntaje = (:peso * :media + suma) / (:peso + cantidad)";
+
+    private static final String RECALCULAR_PUNTAJES =
+            "UPDATE %1$s SET puntaje = (:peso * :media + suma) / (:peso + cantidad)";
+
+    private static final String RESUMEN =
+            "SELECT cantidad, promedio, puntaje FROM %1$s WHERE %2$s = :objetivo";
+
+    private static final String COMPRO_PRODUCTO =
+            "SELECT EXISTS (SELECT 1 FROM tb_detalles_compra d " +
+            "               JOIN tb_compras c ON c.id_compra = d.id_compra " +
+            "               WHERE c.id_cliente = :cliente AND d.id_producto = :objetivo)";
+
+    private static final String COMPRO_A_PRODUCTOR =
+            "SELECT EXISTS (SELECT 1 FROM tb_detalles_compra d " +
+            "               JOIN tb_compras c ON c.id_compra = d.id_compra " +
+            "               JOIN tb_productos p ON p.id_producto = d.id_producto " +
+            "               WHERE c.id_cliente = :cliente AND p.id_usuario = :objetivo)";
+
+    private static final String ULTIMAS_RESENAS_PRODUCTO =
+            "SELECT u.nombre, r.puntaje, r.comentario, r.fecha_resena " +
+            "FROM tb_resenas_producto r " +
+            "JOIN tb_usuarios u ON u.id_usuario = r.id_cliente " +
+            "WHERE r.id_producto = :objetivo " +
+            "ORDER BY r.fecha_resena DESC, r.id_resena DESC LIMIT :limite";
+
+    @Value("${calificaciones.bayes.media:3.5}")
+    private double media;
+
+    @Value("${calificaciones.bayes.peso:5}")
+    private double peso;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    // Puntaje bayesiano de cada producto con reseñas, y los mismos pares ordenados de mejor a peor
+    private final Map<Integer, Double> puntajePorProducto = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<PuntajeProducto> porPuntaje = new ConcurrentSkipListSet<>(MEJOR_PRIMERO);
+
+    // ==================== RESEÑAS ====================
+
+    /**
+     * Guarda (o reemplaza) la reseña del cliente sobre un producto que compró
+     */
+    @Transactional
+    public void calificarProducto(Integer idCliente, Integer idProducto, int puntaje, String comentario) {
+        validarPuntaje(puntaje);
+        List<Integer> productor = jdbcTemplate.queryForList(
+                "SELECT id_usuario FROM tb_productos WHERE id_producto = :objetivo",
+                new MapSqlParameterSource("objetivo", idProducto), Integer.class);
+        if (productor.isEmpty()) {
+            throw new IllegalArgumentException("Producto no encontrado");
+        }
+        if (!compro(COMPRO_PRODUCTO, idCliente, idProducto)) {
+            throw new IllegalArgumentException("Solo puedes calificar productos que hayas comprado");
+        }
+
+        int[] delta = guardarResena("tb_resenas_producto", "id_producto", idProducto, idCliente, puntaje, comentario);
+        if (delta[0] == 0 && delta[1] == 0) {
+            return;
+        }
+        // Siempre producto antes que productor, para que dos reseñas simultáneas no se bloqueen mutuamente
+        acumular("tb_calificaciones_producto", "id_producto", idProducto, delta);
+        acumular("tb_calificaciones_productor", "id_productor", productor.get(0), delta);
+
+        // El puntaje se relee ya confirmado: otra reseña del mismo producto puede confirmar antes o después
+        alConfirmar(() -> recargarPuntaje(idProducto));
+    }
+
+    /**
+     * Guarda (o reemplaza) la reseña del cliente sobre un productor al que le compró
+     */
+    @Transactional
+    public void calificarProductor(Integer idCliente, Integer idProductor, int puntaje, String comentario) {
+        validarPuntaje(puntaje);
+        if (!compro(COMPRO_A_PRODUCTOR, idCliente, idProductor)) {
+            throw new IllegalArgumentException("Solo puedes calificar productores a los que les hayas comprado");
+        }
+
+        int[] delta = guardarResena("tb_resenas_productor", "id_productor", idProductor, idCliente, puntaje, comentario);
+        if (delta[0] != 0 || delta[1] != 0) {
+            acumular("tb_calificaciones_productor", "id_productor", idProductor, delta);
+        }
+    }
+
+    /**
+     * Acumulado del producto, o null si todavía no tiene reseñas
+     */
+    public ResumenCalificacion resumenProducto(Integer idProducto) {
+        return idProducto != null ? resumen("tb_calificaciones_producto", "id_producto", idProducto) : null;
+    }
+
+    /**
+     * Acumulado del productor (sus reseñas y las de sus productos), o null si no tiene ninguna
+     */
+    public ResumenCalificacion resumenProductor(Integer idProductor) {
+        return idProductor != null ? resumen("tb_calificaciones_productor", "id_productor", idProductor) : null;
+    }
+
+    /**
+     * Las reseñas más recientes del producto
+     */
+    public List<Resena> ultimasResenasProducto(Integer idProducto, int limite) {
+        if (idProducto == null || limite <= 0) {
+            return new ArrayList<>();
+        }
+        return jdbcTemplate.query(ULTIMAS_RESENAS_PRODUCTO,
+                new MapSqlParameterSource("objetivo", idProducto).addValue("limite", limite),
+                (rs, i) -> new Resena(
+                        rs.getString("nombre"),
+                        rs.getInt("puntaje"),
+                        rs.getString("comentario"),
+                        rs.getTimestamp("fecha_resena").toLocalDateTime()));
+    }
+
+    private static void validarPuntaje(int puntaje) {
+        if (puntaje < 1 || puntaje > 5) {
+            throw new IllegalArgumentException("La calificación debe estar entre 1 y 5");
+        }
+    }
+
+    private boolean compro(String consulta, Integer idCliente, Integer idObjetivo) {
+        if (idCliente == null || idObjetivo == null) {
+            return false;
+        }
+        Boolean compro = jdbcTemplate.queryForObject(consulta,
+                new MapSqlParameterSource("cliente", idCliente).addValue("objetivo", idObjetivo), Boolean.class);
+        return Boolean.TRUE.equals(compro);
+    }
+
+    /**
+     * Inserta o reemplaza la reseña y devuelve la diferencia que hay que sumar al acumulado:
+     * {cantidad, suma}
+     */
+    private int[] guardarResena(String tabla, String columna, Integer idObjetivo, Integer idCliente,
+                                int puntaje, String comentario) {
+        String texto = comentario != null ? comentario.trim() : "";
+        if (texto.length() > LONGITUD_MAX_COMENTARIO) {
+            texto = texto.substring(0, LONGITUD_MAX_COMENTARIO);
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("objetivo", idObjetivo)
+                .addValue("cliente", idCliente)
+                .addValue("puntaje", puntaje)
+                .addValue("comentario", texto.isEmpty() ? null : texto);
+
+        List<Integer> anterior = jdbcTemplate.queryForList(String.format(RESENA_ANTERIOR, tabla, columna), params, Integer.class);
+        if (anterior.isEmpty()) {
+            jdbcTemplate.update(String.format(INSERTAR_RESENA, tabla, columna), params);
+            return new int[]{1, puntaje};
+        }
+        jdbcTemplate.update(String.format(ACTUALIZAR_RESENA, tabla, columna), params);
+        return new int[]{0, puntaje - anterior.get(0)};
+    }
+
+    private void acumular(String tabla, String columna, Integer idObjetivo, int[] delta) {
+        jdbcTemplate.update(String.format(ACUMULAR, tabla, columna), parametrosBayes()
+                .addValue("objetivo", idObjetivo)
+                .addValue("cantidad", delta[0])
+                .addValue("suma", delta[1]));
+    }
+
+    private ResumenCalificacion resumen(String tabla, String columna, Integer idObjetivo) {
+        List<ResumenCalificacion> filas = jdbcTemplate.query(String.format(RESUMEN, tabla, columna),
+                new MapSqlParameterSource("objetivo", idObjetivo),
+                (rs, i) -> new ResumenCalificacion(
+                        rs.getInt("cantidad"),
+                        rs.getBigDecimal("promedio"),
+                        rs.getBigDecimal("puntaje").doubleValue()));
+        return filas.isEmpty() || filas.get(0).cantidad() == 0 ? null : filas.get(0);
+    }
+
+    private MapSqlParameterSource parametrosBayes() {
+        return new MapSqlParameterSource("media", media).addValue("peso", peso);
+    }
+
+    // ==================== ÍNDICE DE PUNTAJES ====================
+
+    /**
+     * Ajusta los puntajes guardados a la media y el peso configurados (por si cambiaron) y carga
+     * los puntajes de los productos en memoria
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlIniciar() {
+        try {
+            long inicio = System.currentTimeMillis();
+            jdbcTemplate.update(String.format(RECALCULAR_PUNTAJES, "tb_calificaciones_producto"), parametrosBayes());
+            jdbcTemplate.update(String.format(RECALCULAR_PUNTAJES, "tb_calificaciones_productor"), parametrosBayes());
+            recargarPuntajes();
+            log.info("✓ Calificaciones cargadas: {} productos con reseñas, {} ms",
+                    puntajePorProducto.size(), System.currentTimeMillis() - inicio);
+        } catch (Exception e) {
+            log.error("✗ No se pudieron cargar las calificaciones de productos: {}", e.getMessage(), e);
+        }
+    }
+
+    private synchronized void recargarPuntajes() {
+        puntajePorProducto.clear();
+        porPuntaje.clear();
+        jdbcTemplate.query(
+                "SELECT id_producto, puntaje FROM tb_calificaciones_producto WHERE cantidad > 0",
+                rs -> {
+                    aplicarPuntaje(rs.getInt("id_producto"), rs.getBigDecimal("puntaje").doubleValue());
+                });
+    }
+
+    /**
+     * Puntaje bayesiano del producto, o null si no tiene reseñas
+     */
+    public Double puntajeDe(Integer idProducto) {
+        return idProducto != null ? puntajePorProducto.get(idProducto) : null;
+    }
+
+    /**
+     * Ids de los productos con puntaje bayesiano mayor o igual al mínimo, del mejor al peor.
+     * Recorre solo el tramo que cumple el mínimo.
+     */
+    public List<Integer> productosConPuntajeMinimo(double minimo) {
+        List<Integer> ids = new ArrayList<>();
+        for (PuntajeProducto p : porPuntaje) {
+            if (p.puntaje() < minimo) {
+                break;
+            }
+            ids.add(p.idProducto());
+        }
+        return ids;
+    }
+
+    /**
+     * Ordena los ids del mejor al peor calificado; los productos sin reseñas van al final, por id
+     */
+    public List<Integer> ordenarPorPuntaje(List<Integer> ids) {
+        List<Integer> ordenados = new ArrayList<>(ids);
+        ordenados.sort(Comparator
+                .comparing((Integer id) -> puntajePorProducto.get(id), Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(Comparator.naturalOrder()));
+        return ordenados;
+    }
+
+    /**
+     * Página de productos con reseñas, del mejor al peor calificado, que sigue al cursor
+     * (despuesDePuntaje, despuesDeId); sin cursor empieza por el mejor. Recorre solo la página pedida.
+     */
+    public List<Integer> calificadosDespuesDe(Double despuesDePuntaje, Integer despuesDeId, int limite) {
+        List<Integer> ids = new ArrayList<>();
+        if (limite <= 0) {
+            return ids;
+        }
+        Iterable<PuntajeProducto> tramo = despuesDePuntaje != null && despuesDeId != null
+                ? porPuntaje.tailSet(new PuntajeProducto(despuesDePuntaje, despuesDeId), false)
+                : porPuntaje;
+        for (PuntajeProducto p : tramo) {
+            ids.add(p.idProducto());
+            if (ids.size() == limite) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Saca del índice de puntajes un producto eliminado; el acumulado en BD se borra en cascada
+     */
+    public void quitarProducto(Integer idProducto) {
+        if (idProducto == null) {
+            return;
+        }
+        alConfirmar(() -> eliminarPuntaje(idProducto));
+    }
+
+    private synchronized void eliminarPuntaje(int idProducto) {
+        Double anterior = puntajePorProducto.remove(idProducto);
+        if (anterior != null) {
+            porPuntaje.remove(new PuntajeProducto(anterior, idProducto));
+        }
+    }
+
+    /**
+     * Lee el puntaje confirmado del producto y lo aplica al índice. Lectura y escritura van bajo el mismo
+     * candado, así la última en aplicarse es también la última en leerse y nunca pisa un puntaje más nuevo.
+     */
+    private synchronized void recargarPuntaje(int idProducto) {
+        try {
+            ResumenCalificacion resumen = resumen("tb_calificaciones_producto", "id_producto", idProducto);
+            if (resumen != null) {
+                aplicarPuntaje(idProducto, resumen.puntaje());
+            } else {
+                eliminarPuntaje(idProducto);
+            }
+        } catch (Exception e) {
+            log.warn("⚠ No se pudo actualizar el puntaje en memoria del producto {}: {}", idProducto, e.getMessage());
+        }
+    }
+
+    private synchronized void aplicarPuntaje(int idProducto, double puntaje) {
+        Double anterior = puntajePorProducto.put(idProducto, puntaje);
+        if (anterior != null) {
+            porPuntaje.remove(new PuntajeProducto(anterior, idProducto));
+        }
+        porPuntaje.add(new PuntajeProducto(puntaje, idProducto));
+    }
+
+    private void alConfirmar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.repository.ProductoRepository;
+import jakarta.servlet.http.HttpSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reservas temporales de stock para los carritos.
+ *
+ * Al agregar un producto al carrito se reservan sus unidades durante DURACION_RESERVA_MS; mientras
+ * tanto no se pueden reservar para otro carrito. El libro de reservas está en memoria y dividido en
+ * franjas (cada producto cae siempre en la misma franja, con su propio lock), de modo que los productos
+ * muy demandados no bloquean a los demás y ninguna operación toca la BD salvo para leer el stock
+ * si el producto no está en el índice del catálogo.
+ *
+ * Al confirmar la compra, CompraService.realizarCompra descuenta del stock las unidades que otros
+ * carritos tienen reservadas, así que una reserva vigente también se respeta en el checkout. La
+ * garantía de no vender más de lo que hay la sigue dando el descuento condicional en la BD
+ * (ProductoRepository.descontarStock y el lote de realizarCompra).
+ */
+@Service
+public class ReservaStockService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservaStockService.class);
+
+    private static final int NUM_FRANJAS = 64;
+    private static final long DURACION_RESERVA_MS = TimeUnit.MINUTES.toMillis(15);
+    // Identificador de las reservas del carrito; no se usa el id de sesión porque cambia al iniciar sesión
+    private static final String ATRIBUTO_TOKEN = "tokenReservas";
+
+    @Autowired
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    /**
+     * Resultado de intentar reservar: si se reservó y cuántas unidades podía tomar este carrito
+     */
+    public record ResultadoReserva(boolean reservado, int disponible) {
+    }
+
+    private record Reserva(int cantidad, long expiraEn) {
+    }
+
+    private static final class Franja {
+        private final ReentrantLock lock = new ReentrantLock();
+        // idProducto -> (token del carrito -> reserva)
+        private final Map<Integer, Map<String, Reserva>> porProducto = new HashMap<>();
+    }
+
+    private final Franja[] franjas = new Franja[NUM_FRANJAS];
+
+    public ReservaStockService() {
+        for (int i = 0; i < NUM_FRANJAS; i++) {
+            franjas[i] = new Franja();
+        }
+    }
+
+    /**
+     * Token de reservas del carrito de la sesión (se crea la primera vez)
+     */
+    public String tokenDe(HttpSession session) {
+        String token = (String) session.getAttribute(ATRIBUTO_TOKEN);
+        if (token == null) {
+            token = UUID.randomUUID().toString();
+            session.setAttribute(ATRIBUTO_TOKEN, token);
+        }
+        return token;
+    }
+
+    /**
+     * Reserva (o ajusta) la cantidad total del producto para el carrito indicado.
+     * La cantidad reemplaza la reserva anterior del mismo carrito y renueva su vencimiento.
+     */
+    public ResultadoReserva reservar(String token, Integer idProducto, int cantidad) {
+        int stock = stockActual(idProducto);
+        Franja franja = franjaDe(idProducto);
+        long ahora = System.currentTimeMillis();
+        franja.lock.lock();
+        try {
+            Map<String, Reserva> reservas = franja.porProducto.computeIfAbsent(idProducto, k -> new HashMap<>());
+            int reservadoPorOtros = sumarReservasDeOtros(reservas, token, ahora);
+            int disponible = Math.max(stock - reservadoPorOtros, 0);
+            if (cantidad > disponible) {
+                if (reservas.isEmpty()) {
+                    franja.porProducto.remove(idProducto);
+                }
+                return new ResultadoReserva(false, disponible);
+            }
+            reservas.put(token, new Reserva(cantidad, ahora + DURACION_RESERVA_MS));
+            return new ResultadoReserva(true, disponible);
+        } finally {
+            franja.lock.unlock();
+        }
+    }
+
+    /**
+     * Unidades de cada producto que tienen reservadas (y vigentes) carritos distintos del indicado.
+     * Los productos sin reservas de otros carritos no aparecen en el resultado.
+     */
+    public Map<Integer, Integer> reservadoPorOtros(String token, Collection<Integer> idsProductos) {
+        Map<Integer, Integer> resultado = new HashMap<>();
+        if (idsProductos == null) {
+            return resultado;
+        }
+        long ahora = System.currentTimeMillis();
+        for (Integer idProducto : idsProductos) {
+            Franja franja = franjaDe(idProducto);
+            franja.lock.lock();
+            try {
+                Map<String, Reserva> reservas = franja.porProducto.get(idProducto);
+                if (reservas != null) {
+                    int reservado = sumarReservasDeOtros(reservas, token, ahora);
+                    if (reservas.isEmpty()) {
+                        franja.porProducto.remove(idProducto);
+                    }
+                    if (reservado > 0) {
+                        resultado.put(idProducto, reservado);
+                    }
+                }
+            } finally {
+                franja.lock.unlock();
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Libera la reserva de un producto del carrito
+     */
+    public void liberar(String token, Integer idProducto) {
+        Franja franja = franjaDe(idProducto);
+        franja.lock.lock();
+        try {
+            Map<String, Reserva> reservas = franja.porProducto.get(idProducto);
+            if (reservas != null) {
+                reservas.remove(token);
+                if (reservas.isEmpty()) {
+                    franja.porProducto.remove(idProducto);
+                }
+            }
+        } finally {
+            franja.lock.unlock();
+        }
+    }
+
+    /**
+     * Libera las reservas de todos los productos indicados (carrito vaciado o compra confirmada)
+     */
+    public void liberarTodo(String token, Collection<Integer> idsProductos) {
+        if (idsProductos == null) {
+            return;
+        }
+        for (Integer idProducto : idsProductos) {
+            liberar(token, idProducto);
+        }
+    }
+
+    /**
+     * Limpia las reservas vencidas de carritos abandonados
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void purgarVencidas() {
+        long ahora = System.currentTimeMillis();
+        int eliminadas = 0;
+        for (Franja franja : franjas) {
+            franja.lock.lock();
+            try {
+                for (Iterator<Map<String, Reserva>> it = franja.porProducto.values().iterator(); it.hasNext(); ) {
+                    Map<String, Reserva> reservas = it.next();
+                    int antes = reservas.size();
+                    reservas.values().removeIf(r -> r.expiraEn() <= ahora);
+                    eliminadas += antes - reservas.size();
+                    if (reservas.isEmpty()) {
+                        it.remove();
+                    }
+                }
+            } finally {
+                franja.lock.unlock();
+            }
+        }
+        if (eliminadas > 0) {
+            log.debug("Reservas de stock vencidas eliminadas: {}", eliminadas);
+        }
+    }
+
+    // Debe llamarse con el lock de la franja tomado; de paso elimina las reservas vencidas
+    private static int sumarReservasDeOtros(Map<String, Reserva> reservas, String token, long ahora) {
+        int reservado = 0;
+        for (Iterator<Map.Entry<String, Reserva>> it = reservas.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Reserva> e = it.next();
+            if (e.getValue().expiraEn() <= ahora) {
+                it.remove();
+            } else if (!e.getKey().equals(token)) {
+                reservado += e.getValue().cantidad();
+            }
+        }
+        return reservado;
+    }
+
+    private int stockActual(Integer idProducto) {
+        Integer stock = indiceCatalogoService.stockDe(idProducto);
+        if (stock == null) {
+            stock = productoRepository.findStockById(idProducto);
+        }
+        return stock != null ? stock : 0;
+    }
+
+    private Franja franjaDe(Integer idProducto) {
+        // Mezcla de bits para que ids consecutivos no se concentren en pocas franjas
+        int h = idProducto.hashCode() * 0x9E3779B9;
+        return franjas[(h ^ (h >>> 16)) & (NUM_FRANJAS - 1)];
+    }
+}
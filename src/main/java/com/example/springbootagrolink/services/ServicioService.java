@@ -14,9 +14,12 @@ public class ServicioService {
     @Autowired
     private ServicioRepository servicioRepository;
 
-    // Obtener todos los servicios
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
+    // Obtener todos los servicios (desde memoria, con asesor y usuario del asesor)
     public List<Servicio> obtenerTodosLosServicios() {
-        return servicioRepository.findAll();
+        return datosReferenciaService.servicios();
     }
 
     // Obtener servicio por ID
@@ -26,7 +29,9 @@ public class ServicioService {
 
     // Crear un servicio nuevo
     public Servicio crearServicio(Servicio servicio) {
-        return servicioRepository.save(servicio);
+        Servicio guardado = servicioRepository.save(servicio);
+        datosReferenciaService.invalidarServicios();
+        return guardado;
     }
 
     // Actualizar un servicio existente
@@ -41,7 +46,9 @@ public class ServicioService {
             servicio.setDescripcion(servicioActualizado.getDescripcion());
             servicio.setEstado(servicioActualizado.getEstado());
 
-            return servicioRepository.save(servicio);
+            Servicio guardado = servicioRepository.save(servicio);
+            datosReferenciaService.invalidarServicios();
+            return guardado;
         }
 
         return null;
@@ -51,6 +58,7 @@ public class ServicioService {
     public boolean eliminarServicio(Integer id) {
         if (servicioRepository.existsById(id)) {
             servicioRepository.deleteById(id);
+            datosReferenciaService.invalidarServicios();
             return true;
         }
         return false;
@@ -1,6 +1,7 @@
 package com.example.springbootagrolink.services;
 
 import com.example.springbootagrolink.repository.UsuarioRepository;
+import com.example.springbootagrolink.model.Rol;
 import com.example.springbootagrolink.model.Usuario;
 import com.example.springbootagrolink.services.Idao.Idao;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,6 +26,13 @@ public class UsuarioService implements Idao<Usuario, Integer> {
     @Autowired
     private  UsuarioRepository usuarioRepository;
 
+    @Autowired
+    private IndiceCatalogoService indiceCatalogoService;
+
+    // Productores y servicios en memoria muestran datos del usuario
+    @Autowired
+    private DatosReferenciaService datosReferenciaService;
+
 
 
     /**
@@ -125,7 +133,14 @@ public class UsuarioService implements Idao<Usuario, Integer> {
             usuario.setTelefono(entidad.getTelefono());
 
             // Guardar los cambios en la base de datos
-            return usuarioRepository.save(usuario);
+            Usuario guardado = usuarioRepository.save(usuario);
+
+            // Si es productor, su nombre/ciudad/departamento forman parte de las claves de búsqueda del catálogo
+            if (guardado.getRol() == Rol.ROLE_PRODUCTOR) {
+                indiceCatalogoService.reindexarProductor(guardado.getIdUsuario());
+            }
+            datosReferenciaService.invalidarTodo();
+            return guardado;
         }
 
         // Si no existe, retornar null
@@ -152,6 +167,7 @@ public class UsuarioService implements Idao<Usuario, Integer> {
         if (usuarioRepository.existsById(id)) {
             // Si existe, eliminarlo
             usuarioRepository.deleteById(id);
+            datosReferenciaService.invalidarTodo();
             return true;
         }
         // Si no existe, retornar false
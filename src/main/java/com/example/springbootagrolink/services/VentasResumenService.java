@@ -0,0 +1,199 @@
+package com.example.springbootagrolink.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Acumulados de ventas por productor (tb_ventas_productor_dia y tb_ventas_productor_mes).
+ *
+ * Las ventas de un productor son la suma de los subtotales de las líneas de sus productos, en la
+ * fecha de la compra. Los acumulados se actualizan con un INSERT ... SELECT ... ON DUPLICATE KEY
+ * UPDATE dentro de la transacción que crea, amplía o cancela la compra, así que se confirman (o se
+ * revierten) junto con ella. Las filas se tocan en orden de productor para que dos compras
+ * simultáneas no se bloqueen mutuamente.
+ *
+ * Las consultas leen como mucho un día por fila (semanas y días) o un mes por fila (meses y años),
+ * en lugar de recorrer todo el histórico de compras.
+ */
+@Service
+public class VentasResumenService {
+
+    private static final Logger log = LoggerFactory.getLogger(VentasResumenService.class);
+
+    // Un año de días es el rango máximo que se sirve desde la tabla diaria
+    private static final long MAX_DIAS_DETALLE = 366;
+
+    public enum Granularidad {
+        DIA, SEMANA, MES, ANIO
+    }
+
+    /**
+     * Ventas de un periodo; periodo es el primer día del día, semana (lunes), mes o año
+     */
+    public record PuntoVentas(LocalDate periodo, BigDecimal totalVentas, long unidades, long lineas) {
+    }
+
+    private static final String ACUMULAR_DIA =
+            "INSERT INTO tb_ventas_productor_dia (id_productor, fecha, total_ventas, unidades, lineas) " +
+            "SELECT * FROM (" +
+            "  SELECT p.id_usuario AS productor, DATE(c.fecha_hora_compra) AS periodo, " +
+            "         :signo * SUM(d.subtotal) AS t, :signo * SUM(d.cantidad) AS u, :signo * COUNT(*) AS l " +
+            "  FROM tb_detalles_compra d " +
+            "  JOIN tb_compras c ON c.id_compra = d.id_compra " +
+            "  JOIN tb_productos p ON p.id_producto = d.id_producto " +
+            "  WHERE %s " +
+            "  GROUP BY p.id_usuario, DATE(c.fecha_hora_compra)" +
+            ") AS nuevo ORDER BY productor, periodo " +
+            "ON DUPLICATE KEY UPDATE total_ventas = total_ventas + nuevo.t, " +
+            "unidades = unidades + nuevo.u, lineas = lineas + nuevo.l";
+
+    private static final String ACUMULAR_MES =
+            "INSERT INTO tb_ventas_productor_mes (id_productor, mes, total_ventas, unidades, lineas) " +
+            "SELECT * FROM (" +
+            "  SELECT p.id_usuario AS productor, " +
+            "         DATE_SUB(DATE(c.fecha_hora_compra), INTERVAL DAYOFMONTH(c.fecha_hora_compra) - 1 DAY) AS periodo, " +
+            "         :signo * SUM(d.subtotal) AS t, :signo * SUM(d.cantidad) AS u, :signo * COUNT(*) AS l " +
+            "  FROM tb_detalles_compra d " +
+            "  JOIN tb_compras c ON c.id_compra = d.id_compra " +
+            "  JOIN tb_productos p ON p.id_producto = d.id_producto " +
+            "  WHERE %s " +
+            "  GROUP BY p.id_usuario, periodo" +
+            ") AS nuevo ORDER BY productor, periodo " +
+            "ON DUPLICATE KEY UPDATE total_ventas = total_ventas + nuevo.t, " +
+            "unidades = unidades + nuevo.u, lineas = lineas + nuevo.l";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Suma al acumulado todas las líneas de la compra (compra recién creada)
+     */
+    public void acumularCompra(Integer idCompra) {
+        aplicar("d.id_compra = :id", idCompra, 1);
+    }
+
+    /**
+     * Suma al acumulado una línea agregada a una compra existente
+     */
+    public void acumularDetalle(Integer idDetalle) {
+        aplicar("d.id_detalle = :id", idDetalle, 1);
+    }
+
+    /**
+     * Resta del acumulado todas las líneas de la compra; se llama antes de borrarlas
+     */
+    public void descontarCompra(Integer idCompra) {
+        aplicar("d.id_compra = :id", idCompra, -1);
+    }
+
+    private void aplicar(String filtro, Integer id, int signo) {
+        if (id == null) {
+            return;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("id", id).addValue("signo", signo);
+        jdbcTemplate.update(String.format(ACUMULAR_DIA, filtro), params);
+        jdbcTemplate.update(String.format(ACUMULAR_MES, filtro), params);
+    }
+
+    /**
+     * Si los acumulados están vacíos (tablas recién creadas) se reconstruyen con todo el histórico
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruirSiVacio() {
+        try {
+            Integer acumulados = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM (SELECT 1 FROM tb_ventas_productor_dia LIMIT 1) x",
+                    new MapSqlParameterSource(), Integer.class);
+            Integer detalles = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM (SELECT 1 FROM tb_detalles_compra LIMIT 1) x",
+                    new MapSqlParameterSource(), Integer.class);
+            if (acumulados != null && acumulados == 0 && detalles != null && detalles > 0) {
+                MapSqlParameterSource params = new MapSqlParameterSource("signo", 1);
+                int dias = jdbcTemplate.update(String.format(ACUMULAR_DIA, "1 = 1"), params);
+                jdbcTemplate.update(String.format(ACUMULAR_MES, "1 = 1"), params);
+                log.info("✓ Acumulados de ventas reconstruidos ({} filas diarias)", dias);
+            }
+        } catch (Exception e) {
+            log.warn("⚠ No se pudieron revisar los acumulados de ventas: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Serie de ventas entre dos fechas (incluidas) con la granularidad pedida. Los periodos sin
+     * ventas aparecen con cero. idProductor null suma todos los productores.
+     *
+     * @throws IllegalArgumentException si el rango no es válido o es demasiado largo para días/semanas
+     */
+    public List<PuntoVentas> serie(Integer idProductor, LocalDate desde, LocalDate hasta, Granularidad granularidad) {
+        if (desde == null || hasta == null || hasta.isBefore(desde)) {
+            throw new IllegalArgumentException("Rango de fechas inválido");
+        }
+        boolean porDia = granularidad == Granularidad.DIA || granularidad == Granularidad.SEMANA;
+        if (porDia && ChronoUnit.DAYS.between(desde, hasta) >= MAX_DIAS_DETALLE) {
+            throw new IllegalArgumentException("Para días o semanas el rango máximo es de un año");
+        }
+
+        String tabla = porDia ? "tb_ventas_productor_dia" : "tb_ventas_productor_mes";
+        String columna = porDia ? "fecha" : "mes";
+        LocalDate inicio = porDia ? desde : desde.withDayOfMonth(1);
+        MapSqlParameterSource params = new MapSqlParameterSource("desde", inicio).addValue("hasta", hasta);
+        String filtroProductor = "";
+        if (idProductor != null) {
+            filtroProductor = "AND id_productor = :idProductor ";
+            params.addValue("idProductor", idProductor);
+        }
+
+        // Cero en todos los periodos del rango y encima lo acumulado
+        Map<LocalDate, PuntoVentas> puntos = new TreeMap<>();
+        for (LocalDate p = inicioPeriodo(desde, granularidad); !p.isAfter(hasta); p = siguientePeriodo(p, granularidad)) {
+            puntos.put(p, new PuntoVentas(p, BigDecimal.ZERO, 0, 0));
+        }
+        jdbcTemplate.query(
+                "SELECT " + columna + " AS periodo, SUM(total_ventas) AS total, SUM(unidades) AS unidades, SUM(lineas) AS lineas " +
+                "FROM " + tabla + " WHERE " + columna + " BETWEEN :desde AND :hasta " + filtroProductor +
+                "GROUP BY " + columna,
+                params,
+                rs -> {
+                    LocalDate periodo = inicioPeriodo(rs.getDate("periodo").toLocalDate(), granularidad);
+                    puntos.merge(periodo,
+                            new PuntoVentas(periodo, rs.getBigDecimal("total"), rs.getLong("unidades"), rs.getLong("lineas")),
+                            (a, b) -> new PuntoVentas(periodo, a.totalVentas().add(b.totalVentas()),
+                                    a.unidades() + b.unidades(), a.lineas() + b.lineas()));
+                });
+        return new ArrayList<>(puntos.values());
+    }
+
+    private static LocalDate inicioPeriodo(LocalDate fecha, Granularidad granularidad) {
+        return switch (granularidad) {
+            case DIA -> fecha;
+            case SEMANA -> fecha.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MES -> fecha.withDayOfMonth(1);
+            case ANIO -> fecha.withDayOfYear(1);
+        };
+    }
+
+    private static LocalDate siguientePeriodo(LocalDate periodo, Granularidad granularidad) {
+        return switch (granularidad) {
+            case DIA -> periodo.plusDays(1);
+            case SEMANA -> periodo.plusWeeks(1);
+            case MES -> periodo.plusMonths(1);
+            case ANIO -> periodo.plusYears(1);
+        };
+    }
+}
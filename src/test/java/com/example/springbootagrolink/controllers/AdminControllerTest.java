@@ -0,0 +1,169 @@
+package com.example.springbootagrolink.controllers;
+
+import com.example.springbootagrolink.model.Compra;
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.Rol;
+import com.example.springbootagrolink.model.Transportista;
+import com.example.springbootagrolink.repository.*;
+import com.example.springbootagrolink.services.CostoEnvioService;
+import com.example.springbootagrolink.services.DatosReferenciaService;
+import com.example.springbootagrolink.services.ExportacionService;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Root;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AdminControllerTest {
+
+    @Mock private ProductoRepository productoRepository;
+    @Mock private CompraRepository compraRepository;
+    @Mock private TransportistaRepository transportistaRepository;
+    @Mock private ProductorRepository productorRepository;
+    @Mock private UsuarioRepository usuarioRepository;
+    @Mock private ClienteRepository clienteRepository;
+    @Mock private AsesorRepository asesorRepository;
+    @Mock private FincaRepository fincaRepository;
+    @Mock private EnvioRepository envioRepository;
+    @Mock private DetalleCompraRepository detalleCompraRepository;
+    @Mock private ServicioRepository servicioRepository;
+    @Mock private CostoEnvioService costoEnvioService;
+    @Mock private ExportacionService exportacionService;
+    @Mock private DatosReferenciaService datosReferenciaService;
+
+    private AdminController controller;
+    private final ExtendedModelMap model = new ExtendedModelMap();
+
+    @BeforeEach
+    void preparar() {
+        controller = new AdminController(productoRepository, compraRepository, transportistaRepository,
+                productorRepository, usuarioRepository, clienteRepository, asesorRepository, fincaRepository,
+                envioRepository, detalleCompraRepository, servicioRepository, costoEnvioService,
+                exportacionService, datosReferenciaService);
+    }
+
+    @AfterEach
+    void limpiar() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void losEnviosSePaginanConTamanioAcotadoYDesempatePorId() {
+        peticion("/admin/envios", "q=tunja&orden=distancia&dir=asc&pagina=3");
+        when(envioRepository.findAll(any(Specification.class), any(Pageable.class)))
+                .thenAnswer(inv -> new PageImpl<Envio>(List.of(), inv.getArgument(1), 0));
+        when(envioRepository.contarPorEstado()).thenReturn(List.of(
+                new Object[]{Envio.EstadoEnvio.Finalizado, 4L},
+                new Object[]{Envio.EstadoEnvio.En_Transito, 2L}));
+
+        String vista = controller.gestionEnvios("tunja", "Perdido", -1, 1000, "distancia", "asc", model);
+
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(envioRepository).findAll(any(Specification.class), pageable.capture());
+        assertThat(vista).isEqualTo("admin/envios");
+        assertThat(pageable.getValue()).isEqualTo(PageRequest.of(0, 100,
+                Sort.by(Sort.Direction.ASC, "distanciaKm").and(Sort.by(Sort.Direction.ASC, "idEnvio"))));
+        // Un estado desconocido no filtra
+        assertThat(model.get("estado")).isNull();
+        assertThat(model.get("totalEnvios")).isEqualTo(6L);
+        assertThat(model.get("enviosPendientes")).isEqualTo(0L);
+        // El paginador conserva los filtros y cambia solo el número de página
+        assertThat((String) model.get("urlPagina")).isEqualTo("/admin/envios?q=tunja&orden=distancia&dir=asc&pagina=");
+    }
+
+    @Test
+    void unOrdenNoPermitidoUsaElDeLaVista() {
+        peticion("/admin/pedidos", null);
+        when(compraRepository.findAll(any(Specification.class), any(Pageable.class)))
+                .thenAnswer(inv -> new PageImpl<Compra>(List.of(), inv.getArgument(1), 0));
+        when(compraRepository.resumenVentas(any())).thenReturn(List.of());
+
+        controller.gestionPedidos(null, null, null, null, 0, 20, "contrasena", "desc", model);
+
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(compraRepository).findAll(any(Specification.class), pageable.capture());
+        assertThat(pageable.getValue().getSort()).isEqualTo(
+                Sort.by(Sort.Direction.DESC, "fechaHoraCompra").and(Sort.by(Sort.Direction.DESC, "idCompra")));
+        // Sin páginas no se consultan detalles
+        verify(detalleCompraRepository, never()).findByCompra_IdCompraIn(any());
+        assertThat(model.get("totalPedidos")).isEqualTo(0L);
+    }
+
+    @Test
+    void soloSeCargaLaPestaniaActivaDeUsuarios() {
+        peticion("/admin/usuarios", "rol=transportistas");
+        Transportista transportista = new Transportista();
+        when(usuarioRepository.contarPorRol()).thenReturn(List.of(
+                new Object[]{Rol.ROLE_CLIENTE, 10L},
+                new Object[]{Rol.ROLE_TRANSPORTISTA, 3L}));
+        when(transportistaRepository.findAll(any(Specification.class), any(Pageable.class)))
+                .thenAnswer(inv -> new PageImpl<>(List.of(transportista), inv.getArgument(1), 1));
+
+        controller.gestionUsuarios("transportistas", null, 0, 20, "nombre", "asc", model);
+
+        assertThat(model.get("transportistas")).isEqualTo(List.of(transportista));
+        assertThat(model.get("clientes")).isEqualTo(List.of());
+        assertThat(model.get("totalUsuarios")).isEqualTo(13L);
+        assertThat(model.get("totalAsesores")).isEqualTo(0L);
+        verify(clienteRepository, never()).findAll(any(Specification.class), any(Pageable.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void losFiltrosDeTextoBuscanPorIdOPorPrefijoEscapado() {
+        Root<Compra> root = mock(Root.class, RETURNS_DEEP_STUBS);
+        CriteriaQuery<?> query = mock(CriteriaQuery.class);
+        CriteriaBuilder cb = mock(CriteriaBuilder.class);
+
+        FiltrosAdmin.compraPorTexto("  ").toPredicate(root, query, cb);
+        verify(cb).conjunction();
+
+        FiltrosAdmin.compraPorTexto("#42").toPredicate(root, query, cb);
+        verify(cb).equal(root.get("idCompra"), (Object) 42);
+        verify(root, never()).join(anyString(), any());
+
+        // Los comodines que escribe el usuario se buscan literalmente y el único comodín es el final
+        FiltrosAdmin.compraPorTexto("50%_off").toPredicate(root, query, cb);
+        ArgumentCaptor<String> patrones = ArgumentCaptor.forClass(String.class);
+        verify(cb, atLeastOnce()).like(any(Expression.class), patrones.capture());
+        assertThat(patrones.getAllValues()).containsOnly("50\\%\\_off%");
+        verify(cb).equal(any(Expression.class), eq((Object) "50%_off"));
+    }
+
+    // Petición en curso, para los enlaces del paginador
+    private static void peticion(String ruta, String query) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", ruta);
+        request.setQueryString(query);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+}
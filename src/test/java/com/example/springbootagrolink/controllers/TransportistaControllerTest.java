@@ -0,0 +1,171 @@
+package com.example.springbootagrolink.controllers;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.Transportista;
+import com.example.springbootagrolink.model.Usuario;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.TransportistaRepository;
+import com.example.springbootagrolink.repository.UsuarioRepository;
+import com.example.springbootagrolink.services.EnvioService;
+import com.example.springbootagrolink.services.MercadoEnviosService;
+import com.example.springbootagrolink.services.RastreoEnviosService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TransportistaControllerTest {
+
+    private static final int ID_ENVIO = 42;
+    private static final int TRANSPORTISTAS = 300;
+
+    @Mock
+    private UsuarioRepository usuarioRepository;
+    @Mock
+    private TransportistaRepository transportistaRepository;
+    @Mock
+    private EnvioRepository envioRepository;
+    @Mock
+    private MercadoEnviosService mercadoEnviosService;
+    @Mock
+    private RastreoEnviosService rastreoEnviosService;
+
+    private TransportistaController controller;
+
+    // Fila de tb_envios simulada: transportista asignado y estado, escritos solo por el UPDATE condicional
+    private final AtomicReference<Transportista> asignado = new AtomicReference<>();
+    private final AtomicInteger filasActualizadas = new AtomicInteger();
+
+    @BeforeEach
+    void preparar() {
+        EnvioService envioService = new EnvioService();
+        ReflectionTestUtils.setField(envioService, "envioRepository", envioRepository);
+        ReflectionTestUtils.setField(envioService, "mercadoEnviosService", mercadoEnviosService);
+        ReflectionTestUtils.setField(envioService, "rastreoEnviosService", rastreoEnviosService);
+
+        controller = new TransportistaController();
+        ReflectionTestUtils.setField(controller, "usuarioRepository", usuarioRepository);
+        ReflectionTestUtils.setField(controller, "transportistaRepository", transportistaRepository);
+        ReflectionTestUtils.setField(controller, "envioService", envioService);
+
+        when(usuarioRepository.findByNombreUsuario(anyString())).thenAnswer(inv -> {
+            String nombre = inv.getArgument(0);
+            Usuario usuario = new Usuario();
+            usuario.setIdUsuario(Integer.parseInt(nombre.substring("transportista".length())));
+            usuario.setNombreUsuario(nombre);
+            return Optional.of(usuario);
+        });
+        when(transportistaRepository.findById(any())).thenAnswer(inv -> {
+            Transportista transportista = new Transportista();
+            transportista.setIdUsuario(inv.getArgument(0));
+            return Optional.of(transportista);
+        });
+
+        // El UPDATE ... WHERE transportista IS NULL de MySQL: solo la primera escritura encuentra la fila libre
+        when(envioRepository.asignarSiDisponible(eq(ID_ENVIO), any(), any(), any(), any(),
+                eq(Envio.EstadoEnvio.Asignado), eq(Envio.EstadoEnvio.Buscando_Transporte), eq(Envio.EstadoCalculo.COMPLETO)))
+                .thenAnswer(inv -> {
+                    if (asignado.compareAndSet(null, inv.getArgument(1))) {
+                        filasActualizadas.incrementAndGet();
+                        return 1;
+                    }
+                    return 0;
+                });
+        when(envioRepository.findById(ID_ENVIO)).thenAnswer(inv -> {
+            Envio envio = new Envio();
+            envio.setIdEnvio(ID_ENVIO);
+            envio.setTransportista(asignado.get());
+            envio.setEstadoEnvio(asignado.get() != null ? Envio.EstadoEnvio.Asignado : Envio.EstadoEnvio.Buscando_Transporte);
+            return Optional.of(envio);
+        });
+    }
+
+    @AfterEach
+    void limpiar() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void cientosDeAceptacionesSimultaneasDejanUnSoloGanador() throws Exception {
+        ExecutorService transportistas = Executors.newFixedThreadPool(32);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<ResponseEntity<Map<String, Object>>>> respuestas = new ArrayList<>();
+        for (int id = 1; id <= TRANSPORTISTAS; id++) {
+            String nombre = "transportista" + id;
+            respuestas.add(transportistas.submit(() -> {
+                SecurityContextHolder.getContext().setAuthentication(
+                        new UsernamePasswordAuthenticationToken(nombre, null, List.of()));
+                try {
+                    salida.await();
+                    return controller.aceptarEnvio(ID_ENVIO, null, null, null);
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+            }));
+        }
+        salida.countDown();
+        transportistas.shutdown();
+        assertThat(transportistas.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        List<ResponseEntity<Map<String, Object>>> aceptadas = new ArrayList<>();
+        int conflictos = 0;
+        for (Future<ResponseEntity<Map<String, Object>>> respuesta : respuestas) {
+            ResponseEntity<Map<String, Object>> r = respuesta.get();
+            if (r.getStatusCode().value() == 200) {
+                aceptadas.add(r);
+            } else {
+                assertThat(r.getStatusCode().value()).isEqualTo(409);
+                assertThat(r.getBody()).containsEntry("resultado", "YA_TOMADO");
+                conflictos++;
+            }
+        }
+
+        assertThat(aceptadas).hasSize(1);
+        assertThat(aceptadas.get(0).getBody()).containsEntry("resultado", "ACEPTADO");
+        assertThat(conflictos).isEqualTo(TRANSPORTISTAS - 1);
+        assertThat(filasActualizadas.get()).isEqualTo(1);
+        assertThat(asignado.get()).isNotNull();
+        verify(mercadoEnviosService, times(1)).retirar(ID_ENVIO);
+        // Sus pings y el rastreo del cliente se atienden desde ya
+        verify(rastreoEnviosService, times(1)).invalidar(ID_ENVIO);
+    }
+
+    @Test
+    void elGanadorQueReintentaNoRecibeConflicto() {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("transportista7", null, List.of()));
+
+        assertThat(controller.aceptarEnvio(ID_ENVIO, null, null, null).getBody()).containsEntry("resultado", "ACEPTADO");
+        ResponseEntity<Map<String, Object>> reintento = controller.aceptarEnvio(ID_ENVIO, null, null, null);
+
+        assertThat(reintento.getStatusCode().value()).isEqualTo(200);
+        assertThat(reintento.getBody()).containsEntry("resultado", "YA_ASIGNADO_A_TI");
+    }
+}
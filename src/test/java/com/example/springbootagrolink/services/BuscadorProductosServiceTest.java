@@ -0,0 +1,75 @@
+package com.example.springbootagrolink.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BuscadorProductosServiceTest {
+
+    private BuscadorProductosService buscador;
+
+    @BeforeEach
+    void preparar() {
+        buscador = new BuscadorProductosService();
+        buscador.reconstruir(List.of(
+                entrada(1, "tomate chonto", "hortalizas", "tomate fresco de invernadero"),
+                entrada(2, "papa criolla", "tuberculos", "papa amarilla"),
+                entrada(3, "mora de castilla", "frutas", "mora para jugo"),
+                entrada(4, "salsa de tomate", "procesados", "salsa casera")
+        ));
+    }
+
+    @Test
+    void elNombreCuentaMasQueLaDescripcion() {
+        BuscadorProductosService.ResultadoBusqueda resultado = buscador.buscar("tomate", 0, 10);
+
+        assertThat(resultado.total()).isEqualTo(2);
+        assertThat(resultado.ids()).containsExactly(1, 4);
+    }
+
+    @Test
+    void coincidePorPrefijo() {
+        assertThat(buscador.buscar("crio", 0, 10).ids()).containsExactly(2);
+    }
+
+    @Test
+    void corrigeErroresDeEscrituraTambienEnLaPrimeraLetra() {
+        assertThat(buscador.buscar("tonate", 0, 10).ids()).containsExactlyInAnyOrder(1, 4);
+        assertThat(buscador.buscar("nora", 0, 10).ids()).containsExactly(3);
+        assertThat(buscador.buscar("castila", 0, 10).ids()).containsExactly(3);
+    }
+
+    @Test
+    void todosLosTerminosDebenCoincidir() {
+        assertThat(buscador.buscar("papa tomate", 0, 10).ids()).isEmpty();
+        assertThat(buscador.buscar("Salsa de Tomate", 0, 10).ids()).containsExactly(4);
+    }
+
+    @Test
+    void quitarUnProductoLimpiaSusTerminos() {
+        buscador.quitar(3);
+
+        assertThat(buscador.buscar("mora", 0, 10).ids()).isEmpty();
+        assertThat(buscador.buscar("nora", 0, 10).ids()).isEmpty();
+        assertThat(buscador.totalDocumentos()).isEqualTo(3);
+    }
+
+    @Test
+    void paginaLosResultados() {
+        BuscadorProductosService.ResultadoBusqueda primera = buscador.buscar("tomate", 0, 1);
+        BuscadorProductosService.ResultadoBusqueda segunda = buscador.buscar("tomate", 1, 1);
+
+        assertThat(primera.totalPaginas()).isEqualTo(2);
+        assertThat(primera.ids()).containsExactly(1);
+        assertThat(segunda.ids()).containsExactly(4);
+        assertThat(buscador.buscar("tomate", 2, 1).ids()).isEmpty();
+    }
+
+    private static IndiceCatalogoService.EntradaCatalogo entrada(int id, String nombre, String categoria, String descripcion) {
+        return new IndiceCatalogoService.EntradaCatalogo(id, 1, nombre, descripcion, "tunja", "boyaca",
+                "productor " + id, categoria, 1000.0, true, 10, false);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Compra;
+import com.example.springbootagrolink.model.PedidoProductor;
+import com.example.springbootagrolink.repository.ClienteRepository;
+import com.example.springbootagrolink.repository.CompraRepository;
+import com.example.springbootagrolink.repository.DetalleCompraRepository;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * realizarCompra contra una tabla de productos simulada: el UPDATE condicional
+ * (stock >= :cantidad) se reproduce de forma atómica, como lo hace la BD con el bloqueo de fila.
+ */
+@ExtendWith(MockitoExtension.class)
+class CompraServiceTest {
+
+    @Mock
+    private CompraRepository compraRepository;
+    @Mock
+    private DetalleCompraRepository detalleCompraRepository;
+    @Mock
+    private ProductoRepository productoRepository;
+    @Mock
+    private ClienteRepository clienteRepository;
+    @Mock
+    private IndiceCatalogoService indiceCatalogoService;
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Mock
+    private VentasResumenService ventasResumenService;
+    @Mock
+    private RankingProductosService rankingProductosService;
+    @Mock
+    private ReservaStockService reservaStockService;
+
+    private CompraService compraService;
+
+    // Tabla tb_productos simulada: idProducto -> stock
+    private final Map<Integer, Integer> stock = new ConcurrentHashMap<>();
+    private final AtomicInteger siguienteIdCompra = new AtomicInteger(1);
+
+    @BeforeEach
+    void preparar() {
+        compraService = new CompraService(compraRepository, detalleCompraRepository, productoRepository,
+                clienteRepository, indiceCatalogoService, jdbcTemplate, ventasResumenService,
+                rankingProductosService, reservaStockService);
+
+        lenient().when(compraRepository.save(any(Compra.class))).thenAnswer(inv -> {
+            Compra compra = inv.getArgument(0);
+            if (compra.getIdCompra() == null) {
+                compra.setIdCompra(siguienteIdCompra.getAndIncrement());
+            }
+            return compra;
+        });
+
+        // SELECT de los productos del carrito con el stock vigente
+        lenient().doAnswer(inv -> {
+            SqlParameterSource params = inv.getArgument(1);
+            RowCallbackHandler handler = inv.getArgument(2);
+            for (Object id : (Collection<?>) params.getValue("ids")) {
+                Integer idProducto = (Integer) id;
+                Integer unidades = stock.get(idProducto);
+                if (unidades == null) continue;
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getInt("id_producto")).thenReturn(idProducto);
+                when(rs.getString("nombre_producto")).thenReturn("Producto " + idProducto);
+                when(rs.getBigDecimal("precio")).thenReturn(new BigDecimal("1000"));
+                when(rs.getBigDecimal("peso_kg")).thenReturn(BigDecimal.ONE);
+                when(rs.getObject("stock", Integer.class)).thenReturn(unidades);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("INSERT"), any(SqlParameterSource[].class)))
+                .thenAnswer(inv -> new int[((SqlParameterSource[]) inv.getArgument(1)).length]);
+
+        // UPDATE tb_productos SET stock = stock - :cantidad WHERE id_producto = :idProducto AND stock >= :cantidad
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("UPDATE"), any(SqlParameterSource[].class))).thenAnswer(inv -> {
+            SqlParameterSource[] lote = inv.getArgument(1);
+            int[] filas = new int[lote.length];
+            for (int i = 0; i < lote.length; i++) {
+                Integer idProducto = (Integer) lote[i].getValue("idProducto");
+                int cantidad = (Integer) lote[i].getValue("cantidad");
+                AtomicInteger afectadas = new AtomicInteger();
+                stock.computeIfPresent(idProducto, (k, actual) -> {
+                    if (actual >= cantidad) {
+                        afectadas.set(1);
+                        return actual - cantidad;
+                    }
+                    return actual;
+                });
+                filas[i] = afectadas.get();
+            }
+            return filas;
+        });
+    }
+
+    @Test
+    void comprasSimultaneasNoVendenMasDeLoQueHay() throws Exception {
+        stock.put(1, 25);
+        stock.put(2, 40);
+
+        // 60 compras de 2 unidades del producto 1 y 1 del producto 2: solo caben 12
+        ExecutorService hilos = Executors.newFixedThreadPool(16);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<Boolean>> resultados = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            resultados.add(hilos.submit(() -> {
+                salida.await();
+                try {
+                    compraService.realizarCompra(1, "TARJETA", "Calle 1", Map.of(1, 2, 2, 1), null);
+                    return true;
+                } catch (IllegalStateException e) {
+                    return false;
+                }
+            }));
+        }
+        salida.countDown();
+        int exitosas = 0;
+        for (Future<Boolean> f : resultados) {
+            if (f.get(10, TimeUnit.SECONDS)) exitosas++;
+        }
+        hilos.shutdown();
+
+        assertThat(exitosas).isEqualTo(12);
+        assertThat(stock.get(1)).isEqualTo(1);
+    }
+
+    @Test
+    void siElDescuentoCondicionalNoAfectaLaFilaLaCompraFalla() {
+        stock.put(1, 5);
+        stock.put(2, 5);
+        // Otra compra se lleva las unidades entre la lectura y el UPDATE
+        when(jdbcTemplate.batchUpdate(startsWith("UPDATE"), any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 0});
+
+        assertThatThrownBy(() -> compraService.realizarCompra(1, "TARJETA", "Calle 1", Map.of(1, 1, 2, 3), null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Producto 2");
+        verify(indiceCatalogoService, never()).ajustarStock(any());
+        verify(rankingProductosService, never()).registrarVenta(any(), any());
+    }
+
+    @Test
+    void noSePuedenComprarUnidadesReservadasPorOtrosCarritos() {
+        stock.put(1, 10);
+        when(reservaStockService.reservadoPorOtros(eq("mio"), any())).thenReturn(Map.of(1, 8));
+
+        assertThatThrownBy(() -> compraService.realizarCompra(1, "TARJETA", "Calle 1", Map.of(1, 3), "mio"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("reservadas");
+        assertThat(stock.get(1)).isEqualTo(10);
+
+        Compra compra = compraService.realizarCompra(1, "TARJETA", "Calle 1", Map.of(1, 2), "mio");
+        assertThat(stock.get(1)).isEqualTo(8);
+        assertThat(compra.getSubtotal()).isEqualByComparingTo("2000");
+        verify(indiceCatalogoService).ajustarStock(Map.of(1, -2));
+    }
+
+    @Test
+    void losPedidosDelProductorSalenDeSuConsultaConLaPaginaAcotada() {
+        PedidoProductor pedido = new PedidoProductor(7, null, new BigDecimal("5000"), "Calle 1", "TARJETA",
+                null, null, new BigDecimal("3000"), 3L);
+        when(compraRepository.findPedidosProductor(eq(4), any(Pageable.class)))
+                .thenAnswer(inv -> new PageImpl<>(List.of(pedido), inv.getArgument(1), 1));
+        when(compraRepository.findPedidos(any(Pageable.class)))
+                .thenAnswer(inv -> new PageImpl<>(List.of(), inv.getArgument(0), 0));
+
+        Page<PedidoProductor> delProductor = compraService.obtenerPedidosProductor(4, -3, 1000);
+        Page<PedidoProductor> todos = compraService.obtenerPedidosProductor(null, 2, 0);
+
+        assertThat(delProductor.getPageable()).isEqualTo(PageRequest.of(0, 200));
+        assertThat(delProductor.getContent()).containsExactly(pedido);
+        // Sin usuario asociado el cliente se muestra igual que antes
+        assertThat(pedido.cliente()).isEqualTo(new PedidoProductor.ClientePedido("Sin nombre", ""));
+        assertThat(todos.getPageable()).isEqualTo(PageRequest.of(2, 1));
+        verify(compraRepository, never()).findPedidosProductor(eq(null), any());
+    }
+}
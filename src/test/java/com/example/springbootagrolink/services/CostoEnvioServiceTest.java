@@ -0,0 +1,206 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.CotizacionLoteDistancias;
+import com.example.springbootagrolink.model.GeocodificacionCache;
+import com.example.springbootagrolink.model.LoteDistancias;
+import com.example.springbootagrolink.repository.GeocodificacionCacheRepository;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Geocodificación contra un servidor HTTP local que hace de Google (google.maps.api.url),
+ * y la cotización por lotes contra el cálculo de un solo par
+ */
+@ExtendWith(MockitoExtension.class)
+class CostoEnvioServiceTest {
+
+    private static final String RESPUESTA_OK =
+            "{\"status\":\"OK\",\"results\":[{\"geometry\":{\"location\":{\"lat\":6.2442,\"lng\":-75.5812}}}]}";
+
+    @Mock
+    private GeocodificacionCacheRepository geocodificacionCacheRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private HttpServer google;
+    private final AtomicInteger llamadas = new AtomicInteger();
+    private volatile int codigoRespuesta = 200;
+    private volatile String cuerpoRespuesta = RESPUESTA_OK;
+
+    private CostoEnvioService costoEnvioService;
+
+    @BeforeEach
+    void preparar() throws Exception {
+        google = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        google.createContext("/", intercambio -> {
+            llamadas.incrementAndGet();
+            byte[] cuerpo = cuerpoRespuesta.getBytes(StandardCharsets.UTF_8);
+            intercambio.getResponseHeaders().add("Content-Type", "application/json");
+            intercambio.sendResponseHeaders(codigoRespuesta, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        });
+        google.start();
+
+        costoEnvioService = new CostoEnvioService();
+        ReflectionTestUtils.setField(costoEnvioService, "googleMapsApiKey", "clave-de-prueba");
+        ReflectionTestUtils.setField(costoEnvioService, "googleMapsApiUrl",
+                "http://127.0.0.1:" + google.getAddress().getPort());
+        ReflectionTestUtils.setField(costoEnvioService, "persistirCache", true);
+        ReflectionTestUtils.setField(costoEnvioService, "diasVigenciaGeocodificacion", 30L);
+        ReflectionTestUtils.setField(costoEnvioService, "geocodificacionCacheRepository", geocodificacionCacheRepository);
+        costoEnvioService.setTransactionManager(transactionManager);
+        ReflectionTestUtils.setField(costoEnvioService, "tarifaBasePorKm", new BigDecimal("2500"));
+        ReflectionTestUtils.setField(costoEnvioService, "tarifaPorKg", new BigDecimal("50"));
+        ReflectionTestUtils.setField(costoEnvioService, "costoMinimo", new BigDecimal("20000"));
+    }
+
+    @AfterEach
+    void detener() {
+        google.stop(0);
+    }
+
+    @Test
+    void usaLaCachePersistidaSinLlamarAGoogle() {
+        when(geocodificacionCacheRepository.findById("calle 10 #5-20, medellin")).thenReturn(Optional.of(
+                new GeocodificacionCache("calle 10 #5-20, medellin", 6.25, -75.56, LocalDateTime.now().minusDays(2))));
+
+        Map<String, Double> coordenadas = costoEnvioService.obtenerCoordenadas("Calle 10 #5-20,  Medellín ");
+
+        assertThat(coordenadas).containsEntry("latitud", 6.25).containsEntry("longitud", -75.56);
+        assertThat(llamadas.get()).isZero();
+        verify(geocodificacionCacheRepository, never()).save(any());
+    }
+
+    @Test
+    void unFalloConsultaAGoogleYPersisteElResultado() {
+        when(geocodificacionCacheRepository.findById(anyString())).thenReturn(Optional.empty());
+
+        Map<String, Double> coordenadas = costoEnvioService.obtenerCoordenadas("Carrera 43A #1-50, Medellín");
+
+        assertThat(coordenadas).containsEntry("latitud", 6.2442).containsEntry("longitud", -75.5812);
+        assertThat(llamadas.get()).isEqualTo(1);
+        ArgumentCaptor<GeocodificacionCache> guardada = ArgumentCaptor.forClass(GeocodificacionCache.class);
+        verify(geocodificacionCacheRepository).save(guardada.capture());
+        assertThat(guardada.getValue().getDireccionNormalizada()).isEqualTo("carrera 43a #1-50, medellin");
+        assertThat(guardada.getValue().getLatitud()).isEqualTo(6.2442);
+
+        // La segunda consulta de la misma dirección sale de la caché en memoria
+        assertThat(costoEnvioService.obtenerCoordenadas("carrera 43a #1-50, medellin")).isEqualTo(coordenadas);
+        assertThat(llamadas.get()).isEqualTo(1);
+    }
+
+    @Test
+    void unErrorDeGoogleDevuelveElRespaldoSinPersistirlo() {
+        when(geocodificacionCacheRepository.findById(anyString())).thenReturn(Optional.empty());
+        codigoRespuesta = 500;
+        cuerpoRespuesta = "{\"status\":\"UNKNOWN_ERROR\"}";
+
+        Map<String, Double> coordenadas = costoEnvioService.obtenerCoordenadas("Calle 50 #10-20, Bogotá");
+
+        // Coordenadas por defecto (Bogotá) y nada en la tabla persistente
+        assertThat(coordenadas).containsEntry("latitud", 4.7110).containsEntry("longitud", -74.0721);
+        verify(geocodificacionCacheRepository, never()).save(any());
+
+        // El respaldo es transitorio: la variante que reintenta vuelve a Google y falla en vez de usarlo
+        assertThatThrownBy(() -> costoEnvioService.obtenerCoordenadasOFallar("Calle 50 #10-20, Bogotá"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(llamadas.get()).isEqualTo(2);
+
+        // Cuando Google se recupera, el reintento obtiene y guarda las coordenadas reales
+        codigoRespuesta = 200;
+        cuerpoRespuesta = RESPUESTA_OK;
+        assertThat(costoEnvioService.obtenerCoordenadasOFallar("Calle 50 #10-20, Bogotá"))
+                .containsEntry("latitud", 6.2442);
+        verify(geocodificacionCacheRepository).save(any());
+    }
+
+    @Test
+    void elLoteCotizaIgualQueCadaParPorSeparado() {
+        Random random = new Random(3);
+        int n = 500;
+        LoteDistancias lote = loteAleatorio(random, n);
+        // Algunos pares degenerados: mismo punto (se cobra 1 km) y peso 0 o negativo (se cobra 1 kg)
+        lote.latDestino()[0] = lote.latOrigen()[0];
+        lote.lonDestino()[0] = lote.lonOrigen()[0];
+        lote.pesoKg()[1] = 0;
+        lote.pesoKg()[2] = -5;
+
+        CotizacionLoteDistancias cotizacion = costoEnvioService.cotizarLote(lote);
+
+        assertThat(cotizacion.cantidad()).isEqualTo(n);
+        for (int i = 0; i < n; i++) {
+            double distancia = costoEnvioService.calcularDistanciaHaversine(
+                    lote.latOrigen()[i], lote.lonOrigen()[i], lote.latDestino()[i], lote.lonDestino()[i]);
+            Map<String, BigDecimal> uno = costoEnvioService.calcularCostoEnvio(distancia, lote.pesoKg()[i]);
+
+            assertThat(cotizacion.distanciaKm()[i]).isEqualTo(distancia);
+            assertThat(cotizacion.costoBase()[i]).isCloseTo(uno.get("costoBase").doubleValue(), within(0.005));
+            assertThat(cotizacion.costoPeso()[i]).isCloseTo(uno.get("costoPeso").doubleValue(), within(0.005));
+            assertThat(cotizacion.costoTotal()[i]).isCloseTo(uno.get("costoTotal").doubleValue(), within(0.005));
+        }
+        assertThat(cotizacion.costoTotal()[0]).isEqualTo(20000.0);
+    }
+
+    @Test
+    void elLoteParaleloDaLasMismasDistanciasQueElSecuencial() {
+        LoteDistancias lote = loteAleatorio(new Random(5), 25_000);
+
+        double[] paralelo = costoEnvioService.calcularDistanciasHaversine(
+                lote.latOrigen(), lote.lonOrigen(), lote.latDestino(), lote.lonDestino());
+
+        for (int i = 0; i < paralelo.length; i++) {
+            assertThat(paralelo[i]).isEqualTo(costoEnvioService.calcularDistanciaHaversine(
+                    lote.latOrigen()[i], lote.lonOrigen()[i], lote.latDestino()[i], lote.lonDestino()[i]));
+        }
+        // Sin pesos se cotiza con 1 kg
+        CotizacionLoteDistancias sinPesos = costoEnvioService.cotizarLote(new LoteDistancias(
+                lote.latOrigen(), lote.lonOrigen(), lote.latDestino(), lote.lonDestino(), null));
+        assertThat(sinPesos.costoPeso()).containsOnly(50.0);
+    }
+
+    private static LoteDistancias loteAleatorio(Random random, int n) {
+        double[] latOrigen = new double[n];
+        double[] lonOrigen = new double[n];
+        double[] latDestino = new double[n];
+        double[] lonDestino = new double[n];
+        double[] pesos = new double[n];
+        for (int i = 0; i < n; i++) {
+            latOrigen[i] = -4 + 16 * random.nextDouble();
+            lonOrigen[i] = -79 + 12 * random.nextDouble();
+            latDestino[i] = -4 + 16 * random.nextDouble();
+            lonDestino[i] = -79 + 12 * random.nextDouble();
+            pesos[i] = Math.round(random.nextDouble() * 500) / 10.0;
+        }
+        return new LoteDistancias(latOrigen, lonOrigen, latDestino, lonDestino, pesos);
+    }
+}
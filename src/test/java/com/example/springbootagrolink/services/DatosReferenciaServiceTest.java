@@ -0,0 +1,169 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Asesor;
+import com.example.springbootagrolink.model.CategoriaProducto;
+import com.example.springbootagrolink.model.Servicio;
+import com.example.springbootagrolink.repository.CategoriaProductoRepository;
+import com.example.springbootagrolink.repository.ProductorRepository;
+import com.example.springbootagrolink.repository.ServicioRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DatosReferenciaServiceTest {
+
+    @Mock
+    private CategoriaProductoRepository categoriaProductoRepository;
+
+    @Mock
+    private ServicioRepository servicioRepository;
+
+    @Mock
+    private ProductorRepository productorRepository;
+
+    @AfterEach
+    void limpiar() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void cargaUnaVezYEntregaCopias() {
+        DatosReferenciaService datos = servicio(10);
+        when(categoriaProductoRepository.findAll()).thenReturn(List.of(categoria(1, "Frutas")));
+
+        datos.categorias().clear();
+        List<CategoriaProducto> segunda = datos.categorias();
+
+        assertThat(segunda).extracting(CategoriaProducto::getNombreCategoria).containsExactly("Frutas");
+        verify(categoriaProductoRepository, times(1)).findAll();
+        assertThat(datos.estadisticas().get(0)).containsEntry("aciertos", 1L).containsEntry("cargas", 1L);
+    }
+
+    @Test
+    void invalidarObligaARecargar() {
+        DatosReferenciaService datos = servicio(10);
+        when(categoriaProductoRepository.findAll())
+                .thenReturn(List.of(categoria(1, "Frutas")))
+                .thenReturn(List.of(categoria(1, "Frutas"), categoria(2, "Lácteos")));
+
+        datos.categorias();
+        datos.invalidarCategorias();
+
+        assertThat(datos.categorias()).hasSize(2);
+        verify(categoriaProductoRepository, times(2)).findAll();
+    }
+
+    @Test
+    void unaCargaQueCruzaUnaInvalidacionNoSeGuarda() throws Exception {
+        DatosReferenciaService datos = servicio(10);
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch invalidado = new CountDownLatch(1);
+        when(categoriaProductoRepository.findAll())
+                .thenAnswer(inv -> {
+                    consultando.countDown();
+                    assertThat(invalidado.await(5, TimeUnit.SECONDS)).isTrue();
+                    return List.of(categoria(1, "Frutas"));
+                })
+                .thenReturn(List.of(categoria(1, "Frutas y verduras")));
+
+        CompletableFuture<List<CategoriaProducto>> lenta = CompletableFuture.supplyAsync(datos::categorias);
+        assertThat(consultando.await(5, TimeUnit.SECONDS)).isTrue();
+        datos.invalidarCategorias();
+        invalidado.countDown();
+
+        // Quien empezó antes recibe lo que leyó, pero no queda en memoria
+        assertThat(lenta.get(5, TimeUnit.SECONDS).get(0).getNombreCategoria()).isEqualTo("Frutas");
+        assertThat(datos.categorias().get(0).getNombreCategoria()).isEqualTo("Frutas y verduras");
+    }
+
+    @Test
+    void dentroDeUnaTransaccionSeInvalidaOtraVezAlConfirmar() {
+        DatosReferenciaService datos = servicio(10);
+        when(categoriaProductoRepository.findAll())
+                .thenReturn(List.of(categoria(1, "Antes del commit")))
+                .thenReturn(List.of(categoria(1, "Después del commit")));
+
+        TransactionSynchronizationManager.initSynchronization();
+        datos.invalidarCategorias();
+        // Una lectura antes del commit ve (y memoriza) los datos anteriores
+        assertThat(datos.categorias().get(0).getNombreCategoria()).isEqualTo("Antes del commit");
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(datos.categorias().get(0).getNombreCategoria()).isEqualTo("Después del commit");
+    }
+
+    @Test
+    void conTtlCeroSiempreConsulta() {
+        DatosReferenciaService datos = servicio(0);
+        when(productorRepository.findAll()).thenReturn(List.of());
+
+        datos.productores();
+        datos.productores();
+
+        verify(productorRepository, times(2)).findAll();
+    }
+
+    @Test
+    void losMenusDelNavbarSalenDeUnaSolaCargaDeServicios() {
+        DatosReferenciaService datos = servicio(10);
+        Servicio vacunacion = servicioDe("Vacunación de ganado", Servicio.EstadoServicio.Activo, "Pecuaria");
+        Servicio suelos = servicioDe("Asesoría en cultivo de papa", Servicio.EstadoServicio.Activo, " ");
+        Servicio tractor = servicioDe("Alquiler de tractor", Servicio.EstadoServicio.Inactivo, "Pecuaria");
+        when(servicioRepository.findAll()).thenReturn(List.of(vacunacion, suelos, tractor));
+
+        Map<String, List<Servicio>> activos = datos.categoriasServicios(true);
+        Map<String, List<Servicio>> todos = datos.categoriasServicios(false);
+        Map<String, List<Servicio>> porTipo = datos.serviciosPorTipoAsesoria();
+
+        assertThat(activos.keySet()).containsExactly("Veterinaria", "Asesoría Agrícola");
+        assertThat(todos.keySet()).containsExactly("Veterinaria", "Asesoría Agrícola", "Maquinaria");
+        assertThat(porTipo).containsOnly(
+                Map.entry("Pecuaria", List.of(vacunacion, tractor)),
+                Map.entry("Otros", List.of(suelos)));
+        verify(servicioRepository, times(1)).findAll();
+    }
+
+    private DatosReferenciaService servicio(long ttlMinutos) {
+        DatosReferenciaService datos = new DatosReferenciaService(ttlMinutos);
+        ReflectionTestUtils.setField(datos, "categoriaProductoRepository", categoriaProductoRepository);
+        ReflectionTestUtils.setField(datos, "servicioRepository", servicioRepository);
+        ReflectionTestUtils.setField(datos, "productorRepository", productorRepository);
+        return datos;
+    }
+
+    private static CategoriaProducto categoria(int id, String nombre) {
+        CategoriaProducto categoria = new CategoriaProducto();
+        categoria.setIdCategoria(id);
+        categoria.setNombreCategoria(nombre);
+        return categoria;
+    }
+
+    private static Servicio servicioDe(String descripcion, Servicio.EstadoServicio estado, String tipoAsesoria) {
+        Asesor asesor = new Asesor();
+        asesor.setTipoAsesoria(tipoAsesoria);
+        Servicio servicio = new Servicio();
+        servicio.setDescripcion(descripcion);
+        servicio.setEstado(estado);
+        servicio.setAsesor(asesor);
+        return servicio;
+    }
+}
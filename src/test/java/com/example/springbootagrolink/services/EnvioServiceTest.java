@@ -0,0 +1,151 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.repository.DetalleCompraRepository;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EnvioServiceTest {
+
+    @Mock
+    private EnvioRepository envioRepository;
+    @Mock
+    private DetalleCompraRepository detalleCompraRepository;
+    @Mock
+    private CostoEnvioService costoEnvioService;
+    @Mock
+    private IndiceFincasService indiceFincasService;
+    @Mock
+    private PlanificadorEnviosService planificadorEnviosService;
+    @Mock
+    private MercadoEnviosService mercadoEnviosService;
+    @Mock
+    private RastreoEnviosService rastreoEnviosService;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private EnvioService envioService;
+
+    // Marca si hay una transacción abierta en el gestor simulado
+    private final AtomicBoolean enTransaccion = new AtomicBoolean(false);
+    private final List<String> transacciones = new ArrayList<>();
+
+    @BeforeEach
+    void preparar() {
+        lenient().when(transactionManager.getTransaction(any())).thenAnswer(inv -> {
+            enTransaccion.set(true);
+            transacciones.add("inicio");
+            return new SimpleTransactionStatus();
+        });
+        lenient().doAnswer(inv -> {
+            enTransaccion.set(false);
+            transacciones.add("commit");
+            return null;
+        }).when(transactionManager).commit(any());
+        lenient().doAnswer(inv -> {
+            enTransaccion.set(false);
+            transacciones.add("rollback");
+            return null;
+        }).when(transactionManager).rollback(any());
+        envioService.setTransactionManager(transactionManager);
+    }
+
+    @Test
+    void geocodificaFueraDeLaTransaccionYGuardaEnOtraCorta() {
+        Envio envio = pendiente(10, "Calle 10 #5-20, Medellín");
+        when(envioRepository.findById(10)).thenReturn(Optional.of(envio));
+        AtomicBoolean geocodificoEnTransaccion = new AtomicBoolean();
+        when(costoEnvioService.obtenerCoordenadasOFallar("Calle 10 #5-20, Medellín")).thenAnswer(inv -> {
+            geocodificoEnTransaccion.set(enTransaccion.get());
+            return Map.of("latitud", 6.25, "longitud", -75.56);
+        });
+        when(planificadorEnviosService.planificar(envio)).thenReturn(List.of(envio));
+
+        assertThat(envioService.calcularPendiente(10, false)).isTrue();
+
+        assertThat(geocodificoEnTransaccion.get()).isFalse();
+        assertThat(transacciones).containsExactly("inicio", "commit", "inicio", "commit");
+        assertThat(envio.getLatitudDestino()).isEqualTo(6.25);
+        assertThat(envio.getEstadoCalculo()).isEqualTo(Envio.EstadoCalculo.COMPLETO);
+        assertThat(envio.getIntentosCalculo()).isEqualTo(1);
+        verify(envioRepository).save(envio);
+    }
+
+    @Test
+    void unFalloDeGeocodificacionNoEscribeNada() {
+        Envio envio = pendiente(11, "Vereda sin nombre");
+        when(envioRepository.findById(11)).thenReturn(Optional.of(envio));
+        when(costoEnvioService.obtenerCoordenadasOFallar("Vereda sin nombre"))
+                .thenThrow(new IllegalStateException("No se pudo geocodificar la dirección"));
+
+        assertThatThrownBy(() -> envioService.calcularPendiente(11, false))
+                .isInstanceOf(IllegalStateException.class);
+
+        // Solo la lectura inicial abrió transacción
+        assertThat(transacciones).containsExactly("inicio", "commit");
+        assertThat(envio.getEstadoCalculo()).isEqualTo(Envio.EstadoCalculo.PENDIENTE);
+        verify(envioRepository, never()).save(any());
+    }
+
+    @Test
+    void noPisaUnEnvioQueOtroProcesoCompletoMientrasSeGeocodificaba() {
+        Envio leido = pendiente(12, "Carrera 7 #12-30, Bogotá");
+        Envio yaCompleto = pendiente(12, "Carrera 7 #12-30, Bogotá");
+        yaCompleto.setEstadoCalculo(Envio.EstadoCalculo.COMPLETO);
+        when(envioRepository.findById(12)).thenReturn(Optional.of(leido), Optional.of(yaCompleto));
+        when(costoEnvioService.obtenerCoordenadasOFallar(any())).thenReturn(Map.of("latitud", 4.6, "longitud", -74.07));
+
+        assertThat(envioService.calcularPendiente(12, false)).isFalse();
+
+        verify(planificadorEnviosService, never()).planificar(any());
+        verify(envioRepository, never()).save(any());
+    }
+
+    @Test
+    void conCoordenadasConocidasNoLlamaAlGeocodificador() {
+        Envio envio = pendiente(13, "Calle 1");
+        envio.setLatitudDestino(5.53);
+        envio.setLongitudDestino(-73.36);
+        when(envioRepository.findById(13)).thenReturn(Optional.of(envio));
+        when(planificadorEnviosService.planificar(envio)).thenReturn(List.of(envio));
+
+        assertThat(envioService.calcularPendiente(13, true)).isTrue();
+
+        verify(costoEnvioService, never()).obtenerCoordenadas(any());
+        verify(costoEnvioService, never()).obtenerCoordenadasOFallar(any());
+    }
+
+    private static Envio pendiente(int id, String direccion) {
+        Envio envio = new Envio();
+        envio.setIdEnvio(id);
+        envio.setDireccionDestino(direccion);
+        envio.setEstadoEnvio(Envio.EstadoEnvio.Buscando_Transporte);
+        envio.setEstadoCalculo(Envio.EstadoCalculo.PENDIENTE);
+        envio.setIntentosCalculo(0);
+        return envio;
+    }
+}
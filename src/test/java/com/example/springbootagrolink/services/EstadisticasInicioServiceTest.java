@@ -0,0 +1,124 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.ProductoDestacado;
+import com.example.springbootagrolink.model.ProductoRanking;
+import com.example.springbootagrolink.repository.CalificacionRepository;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import com.example.springbootagrolink.repository.UsuarioRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EstadisticasInicioServiceTest {
+
+    @Mock
+    private UsuarioRepository usuarioRepository;
+    @Mock
+    private ProductoRepository productoRepository;
+    @Mock
+    private EnvioRepository envioRepository;
+    @Mock
+    private CalificacionRepository calificacionRepository;
+    @Mock
+    private RankingProductosService rankingProductosService;
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private EstadisticasInicioService estadisticas;
+
+    @Test
+    void antesDelPrimerCalculoTodoEstaEnCero() {
+        EstadisticasInicioService.Instantanea vacia = estadisticas.actual();
+
+        assertThat(vacia.totalUsuarios()).isZero();
+        assertThat(vacia.productoDestacado()).isNull();
+        assertThat(vacia.tendencias()).isEmpty();
+        assertThat(vacia.calculadaEn()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void publicaLaInstantaneaConElMasVendidoYLasTendencias() {
+        ProductoDestacado destacado = new ProductoDestacado(7, "Café de origen", "Tostión media",
+                new BigDecimal("32000"), BigDecimal.ONE, 40, "/img/cafe.jpg", "Café", "La Esperanza");
+        List<RankingProductosService.Posicion> tendencias = List.of(new RankingProductosService.Posicion(9, 12, 3.5));
+        List<ProductoRanking> detalle = List.of(new ProductoRanking(9, "Mora", new BigDecimal("6000"), 20, null, 12));
+        when(usuarioRepository.count()).thenReturn(120L);
+        when(productoRepository.countProductosDisponibles()).thenReturn(null);
+        when(calificacionRepository.calcularPromedioGeneral()).thenReturn(4.25);
+        when(envioRepository.contarPorEstado()).thenReturn(List.of(
+                new Object[]{Envio.EstadoEnvio.Finalizado, 3L},
+                new Object[]{Envio.EstadoEnvio.En_Transito, 5L},
+                new Object[]{Envio.EstadoEnvio.Buscando_Transporte, 4L}));
+        when(rankingProductosService.masVendidos(RankingProductosService.Ventana.TOTAL, null, 1))
+                .thenReturn(List.of(new RankingProductosService.Posicion(7, 300, 300)));
+        when(rankingProductosService.tendencias(null, 4)).thenReturn(tendencias);
+        when(rankingProductosService.detallar(tendencias)).thenReturn(detalle);
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class)))
+                .thenReturn(List.of(destacado));
+
+        estadisticas.refrescar();
+
+        EstadisticasInicioService.Instantanea instantanea = estadisticas.actual();
+        assertThat(instantanea.totalUsuarios()).isEqualTo(120);
+        assertThat(instantanea.productosDisponibles()).isZero();
+        assertThat(instantanea.porcentajeEntregas()).isEqualTo(25.0);
+        assertThat(instantanea.promedioCalificaciones()).isEqualTo(4.25);
+        assertThat(instantanea.productoDestacado()).isEqualTo(destacado);
+        assertThat(instantanea.tendencias()).isEqualTo(detalle);
+        assertThat(instantanea.calculadaEn()).isNotNull();
+
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        verify(jdbcTemplate).query(anyString(), params.capture(), any(RowMapper.class));
+        assertThat(params.getValue().getValue("idProducto")).isEqualTo(7);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sinVentasSeDestacaElProductoMasRecienteYSinEnviosElPorcentajeEsCero() {
+        when(envioRepository.contarPorEstado()).thenReturn(List.of());
+        when(rankingProductosService.masVendidos(RankingProductosService.Ventana.TOTAL, null, 1)).thenReturn(List.of());
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class))).thenReturn(List.of());
+
+        estadisticas.refrescar();
+
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        verify(jdbcTemplate).query(anyString(), params.capture(), any(RowMapper.class));
+        assertThat(params.getValue().getValue("idProducto")).isNull();
+        assertThat(estadisticas.actual().porcentajeEntregas()).isZero();
+        assertThat(estadisticas.actual().productoDestacado()).isNull();
+    }
+
+    @Test
+    void siElCalculoFallaSeConservaLaInstantaneaAnterior() {
+        when(envioRepository.contarPorEstado()).thenReturn(List.of()).thenThrow(new RuntimeException("sin conexión"));
+        when(usuarioRepository.count()).thenReturn(5L);
+        when(rankingProductosService.masVendidos(RankingProductosService.Ventana.TOTAL, null, 1)).thenReturn(List.of());
+        estadisticas.refrescar();
+        EstadisticasInicioService.Instantanea anterior = estadisticas.actual();
+
+        estadisticas.refrescar();
+
+        assertThat(estadisticas.actual()).isSameAs(anterior);
+        assertThat(anterior.totalUsuarios()).isEqualTo(5);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.springbootagrolink.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ExportacionServiceTest {
+
+    private static final String[] COLUMNAS = {"id_compra", "fecha_hora_compra", "cliente", "total", "metodo_pago"};
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private ExportacionService exportacion;
+
+    @BeforeEach
+    void preparar() throws Exception {
+        exportacion = new ExportacionService(mock(DataSource.class));
+        jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+        ReflectionTestUtils.setField(exportacion, "jdbcTemplate", jdbcTemplate);
+
+        ResultSet rs = resultado(
+                new Object[]{1, Timestamp.valueOf(LocalDateTime.of(2026, 3, 1, 9, 30)), "Ana Pérez", new BigDecimal("1E+3"), "TARJETA"},
+                new Object[]{2, null, "Díaz, \"El Mono\"\nJuan", new BigDecimal("12500.50"), null});
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(ResultSetExtractor.class)))
+                .thenAnswer(inv -> ((ResultSetExtractor<?>) inv.getArgument(2)).extractData(rs));
+    }
+
+    @Test
+    void elCsvEscapaLosCamposComoRfc4180() throws Exception {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        long filas = exportacion.exportar(ExportacionService.Tipo.COMPRAS, ExportacionService.Formato.CSV,
+                new ExportacionService.Filtros(null, null, null), false, salida);
+
+        assertThat(filas).isEqualTo(2);
+        assertThat(salida.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "\uFEFFid_compra,fecha_hora_compra,cliente,total,metodo_pago\r\n" +
+                "1,2026-03-01T09:30,Ana Pérez,1000,TARJETA\r\n" +
+                "2,,\"Díaz, \"\"El Mono\"\"\nJuan\",12500.50,\r\n");
+    }
+
+    @Test
+    void elCsvNeutralizaLosTextosQueExcelTomariaComoFormula() throws Exception {
+        ResultSet rs = resultado(
+                new Object[]{3, null, "=HYPERLINK(\"http://x\",\"clic\")", new BigDecimal("-5.50"), "+57 300"},
+                new Object[]{4, null, "@SUM(A1)", new BigDecimal("10"), "-cmd"},
+                new Object[]{5, null, "\tTab", new BigDecimal("1"), "Ana = Pérez"});
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(ResultSetExtractor.class)))
+                .thenAnswer(inv -> ((ResultSetExtractor<?>) inv.getArgument(2)).extractData(rs));
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        exportacion.exportar(ExportacionService.Tipo.COMPRAS, ExportacionService.Formato.CSV,
+                new ExportacionService.Filtros(null, null, null), false, salida);
+
+        // Los números siguen siendo números aunque sean negativos; solo se escapan los textos
+        assertThat(salida.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "\uFEFFid_compra,fecha_hora_compra,cliente,total,metodo_pago\r\n" +
+                "3,,\"'=HYPERLINK(\"\"http://x\"\",\"\"clic\"\")\",-5.50,\"'+57 300\"\r\n" +
+                "4,,\"'@SUM(A1)\",10,\"'-cmd\"\r\n" +
+                "5,,\"'\tTab\",1,Ana = Pérez\r\n");
+    }
+
+    @Test
+    void elNdjsonComprimidoTieneUnObjetoPorLinea() throws Exception {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        exportacion.exportar(ExportacionService.Tipo.COMPRAS, ExportacionService.Formato.NDJSON,
+                new ExportacionService.Filtros(null, null, null), true, salida);
+
+        String texto = new String(new GZIPInputStream(new ByteArrayInputStream(salida.toByteArray())).readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertThat(texto).endsWith("\n");
+        List<String> lineas = texto.lines().toList();
+        assertThat(lineas).hasSize(2);
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode primera = mapper.readTree(lineas.get(0));
+        JsonNode segunda = mapper.readTree(lineas.get(1));
+        assertThat(primera.get("id_compra").asInt()).isEqualTo(1);
+        assertThat(primera.get("fecha_hora_compra").asText()).isEqualTo("2026-03-01T09:30");
+        assertThat(primera.get("total").decimalValue()).isEqualByComparingTo("1000");
+        assertThat(segunda.get("cliente").asText()).isEqualTo("Díaz, \"El Mono\"\nJuan");
+        assertThat(segunda.get("metodo_pago").isNull()).isTrue();
+    }
+
+    @Test
+    void losFiltrosSeTraducenAParametros() throws Exception {
+        exportacion.exportar(ExportacionService.Tipo.ENVIOS, ExportacionService.Formato.CSV,
+                new ExportacionService.Filtros(LocalDate.parse("2026-03-01"), LocalDate.parse("2026-03-31"), "En_Transito"),
+                false, new ByteArrayOutputStream());
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        verify(jdbcTemplate).query(sql.capture(), params.capture(), any(ResultSetExtractor.class));
+        assertThat(sql.getValue()).contains("FROM tb_envios", "e.estado_envio = :estado", "c.fecha_hora_compra < :hasta");
+        assertThat(params.getValue().getValue("estado")).isEqualTo("En_Transito");
+        // hasta es inclusivo: se consulta hasta el inicio del día siguiente
+        assertThat(params.getValue().getValue("hasta")).isEqualTo(LocalDateTime.of(2026, 4, 1, 0, 0));
+    }
+
+    @Test
+    void losFiltrosInvalidosFallanAntesDeEscribir() {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        assertThatThrownBy(() -> exportacion.exportar(ExportacionService.Tipo.ENVIOS, ExportacionService.Formato.CSV,
+                new ExportacionService.Filtros(null, null, "Perdido"), false, salida))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> exportacion.exportar(ExportacionService.Tipo.PRODUCTOS, ExportacionService.Formato.CSV,
+                new ExportacionService.Filtros(LocalDate.parse("2026-03-01"), null, null), false, salida))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> exportacion.formato("xml")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(exportacion.tipo(" envios ")).isEqualTo(ExportacionService.Tipo.ENVIOS);
+        assertThat(salida.size()).isZero();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    // Cursor sobre filas en memoria con las columnas de COLUMNAS
+    private static ResultSet resultado(Object[]... filas) throws Exception {
+        ResultSetMetaData meta = mock(ResultSetMetaData.class);
+        when(meta.getColumnCount()).thenReturn(COLUMNAS.length);
+        when(meta.getColumnLabel(anyInt())).thenAnswer(inv -> COLUMNAS[(int) inv.getArgument(0) - 1]);
+
+        ResultSet rs = mock(ResultSet.class);
+        int[] actual = {-1};
+        when(rs.getMetaData()).thenReturn(meta);
+        when(rs.next()).thenAnswer(inv -> ++actual[0] < filas.length);
+        when(rs.getObject(anyInt())).thenAnswer(inv -> filas[actual[0]][(int) inv.getArgument(0) - 1]);
+        return rs;
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.CategoriaProducto;
+import com.example.springbootagrolink.model.Producto;
+import com.example.springbootagrolink.model.Productor;
+import com.example.springbootagrolink.model.Usuario;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IndiceCatalogoServiceTest {
+
+    @Mock
+    private ProductoRepository productoRepository;
+
+    @Mock
+    private BuscadorProductosService buscadorProductosService;
+
+    @Mock
+    private ResenaService resenaService;
+
+    @InjectMocks
+    private IndiceCatalogoService indice;
+
+    @Test
+    void elRangoDePrecioSigueAlDiaConCambiosIncrementales() {
+        Random random = new Random(42);
+        // Precio vigente de cada producto indexado (null = sin precio)
+        Map<Integer, Double> precios = new TreeMap<>();
+
+        for (int paso = 0; paso < 2000; paso++) {
+            int id = 1 + random.nextInt(60);
+            if (random.nextInt(5) == 0) {
+                indice.quitar(id);
+                precios.remove(id);
+            } else {
+                // Precios repetidos a propósito para ejercitar el desempate por id
+                Double precio = random.nextInt(8) == 0 ? null : (double) (1000 * (1 + random.nextInt(15)));
+                indice.indexar(producto(id, precio, 1));
+                precios.put(id, precio);
+            }
+
+            if (paso % 50 == 0) {
+                double min = 1000 * (1 + random.nextInt(15));
+                double max = min + 1000 * random.nextInt(6);
+                assertThat(indice.filtrar(null, null, null, min, max, null, null, null))
+                        .isEqualTo(esperados(precios, min, max));
+            }
+        }
+        assertThat(indice.filtrar(null, null, null, 0.0, null, null, null, null))
+                .isEqualTo(esperados(precios, 0.0, Double.MAX_VALUE));
+    }
+
+    @Test
+    void reconstruirNoDejaConsultasVacias() throws Exception {
+        List<Producto> catalogo = new ArrayList<>();
+        for (int id = 1; id <= 300; id++) {
+            catalogo.add(producto(id, 1000.0 + id, id % 7));
+        }
+        when(productoRepository.findAllParaIndice()).thenReturn(catalogo);
+        indice.reconstruir();
+
+        AtomicBoolean terminar = new AtomicBoolean(false);
+        AtomicInteger consultasIncompletas = new AtomicInteger();
+        AtomicInteger consultas = new AtomicInteger();
+        ExecutorService lectores = Executors.newFixedThreadPool(4);
+        CountDownLatch listos = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            lectores.submit(() -> {
+                listos.countDown();
+                while (!terminar.get()) {
+                    int todos = indice.filtrar(null, null, null, null, null, null, null, null).size();
+                    int enRango = indice.filtrar(null, null, null, 1101.0, 1200.0, null, null, null).size();
+                    int categoria = indice.filtrar(null, 1, null, null, null, null, null, null).size();
+                    if (todos != 300 || enRango != 100 || categoria != 300 / 7 + 1) {
+                        consultasIncompletas.incrementAndGet();
+                    }
+                    consultas.incrementAndGet();
+                }
+            });
+        }
+        listos.await();
+        for (int i = 0; i < 200; i++) {
+            indice.reconstruir();
+        }
+        terminar.set(true);
+        lectores.shutdown();
+        assertThat(lectores.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(consultas.get()).isPositive();
+        assertThat(consultasIncompletas.get()).isZero();
+    }
+
+    @Test
+    void losAjustesDeStockConvergenEnCualquierOrden() throws Exception {
+        indice.indexar(producto(1, 1000.0, 1));
+        indice.indexar(producto(2, 2000.0, 1));
+        indice.ajustarStock(Map.of(1, 990, 2, 490));
+
+        // 100 compras de 3 unidades del producto 1 y 100 de 2 unidades del 2, más 50 cancelaciones
+        // de 1 unidad de cada uno, confirmadas en hilos distintos y en cualquier orden
+        ExecutorService confirmaciones = Executors.newFixedThreadPool(8);
+        CountDownLatch salida = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            confirmaciones.submit(() -> {
+                salida.await();
+                indice.ajustarStock(Map.of(1, -3, 2, -2));
+                return null;
+            });
+        }
+        for (int i = 0; i < 50; i++) {
+            confirmaciones.submit(() -> {
+                salida.await();
+                indice.ajustarStock(Map.of(1, 1, 2, 1));
+                return null;
+            });
+        }
+        salida.countDown();
+        confirmaciones.shutdown();
+        assertThat(confirmaciones.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(indice.stockDe(1)).isEqualTo(1000 - 300 + 50);
+        assertThat(indice.stockDe(2)).isEqualTo(500 - 200 + 50);
+    }
+
+    private static List<Integer> esperados(Map<Integer, Double> precios, double min, double max) {
+        List<Integer> ids = new ArrayList<>();
+        precios.forEach((id, precio) -> {
+            if (precio != null && precio >= min && precio <= max) {
+                ids.add(id);
+            }
+        });
+        return ids;
+    }
+
+    private static Producto producto(int id, Double precio, int idCategoria) {
+        Usuario usuario = new Usuario();
+        usuario.setNombre("Productor " + id);
+        usuario.setCiudad("Tunja");
+        usuario.setDepartamento("Boyacá");
+        Productor productor = new Productor();
+        productor.setUsuario(usuario);
+
+        CategoriaProducto categoria = new CategoriaProducto();
+        categoria.setIdCategoria(idCategoria);
+        categoria.setNombreCategoria("Categoría " + idCategoria);
+
+        Producto producto = new Producto();
+        producto.setIdProducto(id);
+        producto.setNombreProducto("Producto " + id);
+        producto.setDescripcionProducto("Descripción " + id);
+        producto.setPrecio(precio != null ? BigDecimal.valueOf(precio) : null);
+        producto.setStock(10);
+        producto.setProductor(productor);
+        producto.setCategoria(categoria);
+        return producto;
+    }
+}
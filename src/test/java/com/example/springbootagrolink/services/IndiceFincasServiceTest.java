@@ -0,0 +1,190 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Finca;
+import com.example.springbootagrolink.repository.FincaRepository;
+import com.example.springbootagrolink.repository.ProductoFincaRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.when;
+
+/**
+ * buscarMasCercana (árbol k-d y escaneo directo) contra un recorrido lineal con Haversine
+ */
+@ExtendWith(MockitoExtension.class)
+class IndiceFincasServiceTest {
+
+    private static final double RADIO_TIERRA_KM = 6371;
+
+    private static final int PRODUCTO_EN_TODAS = 1;
+    private static final int PRODUCTO_EN_ALGUNAS = 2;
+    private static final int PRODUCTO_EN_POCAS = 3;
+
+    @Mock
+    private FincaRepository fincaRepository;
+
+    @Mock
+    private ProductoFincaRepository productoFincaRepository;
+
+    @InjectMocks
+    private IndiceFincasService indice;
+
+    private final Random random = new Random(7);
+    // Coordenadas vigentes de cada finca y fincas de cada producto (modelo de referencia)
+    private final Map<Integer, double[]> coordenadas = new HashMap<>();
+    private final Map<Integer, Set<Integer>> fincasPorProducto = new HashMap<>();
+
+    @BeforeEach
+    void preparar() {
+        List<Finca> fincas = new ArrayList<>();
+        List<Object[]> pares = new ArrayList<>();
+        for (int id = 1; id <= 3000; id++) {
+            // La mayoría en Colombia, algunas repartidas por todo el globo (incluidos polos y antimeridiano)
+            double lat = id % 10 == 0 ? -90 + 180 * random.nextDouble() : -4 + 16 * random.nextDouble();
+            double lon = id % 10 == 0 ? -180 + 360 * random.nextDouble() : -79 + 12 * random.nextDouble();
+            fincas.add(finca(id, lat, lon));
+            coordenadas.put(id, new double[]{lat, lon});
+
+            pares.add(new Object[]{PRODUCTO_EN_TODAS, id});
+            if (random.nextInt(8) == 0) {
+                pares.add(new Object[]{PRODUCTO_EN_ALGUNAS, id});
+            }
+            if (id % 700 == 0) {
+                pares.add(new Object[]{PRODUCTO_EN_POCAS, id});
+            }
+        }
+        // Una finca sin coordenadas asociada a todos: nunca debe aparecer como resultado
+        Finca sinUbicacion = new Finca();
+        sinUbicacion.setIdFinca(9999);
+        fincas.add(sinUbicacion);
+        pares.add(new Object[]{PRODUCTO_EN_TODAS, 9999});
+        pares.add(new Object[]{PRODUCTO_EN_POCAS, 9999});
+
+        for (Object[] par : pares) {
+            if (coordenadas.containsKey((Integer) par[1])) {
+                fincasPorProducto.computeIfAbsent((Integer) par[0], k -> new HashSet<>()).add((Integer) par[1]);
+            }
+        }
+        when(fincaRepository.findAll()).thenReturn(fincas);
+        when(productoFincaRepository.findParesProductoFinca()).thenReturn(pares);
+        indice.reconstruir();
+    }
+
+    @Test
+    void coincideConElRecorridoLineal() {
+        assertThat(fincasPorProducto.get(PRODUCTO_EN_POCAS)).hasSizeLessThan(16);
+        for (int consulta = 0; consulta < 2000; consulta++) {
+            double lat = -90 + 180 * random.nextDouble();
+            double lon = -180 + 360 * random.nextDouble();
+            for (int idProducto : new int[]{PRODUCTO_EN_TODAS, PRODUCTO_EN_ALGUNAS, PRODUCTO_EN_POCAS}) {
+                compararConLineal(idProducto, lat, lon);
+            }
+        }
+    }
+
+    @Test
+    void sigueCoincidiendoTrasMoverQuitarYDesasociarFincas() {
+        for (int paso = 0; paso < 300; paso++) {
+            int id = 1 + random.nextInt(3000);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    double lat = -4 + 16 * random.nextDouble();
+                    double lon = -79 + 12 * random.nextDouble();
+                    indice.registrarFinca(finca(id, lat, lon));
+                    coordenadas.put(id, new double[]{lat, lon});
+                }
+                case 1 -> {
+                    indice.quitarFinca(id);
+                    coordenadas.remove(id);
+                    fincasPorProducto.values().forEach(fincas -> fincas.remove(id));
+                }
+                default -> {
+                    indice.desasociar(PRODUCTO_EN_ALGUNAS, id);
+                    fincasPorProducto.get(PRODUCTO_EN_ALGUNAS).remove(id);
+                }
+            }
+            double lat = -4 + 16 * random.nextDouble();
+            double lon = -79 + 12 * random.nextDouble();
+            compararConLineal(PRODUCTO_EN_TODAS, lat, lon);
+            compararConLineal(PRODUCTO_EN_ALGUNAS, lat, lon);
+        }
+    }
+
+    @Test
+    void cambiarSoloLaDireccionPublicaUnArbolNuevo() {
+        int id = 700;
+        double[] c = coordenadas.get(id);
+        Object arbolAnterior = ReflectionTestUtils.getField(indice, "arbol");
+        IndiceFincasService.PuntoFinca[] puntosAnteriores = ReflectionTestUtils.invokeMethod(arbolAnterior, "puntos");
+        IndiceFincasService.PuntoFinca[] copia = puntosAnteriores.clone();
+
+        Finca mudada = finca(id, c[0], c[1]);
+        mudada.setDireccionFinca("Vereda El Rosal");
+        indice.registrarFinca(mudada);
+
+        // El árbol que ya leían las búsquedas no cambia; las nuevas ven la dirección actualizada
+        assertThat(puntosAnteriores).containsExactly(copia);
+        assertThat(ReflectionTestUtils.getField(indice, "arbol")).isNotSameAs(arbolAnterior);
+        assertThat(indice.buscarMasCercana(PRODUCTO_EN_POCAS, c[0], c[1]))
+                .hasValueSatisfying(f -> assertThat(f.finca().direccion()).isEqualTo("Vereda El Rosal"));
+    }
+
+    @Test
+    void sinFincasGeorreferenciadasNoHayResultado() {
+        assertThat(indice.buscarMasCercana(404, 4.6, -74.1)).isEmpty();
+        assertThat(indice.buscarMasCercana(null, 4.6, -74.1)).isEmpty();
+    }
+
+    private void compararConLineal(int idProducto, double lat, double lon) {
+        double esperada = Double.POSITIVE_INFINITY;
+        for (Integer idFinca : fincasPorProducto.getOrDefault(idProducto, Set.of())) {
+            double[] c = coordenadas.get(idFinca);
+            esperada = Math.min(esperada, haversineKm(lat, lon, c[0], c[1]));
+        }
+
+        Optional<IndiceFincasService.FincaCercana> cercana = indice.buscarMasCercana(idProducto, lat, lon);
+        if (esperada == Double.POSITIVE_INFINITY) {
+            assertThat(cercana).isEmpty();
+            return;
+        }
+        assertThat(cercana).isPresent();
+        IndiceFincasService.PuntoFinca finca = cercana.get().finca();
+        assertThat(fincasPorProducto.get(idProducto)).contains(finca.idFinca());
+        // Se compara la distancia y no el id: dos fincas pueden quedar a la misma distancia
+        assertThat(haversineKm(lat, lon, finca.latitud(), finca.longitud())).isCloseTo(esperada, within(1e-6));
+        assertThat(cercana.get().distanciaKm()).isCloseTo(esperada, within(1e-6));
+    }
+
+    private static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return RADIO_TIERRA_KM * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static Finca finca(int id, double lat, double lon) {
+        Finca finca = new Finca();
+        finca.setIdFinca(id);
+        finca.setLatitud(lat);
+        finca.setLongitud(lon);
+        finca.setDireccionFinca("Finca " + id);
+        return finca;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.OfertaEnvio;
+import com.example.springbootagrolink.model.Vehiculo;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.VehiculoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MercadoEnviosServiceTest {
+
+    private static final int CON_CAMION = 7;
+    private static final int SIN_VEHICULOS = 8;
+
+    @Mock
+    private EnvioRepository envioRepository;
+
+    @Mock
+    private VehiculoRepository vehiculoRepository;
+
+    private MercadoEnviosService mercado;
+
+    @BeforeEach
+    void preparar() {
+        mercado = new MercadoEnviosService();
+        ReflectionTestUtils.setField(mercado, "envioRepository", envioRepository);
+        ReflectionTestUtils.setField(mercado, "vehiculoRepository", vehiculoRepository);
+        ReflectionTestUtils.setField(mercado, "costoEnvioService", new CostoEnvioService());
+
+        lenient().when(vehiculoRepository.findByTransportista_IdUsuario(CON_CAMION))
+                .thenReturn(List.of(vehiculo(300), vehiculo(500)));
+        lenient().when(vehiculoRepository.findByTransportista_IdUsuario(SIN_VEHICULOS)).thenReturn(List.of());
+    }
+
+    @AfterEach
+    void detener() {
+        mercado.detener();
+    }
+
+    @Test
+    void ordenaPorCercaniaYDescartaLoQueNoCabeEnElVehiculo() {
+        publicar(oferta(1, 5.54, -73.36, 100));      // en Tunja
+        publicar(oferta(2, 6.24, -75.58, 100));      // en Medellín
+        publicar(oferta(3, 5.53, -73.37, 600));      // en Tunja, pero más pesado que el camión
+        publicar(oferta(4, null, null, 100));        // sin coordenadas de origen
+        mercado.actualizarPosicion(CON_CAMION, 5.5353, -73.3678);
+
+        List<MercadoEnviosService.OfertaTransportista> ofertas = mercado.ofertasPara(CON_CAMION);
+
+        assertThat(ofertas).extracting(MercadoEnviosService.OfertaTransportista::idEnvio).containsExactly(1, 2, 4);
+        assertThat(ofertas.get(0).distanciaRecogidaKm()).isLessThan(5.0);
+        assertThat(ofertas.get(2).distanciaRecogidaKm()).isNull();
+
+        // Sin vehículos no hay límite de peso; sin posición todas empatan y van de la más nueva a la más vieja
+        assertThat(mercado.ofertasPara(SIN_VEHICULOS))
+                .extracting(MercadoEnviosService.OfertaTransportista::idEnvio).containsExactly(4, 3, 2, 1);
+    }
+
+    @Test
+    void aIgualDistanciaPrefiereLaCargaQueAprovechaMejorElVehiculo() {
+        publicar(oferta(1, 5.54, -73.36, 50));
+        publicar(oferta(2, 5.54, -73.36, 450));
+        mercado.actualizarPosicion(CON_CAMION, 5.5353, -73.3678);
+
+        List<MercadoEnviosService.OfertaTransportista> ofertas = mercado.ofertasPara(CON_CAMION);
+
+        assertThat(ofertas).extracting(MercadoEnviosService.OfertaTransportista::idEnvio).containsExactly(2, 1);
+        assertThat(ofertas.get(1).puntaje() - ofertas.get(0).puntaje()).isCloseTo(16.0, within(0.2));
+    }
+
+    @Test
+    void sincronizarYRetirarMantienenAlDiaLasOfertasAbiertas() {
+        publicar(oferta(1, 5.54, -73.36, 100));
+        publicar(oferta(2, 5.54, -73.36, 100));
+
+        // El envío 1 dejó de estar abierto (por ejemplo, se canceló): al sincronizar sale del mercado
+        when(envioRepository.findOfertaAbierta(1, Envio.EstadoEnvio.Buscando_Transporte, Envio.EstadoCalculo.COMPLETO))
+                .thenReturn(Optional.empty());
+        mercado.sincronizar(1);
+        await().atMost(Duration.ofSeconds(5)).until(() -> mercado.cantidadAbiertas() == 1);
+
+        // El envío 2 fue aceptado
+        mercado.retirar(2);
+        await().atMost(Duration.ofSeconds(5)).until(() -> mercado.cantidadAbiertas() == 0);
+        assertThat(mercado.ofertasPara(SIN_VEHICULOS)).isEmpty();
+    }
+
+    @Test
+    void rechazaPosicionesInvalidas() {
+        assertThatThrownBy(() -> mercado.actualizarPosicion(CON_CAMION, 95.0, -73.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> mercado.actualizarPosicion(CON_CAMION, null, -73.0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Publica la oferta como lo haría EnvioService al terminar de calcular el envío
+    private void publicar(OfertaEnvio oferta) {
+        int antes = mercado.cantidadAbiertas();
+        when(envioRepository.findOfertaAbierta(oferta.idEnvio(), Envio.EstadoEnvio.Buscando_Transporte,
+                Envio.EstadoCalculo.COMPLETO)).thenReturn(Optional.of(oferta));
+        mercado.sincronizar(oferta.idEnvio());
+        await().atMost(Duration.ofSeconds(5)).until(() -> mercado.cantidadAbiertas() == antes + 1);
+    }
+
+    private static OfertaEnvio oferta(int id, Double lat, Double lon, double pesoKg) {
+        return new OfertaEnvio(id, "Finca " + id, "Destino " + id, lat, lon, 120.0, pesoKg,
+                new BigDecimal("350000"), "Cliente " + id);
+    }
+
+    private static Vehiculo vehiculo(int capacidadKg) {
+        Vehiculo vehiculo = new Vehiculo();
+        vehiculo.setCapacidadCarga(BigDecimal.valueOf(capacidadKg));
+        return vehiculo;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.springbootagrolink.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.Normalizer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NormalizadorTextoTest {
+
+    /**
+     * Normalización de referencia: la cadena de String.toLowerCase, NFD y eliminación de marcas
+     */
+    private static String referencia(String texto) {
+        return Normalizer.normalize(texto.toLowerCase(), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .strip();
+    }
+
+    @Test
+    void laTablaCoincideConNfdEnTodoElRango() {
+        for (char c = 0; c < 0x0180; c++) {
+            String texto = String.valueOf(c);
+            assertThat(NormalizadorTexto.normalizar(texto))
+                    .as("U+%04X", (int) c)
+                    .isEqualTo(referencia(texto));
+        }
+    }
+
+    @Test
+    void textosAleatoriosCoincidenConLaReferencia() {
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder texto = new StringBuilder();
+            int largo = random.nextInt(20);
+            for (int j = 0; j < largo; j++) {
+                texto.append(random.nextInt(4) == 0 ? ' ' : (char) random.nextInt(0x0180));
+            }
+            assertThat(NormalizadorTexto.normalizar(texto.toString())).isEqualTo(referencia(texto.toString()));
+        }
+    }
+
+    @Test
+    void casosDelEspanol() {
+        assertThat(NormalizadorTexto.normalizar("  Medellín ")).isEqualTo("medellin");
+        assertThat(NormalizadorTexto.normalizar("PIÑA Orgánica")).isEqualTo("pina organica");
+        assertThat(NormalizadorTexto.normalizar("Pingüino")).isEqualTo("pinguino");
+        // Texto ya descompuesto: las marcas combinantes sueltas se descartan
+        assertThat(NormalizadorTexto.normalizar("Boyaca\u0301")).isEqualTo("boyaca");
+        assertThat(NormalizadorTexto.normalizar(null)).isEmpty();
+    }
+
+    @Test
+    void textoYaNormalizadoDevuelveLaMismaInstancia() {
+        String texto = "papa criolla";
+        assertThat(NormalizadorTexto.normalizar(texto)).isSameAs(texto);
+    }
+}
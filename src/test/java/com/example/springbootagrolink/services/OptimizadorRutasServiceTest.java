@@ -0,0 +1,189 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.Vehiculo;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import com.example.springbootagrolink.repository.VehiculoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Banco de pruebas del optimizador con instancias sintéticas de 10 a 500 paradas: cada ruta debe ser
+ * factible (recogida antes de entrega, capacidad respetada, todas las paradas una vez), no más larga
+ * que el orden de aceptación y terminar dentro del tiempo configurado. Registra tiempos y ahorro.
+ */
+class OptimizadorRutasServiceTest {
+
+    private static final Logger log = LoggerFactory.getLogger(OptimizadorRutasServiceTest.class);
+
+    private static final long TIEMPO_MAX_MS = 2000;
+    // Margen para la construcción de la matriz y la JVM de integración continua
+    private static final long HOLGURA_MS = 3000;
+    private static final double CAPACIDAD_KG = 2000;
+    private static final int ID_TRANSPORTISTA = 7;
+
+    private final EnvioRepository envioRepository = mock(EnvioRepository.class);
+    private final VehiculoRepository vehiculoRepository = mock(VehiculoRepository.class);
+    private final CostoEnvioService costoEnvioService = new CostoEnvioService();
+    private OptimizadorRutasService optimizador;
+
+    @BeforeEach
+    void preparar() {
+        optimizador = new OptimizadorRutasService();
+        ReflectionTestUtils.setField(optimizador, "tiempoMaxMs", TIEMPO_MAX_MS);
+        ReflectionTestUtils.setField(optimizador, "envioRepository", envioRepository);
+        ReflectionTestUtils.setField(optimizador, "vehiculoRepository", vehiculoRepository);
+        ReflectionTestUtils.setField(optimizador, "costoEnvioService", costoEnvioService);
+
+        Vehiculo camion = new Vehiculo();
+        camion.setIdVehiculo(3);
+        camion.setCapacidadCarga(BigDecimal.valueOf(CAPACIDAD_KG));
+        when(vehiculoRepository.findByTransportista_IdUsuario(ID_TRANSPORTISTA)).thenReturn(List.of(camion));
+    }
+
+    @AfterEach
+    void detener() {
+        optimizador.detener();
+    }
+
+    @ParameterizedTest(name = "{0} paradas")
+    @ValueSource(ints = {10, 50, 100, 250, 500})
+    void rutasFactiblesYMasCortasQueElOrdenDeAceptacion(int paradasObjetivo) {
+        Random random = new Random(paradasObjetivo);
+        List<Envio> envios = instancia(random, paradasObjetivo);
+        when(envioRepository.findByTransportistaYEstados(eq(ID_TRANSPORTISTA), anyList())).thenReturn(envios);
+
+        OptimizadorRutasService.RutaOptimizada ruta = optimizador.optimizar(ID_TRANSPORTISTA, null, 5.0, -74.0);
+
+        verificarFactible(ruta, envios);
+        assertThat(ruta.enviosExcluidos()).isEmpty();
+        assertThat(ruta.kmOptimizados()).isLessThanOrEqualTo(ruta.kmSinOptimizar());
+        assertThat(ruta.tiempoMs()).isLessThan(TIEMPO_MAX_MS + HOLGURA_MS);
+
+        double ahorro = ruta.kmSinOptimizar() > 0 ? 100 * ruta.kmAhorrados() / ruta.kmSinOptimizar() : 0;
+        log.info("Optimizador: {} paradas, {} ms, {} km (orden de aceptación {} km, {}% menos)",
+                ruta.paradas().size(), ruta.tiempoMs(), ruta.kmOptimizados(), ruta.kmSinOptimizar(),
+                String.format("%.1f", ahorro));
+    }
+
+    @Test
+    void excluyeEnviosSinCoordenadasOMasPesadosQueElVehiculo() {
+        Envio sinOrigen = envio(1, Envio.EstadoEnvio.Asignado, 10, null, null, 4.6, -74.1);
+        Envio muyPesado = envio(2, Envio.EstadoEnvio.Asignado, CAPACIDAD_KG + 1, 5.5, -73.3, 4.6, -74.1);
+        Envio normal = envio(3, Envio.EstadoEnvio.Asignado, 100, 5.5, -73.3, 4.6, -74.1);
+        when(envioRepository.findByTransportistaYEstados(eq(ID_TRANSPORTISTA), anyList()))
+                .thenReturn(List.of(sinOrigen, muyPesado, normal));
+
+        OptimizadorRutasService.RutaOptimizada ruta = optimizador.optimizar(ID_TRANSPORTISTA, null, null, null);
+
+        assertThat(ruta.enviosExcluidos()).containsExactly(1, 2);
+        assertThat(ruta.paradas()).extracting(OptimizadorRutasService.ParadaRuta::tipo)
+                .containsExactly(OptimizadorRutasService.TipoParada.RECOGIDA, OptimizadorRutasService.TipoParada.ENTREGA);
+    }
+
+    // Tres de cada cuatro envíos están Asignado (recogida + entrega) y el resto En_Transito (solo entrega)
+    private static List<Envio> instancia(Random random, int paradasObjetivo) {
+        List<Envio> envios = new ArrayList<>();
+        int paradas = 0;
+        double cargaEnTransito = 0;
+        for (int id = 1; paradas < paradasObjetivo; id++) {
+            // Si solo falta una parada tiene que ser una entrega en tránsito
+            boolean enTransito = paradasObjetivo - paradas == 1
+                    || (id % 4 == 0 && cargaEnTransito + 300 <= CAPACIDAD_KG / 2);
+            double peso = 20 + random.nextInt(280);
+            // Recogidas en fincas del altiplano cundiboyacense, entregas en la región central
+            double latOrigen = 5.0 + random.nextDouble();
+            double lonOrigen = -74.0 + random.nextDouble();
+            double latDestino = 3.5 + 3 * random.nextDouble();
+            double lonDestino = -76.0 + 3 * random.nextDouble();
+            if (enTransito) {
+                cargaEnTransito += peso;
+                envios.add(envio(id, Envio.EstadoEnvio.En_Transito, peso, latOrigen, lonOrigen, latDestino, lonDestino));
+                paradas += 1;
+            } else {
+                envios.add(envio(id, Envio.EstadoEnvio.Asignado, peso, latOrigen, lonOrigen, latDestino, lonDestino));
+                paradas += 2;
+            }
+        }
+        return envios;
+    }
+
+    private void verificarFactible(OptimizadorRutasService.RutaOptimizada ruta, List<Envio> envios) {
+        Map<Integer, Envio> porId = new HashMap<>();
+        int paradasEsperadas = 0;
+        double carga = 0;
+        for (Envio e : envios) {
+            porId.put(e.getIdEnvio(), e);
+            boolean enTransito = e.getEstadoEnvio() == Envio.EstadoEnvio.En_Transito;
+            paradasEsperadas += enTransito ? 1 : 2;
+            if (enTransito) {
+                carga += e.getPesoTotalKg();
+            }
+        }
+        assertThat(ruta.paradas()).hasSize(paradasEsperadas);
+
+        Map<Integer, Boolean> recogido = new HashMap<>();
+        Map<Integer, Boolean> entregado = new HashMap<>();
+        double km = 0;
+        double latAnterior = 5.0;
+        double lonAnterior = -74.0;
+        for (OptimizadorRutasService.ParadaRuta parada : ruta.paradas()) {
+            Envio envio = porId.get(parada.idEnvio());
+            assertThat(envio).isNotNull();
+            if (parada.tipo() == OptimizadorRutasService.TipoParada.RECOGIDA) {
+                assertThat(envio.getEstadoEnvio()).isEqualTo(Envio.EstadoEnvio.Asignado);
+                assertThat(recogido.put(envio.getIdEnvio(), true)).isNull();
+                carga += envio.getPesoTotalKg();
+            } else {
+                if (envio.getEstadoEnvio() == Envio.EstadoEnvio.Asignado) {
+                    assertThat(recogido).containsKey(envio.getIdEnvio());
+                }
+                assertThat(entregado.put(envio.getIdEnvio(), true)).isNull();
+                carga -= envio.getPesoTotalKg();
+            }
+            assertThat(carga).isLessThanOrEqualTo(CAPACIDAD_KG + 1e-6);
+            assertThat(parada.cargaKg()).isCloseTo(Math.max(0, carga), within(0.01));
+
+            km += costoEnvioService.calcularDistanciaHaversine(latAnterior, lonAnterior, parada.latitud(), parada.longitud());
+            latAnterior = parada.latitud();
+            lonAnterior = parada.longitud();
+        }
+        assertThat(entregado).hasSize(envios.size());
+        assertThat(ruta.kmOptimizados()).isCloseTo(km, within(0.01));
+    }
+
+    private static Envio envio(int id, Envio.EstadoEnvio estado, double pesoKg,
+                               Double latOrigen, Double lonOrigen, double latDestino, double lonDestino) {
+        Envio envio = new Envio();
+        envio.setIdEnvio(id);
+        envio.setEstadoEnvio(estado);
+        envio.setPesoTotalKg(pesoKg);
+        envio.setLatitudOrigen(latOrigen);
+        envio.setLongitudOrigen(lonOrigen);
+        envio.setLatitudDestino(latDestino);
+        envio.setLongitudDestino(lonDestino);
+        envio.setDireccionOrigen("Finca " + id);
+        envio.setDireccionDestino("Destino " + id);
+        return envio;
+    }
+}
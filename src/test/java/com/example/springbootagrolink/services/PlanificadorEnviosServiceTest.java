@@ -0,0 +1,170 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Compra;
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.LineaEnvio;
+import com.example.springbootagrolink.repository.DetalleCompraRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PlanificadorEnviosServiceTest {
+
+    private static final double LAT_BOGOTA = 4.7110;
+    private static final double LON_BOGOTA = -74.0721;
+
+    private static final IndiceFincasService.PuntoFinca TUNJA =
+            new IndiceFincasService.PuntoFinca(1, 5.5353, -73.3678, "Finca Tunja");
+    private static final IndiceFincasService.PuntoFinca SAMACA =
+            new IndiceFincasService.PuntoFinca(2, 5.6000, -73.4000, "Finca Samacá");
+    private static final IndiceFincasService.PuntoFinca MEDELLIN =
+            new IndiceFincasService.PuntoFinca(3, 6.2442, -75.5812, "Finca Medellín");
+
+    @Mock
+    private DetalleCompraRepository detalleCompraRepository;
+
+    @Mock
+    private IndiceFincasService indiceFincasService;
+
+    private CostoEnvioService costoEnvioService;
+    private PlanificadorEnviosService planificador;
+
+    @BeforeEach
+    void preparar() {
+        CostoEnvioService real = new CostoEnvioService();
+        ReflectionTestUtils.setField(real, "tarifaBasePorKm", new BigDecimal("2500"));
+        ReflectionTestUtils.setField(real, "tarifaPorKg", new BigDecimal("50"));
+        ReflectionTestUtils.setField(real, "costoMinimo", new BigDecimal("20000"));
+        costoEnvioService = spy(real);
+
+        planificador = new PlanificadorEnviosService();
+        ReflectionTestUtils.setField(planificador, "radioConsolidacionKm", 30.0);
+        ReflectionTestUtils.setField(planificador, "detalleCompraRepository", detalleCompraRepository);
+        ReflectionTestUtils.setField(planificador, "indiceFincasService", indiceFincasService);
+        ReflectionTestUtils.setField(planificador, "costoEnvioService", costoEnvioService);
+    }
+
+    @Test
+    void agrupaFincasCercanasYCotizaTodosLosGruposEnUnLote() {
+        when(detalleCompraRepository.findLineasEnvio(50)).thenReturn(List.of(
+                new LineaEnvio(1, 101, new BigDecimal("2.5"), 4),   // 10 kg desde Tunja
+                new LineaEnvio(2, 102, new BigDecimal("5"), 1),     // 5 kg desde Samacá (~8 km de Tunja)
+                new LineaEnvio(3, 103, new BigDecimal("1"), 2),     // 2 kg desde Medellín
+                new LineaEnvio(4, 104, BigDecimal.ONE, 1),          // sin finca georreferenciada: 1 kg
+                new LineaEnvio(5, 105, null, 3)));                  // sin peso registrado: no suma
+        cercana(101, TUNJA);
+        cercana(102, SAMACA);
+        cercana(103, MEDELLIN);
+        cercana(105, MEDELLIN);
+        when(indiceFincasService.buscarMasCercana(104, LAT_BOGOTA, LON_BOGOTA)).thenReturn(Optional.empty());
+
+        Envio base = envioBase();
+        List<Envio> plan = planificador.planificar(base);
+
+        assertThat(plan).hasSize(2);
+        Envio boyaca = plan.get(0);
+        Envio antioquia = plan.get(1);
+        assertThat(boyaca).isSameAs(base);
+
+        // Recoge primero en la finca más lejana al destino y luego en la otra; lleva también la línea sin origen
+        assertThat(boyaca.getDireccionOrigen()).isEqualTo("Finca Samacá → Finca Tunja");
+        assertThat(boyaca.getLatitudOrigen()).isEqualTo(SAMACA.latitud());
+        assertThat(boyaca.getPesoTotalKg()).isEqualTo(16.0);
+        double esperada = km(SAMACA, TUNJA.latitud(), TUNJA.longitud()) + km(TUNJA, LAT_BOGOTA, LON_BOGOTA);
+        assertThat(boyaca.getDistanciaKm()).isCloseTo(esperada, within(1e-9));
+
+        assertThat(antioquia.getDireccionOrigen()).isEqualTo("Finca Medellín");
+        assertThat(antioquia.getPesoTotalKg()).isEqualTo(2.0);
+        assertThat(antioquia.getEstadoCalculo()).isEqualTo(Envio.EstadoCalculo.COMPLETO);
+        assertThat(antioquia.getCompra()).isSameAs(base.getCompra());
+
+        // Los costos coinciden con el cálculo de un solo envío
+        for (Envio envio : plan) {
+            Map<String, BigDecimal> uno = costoEnvioService.calcularCostoEnvio(envio.getDistanciaKm(), envio.getPesoTotalKg());
+            assertThat(envio.getCostoBase()).isEqualByComparingTo(uno.get("costoBase"));
+            assertThat(envio.getCostoPeso()).isEqualByComparingTo(uno.get("costoPeso"));
+            assertThat(envio.getCostoTotal()).isEqualByComparingTo(uno.get("costoTotal"));
+            assertThat(envio.getTarifaPorKm()).isEqualByComparingTo("2500");
+        }
+        // Un lote de distancias y un lote de costos (las dos llamadas a calcularCostoEnvio son las de arriba)
+        verify(costoEnvioService, times(1)).calcularDistanciasHaversine(any(), any(), any(), any());
+        verify(costoEnvioService, times(1)).cotizarDistancias(any(), any());
+        verify(costoEnvioService, times(2)).calcularCostoEnvio(anyDouble(), anyDouble());
+    }
+
+    @Test
+    void losProductosSinPesoNoSumanYCadaEnvioPesaAlMenosUnKilo() {
+        when(detalleCompraRepository.findLineasEnvio(50)).thenReturn(List.of(
+                new LineaEnvio(1, 101, new BigDecimal("3"), 2),     // 6 kg desde Tunja
+                new LineaEnvio(2, 102, null, 5),                    // Samacá, sin peso registrado
+                new LineaEnvio(3, 103, null, 4)));                  // Medellín, sin peso registrado
+        cercana(101, TUNJA);
+        cercana(102, SAMACA);
+        cercana(103, MEDELLIN);
+
+        List<Envio> plan = planificador.planificar(envioBase());
+
+        assertThat(plan).extracting(Envio::getPesoTotalKg).containsExactly(6.0, 1.0);
+        Map<String, BigDecimal> minimo = costoEnvioService.calcularCostoEnvio(plan.get(1).getDistanciaKm(), 1.0);
+        assertThat(plan.get(1).getCostoPeso()).isEqualByComparingTo(minimo.get("costoPeso"));
+        assertThat(plan.get(1).getCostoTotal()).isEqualByComparingTo(minimo.get("costoTotal"));
+    }
+
+    @Test
+    void sinFincasGeorreferenciadasNoPlanifica() {
+        when(detalleCompraRepository.findLineasEnvio(50)).thenReturn(List.of(new LineaEnvio(1, 101, BigDecimal.ONE, 1)));
+        when(indiceFincasService.buscarMasCercana(101, LAT_BOGOTA, LON_BOGOTA)).thenReturn(Optional.empty());
+
+        assertThat(planificador.planificar(envioBase())).isEmpty();
+        verify(costoEnvioService, never()).cotizarDistancias(any(), any());
+    }
+
+    @Test
+    void sinCoordenadasDeDestinoNoConsultaLasLineas() {
+        Envio base = envioBase();
+        base.setLatitudDestino(null);
+
+        assertThat(planificador.planificar(base)).isEmpty();
+        verify(detalleCompraRepository, never()).findLineasEnvio(anyInt());
+    }
+
+    private void cercana(int idProducto, IndiceFincasService.PuntoFinca finca) {
+        IndiceFincasService.FincaCercana cercana = new IndiceFincasService.FincaCercana(finca, km(finca, LAT_BOGOTA, LON_BOGOTA));
+        when(indiceFincasService.buscarMasCercana(idProducto, LAT_BOGOTA, LON_BOGOTA)).thenReturn(Optional.of(cercana));
+    }
+
+    private double km(IndiceFincasService.PuntoFinca finca, double lat, double lon) {
+        return costoEnvioService.calcularDistanciaHaversine(finca.latitud(), finca.longitud(), lat, lon);
+    }
+
+    private static Envio envioBase() {
+        Compra compra = new Compra();
+        compra.setIdCompra(50);
+        Envio envio = new Envio();
+        envio.setCompra(compra);
+        envio.setDireccionDestino("Calle 26 #68-10, Bogotá");
+        envio.setLatitudDestino(LAT_BOGOTA);
+        envio.setLongitudDestino(LON_BOGOTA);
+        return envio;
+    }
+}
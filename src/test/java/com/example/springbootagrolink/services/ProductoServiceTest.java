@@ -0,0 +1,93 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.PaginaCatalogo;
+import com.example.springbootagrolink.model.Producto;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductoServiceTest {
+
+    @Mock
+    private ProductoRepository productoRepository;
+
+    @Mock
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Mock
+    private IndiceFincasService indiceFincasService;
+
+    @Mock
+    private ResenaService resenaService;
+
+    @InjectMocks
+    private ProductoService productoService;
+
+    @Test
+    void elOrdenPorCalificacionPaginaPorCursorYTerminaConLosSinResenas() {
+        // Calificados del mejor al peor (con empate en 4.0) y después los sin reseñas, por id
+        List<Integer> calificados = List.of(5, 2, 9, 1);
+        Map<Integer, Double> puntajes = Map.of(5, 4.5, 2, 4.0, 9, 4.0, 1, 3.0);
+        List<Integer> sinResenas = List.of(3, 4, 6, 7, 8);
+
+        lenient().when(resenaService.calificadosDespuesDe(any(), any(), anyInt())).thenAnswer(inv -> {
+            Integer despuesDeId = inv.getArgument(1);
+            int desde = despuesDeId == null ? 0 : calificados.indexOf(despuesDeId) + 1;
+            return calificados.subList(desde, Math.min(desde + (int) inv.getArgument(2), calificados.size()));
+        });
+        lenient().when(resenaService.puntajeDe(any())).thenAnswer(inv -> puntajes.get((Integer) inv.getArgument(0)));
+        lenient().when(productoRepository.findIdsSinCalificacion(any(), any(Pageable.class))).thenAnswer(inv -> {
+            Integer despuesDeId = inv.getArgument(0);
+            Pageable limite = inv.getArgument(1);
+            return sinResenas.stream()
+                    .filter(id -> despuesDeId == null || id > despuesDeId)
+                    .limit(limite.getPageSize())
+                    .toList();
+        });
+        when(productoRepository.findAllWithImagesByIds(any())).thenAnswer(inv -> {
+            List<Producto> productos = new ArrayList<>();
+            for (Integer id : (Collection<Integer>) inv.getArgument(0)) {
+                Producto p = new Producto();
+                p.setIdProducto(id);
+                productos.add(p);
+            }
+            return productos;
+        });
+
+        List<Integer> recorridos = new ArrayList<>();
+        List<Double> cursores = new ArrayList<>();
+        PaginaCatalogo pagina = productoService.obtenerPaginaCatalogoPorCalificacion(null, null, 3);
+        while (true) {
+            pagina.productos().forEach(p -> recorridos.add(p.getIdProducto()));
+            if (!pagina.hayMas()) {
+                break;
+            }
+            cursores.add(pagina.siguientePuntaje());
+            pagina = productoService.obtenerPaginaCatalogoPorCalificacion(
+                    pagina.siguientePuntaje(), pagina.siguienteId(), 3);
+        }
+
+        assertThat(recorridos).containsExactly(5, 2, 9, 1, 3, 4, 6, 7, 8);
+        // La segunda página cruza a los productos sin reseñas: su cursor ya no lleva puntaje
+        assertThat(cursores).containsExactly(4.0, null);
+        verify(productoRepository).findIdsSinCalificacion(eq(4), any(Pageable.class));
+    }
+}
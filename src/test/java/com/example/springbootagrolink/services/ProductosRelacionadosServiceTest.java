@@ -0,0 +1,190 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.ProductoCarrito;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductosRelacionadosServiceTest {
+
+    @Mock
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Mock
+    private ProductoRepository productoRepository;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private ProductosRelacionadosService relacionados;
+
+    // Filas de tb_detalles_compra: {id_compra, id_producto}, ya ordenadas por compra
+    private final List<int[]> detalles = new ArrayList<>();
+
+    @BeforeEach
+    void preparar() throws Exception {
+        relacionados = new ProductosRelacionadosService(mock(DataSource.class));
+        ReflectionTestUtils.setField(relacionados, "indiceCatalogoService", indiceCatalogoService);
+        ReflectionTestUtils.setField(relacionados, "productoRepository", productoRepository);
+        ReflectionTestUtils.setField(relacionados, "jdbcTemplate", jdbcTemplate);
+
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            for (int[] detalle : detalles) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getInt("id_compra")).thenReturn(detalle[0]);
+                when(rs.getInt("id_producto")).thenReturn(detalle[1]);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+        lenient().when(indiceCatalogoService.stockDe(anyInt())).thenReturn(10);
+    }
+
+    @Test
+    void ordenaPorCosenoYCompletaConLaCategoria() {
+        // 1, 2, 3 y 4 son de la categoría 1 en Boyacá; 5 también pero sin stock; 6 es de la
+        // categoría 1 en Cundinamarca y 7 de otra categoría
+        when(indiceCatalogoService.entradasCatalogo()).thenReturn(List.of(
+                entrada(1, 1, "boyaca", 5), entrada(2, 1, "boyaca", 5), entrada(3, 1, "boyaca", 5),
+                entrada(4, 1, "boyaca", 5), entrada(5, 1, "boyaca", 0), entrada(6, 1, "cundinamarca", 5),
+                entrada(7, 2, "boyaca", 5)));
+        compra(1, 1, 2);
+        compra(2, 1, 2);
+        compra(3, 1, 3);
+        compra(4, 3);
+        compra(5, 3);
+        compra(6, 1, 4, 4);
+        compra(7, 4, 99);
+
+        relacionados.recalcular();
+
+        // coseno(1,2) = 2/√(4·2) > coseno(1,4) = 1/√(4·2) > coseno(1,3) = 1/√(4·3); luego el mismo
+        // departamento (aunque sin stock) y después el resto de la categoría
+        assertThat(relacionados.idsRelacionados(1, 10)).containsExactly(2, 4, 3, 5, 6);
+        assertThat(relacionados.idsRelacionados(1, 2)).containsExactly(2, 4);
+        // 99 no está en el catálogo: no cuenta como vecino de 4
+        assertThat(relacionados.idsRelacionados(4, 1)).containsExactly(1);
+    }
+
+    @Test
+    void omiteLosVecinosBorradosYCubreLosProductosNuevos() {
+        when(indiceCatalogoService.entradasCatalogo()).thenReturn(List.of(
+                entrada(1, 1, "boyaca", 5), entrada(2, 1, "boyaca", 5), entrada(3, 1, "boyaca", 5)));
+        compra(1, 1, 2);
+        compra(2, 1, 3);
+        compra(3, 1, 3);
+        relacionados.recalcular();
+
+        // El 3 se borró después del cálculo
+        when(indiceCatalogoService.stockDe(3)).thenReturn(null);
+        when(indiceCatalogoService.categoriaDe(1)).thenReturn(1);
+        when(indiceCatalogoService.productosDeCategoria(1, 3)).thenReturn(List.of(1, 2, 8));
+        assertThat(relacionados.idsRelacionados(1, 2)).containsExactly(2, 8);
+
+        // El 9 se creó después del cálculo: se completa con su categoría, sin incluirse a sí mismo
+        when(indiceCatalogoService.categoriaDe(9)).thenReturn(1);
+        when(indiceCatalogoService.productosDeCategoria(1, 4)).thenReturn(List.of(9, 1, 2, 8));
+        assertThat(relacionados.idsRelacionados(9, 3)).containsExactly(1, 2, 8);
+    }
+
+    @Test
+    void losVecinosCoincidenConElCosenoCalculadoAMano() {
+        Random random = new Random(5);
+        List<IndiceCatalogoService.EntradaCatalogo> catalogo = new ArrayList<>();
+        for (int id = 1; id <= 40; id++) {
+            catalogo.add(entrada(id, 1 + id % 4, "boyaca", 5));
+        }
+        when(indiceCatalogoService.entradasCatalogo()).thenReturn(catalogo);
+
+        List<Set<Integer>> canastas = new ArrayList<>();
+        for (int idCompra = 1; idCompra <= 600; idCompra++) {
+            Set<Integer> canasta = new HashSet<>();
+            int tamanio = 1 + random.nextInt(5);
+            while (canasta.size() < tamanio) {
+                canasta.add(1 + random.nextInt(40));
+            }
+            canastas.add(canasta);
+            compra(idCompra, canasta.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        relacionados.recalcular();
+
+        for (int id = 1; id <= 40; id++) {
+            List<Integer> esperados = vecinosPorCoseno(canastas, id);
+            assertThat(relacionados.idsRelacionados(id, 8).subList(0, esperados.size())).isEqualTo(esperados);
+        }
+    }
+
+    @Test
+    void devuelveLasTarjetasEnElOrdenDeSimilitud() {
+        when(indiceCatalogoService.entradasCatalogo()).thenReturn(List.of(
+                entrada(1, 1, "boyaca", 5), entrada(2, 1, "boyaca", 5), entrada(3, 1, "boyaca", 5)));
+        compra(1, 1, 3);
+        compra(2, 1, 3);
+        compra(3, 1, 2);
+        compra(4, 2);
+        relacionados.recalcular();
+        when(productoRepository.findProductosCarrito(List.of(3, 2))).thenReturn(List.of(
+                new ProductoCarrito(2, "Papa", null, null, null, 5, null),
+                new ProductoCarrito(3, "Mora", null, null, null, 5, null)));
+
+        assertThat(relacionados.relacionados(1, 4)).extracting(ProductoCarrito::nombre).containsExactly("Mora", "Papa");
+    }
+
+    private void compra(int idCompra, int... productos) {
+        for (int idProducto : productos) {
+            detalles.add(new int[]{idCompra, idProducto});
+        }
+    }
+
+    // Hasta 8 vecinos comprados juntos con el producto, por coseno y a igual coseno el id menor
+    private static List<Integer> vecinosPorCoseno(List<Set<Integer>> canastas, int id) {
+        Map<Integer, Integer> compras = new HashMap<>();
+        Map<Integer, Integer> enComun = new HashMap<>();
+        for (Set<Integer> canasta : canastas) {
+            canasta.forEach(p -> compras.merge(p, 1, Integer::sum));
+            if (canasta.contains(id) && canasta.size() > 1) {
+                canasta.stream().filter(p -> p != id).forEach(p -> enComun.merge(p, 1, Integer::sum));
+            }
+        }
+        Map<Integer, Double> coseno = new HashMap<>();
+        enComun.forEach((p, n) -> coseno.put(p, n / Math.sqrt((double) compras.get(id) * compras.get(p))));
+        return coseno.keySet().stream()
+                .sorted(Comparator.comparingDouble((Integer p) -> coseno.get(p)).reversed().thenComparing(p -> p))
+                .limit(8)
+                .toList();
+    }
+
+    private static IndiceCatalogoService.EntradaCatalogo entrada(int id, Integer idCategoria, String departamento, int stock) {
+        return new IndiceCatalogoService.EntradaCatalogo(id, idCategoria, "producto " + id, "", "tunja", departamento,
+                "productor", "categoría " + idCategoria, 1000.0, true, stock, false);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.ProductoCarrito;
+import com.example.springbootagrolink.model.ProductoRanking;
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RankingProductosServiceTest {
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Mock
+    private ProductoRepository productoRepository;
+
+    @InjectMocks
+    private RankingProductosService ranking;
+
+    @BeforeEach
+    void preparar() {
+        // Tres categorías; el producto 99 ya no está en el catálogo
+        lenient().when(indiceCatalogoService.categoriaDe(anyInt()))
+                .thenAnswer(inv -> (int) inv.getArgument(0) == 99 ? null : (int) inv.getArgument(0) % 3 + 1);
+    }
+
+    @AfterEach
+    void limpiar() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void cadaVentanaCuentaSoloSusDias() {
+        vender(1, 5, 0);
+        vender(1, 4, 10);
+        vender(1, 3, 40);
+        vender(2, 8, 2);
+        vender(99, 100, 0);
+
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.TOTAL, null, 10))
+                .extracting(RankingProductosService.Posicion::idProducto, RankingProductosService.Posicion::unidades)
+                .containsExactly(tuple(1, 12L), tuple(2, 8L));
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.TREINTA_DIAS, null, 10))
+                .extracting(RankingProductosService.Posicion::unidades).containsExactly(9L, 8L);
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.SIETE_DIAS, null, 10))
+                .extracting(RankingProductosService.Posicion::idProducto).containsExactly(2, 1);
+        // Filtrado por la categoría vigente del catálogo (1 % 3 + 1 = 2)
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.TOTAL, 2, 10))
+                .extracting(RankingProductosService.Posicion::idProducto).containsExactly(1);
+    }
+
+    @Test
+    void lasCancelacionesDescuentanYRefrescanElRanking() {
+        vender(1, 5, 0);
+        vender(2, 3, 0);
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.SIETE_DIAS, null, 10))
+                .extracting(RankingProductosService.Posicion::idProducto).containsExactly(1, 2);
+
+        ranking.descontarVenta(Map.of(1, 5), LocalDateTime.now());
+
+        // Sin unidades el producto sale del ranking
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.SIETE_DIAS, null, 10))
+                .extracting(RankingProductosService.Posicion::idProducto).containsExactly(2);
+    }
+
+    @Test
+    void dentroDeUnaTransaccionSeAplicaAlConfirmar() {
+        TransactionSynchronizationManager.initSynchronization();
+        vender(1, 5, 0);
+
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.TOTAL, null, 10)).isEmpty();
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(ranking.masVendidos(RankingProductosService.Ventana.TOTAL, null, 10))
+                .extracting(RankingProductosService.Posicion::unidades).containsExactly(5L);
+    }
+
+    @Test
+    void laTendenciaEsElExcesoSobreElRitmoAnterior() {
+        // 1: solo vende esta semana. 2: mismo ritmo que antes (23 unidades en 23 días, 7 en 7). 3: se acelera
+        vender(1, 7, 1);
+        vender(2, 23, 15);
+        vender(2, 7, 3);
+        vender(3, 46, 20);
+        vender(3, 28, 0);
+
+        List<RankingProductosService.Posicion> tendencias = ranking.tendencias(null, 10);
+
+        assertThat(tendencias).extracting(RankingProductosService.Posicion::idProducto).containsExactly(3, 1);
+        assertThat(tendencias.get(0).puntaje()).isEqualTo(28 - 46 * 7.0 / 23);
+        assertThat(tendencias.get(0).unidades()).isEqualTo(28);
+        assertThat(tendencias.get(1).puntaje()).isEqualTo(7.0);
+    }
+
+    @Test
+    void losContadoresCoincidenConRecontarLasVentas() {
+        Random random = new Random(23);
+        // Ventas (producto, días atrás, unidades) para el recuento ingenuo
+        List<int[]> ventas = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int id = 1 + random.nextInt(40);
+            int diasAtras = random.nextInt(60);
+            int unidades = 1 + random.nextInt(5);
+            vender(id, unidades, diasAtras);
+            ventas.add(new int[]{id, diasAtras, unidades});
+            if (random.nextInt(10) == 0) {
+                ranking.descontarVenta(Map.of(id, unidades), LocalDateTime.now().minusDays(diasAtras));
+                ventas.add(new int[]{id, diasAtras, -unidades});
+            }
+            if (i % 500 == 0) {
+                for (RankingProductosService.Ventana ventana : RankingProductosService.Ventana.values()) {
+                    assertThat(ranking.masVendidos(ventana, null, 50)).isEqualTo(recontar(ventas, ventana));
+                }
+            }
+        }
+        for (RankingProductosService.Ventana ventana : RankingProductosService.Ventana.values()) {
+            assertThat(ranking.masVendidos(ventana, null, 50)).isEqualTo(recontar(ventas, ventana));
+        }
+    }
+
+    @Test
+    void detallarConservaElOrdenYOmiteLosProductosBorrados() {
+        when(productoRepository.findProductosCarrito(List.of(3, 1, 2))).thenReturn(List.of(
+                new ProductoCarrito(1, "Papa", null, new BigDecimal("2000"), null, 10, null),
+                new ProductoCarrito(3, "Mora", null, new BigDecimal("6000"), null, 4, "/img/mora.jpg")));
+
+        List<ProductoRanking> detalle = ranking.detallar(List.of(
+                new RankingProductosService.Posicion(3, 9, 9),
+                new RankingProductosService.Posicion(1, 5, 5),
+                new RankingProductosService.Posicion(2, 4, 4)));
+
+        assertThat(detalle).extracting(ProductoRanking::nombre).containsExactly("Mora", "Papa");
+        assertThat(detalle.get(0).unidades()).isEqualTo(9);
+    }
+
+    @Test
+    void laVentanaSeLeeDelParametro() {
+        assertThat(RankingProductosService.Ventana.desde(null)).isEqualTo(RankingProductosService.Ventana.TOTAL);
+        assertThat(RankingProductosService.Ventana.desde(" 7D ")).isEqualTo(RankingProductosService.Ventana.SIETE_DIAS);
+        assertThatThrownBy(() -> RankingProductosService.Ventana.desde("90d")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void vender(int idProducto, int unidades, int diasAtras) {
+        ranking.registrarVenta(Map.of(idProducto, unidades), LocalDateTime.now().minusDays(diasAtras));
+    }
+
+    private static List<RankingProductosService.Posicion> recontar(List<int[]> ventas, RankingProductosService.Ventana ventana) {
+        int dias = switch (ventana) {
+            case TOTAL -> Integer.MAX_VALUE;
+            case SIETE_DIAS -> 7;
+            case TREINTA_DIAS -> 30;
+        };
+        Map<Integer, Long> unidades = new HashMap<>();
+        for (int[] venta : ventas) {
+            if (venta[1] < dias) {
+                unidades.merge(venta[0], (long) venta[2], Long::sum);
+            }
+        }
+        return unidades.entrySet().stream()
+                .filter(e -> e.getValue() > 0)
+                .map(e -> new RankingProductosService.Posicion(e.getKey(), e.getValue(), e.getValue()))
+                .sorted(Comparator.comparingDouble(RankingProductosService.Posicion::puntaje).reversed()
+                        .thenComparing(RankingProductosService.Posicion::idProducto))
+                .limit(50)
+                .toList();
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.model.Envio;
+import com.example.springbootagrolink.model.EnvioEnRuta;
+import com.example.springbootagrolink.repository.EnvioRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RastreoEnviosServiceTest {
+
+    private static final int ENVIO = 10;
+    private static final int TRANSPORTISTA = 3;
+    // Destino del envío: Tunja
+    private static final double LAT_DESTINO = 5.5353;
+    private static final double LON_DESTINO = -73.3678;
+
+    @Mock
+    private EnvioRepository envioRepository;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final CostoEnvioService costoEnvioService = new CostoEnvioService();
+    private RastreoEnviosService rastreo;
+    private long inicio;
+
+    @BeforeEach
+    void preparar() {
+        rastreo = new RastreoEnviosService();
+        ReflectionTestUtils.setField(rastreo, "envioRepository", envioRepository);
+        ReflectionTestUtils.setField(rastreo, "costoEnvioService", costoEnvioService);
+        ReflectionTestUtils.setField(rastreo, "jdbcTemplate", jdbcTemplate);
+
+        lenient().when(envioRepository.findEnvioEnRuta(eq(ENVIO), any()))
+                .thenReturn(Optional.of(new EnvioEnRuta(ENVIO, TRANSPORTISTA, LAT_DESTINO, LON_DESTINO)));
+        // Sin posiciones guardadas de antes
+        lenient().when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class)))
+                .thenReturn(new ArrayList<>());
+        inicio = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(3);
+    }
+
+    @Test
+    void calculaDistanciaRestanteVelocidadYEta() {
+        rastreo.registrarPosiciones(TRANSPORTISTA, List.of(
+                ping(5.00, -73.50, 60.0, 0),
+                ping(5.10, -73.45, 30.0, 10)));
+
+        RastreoEnviosService.EstadoRastreo estado = rastreo.estado(ENVIO, 10);
+
+        // Media móvil con peso 0,3 para la muestra nueva
+        double velocidad = 0.3 * 30 + 0.7 * 60;
+        double restante = costoEnvioService.calcularDistanciaHaversine(5.10, -73.45, LAT_DESTINO, LON_DESTINO);
+        assertThat(estado.velocidadKmh()).isEqualTo(velocidad);
+        assertThat(estado.distanciaRestanteKm()).isCloseTo(restante, within(0.05));
+        assertThat(estado.etaMinutos()).isEqualTo((int) Math.ceil(restante / velocidad * 60));
+        assertThat(estado.ultimaPosicion().latitud()).isEqualTo(5.10);
+        assertThat(estado.recorrido()).hasSize(2);
+    }
+
+    @Test
+    void sinVelocidadDelGpsLaEstimaConLasPosiciones() {
+        rastreo.registrarPosiciones(TRANSPORTISTA, List.of(
+                ping(5.00, -73.50, null, 0),
+                ping(5.05, -73.50, null, 6)));
+
+        double km = costoEnvioService.calcularDistanciaHaversine(5.00, -73.50, 5.05, -73.50);
+        assertThat(rastreo.estado(ENVIO, 10).velocidadKmh()).isCloseTo(km / 0.1, within(0.1));
+    }
+
+    @Test
+    void lasPosicionesFueraDeOrdenNoMuevenElEta() {
+        RastreoEnviosService.ResultadoIngesta resultado = rastreo.registrarPosiciones(TRANSPORTISTA, List.of(
+                ping(5.20, -73.40, 50.0, 20),
+                ping(5.00, -73.50, 50.0, 5)));
+
+        RastreoEnviosService.EstadoRastreo estado = rastreo.estado(ENVIO, 10);
+        // Se acepta (irá al histórico) pero la última posición sigue siendo la más reciente
+        assertThat(resultado.aceptadas()).isEqualTo(2);
+        assertThat(estado.ultimaPosicion().latitud()).isEqualTo(5.20);
+        assertThat(estado.recorrido()).hasSize(1);
+    }
+
+    @Test
+    void rechazaPosicionesAjenasInvalidasYAntiguas() {
+        when(envioRepository.findEnvioEnRuta(eq(99), any())).thenReturn(Optional.empty());
+
+        RastreoEnviosService.ResultadoIngesta resultado = rastreo.registrarPosiciones(TRANSPORTISTA, List.of(
+                ping(5.00, -73.50, 40.0, 0),
+                new RastreoEnviosService.PingPosicion(ENVIO, 95.0, -73.50, null, inicio),
+                new RastreoEnviosService.PingPosicion(ENVIO, 5.0, -73.50, null, inicio - TimeUnit.DAYS.toMillis(2)),
+                new RastreoEnviosService.PingPosicion(99, 5.0, -73.50, null, inicio),
+                new RastreoEnviosService.PingPosicion(99, 5.1, -73.50, null, inicio)));
+        RastreoEnviosService.ResultadoIngesta deOtro = rastreo.registrarPosiciones(TRANSPORTISTA + 1, List.of(
+                ping(5.10, -73.45, 40.0, 1)));
+
+        assertThat(resultado.aceptadas()).isEqualTo(1);
+        assertThat(resultado.rechazadas()).isEqualTo(4);
+        assertThat(deOtro.rechazadas()).isEqualTo(1);
+        // El envío que no está en ruta se consulta una sola vez; el que sí, también
+        verify(envioRepository, times(1)).findEnvioEnRuta(eq(99), any());
+        verify(envioRepository, times(1)).findEnvioEnRuta(eq(ENVIO), any());
+    }
+
+    @Test
+    void elAnilloConservaLasUltimasCienPosiciones() {
+        List<RastreoEnviosService.PingPosicion> pings = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            pings.add(ping(5.0 + i * 0.001, -73.50, 40.0, i));
+        }
+        rastreo.registrarPosiciones(TRANSPORTISTA, pings);
+
+        List<RastreoEnviosService.PosicionEnvio> recorrido = rastreo.estado(ENVIO, 500).recorrido();
+        assertThat(recorrido).hasSize(100);
+        assertThat(recorrido.get(0).registradaEnMs()).isEqualTo(inicio + TimeUnit.MINUTES.toMillis(50));
+        assertThat(recorrido.get(99).registradaEnMs()).isEqualTo(inicio + TimeUnit.MINUTES.toMillis(149));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void unVolcadoFallidoSeReintentaSinPerderPosiciones() {
+        List<RastreoEnviosService.PingPosicion> pings = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            pings.add(ping(5.0 + i * 0.001, -73.50, 40.0, i));
+        }
+        rastreo.registrarPosiciones(TRANSPORTISTA, pings);
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class)))
+                .thenThrow(new RuntimeException("sin conexión"))
+                .thenReturn(new int[30]);
+
+        rastreo.volcarPosiciones();
+        rastreo.volcarPosiciones();
+        rastreo.volcarPosiciones();
+
+        ArgumentCaptor<SqlParameterSource[]> lotes = ArgumentCaptor.forClass(SqlParameterSource[].class);
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), lotes.capture());
+        assertThat(lotes.getAllValues()).allSatisfy(lote -> assertThat(lote).hasSize(30));
+    }
+
+    @Test
+    void alAceptarElEnvioSeOlvidaQueNoEraRastreable() {
+        int otro = 11;
+        when(envioRepository.findEnvioEnRuta(eq(otro), any()))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(new EnvioEnRuta(otro, TRANSPORTISTA, LAT_DESTINO, LON_DESTINO)));
+        RastreoEnviosService.PingPosicion temprano = new RastreoEnviosService.PingPosicion(otro, 5.0, -73.5, null, null);
+
+        // Mientras buscaba transporte: se rechaza y la respuesta queda en caché
+        assertThat(rastreo.registrarPosiciones(TRANSPORTISTA, List.of(temprano)).rechazadas()).isEqualTo(1);
+        assertThat(rastreo.registrarPosiciones(TRANSPORTISTA, List.of(temprano)).rechazadas()).isEqualTo(1);
+        verify(envioRepository, times(1)).findEnvioEnRuta(eq(otro), any());
+
+        rastreo.invalidar(otro);
+
+        assertThat(rastreo.registrarPosiciones(TRANSPORTISTA, List.of(temprano)).aceptadas()).isEqualTo(1);
+    }
+
+    @Test
+    void unCambioDeEstadoEnRutaNoCierraLasSuscripciones() {
+        rastreo.registrarPosiciones(TRANSPORTISTA, List.of(ping(5.00, -73.50, 60.0, 0)));
+        rastreo.suscribir(ENVIO);
+        Map<Integer, ?> suscriptores = suscriptores();
+
+        rastreo.actualizarEstado(ENVIO, Envio.EstadoEnvio.En_Transito);
+        assertThat(suscriptores).containsKey(ENVIO);
+        // El seguimiento se recarga en la siguiente consulta
+        assertThat(rastreo.estado(ENVIO, 10)).isNotNull();
+        verify(envioRepository, times(2)).findEnvioEnRuta(eq(ENVIO), any());
+
+        rastreo.actualizarEstado(ENVIO, Envio.EstadoEnvio.Finalizado);
+        assertThat(suscriptores).doesNotContainKey(ENVIO);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, ?> suscriptores() {
+        return (Map<Integer, ?>) ReflectionTestUtils.getField(rastreo, "suscriptores");
+    }
+
+    // Posición del envío de prueba, minutos después del inicio del recorrido
+    private RastreoEnviosService.PingPosicion ping(double lat, double lon, Double velocidad, int minuto) {
+        return new RastreoEnviosService.PingPosicion(ENVIO, lat, lon, velocidad,
+                inicio + TimeUnit.MINUTES.toMillis(minuto));
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.springbootagrolink.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ResenaServiceTest {
+
+    private static final int PRODUCTOR = 70;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private ResenaService resenas;
+
+    // Tablas simuladas: reseñas por "producto:cliente" y acumulados {cantidad, suma}
+    private final Map<String, Integer> resenasProducto = new HashMap<>();
+    private final Map<Integer, int[]> acumuladoProducto = new HashMap<>();
+    private final Map<Integer, int[]> acumuladoProductor = new HashMap<>();
+
+    @BeforeEach
+    void preparar() {
+        ReflectionTestUtils.setField(resenas, "media", 3.5);
+        ReflectionTestUtils.setField(resenas, "peso", 5.0);
+    }
+
+    @Test
+    void elPuntajeBayesianoAcercaALaMediaLosProductosConPocasResenas() {
+        baseDeDatosSimulada();
+
+        // Una sola reseña de 5 frente a diez de 4: (5*3.5 + 5) / 6 = 3.75 < (5*3.5 + 40) / 15 = 3.833
+        resenas.calificarProducto(1, 10, 5, "Excelente");
+        for (int cliente = 1; cliente <= 10; cliente++) {
+            resenas.calificarProducto(cliente, 20, 4, null);
+        }
+
+        assertThat(resenas.puntajeDe(10)).isCloseTo(22.5 / 6, within(1e-9));
+        assertThat(resenas.puntajeDe(20)).isCloseTo(57.5 / 15, within(1e-9));
+        assertThat(resenas.productosConPuntajeMinimo(0)).containsExactly(20, 10);
+        assertThat(resenas.productosConPuntajeMinimo(3.8)).containsExactly(20);
+        // La reseña del producto cuenta también para su productor
+        assertThat(acumuladoProductor.get(PRODUCTOR)).containsExactly(11, 45);
+    }
+
+    @Test
+    void reemplazarUnaResenaSumaSoloLaDiferencia() {
+        baseDeDatosSimulada();
+
+        resenas.calificarProducto(1, 10, 5, null);
+        resenas.calificarProducto(2, 10, 3, null);
+        resenas.calificarProducto(1, 10, 1, "Cambié de opinión");
+
+        assertThat(acumuladoProducto.get(10)).containsExactly(2, 4);
+        assertThat(acumuladoProductor.get(PRODUCTOR)).containsExactly(2, 4);
+        assertThat(resenas.puntajeDe(10)).isCloseTo((17.5 + 4) / 7, within(1e-9));
+        assertThat(resenas.resumenProducto(10).promedio()).isEqualByComparingTo("2");
+
+        // Repetir la misma calificación no toca los acumulados
+        int acumulados = contarAcumulados();
+        resenas.calificarProducto(2, 10, 3, "Igual");
+        assertThat(contarAcumulados()).isEqualTo(acumulados);
+    }
+
+    @Test
+    void dosResenasQueConfirmanEnDesordenDejanElPuntajeConfirmado() {
+        baseDeDatosSimulada();
+
+        // Cada reseña registra su afterCommit; el de la primera corre después del de la segunda
+        TransactionSynchronization primera = enTransaccion(() -> resenas.calificarProducto(1, 10, 5, null));
+        TransactionSynchronization segunda = enTransaccion(() -> resenas.calificarProducto(2, 10, 1, null));
+        segunda.afterCommit();
+        primera.afterCommit();
+
+        assertThat(resenas.puntajeDe(10)).isCloseTo((17.5 + 6) / 7, within(1e-9));
+        assertThat(resenas.productosConPuntajeMinimo(0)).containsExactly(10);
+    }
+
+    @Test
+    void soloCalificaQuienComproYConPuntajeValido() {
+        assertThatThrownBy(() -> resenas.calificarProducto(1, 10, 6, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> resenas.calificarProducto(1, 10, 0, null))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(Integer.class)))
+                .thenReturn(List.of(PRODUCTOR));
+        when(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), eq(Boolean.class)))
+                .thenReturn(false);
+        assertThatThrownBy(() -> resenas.calificarProducto(1, 10, 4, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("comprado");
+
+        verify(jdbcTemplate, never()).update(anyString(), any(SqlParameterSource.class));
+        assertThat(resenas.puntajeDe(10)).isNull();
+    }
+
+    @Test
+    void laPaginacionPorPuntajeNoRepiteNiSaltaProductos() throws Exception {
+        Random random = new Random(7);
+        Map<Integer, Double> puntajes = new HashMap<>();
+        for (int id = 1; id <= 200; id++) {
+            // Pocos valores distintos a propósito para ejercitar el desempate por id
+            puntajes.put(id, 1.0 + random.nextInt(9) * 0.5);
+        }
+        cargar(puntajes);
+
+        List<Integer> esperados = new ArrayList<>(puntajes.keySet());
+        esperados.sort((a, b) -> puntajes.get(a).equals(puntajes.get(b))
+                ? Integer.compare(a, b)
+                : Double.compare(puntajes.get(b), puntajes.get(a)));
+
+        List<Integer> recorridos = new ArrayList<>();
+        Double despuesDePuntaje = null;
+        Integer despuesDeId = null;
+        while (true) {
+            List<Integer> pagina = resenas.calificadosDespuesDe(despuesDePuntaje, despuesDeId, 7);
+            if (pagina.isEmpty()) {
+                break;
+            }
+            recorridos.addAll(pagina);
+            despuesDeId = pagina.get(pagina.size() - 1);
+            despuesDePuntaje = resenas.puntajeDe(despuesDeId);
+        }
+
+        assertThat(recorridos).isEqualTo(esperados);
+        assertThat(new HashSet<>(recorridos)).hasSize(200);
+        assertThat(resenas.ordenarPorPuntaje(List.of(999, 3, 1, 2)))
+                .containsExactlyElementsOf(filtrar(esperados, Set.of(1, 2, 3), 999));
+    }
+
+    @Test
+    void eliminarUnProductoLoSacaDelIndiceDePuntajes() throws Exception {
+        cargar(Map.of(1, 4.5, 2, 4.0, 3, 3.0));
+
+        resenas.quitarProducto(2);
+
+        assertThat(resenas.puntajeDe(2)).isNull();
+        assertThat(resenas.productosConPuntajeMinimo(0)).containsExactly(1, 3);
+        assertThat(resenas.calificadosDespuesDe(4.5, 1, 10)).containsExactly(3);
+        // Quitar un producto sin reseñas no falla
+        resenas.quitarProducto(50);
+        assertThat(resenas.productosConPuntajeMinimo(0)).containsExactly(1, 3);
+    }
+
+    private static TransactionSynchronization enTransaccion(Runnable accion) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            accion.run();
+            List<TransactionSynchronization> registradas = TransactionSynchronizationManager.getSynchronizations();
+            assertThat(registradas).hasSize(1);
+            return registradas.get(0);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * Carga el índice de puntajes como al iniciar, con una fila por producto
+     */
+    private void cargar(Map<Integer, Double> puntajes) throws Exception {
+        List<ResultSet> filas = new ArrayList<>();
+        for (Map.Entry<Integer, Double> e : puntajes.entrySet()) {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getInt("id_producto")).thenReturn(e.getKey());
+            when(rs.getBigDecimal("puntaje")).thenReturn(BigDecimal.valueOf(e.getValue()));
+            filas.add(rs);
+        }
+        lenient().doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            for (ResultSet rs : filas) {
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+        resenas.cargarAlIniciar();
+    }
+
+    private static List<Integer> filtrar(List<Integer> orden, Set<Integer> incluidos, int alFinal) {
+        List<Integer> ids = new ArrayList<>();
+        for (Integer id : orden) {
+            if (incluidos.contains(id)) {
+                ids.add(id);
+            }
+        }
+        ids.add(alFinal);
+        return ids;
+    }
+
+    private int contarAcumulados() {
+        return (int) mockingDetails(jdbcTemplate).getInvocations().stream()
+                .filter(i -> i.getMethod().getName().equals("update")
+                        && i.getArgument(0).toString().startsWith("INSERT INTO tb_calificaciones"))
+                .count();
+    }
+
+    /**
+     * Simula las tablas de reseñas y acumulados. El acumulado se calcula con los parámetros que
+     * envía el servicio, igual que el INSERT ... ON DUPLICATE KEY UPDATE
+     */
+    private void baseDeDatosSimulada() {
+        lenient().when(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), eq(Boolean.class)))
+                .thenReturn(true);
+        lenient().when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(Integer.class)))
+                .thenAnswer(inv -> {
+                    String sql = inv.getArgument(0);
+                    SqlParameterSource p = inv.getArgument(1);
+                    if (sql.contains("FROM tb_productos")) {
+                        return List.of(PRODUCTOR);
+                    }
+                    Integer anterior = resenasProducto.get(p.getValue("objetivo") + ":" + p.getValue("cliente"));
+                    return anterior != null ? List.of(anterior) : List.of();
+                });
+        lenient().when(jdbcTemplate.update(anyString(), any(SqlParameterSource.class))).thenAnswer(inv -> {
+            String sql = inv.getArgument(0);
+            SqlParameterSource p = inv.getArgument(1);
+            if (sql.contains("tb_resenas_producto")) {
+                resenasProducto.put(p.getValue("objetivo") + ":" + p.getValue("cliente"), (Integer) p.getValue("puntaje"));
+            } else if (sql.startsWith("INSERT INTO tb_calificaciones")) {
+                assertThat(p.getValue("media")).isEqualTo(3.5);
+                assertThat(p.getValue("peso")).isEqualTo(5.0);
+                Map<Integer, int[]> tabla = sql.contains("tb_calificaciones_productor") ? acumuladoProductor : acumuladoProducto;
+                int[] fila = tabla.computeIfAbsent((Integer) p.getValue("objetivo"), k -> new int[2]);
+                fila[0] += (Integer) p.getValue("cantidad");
+                fila[1] += (Integer) p.getValue("suma");
+            }
+            return 1;
+        });
+        lenient().when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class)))
+                .thenAnswer(inv -> {
+                    SqlParameterSource p = inv.getArgument(1);
+                    int[] fila = acumuladoProducto.get((Integer) p.getValue("objetivo"));
+                    if (fila == null) {
+                        return List.of();
+                    }
+                    return List.of(new ResenaService.ResumenCalificacion(fila[0],
+                            BigDecimal.valueOf(fila[1]).divide(BigDecimal.valueOf(fila[0]), 2, RoundingMode.HALF_UP),
+                            (5 * 3.5 + fila[1]) / (5 + fila[0])));
+                });
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.springbootagrolink.services;
+
+import com.example.springbootagrolink.repository.ProductoRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReservaStockServiceTest {
+
+    private static final int STOCK = 20;
+
+    @Mock
+    private IndiceCatalogoService indiceCatalogoService;
+
+    @Mock
+    private ProductoRepository productoRepository;
+
+    @InjectMocks
+    private ReservaStockService reservas;
+
+    @Test
+    void reservasSimultaneasNoSuperanElStock() throws Exception {
+        when(indiceCatalogoService.stockDe(7)).thenReturn(STOCK);
+
+        // 200 carritos distintos intentan reservar entre 1 y 3 unidades a la vez
+        int carritos = 200;
+        ExecutorService hilos = Executors.newFixedThreadPool(32);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<Integer>> resultados = new ArrayList<>();
+        for (int i = 0; i < carritos; i++) {
+            String token = "carrito-" + i;
+            int cantidad = 1 + i % 3;
+            Callable<Integer> intento = () -> {
+                salida.await();
+                return reservas.reservar(token, 7, cantidad).reservado() ? cantidad : 0;
+            };
+            resultados.add(hilos.submit(intento));
+        }
+        salida.countDown();
+
+        int reservado = 0;
+        int exitosas = 0;
+        for (Future<Integer> f : resultados) {
+            int unidades = f.get(10, TimeUnit.SECONDS);
+            reservado += unidades;
+            if (unidades > 0) exitosas++;
+        }
+        hilos.shutdown();
+
+        assertThat(reservado).isLessThanOrEqualTo(STOCK);
+        assertThat(exitosas).isPositive();
+        // El libro coincide con lo que se concedió
+        assertThat(reservas.reservadoPorOtros("otro", List.of(7))).isEqualTo(Map.of(7, reservado));
+        // Con el stock agotado por reservas, nadie más puede reservar ni una unidad restante de más
+        assertThat(reservas.reservar("tarde", 7, STOCK - reservado + 1).reservado()).isFalse();
+    }
+
+    @Test
+    void elPropioCarritoNoCuentaComoReservadoPorOtros() {
+        when(indiceCatalogoService.stockDe(7)).thenReturn(STOCK);
+
+        assertThat(reservas.reservar("a", 7, 12).reservado()).isTrue();
+        ReservaStockService.ResultadoReserva deB = reservas.reservar("b", 7, 10);
+        assertThat(deB.reservado()).isFalse();
+        assertThat(deB.disponible()).isEqualTo(8);
+
+        // Ajustar la reserva propia reemplaza la cantidad anterior en lugar de sumarla
+        assertThat(reservas.reservar("a", 7, 15).reservado()).isTrue();
+        assertThat(reservas.reservadoPorOtros("a", List.of(7))).isEmpty();
+        assertThat(reservas.reservadoPorOtros("b", List.of(7))).isEqualTo(Map.of(7, 15));
+
+        reservas.liberar("a", 7);
+        assertThat(reservas.reservar("b", 7, STOCK).reservado()).isTrue();
+    }
+}
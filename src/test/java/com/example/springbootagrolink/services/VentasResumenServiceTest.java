@@ -0,0 +1,117 @@
+package com.example.springbootagrolink.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class VentasResumenServiceTest {
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private VentasResumenService ventasResumenService;
+
+    @Test
+    void rellenaConCeroLosDiasSinVentas() throws Exception {
+        acumulados("tb_ventas_productor_dia",
+                fila("2026-03-02", "15000", 3, 1),
+                fila("2026-03-04", "8000", 2, 2));
+
+        List<VentasResumenService.PuntoVentas> serie = ventasResumenService.serie(5,
+                LocalDate.parse("2026-03-01"), LocalDate.parse("2026-03-05"), VentasResumenService.Granularidad.DIA);
+
+        assertThat(serie).extracting(VentasResumenService.PuntoVentas::periodo).containsExactly(
+                LocalDate.parse("2026-03-01"), LocalDate.parse("2026-03-02"), LocalDate.parse("2026-03-03"),
+                LocalDate.parse("2026-03-04"), LocalDate.parse("2026-03-05"));
+        assertThat(serie).extracting(VentasResumenService.PuntoVentas::totalVentas).containsExactly(
+                BigDecimal.ZERO, new BigDecimal("15000"), BigDecimal.ZERO, new BigDecimal("8000"), BigDecimal.ZERO);
+        assertThat(serie.get(2).unidades()).isZero();
+        assertThat(serie.get(2).lineas()).isZero();
+    }
+
+    @Test
+    void agrupaLosDiasEnSemanasQueEmpiezanEnLunes() throws Exception {
+        acumulados("tb_ventas_productor_dia",
+                fila("2026-03-04", "10000", 2, 1),
+                fila("2026-03-06", "5000", 1, 1),
+                fila("2026-03-17", "7000", 4, 2));
+
+        // Del miércoles 4 al martes 17: la primera semana empieza el lunes 2
+        List<VentasResumenService.PuntoVentas> serie = ventasResumenService.serie(null,
+                LocalDate.parse("2026-03-04"), LocalDate.parse("2026-03-17"), VentasResumenService.Granularidad.SEMANA);
+
+        assertThat(serie).containsExactly(
+                new VentasResumenService.PuntoVentas(LocalDate.parse("2026-03-02"), new BigDecimal("15000"), 3, 2),
+                new VentasResumenService.PuntoVentas(LocalDate.parse("2026-03-09"), BigDecimal.ZERO, 0, 0),
+                new VentasResumenService.PuntoVentas(LocalDate.parse("2026-03-16"), new BigDecimal("7000"), 4, 2));
+    }
+
+    @Test
+    void losAniosSeArmanConLaTablaMensual() throws Exception {
+        acumulados("tb_ventas_productor_mes",
+                fila("2024-07-01", "1000", 1, 1),
+                fila("2024-11-01", "2000", 2, 1),
+                fila("2026-01-01", "500", 1, 1));
+
+        List<VentasResumenService.PuntoVentas> serie = ventasResumenService.serie(5,
+                LocalDate.parse("2024-06-15"), LocalDate.parse("2026-02-01"), VentasResumenService.Granularidad.ANIO);
+
+        assertThat(serie).containsExactly(
+                new VentasResumenService.PuntoVentas(LocalDate.parse("2024-01-01"), new BigDecimal("3000"), 3, 2),
+                new VentasResumenService.PuntoVentas(LocalDate.parse("2025-01-01"), BigDecimal.ZERO, 0, 0),
+                new VentasResumenService.PuntoVentas(LocalDate.parse("2026-01-01"), new BigDecimal("500"), 1, 1));
+    }
+
+    @Test
+    void rechazaRangosInvalidosSinConsultar() {
+        assertThatThrownBy(() -> ventasResumenService.serie(5, LocalDate.parse("2026-03-05"),
+                LocalDate.parse("2026-03-01"), VentasResumenService.Granularidad.DIA))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ventasResumenService.serie(5, LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2026-01-01"), VentasResumenService.Granularidad.SEMANA))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    // Filas acumuladas que devuelve la consulta sobre la tabla indicada
+    private void acumulados(String tabla, ResultSet... filas) {
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(2);
+            for (ResultSet fila : filas) {
+                handler.processRow(fila);
+            }
+            return null;
+        }).when(jdbcTemplate).query(contains("FROM " + tabla), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+    }
+
+    private static ResultSet fila(String periodo, String total, long unidades, long lineas) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getDate("periodo")).thenReturn(Date.valueOf(periodo));
+        when(rs.getBigDecimal("total")).thenReturn(new BigDecimal(total));
+        when(rs.getLong("unidades")).thenReturn(unidades);
+        when(rs.getLong("lineas")).thenReturn(lineas);
+        return rs;
+    }
+}